@@ -0,0 +1,106 @@
+package org.integratedmodelling.klabeditor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * End-to-end latency of bridge calls against a live editor at 1 KB, 1 MB and 50 MB, measured from a
+ * background thread until the page has applied each call. Prints the median, 90th percentile and maximum of
+ * each operation, in milliseconds.
+ * <p>
+ * Usage: {@code BridgeLatencyHarness [iterations] [sizes in bytes...]}; iterations default to 20 (5 for
+ * documents over 10 MB).
+ */
+public final class BridgeLatencyHarness {
+
+    private interface Operation {
+        void run(MonacoEditorView view, int iteration);
+    }
+
+    private BridgeLatencyHarness() {
+    }
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int[] sizes = args.length > 1
+                ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[]{1 << 10, 1 << 20, 50 << 20};
+        HeadlessFx.start();
+        // the first editor pays for loading the bundle: not part of any measurement
+        HeadlessFx.close(HeadlessFx.openEditor("", "java"));
+
+        System.out.printf(Locale.ROOT, "%-12s %-24s %10s %10s %10s%n", "size", "operation", "p50 ms", "p90 ms",
+                "max ms");
+        for (int size : sizes) {
+            String text = HeadlessFx.document(size);
+            int middle = text.indexOf('\n', text.length() / 2) + 1;
+            String edited = text.substring(0, middle) + "// edited\n" + text.substring(middle);
+            String upper = text.toUpperCase(Locale.ROOT);
+            List<Marker> markers = new ArrayList<>();
+            for (int line = 1; markers.size() < 1000; line += 3) {
+                markers.add(Marker.atLine(line, "Marker on line " + line, Marker.Severity.WARNING));
+            }
+            int n = size > 10 << 20 ? Math.max(1, iterations / 4) : iterations;
+
+            long[] load = new long[n];
+            MonacoEditorView view = null;
+            for (int i = 0; i < n; i++) {
+                if (view != null) HeadlessFx.close(view);
+                long start = System.nanoTime();
+                view = HeadlessFx.openEditor(text, "java");
+                load[i] = System.nanoTime() - start;
+            }
+            report(size, "open", load);
+
+            report(size, "type one character", measure(view, n, (v, i) -> {
+                v.replaceText(middle + i, 0, "x");
+                HeadlessFx.barrier(v);
+            }));
+            report(size, "setText (one line)", measure(view, n, (v, i) -> {
+                v.setText(i % 2 == 0 ? edited : text);
+                HeadlessFx.barrier(v);
+            }));
+            report(size, "setText (all lines)", measure(view, n, (v, i) -> {
+                v.setText(i % 2 == 0 ? upper : text);
+                HeadlessFx.barrier(v);
+            }));
+            report(size, "getText", measure(view, n, (v, i) -> v.getText()));
+            report(size, "getTextAsync", measure(view, n, (v, i) -> v.getTextAsync().join()));
+            report(size, "query round-trip", measure(view, n, (v, i) -> v.getSelectionAsync().join()));
+            report(size, "1000 markers", measure(view, n, (v, i) -> {
+                v.setMarkers("harness", i % 2 == 0 ? markers : markers.subList(0, 500));
+                HeadlessFx.barrier(v);
+            }));
+            HeadlessFx.close(view);
+        }
+        System.exit(0);
+    }
+
+    private static long[] measure(MonacoEditorView view, int n, Operation operation) {
+        // one untimed run to leave the state of the previous operation behind
+        operation.run(view, -1);
+        long[] ret = new long[n];
+        for (int i = 0; i < n; i++) {
+            long start = System.nanoTime();
+            operation.run(view, i);
+            ret[i] = System.nanoTime() - start;
+        }
+        return ret;
+    }
+
+    private static void report(int size, String operation, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf(Locale.ROOT, "%-12s %-24s %10.2f %10.2f %10.2f%n", sizeLabel(size), operation,
+                sorted[sorted.length / 2] / 1e6, sorted[Math.min(sorted.length - 1, sorted.length * 9 / 10)] / 1e6,
+                sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static String sizeLabel(int size) {
+        if (size >= 1 << 20) return (size >> 20) + " MB";
+        if (size >= 1 << 10) return (size >> 10) + " KB";
+        return size + " B";
+    }
+}
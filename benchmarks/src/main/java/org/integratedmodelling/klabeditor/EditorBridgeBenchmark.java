@@ -0,0 +1,92 @@
+package org.integratedmodelling.klabeditor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trips through a live editor: each operation is issued from a background thread, like an application
+ * would, and measured until the page has applied it (see {@link HeadlessFx#barrier}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EditorBridgeBenchmark {
+
+    @Param({"1024", "1048576"})
+    int size;
+
+    private MonacoEditorView view;
+    private String text;
+    private String edited;
+    private List<Marker> markers;
+    private boolean flip;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        text = HeadlessFx.document(size);
+        // same text with one line changed in the middle: setText sends a single small edit
+        int middle = text.indexOf('\n', text.length() / 2) + 1;
+        edited = text.substring(0, middle) + "// edited\n" + text.substring(middle);
+        view = HeadlessFx.openEditor(text, "java");
+        markers = new ArrayList<>();
+        TextDocument.Snapshot snapshot = view.getSnapshot();
+        for (int line = 1; line <= snapshot.getLineCount() && markers.size() < 1000; line += 3) {
+            markers.add(Marker.atLine(line, "Marker on line " + line, Marker.Severity.WARNING));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HeadlessFx.close(view);
+    }
+
+    @Benchmark
+    public int setTextDelta() {
+        flip = !flip;
+        view.setText(flip ? edited : text);
+        HeadlessFx.barrier(view);
+        return view.getModelVersion();
+    }
+
+    @Benchmark
+    public int setTextThenGetTextAsync() {
+        flip = !flip;
+        view.setText(flip ? edited : text);
+        return view.getTextAsync().join().length();
+    }
+
+    @Benchmark
+    public int getText() {
+        return view.getText().length();
+    }
+
+    @Benchmark
+    public Object query() {
+        return view.getSelectionAsync().join();
+    }
+
+    @Benchmark
+    public int setMarkers() {
+        view.setMarkers("benchmark", markers);
+        HeadlessFx.barrier(view);
+        return markers.size();
+    }
+}
@@ -0,0 +1,64 @@
+package org.integratedmodelling.klabeditor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Overhead of the command queue: a burst of calls submitted from a background thread until all of them
+ * have been turned into a script on the FX thread. The runner only counts characters, so what is measured
+ * is queuing, coalescing, the FX thread handoff and the script concatenation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsCommandQueueBenchmark {
+
+    @Param({"1", "100", "10000"})
+    int burst;
+
+    // with keys, every call of the burst supersedes the previous one, as repeated setText calls do
+    @Param({"false", "true"})
+    boolean coalesce;
+
+    private final LongAdder chars = new LongAdder();
+    private JsCommandQueue queue;
+
+    @Setup
+    public void setUp() {
+        HeadlessFx.start();
+        queue = new JsCommandQueue(script -> chars.add(script.length()), 1024);
+        queue.setReady(true);
+    }
+
+    @Benchmark
+    public long submitAndFlush() {
+        for (int i = 0; i < burst; i++) {
+            String script = "window.MonacoBridge && window.MonacoBridge.setLineNumbers(" + (i % 2 == 0) + ");";
+            queue.submit(coalesce ? "lineNumbers" : null, script);
+        }
+        // runs after everything submitted before it
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        queue.submit(null, () -> {
+            done.complete(null);
+            return null;
+        });
+        done.join();
+        return chars.sum();
+    }
+}
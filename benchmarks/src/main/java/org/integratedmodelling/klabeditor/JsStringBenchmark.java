@@ -0,0 +1,64 @@
+package org.integratedmodelling.klabeditor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of strings as JS literals, as done for every string crossing the bridge in a script: source code
+ * (few escapes), text dense in quotes, backslashes and line breaks, and non-ASCII text.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsStringBenchmark {
+
+    @Param({"1024", "1048576"})
+    int size;
+
+    @Param({"source", "escapes", "unicode"})
+    String content;
+
+    private String text;
+    private final StringBuilder buffer = new StringBuilder();
+
+    @Setup
+    public void setUp() {
+        text = switch (content) {
+            case "escapes" -> repeat("\"a\\b\"\r\n\t</x>", size);
+            case "unicode" -> repeat("Größe – ε ≤ 10⁻³ 🙂 ", size);
+            default -> HeadlessFx.document(size);
+        };
+    }
+
+    @Benchmark
+    public String quote() {
+        return JsString.quote(text);
+    }
+
+    @Benchmark
+    public int quoteIntoBuffer() {
+        buffer.setLength(0);
+        JsString.quote(text, buffer);
+        return buffer.length();
+    }
+
+    private static String repeat(String unit, int size) {
+        StringBuilder sb = new StringBuilder(size + unit.length());
+        while (sb.length() < size) sb.append(unit);
+        return sb.substring(0, size);
+    }
+}
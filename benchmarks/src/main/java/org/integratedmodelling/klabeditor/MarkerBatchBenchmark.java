@@ -0,0 +1,61 @@
+package org.integratedmodelling.klabeditor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java side of posting a batch of diagnostics: resolving their offsets against the mirror and encoding the
+ * batch into the flat array sent in one script.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarkerBatchBenchmark {
+
+    @Param({"100", "10000"})
+    int count;
+
+    private TextDocument.Snapshot snapshot;
+    private int[] offsets;
+    private List<Marker> markers;
+
+    @Setup
+    public void setUp() {
+        snapshot = new TextDocument(HeadlessFx.document(1 << 20)).snapshot();
+        offsets = new int[count];
+        int step = Math.max(1, (snapshot.getLength() - 16) / count);
+        for (int i = 0; i < count; i++) offsets[i] = i * step;
+        markers = resolve();
+    }
+
+    @Benchmark
+    public List<Marker> resolve() {
+        List<Marker> ret = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ret.add(Marker.atOffset(snapshot, offsets[i], 8, "Unused variable \"x" + i + "\"",
+                    Marker.Severity.WARNING));
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public String encode() {
+        return MonacoEditorView.encodeMarkers(markers);
+    }
+}
@@ -8,6 +8,10 @@ module org.integratedmodelling.klabeditor {
     requires javafx.graphics;
     requires java.desktop;
     requires jdk.httpserver;
+    requires java.management;
+    requires jdk.jfr;
+
+    provides java.net.spi.URLStreamHandlerProvider with org.integratedmodelling.klabeditor.MonacoUrlHandlerProvider;
 
     opens org.integratedmodelling.klabeditor to javafx.fxml;
     exports org.integratedmodelling.klabeditor;
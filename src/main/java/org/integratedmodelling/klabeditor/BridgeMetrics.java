@@ -0,0 +1,349 @@
+package org.integratedmodelling.klabeditor;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Instrumentation of the bridge of one {@link MonacoEditorView}: calls into JS by bridge method with their
+ * script sizes, how long calls wait in the command queue before their script runs, how long script
+ * executions take, and how long JS waits on each Java callback. Recording costs a few uncontended adds per
+ * call and is always on; a {@link #snapshot()} is taken with {@link MonacoEditorView#getMetrics()}.
+ * <p>
+ * The same counters are published over JMX while the view is attached, as
+ * {@code org.integratedmodelling.klabeditor:type=MonacoEditorView,name=editor-<n>}, and each call, script
+ * execution and callback is also a JFR event ({@code klab.monaco.*}, in the "k.LAB / Monaco" category),
+ * recorded whenever a flight recording is running (e.g. {@code jcmd <pid> JFR.start}), so that UI stalls can
+ * be correlated with GC and rendering in production recordings. Without a recording, events cost nothing.
+ */
+public final class BridgeMetrics {
+
+    /**
+     * Count, total and maximum of a measured duration, in nanoseconds.
+     */
+    public record Timing(long count, long totalNanos, long maxNanos) {
+
+        public static final Timing NONE = new Timing(0, 0, 0);
+
+        public double meanMillis() {
+            return count == 0 ? 0 : totalNanos / 1e6 / count;
+        }
+
+        public double maxMillis() {
+            return maxNanos / 1e6;
+        }
+    }
+
+    /**
+     * Calls of one bridge method and the characters of script they took.
+     */
+    public record Calls(long count, long chars) {}
+
+    /**
+     * Metrics at one point in time. Maps are sorted by name.
+     *
+     * @param calls           calls into JS by the first bridge method each command invokes
+     * @param queueWait       time from submission of a call to the start of the flush that runs it
+     * @param jsExecution     script executions, each running a batch of calls
+     * @param jsFailures      script executions that threw
+     * @param callbacks       time spent in Java callbacks from JS, by callback, during which the page waits
+     * @param queryRoundTrip  time from issuing a query to its answer from the page
+     * @param queue           counters of the command queue
+     */
+    public record Snapshot(Map<String, Calls> calls, Timing queueWait, Timing jsExecution, long jsFailures,
+                           Map<String, Timing> callbacks, Timing queryRoundTrip,
+                           JsCommandQueue.Statistics queue) {}
+
+    private static final String DOMAIN = "org.integratedmodelling.klabeditor";
+    private static final String BRIDGE_PREFIX = "window.MonacoBridge.";
+
+    private final Map<String, CallCounter> calls = new ConcurrentHashMap<>();
+    private final Timer queueWait = new Timer();
+    private final Timer jsExecution = new Timer();
+    private final LongAdder jsFailures = new LongAdder();
+    private final Map<String, Timer> callbacks = new ConcurrentHashMap<>();
+    private final Timer queryRoundTrip = new Timer();
+    private final Supplier<JsCommandQueue.Statistics> queueStatistics;
+    private ObjectName registered;
+
+    BridgeMetrics(Supplier<JsCommandQueue.Statistics> queueStatistics) {
+        this.queueStatistics = queueStatistics;
+    }
+
+    public Snapshot snapshot() {
+        SortedMap<String, Calls> c = new TreeMap<>();
+        calls.forEach((method, counter) -> c.put(method, new Calls(counter.count.sum(), counter.chars.sum())));
+        SortedMap<String, Timing> cb = new TreeMap<>();
+        callbacks.forEach((name, timer) -> cb.put(name, timer.timing()));
+        return new Snapshot(Collections.unmodifiableSortedMap(c), queueWait.timing(), jsExecution.timing(),
+                jsFailures.sum(), Collections.unmodifiableSortedMap(cb), queryRoundTrip.timing(), queueStatistics.get());
+    }
+
+    // -------------- recording, called by the view and its command queue --------------
+
+    // A command's script is about to run, after waiting since it was submitted
+    void call(String script, long waitNanos) {
+        String method = method(script);
+        calls.computeIfAbsent(method, m -> new CallCounter()).add(script.length());
+        queueWait.record(waitNanos);
+        BridgeCallEvent event = new BridgeCallEvent();
+        if (event.isEnabled()) {
+            event.method = method;
+            event.chars = script.length();
+            event.queueWait = waitNanos;
+            event.commit();
+        }
+    }
+
+    // Script executions and callbacks are timed from the start of their event, which spans them in recordings
+    ScriptExecutionEvent scriptStarted() {
+        ScriptExecutionEvent event = new ScriptExecutionEvent();
+        event.startNanos = System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+    void scriptEnded(ScriptExecutionEvent event, int chars, boolean failed) {
+        event.end();
+        jsExecution.record(System.nanoTime() - event.startNanos);
+        if (failed) jsFailures.increment();
+        if (event.shouldCommit()) {
+            event.chars = chars;
+            event.failed = failed;
+            event.commit();
+        }
+    }
+
+    CallbackEvent callbackStarted(String name) {
+        CallbackEvent event = new CallbackEvent();
+        event.callback = name;
+        event.startNanos = System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+    void callbackEnded(CallbackEvent event) {
+        event.end();
+        callbacks.computeIfAbsent(event.callback, n -> new Timer()).record(System.nanoTime() - event.startNanos);
+        if (event.shouldCommit()) event.commit();
+    }
+
+    void queryAnswered(long startNanos) {
+        queryRoundTrip.record(System.nanoTime() - startNanos);
+    }
+
+    // Name of the first bridge method the script calls, e.g. "applyEdits"
+    static String method(String script) {
+        int start = script.indexOf(BRIDGE_PREFIX);
+        if (start < 0) return "other";
+        start += BRIDGE_PREFIX.length();
+        int end = start;
+        while (end < script.length() && Character.isJavaIdentifierPart(script.charAt(end))) end++;
+        return end == start ? "other" : script.substring(start, end);
+    }
+
+    // -------------- JMX --------------
+
+    synchronized void register(String name) {
+        if (registered != null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=MonacoEditorView,name=" + name);
+            try {
+                server.registerMBean(new MXBean(), objectName);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(objectName);
+                server.registerMBean(new MXBean(), objectName);
+            }
+            registered = objectName;
+        } catch (JMException | SecurityException e) {
+            System.err.println("[BridgeMetrics] JMX registration failed: " + e);
+        }
+    }
+
+    synchronized void unregister() {
+        if (registered == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+        } catch (InstanceNotFoundException ignored) {
+            // unregistered by someone else
+        } catch (JMException | SecurityException e) {
+            System.err.println("[BridgeMetrics] JMX unregistration failed: " + e);
+        }
+        registered = null;
+    }
+
+    private final class MXBean implements BridgeMetricsMXBean {
+
+        @Override
+        public Map<String, Long> getCallCounts() {
+            Map<String, Long> ret = new TreeMap<>();
+            calls.forEach((method, counter) -> ret.put(method, counter.count.sum()));
+            return ret;
+        }
+
+        @Override
+        public Map<String, Long> getCallChars() {
+            Map<String, Long> ret = new TreeMap<>();
+            calls.forEach((method, counter) -> ret.put(method, counter.chars.sum()));
+            return ret;
+        }
+
+        @Override
+        public long getScriptExecutions() {
+            return jsExecution.count.sum();
+        }
+
+        @Override
+        public long getScriptFailures() {
+            return jsFailures.sum();
+        }
+
+        @Override
+        public double getMeanScriptMillis() {
+            return jsExecution.timing().meanMillis();
+        }
+
+        @Override
+        public double getMaxScriptMillis() {
+            return jsExecution.timing().maxMillis();
+        }
+
+        @Override
+        public double getMeanQueueWaitMillis() {
+            return queueWait.timing().meanMillis();
+        }
+
+        @Override
+        public double getMaxQueueWaitMillis() {
+            return queueWait.timing().maxMillis();
+        }
+
+        @Override
+        public Map<String, Double> getMeanCallbackMillis() {
+            Map<String, Double> ret = new TreeMap<>();
+            callbacks.forEach((name, timer) -> ret.put(name, timer.timing().meanMillis()));
+            return ret;
+        }
+
+        @Override
+        public Map<String, Double> getMaxCallbackMillis() {
+            Map<String, Double> ret = new TreeMap<>();
+            callbacks.forEach((name, timer) -> ret.put(name, timer.timing().maxMillis()));
+            return ret;
+        }
+
+        @Override
+        public double getMeanQueryRoundTripMillis() {
+            return queryRoundTrip.timing().meanMillis();
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return queueStatistics.get().depth();
+        }
+
+        @Override
+        public int getMaxQueueDepth() {
+            return queueStatistics.get().maxDepth();
+        }
+
+        @Override
+        public long getCoalescedCalls() {
+            return queueStatistics.get().coalesced();
+        }
+    }
+
+    // -------------- counters --------------
+
+    private static final class CallCounter {
+        final LongAdder count = new LongAdder();
+        final LongAdder chars = new LongAdder();
+
+        void add(int length) {
+            count.increment();
+            chars.add(length);
+        }
+    }
+
+    private static final class Timer {
+        final LongAdder count = new LongAdder();
+        final LongAdder total = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        Timing timing() {
+            long n = count.sum();
+            return n == 0 ? Timing.NONE : new Timing(n, total.sum(), max.get());
+        }
+    }
+
+    // -------------- JFR events --------------
+
+    @Name("klab.monaco.BridgeCall")
+    @Label("Monaco Bridge Call")
+    @Description("A call into the Monaco page, when its script is run")
+    @Category({"k.LAB", "Monaco"})
+    @StackTrace(false)
+    static final class BridgeCallEvent extends Event {
+        @Label("Method")
+        String method;
+        @Label("Script Characters")
+        @Description("Length of the script in UTF-16 characters")
+        long chars;
+        @Label("Queue Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        long queueWait;
+    }
+
+    @Name("klab.monaco.ScriptExecution")
+    @Label("Monaco Script Execution")
+    @Description("One executeScript running a batch of bridge calls on the FX thread")
+    @Category({"k.LAB", "Monaco"})
+    @StackTrace(false)
+    static final class ScriptExecutionEvent extends Event {
+        @Label("Script Characters")
+        @Description("Length of the script in UTF-16 characters")
+        long chars;
+        @Label("Failed")
+        boolean failed;
+        // not recorded
+        transient long startNanos;
+    }
+
+    @Name("klab.monaco.Callback")
+    @Label("Monaco Callback")
+    @Description("A callback from the Monaco page into Java, during which the page waits")
+    @Category({"k.LAB", "Monaco"})
+    @StackTrace(false)
+    static final class CallbackEvent extends Event {
+        @Label("Callback")
+        String callback;
+        // not recorded
+        transient long startNanos;
+    }
+}
@@ -0,0 +1,38 @@
+package org.integratedmodelling.klabeditor;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link BridgeMetrics} of an attached {@link MonacoEditorView}. Times are in milliseconds,
+ * maps are keyed by bridge method or callback name.
+ */
+public interface BridgeMetricsMXBean {
+
+    Map<String, Long> getCallCounts();
+
+    Map<String, Long> getCallChars();
+
+    long getScriptExecutions();
+
+    long getScriptFailures();
+
+    double getMeanScriptMillis();
+
+    double getMaxScriptMillis();
+
+    double getMeanQueueWaitMillis();
+
+    double getMaxQueueWaitMillis();
+
+    Map<String, Double> getMeanCallbackMillis();
+
+    Map<String, Double> getMaxCallbackMillis();
+
+    double getMeanQueryRoundTripMillis();
+
+    int getQueueDepth();
+
+    int getMaxQueueDepth();
+
+    long getCoalescedCalls();
+}
@@ -0,0 +1,73 @@
+package org.integratedmodelling.klabeditor;
+
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Completion items computed in Java for a language, registered with
+ * {@link MonacoEditorView#registerCompletionProvider(String, CompletionProvider)}. See {@link PrefixIndex}
+ * for a provider over a large fixed vocabulary.
+ */
+@FunctionalInterface
+public interface CompletionProvider {
+
+    /**
+     * Where completion was requested: the position (1-based, Monaco conventions) in a snapshot of the
+     * document, and the part of the word before it, which the items replace.
+     */
+    record Context(String uri, TextDocument.Snapshot snapshot, int lineNumber, int column, String prefix,
+                   BooleanSupplier cancellation) {
+
+        /**
+         * True once the user has typed on or the suggestion widget was closed; the result is discarded then.
+         */
+        public boolean isCancelled() {
+            return cancellation.getAsBoolean();
+        }
+    }
+
+    /**
+     * A completion item. {@code kind} is the name of a Monaco {@code CompletionItemKind} ("Class",
+     * "Keyword"...), Text when null; {@code insertText} defaults to the label.
+     */
+    record Item(String label, String kind, String detail, String documentation, String insertText) {
+
+        public Item {
+            if (label == null) throw new IllegalArgumentException("label");
+        }
+
+        public static Item of(String label, String kind) {
+            return new Item(label, kind, null, null, null);
+        }
+    }
+
+    /**
+     * Items in order of relevance. An incomplete result is requested again as the user keeps typing,
+     * instead of being filtered by the editor.
+     */
+    record Result(List<Item> items, boolean incomplete) {
+
+        public static final Result EMPTY = new Result(List.of(), false);
+    }
+
+    /**
+     * Called on a virtual thread, or on the FX thread if {@link #isNonBlocking()}.
+     */
+    Result complete(Context context) throws Exception;
+
+    /**
+     * Whether {@link #complete(Context)} answers within a fraction of a millisecond and never blocks, such as
+     * a lookup in an in-memory index. It is then called on the FX thread, and its result is shown without a
+     * round trip through the command queue.
+     */
+    default boolean isNonBlocking() {
+        return false;
+    }
+
+    /**
+     * Characters that open the suggestion widget when typed.
+     */
+    default List<String> getTriggerCharacters() {
+        return List.of();
+    }
+}
@@ -118,6 +118,7 @@ public class DebugWebView extends StackPane {
         || v.startsWith("https://")
         || v.startsWith("file:/")
         || v.startsWith("jar:")
+        || v.startsWith(MonacoUrlHandlerProvider.PROTOCOL + ":")
         || v.startsWith("mailto:")
         || v.startsWith("ftp://")
         || v.startsWith("data:");
@@ -178,22 +179,23 @@ public class DebugWebView extends StackPane {
     }
   }
 
-  // If the URL points to the classpath Monaco folder (either as jar:...!/... or file:/...),
+  // If the URL points to the classpath Monaco folder (either as jar:...!/..., file:/... or klab-monaco:),
   // remap it so the system browser fetches from our local HTTP server, which preserves same-origin
   // and allows Monaco web workers to load. Otherwise, return the original URL.
   private static String remapIfMonacoClasspath(String url) {
     if (url == null) return null;
     String u = url;
 
-    // Only handle jar: and file: URLs
+    // Only handle jar:, file: and klab-monaco: URLs
     String lower = u.toLowerCase(Locale.ROOT);
     boolean jar = lower.startsWith("jar:");
     boolean file = lower.startsWith("file:");
-    if (!jar && !file) return url;
+    boolean handler = lower.startsWith(MonacoUrlHandlerProvider.BASE);
+    if (!jar && !file && !handler) return url;
 
     // Normalize to the internal path segment after the resource root
     // Resource root as used by MonacoEditorView
-    final String marker = "/org/integratedmodelling/klabeditor/monaco/";
+    final String marker = handler ? MonacoUrlHandlerProvider.BASE : "/org/integratedmodelling/klabeditor/monaco/";
     int idx = u.indexOf(marker);
     if (idx < 0) {
       return url; // Not our classpath folder
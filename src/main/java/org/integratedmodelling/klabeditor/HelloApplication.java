@@ -5,6 +5,12 @@ import javafx.scene.Scene;
 import javafx.stage.Stage;
 
 public class HelloApplication extends Application {
+    @Override
+    public void init() {
+        // Start loading Monaco while the stage is being built
+        MonacoRuntime.prewarm("java");
+    }
+
     @Override
     public void start(Stage stage) {
         // Create the Monaco editor view and load demo code from a Java string
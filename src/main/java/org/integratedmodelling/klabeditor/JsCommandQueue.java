@@ -0,0 +1,241 @@
+package org.integratedmodelling.klabeditor;
+
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Queue of JavaScript commands for one WebEngine. Commands submitted from any thread are drained on the
+ * FX thread by a single scheduled task and concatenated into one script execution, so a burst of API calls
+ * costs one {@code Platform.runLater} and one {@code executeScript} instead of one per call.
+ * <p>
+ * A command may carry a coalescing key: submitting a command with the key of one still pending drops the
+ * older one (e.g. repeated {@code setText} or {@code setLineNumbers} calls, or marker batches for the same
+ * owner), and the new command takes its place at the end of the queue. Scripts are produced lazily, on the
+ * FX thread, at flush time, which lets commands compute deltas against the state they will actually be
+ * applied to.
+ * <p>
+ * Until {@link #setReady(boolean) ready} (page loaded), commands are only accumulated. Once ready, the queue
+ * is bounded: submitters off the FX thread wait while it is full, for a limited time after which the command
+ * is rejected with an {@link IllegalStateException}, and the FX thread flushes inline instead. Commands with a
+ * key never wait: there is at most one pending per key, so they cannot grow the queue without bound, and a
+ * submitter holding a lock the FX thread needs must not wait for the FX thread.
+ */
+public final class JsCommandQueue {
+
+    /**
+     * Queue counters. {@code coalesced} counts commands dropped because a newer one with the same key
+     * superseded them, {@code rejected} those refused because the queue stayed full.
+     */
+    public record Statistics(int depth, int maxDepth, long submitted, long coalesced, long flushes,
+                             long executed, long rejected) {}
+
+    // Time a submitter off the FX thread waits for room in a full queue before its command is rejected
+    static final long SUBMIT_TIMEOUT_MILLIS = 5_000;
+
+    private record Command(Object key, Supplier<String> script, long submitted) {}
+
+    private final Consumer<String> runner;
+    private final int capacity;
+    private final BridgeMetrics metrics;
+    private final long submitTimeoutNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final LinkedHashMap<Object, Command> pending = new LinkedHashMap<>();
+
+    private boolean ready;
+    private boolean flushScheduled;
+    private int maxDepth;
+    private long submitted;
+    private long coalesced;
+    private long flushes;
+    private long executed;
+    private long rejected;
+
+    /**
+     * @param runner   executes the combined script; called on the FX thread
+     * @param capacity number of pending commands above which submitters are throttled
+     */
+    JsCommandQueue(Consumer<String> runner, int capacity) {
+        this(runner, capacity, null);
+    }
+
+    /**
+     * @param metrics records every command run, with the time it waited in the queue; may be null
+     */
+    JsCommandQueue(Consumer<String> runner, int capacity, BridgeMetrics metrics) {
+        this(runner, capacity, metrics, SUBMIT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param submitTimeoutMillis time a submitter off the FX thread waits for room in a full queue
+     */
+    JsCommandQueue(Consumer<String> runner, int capacity, BridgeMetrics metrics, long submitTimeoutMillis) {
+        this.runner = runner;
+        this.capacity = capacity;
+        this.metrics = metrics;
+        this.submitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(submitTimeoutMillis);
+    }
+
+    void submit(String script) {
+        submit(null, () -> script);
+    }
+
+    void submit(String key, String script) {
+        submit(key, () -> script);
+    }
+
+    /**
+     * Queue a command. The supplier runs on the FX thread right before execution and may return null to
+     * contribute nothing.
+     *
+     * @throws IllegalStateException if the command has no key and the queue stayed full for the submit
+     *                               timeout
+     */
+    void submit(String key, Supplier<String> script) {
+        enqueue(key, script, false);
+    }
+
+    /**
+     * Queue a command ahead of everything pending, e.g. the editor initialization that must precede calls
+     * made before the page was loaded.
+     */
+    void submitFirst(String key, Supplier<String> script) {
+        enqueue(key, script, true);
+    }
+
+    private void enqueue(String key, Supplier<String> script, boolean first) {
+        boolean fxThread = Platform.isFxApplicationThread();
+        boolean flushNow = false;
+        lock.lock();
+        try {
+            long wait = submitTimeoutNanos;
+            while (ready && !fxThread && key == null && pending.size() >= capacity) {
+                if (wait <= 0) {
+                    rejected++;
+                    throw new IllegalStateException("JavaScript command queue still full after "
+                            + TimeUnit.NANOSECONDS.toMillis(submitTimeoutNanos) + " ms, depth " + pending.size());
+                }
+                try {
+                    wait = notFull.awaitNanos(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            Object k = key == null ? new Object() : key;
+            if (pending.remove(k) != null) coalesced++;
+            Command command = new Command(k, script, System.nanoTime());
+            if (first && !pending.isEmpty()) {
+                List<Command> rest = new ArrayList<>(pending.values());
+                pending.clear();
+                pending.put(k, command);
+                for (Command c : rest) pending.put(c.key(), c);
+            } else {
+                pending.put(k, command);
+            }
+            submitted++;
+            maxDepth = Math.max(maxDepth, pending.size());
+            if (ready) {
+                if (fxThread && pending.size() >= capacity) {
+                    flushNow = true;
+                } else if (!flushScheduled) {
+                    flushScheduled = true;
+                    Platform.runLater(this::flush);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (flushNow) flush();
+    }
+
+    /**
+     * Start (or stop) executing commands. Commands submitted while not ready are kept and run, in order, on
+     * the first flush after becoming ready.
+     */
+    void setReady(boolean ready) {
+        lock.lock();
+        try {
+            this.ready = ready;
+            if (ready && !pending.isEmpty() && !flushScheduled) {
+                flushScheduled = true;
+                Platform.runLater(this::flush);
+            }
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isReady() {
+        lock.lock();
+        try {
+            return ready;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Run all pending commands as a single script. Must be called on the FX thread; a no-op when not ready.
+     */
+    void flush() {
+        List<Command> batch;
+        lock.lock();
+        try {
+            flushScheduled = false;
+            if (!ready || pending.isEmpty()) return;
+            batch = new ArrayList<>(pending.values());
+            pending.clear();
+            flushes++;
+            executed += batch.size();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        long start = System.nanoTime();
+        StringBuilder script = new StringBuilder();
+        for (Command command : batch) {
+            String js;
+            try {
+                js = command.script().get();
+            } catch (Throwable t) {
+                System.err.println("[JsCommandQueue] command failed: " + t.getMessage());
+                continue;
+            }
+            if (js == null || js.isEmpty()) continue;
+            if (metrics != null) metrics.call(js, start - command.submitted());
+            // isolate commands so that one failure does not abort the rest of the batch
+            script.append("try{").append(js).append("}catch(e){console.error(e);}\n");
+        }
+        if (!script.isEmpty()) runner.accept(script.toString());
+    }
+
+    int getDepth() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Statistics getStatistics() {
+        lock.lock();
+        try {
+            return new Statistics(pending.size(), maxDepth, submitted, coalesced, flushes, executed, rejected);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
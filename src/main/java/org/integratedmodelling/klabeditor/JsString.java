@@ -0,0 +1,95 @@
+package org.integratedmodelling.klabeditor;
+
+/**
+ * Encoder of Java strings as JavaScript string literals for the scripts sent to the WebEngine. Any string,
+ * including binary-ish content with control characters and unpaired surrogates, comes out of JS unchanged.
+ * Besides quotes, backslashes and control characters, U+2028 and U+2029 (line terminators in older engines),
+ * lone surrogates and the {@code <} of {@code </} and {@code <!} (which end or comment a script element when
+ * the literal is inlined in HTML) are escaped.
+ * <p>
+ * The string is scanned once: runs of characters that need no escaping are copied in bulk, and a string
+ * that needs none at all is quoted with a single copy.
+ */
+final class JsString {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private JsString() {
+    }
+
+    /**
+     * The literal for {@code s}, or {@code null} for null.
+     */
+    static String quote(String s) {
+        if (s == null) return "null";
+        int first = firstEscape(s, 0);
+        if (first < 0) return "\"" + s + "\"";
+        StringBuilder sb = new StringBuilder(s.length() + 2 + Math.max(16, s.length() >> 4));
+        encode(s, first, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Append the literal for {@code s}, or {@code null} for null, to {@code sb}.
+     */
+    static void quote(String s, StringBuilder sb) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        int first = firstEscape(s, 0);
+        if (first < 0) {
+            sb.ensureCapacity(sb.length() + s.length() + 2);
+            sb.append('"').append(s).append('"');
+        } else {
+            encode(s, first, sb);
+        }
+    }
+
+    private static void encode(String s, int first, StringBuilder sb) {
+        sb.append('"');
+        int run = 0;
+        for (int i = first; i >= 0; i = firstEscape(s, run)) {
+            sb.append(s, run, i);
+            escape(s.charAt(i), sb);
+            run = i + 1;
+        }
+        sb.append(s, run, s.length()).append('"');
+    }
+
+    // Index of the first character at or after from that must be escaped, -1 if none
+    private static int firstEscape(String s, int from) {
+        for (int i = from, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c < 0x7f) {
+                if (c == '"' || c == '\\') return i;
+                if (c == '<' && i + 1 < n && (s.charAt(i + 1) == '/' || s.charAt(i + 1) == '!')) return i;
+            } else if (c < 0x20 || c == 0x7f || c == '\u2028' || c == '\u2029') {
+                return i;
+            } else if (Character.isHighSurrogate(c)) {
+                if (i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    i++;
+                } else {
+                    return i;
+                }
+            } else if (Character.isLowSurrogate(c)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void escape(char c, StringBuilder sb) {
+        switch (c) {
+            case '"' -> sb.append("\\\"");
+            case '\\' -> sb.append("\\\\");
+            case '\n' -> sb.append("\\n");
+            case '\r' -> sb.append("\\r");
+            case '\t' -> sb.append("\\t");
+            case '\b' -> sb.append("\\b");
+            case '\f' -> sb.append("\\f");
+            default -> sb.append("\\u").append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xf])
+                         .append(HEX[(c >> 4) & 0xf]).append(HEX[c & 0xf]);
+        }
+    }
+}
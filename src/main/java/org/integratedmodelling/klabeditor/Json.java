@@ -0,0 +1,275 @@
+package org.integratedmodelling.klabeditor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader and writer for the JSON-RPC traffic of the language server bridge. Objects are read as
+ * {@code LinkedHashMap<String, Object>}, arrays as {@code ArrayList<Object>}, integral numbers as
+ * {@code Long} and other numbers as {@code Double}; the same types (plus any {@code Map}, {@code List},
+ * {@code Number} or {@code Boolean}) are written back.
+ */
+final class Json {
+
+    private Json() {
+    }
+
+    static Object parse(String text) {
+        Reader reader = new Reader(text);
+        reader.skipWhitespace();
+        Object ret = reader.value();
+        reader.skipWhitespace();
+        if (reader.pos < text.length()) throw reader.error("trailing characters");
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> parseObject(String text) {
+        Object ret = parse(text);
+        if (!(ret instanceof Map)) throw new IllegalArgumentException("JSON object expected");
+        return (Map<String, Object>) ret;
+    }
+
+    static String write(Object value) {
+        StringBuilder sb = new StringBuilder();
+        write(value, sb);
+        return sb.toString();
+    }
+
+    static void write(Object value, StringBuilder sb) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof String s) {
+            quote(s, sb);
+        } else if (value instanceof Map<?, ?> map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                if (!first) sb.append(',');
+                first = false;
+                quote(String.valueOf(e.getKey()), sb);
+                sb.append(':');
+                write(e.getValue(), sb);
+            }
+            sb.append('}');
+        } else if (value instanceof List<?> list) {
+            sb.append('[');
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) sb.append(',');
+                write(list.get(i), sb);
+            }
+            sb.append(']');
+        } else if (value instanceof Double d && (d.isNaN() || d.isInfinite())) {
+            sb.append("null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else {
+            quote(value.toString(), sb);
+        }
+    }
+
+    static void quote(String s, StringBuilder sb) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                case '\b' -> sb.append("\\b");
+                case '\f' -> sb.append("\\f");
+                default -> {
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    // Convenience accessors for navigating parsed messages; all return null on a missing or mistyped value
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> object(Object container, String key) {
+        Object v = container instanceof Map<?, ?> m ? m.get(key) : null;
+        return v instanceof Map ? (Map<String, Object>) v : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Object> array(Object container, String key) {
+        Object v = container instanceof Map<?, ?> m ? m.get(key) : null;
+        return v instanceof List ? (List<Object>) v : null;
+    }
+
+    static String string(Object container, String key) {
+        Object v = container instanceof Map<?, ?> m ? m.get(key) : null;
+        return v instanceof String s ? s : null;
+    }
+
+    static int integer(Object container, String key, int defaultValue) {
+        Object v = container instanceof Map<?, ?> m ? m.get(key) : null;
+        return v instanceof Number n ? n.intValue() : defaultValue;
+    }
+
+    private static final class Reader {
+        final String text;
+        int pos;
+
+        Reader(String text) {
+            this.text = text;
+        }
+
+        Object value() {
+            if (pos >= text.length()) throw error("unexpected end");
+            char c = text.charAt(pos);
+            return switch (c) {
+                case '{' -> object();
+                case '[' -> array();
+                case '"' -> string();
+                case 't' -> literal("true", Boolean.TRUE);
+                case 'f' -> literal("false", Boolean.FALSE);
+                case 'n' -> literal("null", null);
+                default -> number();
+            };
+        }
+
+        Map<String, Object> object() {
+            Map<String, Object> ret = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return ret;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') throw error("property name expected");
+                String key = string();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                ret.put(key, value());
+                skipWhitespace();
+                char c = next();
+                if (c == '}') return ret;
+                if (c != ',') throw error("',' or '}' expected");
+            }
+        }
+
+        List<Object> array() {
+            List<Object> ret = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return ret;
+            }
+            while (true) {
+                skipWhitespace();
+                ret.add(value());
+                skipWhitespace();
+                char c = next();
+                if (c == ']') return ret;
+                if (c != ',') throw error("',' or ']' expected");
+            }
+        }
+
+        String string() {
+            pos++;
+            int start = pos;
+            // fast path: no escapes
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+                if (c == '"') return text.substring(start, pos++);
+                if (c == '\\') break;
+                pos++;
+            }
+            StringBuilder sb = new StringBuilder(text.substring(start, pos));
+            while (true) {
+                char c = next();
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char e = next();
+                switch (e) {
+                    case '"', '\\', '/' -> sb.append(e);
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'u' -> {
+                        if (pos + 4 > text.length()) throw error("bad unicode escape");
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                    }
+                    default -> throw error("bad escape");
+                }
+            }
+        }
+
+        Object number() {
+            int start = pos;
+            boolean integral = true;
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+                if (c == '.' || c == 'e' || c == 'E') {
+                    integral = false;
+                } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                    break;
+                }
+                pos++;
+            }
+            String n = text.substring(start, pos);
+            if (n.isEmpty()) throw error("value expected");
+            try {
+                if (integral && n.length() < 19) return Long.parseLong(n);
+                return Double.parseDouble(n);
+            } catch (NumberFormatException e) {
+                throw error("bad number");
+            }
+        }
+
+        Object literal(String word, Object value) {
+            if (!text.startsWith(word, pos)) throw error("value expected");
+            pos += word.length();
+            return value;
+        }
+
+        void skipWhitespace() {
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') break;
+                pos++;
+            }
+        }
+
+        char peek() {
+            if (pos >= text.length()) throw error("unexpected end");
+            return text.charAt(pos);
+        }
+
+        char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        void expect(char c) {
+            if (next() != c) throw error("'" + c + "' expected");
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Invalid JSON at " + pos + ": " + message);
+        }
+    }
+}
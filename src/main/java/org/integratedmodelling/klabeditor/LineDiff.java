@@ -0,0 +1,359 @@
+package org.integratedmodelling.klabeditor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Line diff of two texts, in the form Monaco's diff editor shows it: ranges of lines of the original
+ * replaced by ranges of lines of the modified text. Lines are interned to integer ids, so that the diff
+ * compares ints, and the common prefix and suffix are stripped; what remains is diffed with Myers'
+ * algorithm, bisecting on the middle snake so that memory stays linear.
+ * <p>
+ * Above {@link #PARALLEL_LINES} lines, the lines that occur exactly once on each side, taken in the longest
+ * order they share (the anchors of patience diff), split the texts into pieces that are diffed
+ * independently on the common fork-join pool; interning is parallel too. Pieces that would cost more than
+ * {@link #MAX_COST} edits are reported as replaced as a whole, and the result says so.
+ */
+public final class LineDiff {
+
+    /**
+     * Lines {@code [originalStart, originalEnd)} of the original replaced by lines
+     * {@code [modifiedStart, modifiedEnd)} of the modified text, 1-based. An empty range is an insertion or a
+     * deletion before its start line.
+     */
+    public record Change(int originalStart, int originalEnd, int modifiedStart, int modifiedEnd) {}
+
+    /**
+     * @param quitEarly whether some changes are coarser than the minimal diff, because finding it cost too
+     *                  much
+     */
+    public record Result(List<Change> changes, boolean quitEarly) {
+
+        public boolean identical() {
+            return changes.isEmpty();
+        }
+    }
+
+    /**
+     * Lines (after stripping the common prefix and suffix) above which the diff is computed in parallel.
+     */
+    public static final int PARALLEL_LINES = 20_000;
+
+    /**
+     * Edit distance beyond which a piece is given up on and reported as replaced.
+     */
+    public static final int MAX_COST = 10_000;
+
+    // Lines per task when diffing pieces in parallel
+    private static final int TASK_LINES = 4_096;
+    // Characters read from the document at a time
+    private static final int CHUNK = 1 << 20;
+
+    private final int[] a;
+    private final int[] b;
+    private boolean quitEarly;
+
+    private LineDiff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+    }
+
+    public static Result compute(TextDocument.Snapshot original, TextDocument.Snapshot modified) {
+        int n = original.getLineCount();
+        int m = modified.getLineCount();
+        int[][] ids = intern(original, modified, n + m > PARALLEL_LINES);
+        return new LineDiff(ids[0], ids[1]).run();
+    }
+
+    public static Result compute(String original, String modified) {
+        return compute(new TextDocument(original).snapshot(), new TextDocument(modified).snapshot());
+    }
+
+    // Ids of the lines of both texts; equal lines get the same id
+    private static int[][] intern(TextDocument.Snapshot original, TextDocument.Snapshot modified,
+                                  boolean parallel) {
+        String[] linesA = lines(original);
+        String[] linesB = lines(modified);
+        if (!parallel) {
+            Map<String, Integer> table = new HashMap<>();
+            int[] a = new int[linesA.length];
+            int[] b = new int[linesB.length];
+            for (int i = 0; i < a.length; i++) a[i] = table.computeIfAbsent(linesA[i], k -> table.size());
+            for (int i = 0; i < b.length; i++) b[i] = table.computeIfAbsent(linesB[i], k -> table.size());
+            return new int[][]{a, b};
+        }
+        ConcurrentHashMap<String, Integer> table = new ConcurrentHashMap<>(linesA.length + linesB.length);
+        AtomicInteger next = new AtomicInteger();
+        int[] a = Arrays.stream(linesA).parallel()
+                        .mapToInt(line -> table.computeIfAbsent(line, k -> next.getAndIncrement()))
+                        .toArray();
+        int[] b = Arrays.stream(linesB).parallel()
+                        .mapToInt(line -> table.computeIfAbsent(line, k -> next.getAndIncrement()))
+                        .toArray();
+        return new int[][]{a, b};
+    }
+
+    // The lines of a snapshot without their end-of-line sequence, read in chunks in one pass rather than
+    // looking up each line in the rope
+    private static String[] lines(TextDocument.Snapshot snapshot) {
+        String[] ret = new String[snapshot.getLineCount()];
+        int length = snapshot.getLength();
+        StringBuilder partial = new StringBuilder();
+        int line = 0;
+        for (int offset = 0; offset < length; offset += CHUNK) {
+            String chunk = snapshot.getText(offset, Math.min(CHUNK, length - offset));
+            int start = 0;
+            for (int i = chunk.indexOf('\n'); i >= 0; i = chunk.indexOf('\n', start)) {
+                partial.append(chunk, start, i);
+                int end = partial.length();
+                if (end > 0 && partial.charAt(end - 1) == '\r') end--;
+                ret[line++] = partial.substring(0, end);
+                partial.setLength(0);
+                start = i + 1;
+            }
+            partial.append(chunk, start, chunk.length());
+        }
+        ret[line] = partial.toString();
+        return ret;
+    }
+
+    private Result run() {
+        int aLo = 0;
+        int bLo = 0;
+        int aHi = a.length;
+        int bHi = b.length;
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo++;
+            bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi--;
+            bHi--;
+        }
+        List<Change> changes = new ArrayList<>();
+        if ((aHi - aLo) + (bHi - bLo) <= PARALLEL_LINES) {
+            diff(aLo, aHi, bLo, bHi, changes);
+        } else {
+            diffAnchored(aLo, aHi, bLo, bHi, changes);
+        }
+        return new Result(List.copyOf(merge(changes)), quitEarly);
+    }
+
+    // Splits the range on the patience anchors and diffs the pieces in parallel, in tasks of similar size
+    private void diffAnchored(int aLo, int aHi, int bLo, int bHi, List<Change> out) {
+        int[][] anchors = anchors(aLo, aHi, bLo, bHi);
+        int[] anchorA = anchors[0];
+        int[] anchorB = anchors[1];
+        // each task is a box between two anchors (or the ends of the range), holding enough lines to be worth
+        // a task
+        List<int[]> tasks = new ArrayList<>();
+        int startA = aLo;
+        int startB = bLo;
+        for (int i = 0; i <= anchorA.length; i++) {
+            int ea = i < anchorA.length ? anchorA[i] : aHi;
+            int eb = i < anchorA.length ? anchorB[i] : bHi;
+            if (i == anchorA.length || (ea - startA) + (eb - startB) >= TASK_LINES) {
+                tasks.add(new int[]{startA, ea, startB, eb});
+                startA = ea;
+                startB = eb;
+            }
+        }
+        AtomicBoolean gaveUp = new AtomicBoolean();
+        List<List<Change>> results = IntStream.range(0, tasks.size()).parallel().mapToObj(t -> {
+            int[] task = tasks.get(t);
+            LineDiff worker = new LineDiff(a, b);
+            List<Change> changes = new ArrayList<>();
+            // anchors within the task are equal lines, and diff() strips them like any other
+            worker.diffAnchors(task[0], task[1], task[2], task[3], anchorA, anchorB, changes);
+            if (worker.quitEarly) gaveUp.set(true);
+            return changes;
+        }).toList();
+        results.forEach(out::addAll);
+        quitEarly |= gaveUp.get();
+    }
+
+    // Diffs the pieces between the anchors inside [aLo, aHi) x [bLo, bHi) one after the other
+    private void diffAnchors(int aLo, int aHi, int bLo, int bHi, int[] anchorA, int[] anchorB, List<Change> out) {
+        int i = Arrays.binarySearch(anchorA, aLo);
+        if (i < 0) i = -i - 1;
+        int pa = aLo;
+        int pb = bLo;
+        for (; i < anchorA.length && anchorA[i] < aHi; i++) {
+            diff(pa, anchorA[i], pb, anchorB[i], out);
+            pa = anchorA[i] + 1;
+            pb = anchorB[i] + 1;
+        }
+        diff(pa, aHi, pb, bHi, out);
+    }
+
+    // Lines unique on both sides, in the longest increasing sequence of their positions, as parallel arrays
+    // of positions in a and b
+    private int[][] anchors(int aLo, int aHi, int bLo, int bHi) {
+        int ids = 0;
+        for (int i = aLo; i < aHi; i++) ids = Math.max(ids, a[i] + 1);
+        for (int i = bLo; i < bHi; i++) ids = Math.max(ids, b[i] + 1);
+        int[] countA = new int[ids];
+        int[] countB = new int[ids];
+        int[] positionB = new int[ids];
+        for (int i = aLo; i < aHi; i++) countA[a[i]]++;
+        for (int i = bLo; i < bHi; i++) {
+            countB[b[i]]++;
+            positionB[b[i]] = i;
+        }
+        // candidates in order of a, with their position in b
+        int[] candA = new int[aHi - aLo];
+        int[] candB = new int[aHi - aLo];
+        int n = 0;
+        for (int i = aLo; i < aHi; i++) {
+            if (countA[a[i]] == 1 && countB[a[i]] == 1) {
+                candA[n] = i;
+                candB[n] = positionB[a[i]];
+                n++;
+            }
+        }
+        // longest increasing subsequence of candB by patience sorting
+        int[] tails = new int[n];
+        int[] previous = new int[n];
+        int piles = 0;
+        for (int i = 0; i < n; i++) {
+            int lo = 0;
+            int hi = piles;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (candB[tails[mid]] < candB[i]) lo = mid + 1;
+                else hi = mid;
+            }
+            previous[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == piles) piles++;
+        }
+        int[] anchorA = new int[piles];
+        int[] anchorB = new int[piles];
+        for (int i = piles - 1, c = piles > 0 ? tails[piles - 1] : -1; i >= 0; i--, c = previous[c]) {
+            anchorA[i] = candA[c];
+            anchorB[i] = candB[c];
+        }
+        return new int[][]{anchorA, anchorB};
+    }
+
+    // Myers' diff of a[aLo, aHi) against b[bLo, bHi), appending changes in order
+    private void diff(int aLo, int aHi, int bLo, int bHi, List<Change> out) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo++;
+            bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi--;
+            bHi--;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            if (aLo < aHi || bLo < bHi) out.add(change(aLo, aHi, bLo, bHi));
+            return;
+        }
+        int[] split = bisect(aLo, aHi, bLo, bHi);
+        if (split == null) {
+            quitEarly = true;
+            out.add(change(aLo, aHi, bLo, bHi));
+            return;
+        }
+        diff(aLo, split[0], bLo, split[1], out);
+        diff(split[0], aHi, split[1], bHi, out);
+    }
+
+    // A point (x, y) on an optimal edit path through the box, found where the forward and backward searches
+    // meet; null if the edit distance exceeds MAX_COST. Both ranges are non-empty and differ at both ends.
+    private int[] bisect(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = Math.min((n + m + 1) / 2, (MAX_COST + 1) / 2);
+        int offset = maxD + 1;
+        int length = 2 * offset + 1;
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        // with an odd delta, the paths meet on a forward step, otherwise on a backward one
+        boolean front = (delta & 1) != 0;
+        int k1start = 0;
+        int k1end = 0;
+        int k2start = 0;
+        int k2end = 0;
+        for (int d = 0; d <= maxD; d++) {
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                int k1offset = offset + k1;
+                int x1 = k1 == -d || (k1 != d && forward[k1offset - 1] < forward[k1offset + 1])
+                        ? forward[k1offset + 1] : forward[k1offset - 1] + 1;
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a[aLo + x1] == b[bLo + y1]) {
+                    x1++;
+                    y1++;
+                }
+                forward[k1offset] = x1;
+                if (x1 > n) {
+                    k1end += 2;
+                } else if (y1 > m) {
+                    k1start += 2;
+                } else if (front) {
+                    int k2offset = offset + delta - k1;
+                    if (k2offset >= 0 && k2offset < length && backward[k2offset] != -1
+                            && x1 >= n - backward[k2offset]) {
+                        return new int[]{aLo + x1, bLo + y1};
+                    }
+                }
+            }
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                int k2offset = offset + k2;
+                int x2 = k2 == -d || (k2 != d && backward[k2offset - 1] < backward[k2offset + 1])
+                        ? backward[k2offset + 1] : backward[k2offset - 1] + 1;
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && a[aHi - 1 - x2] == b[bHi - 1 - y2]) {
+                    x2++;
+                    y2++;
+                }
+                backward[k2offset] = x2;
+                if (x2 > n) {
+                    k2end += 2;
+                } else if (y2 > m) {
+                    k2start += 2;
+                } else if (!front) {
+                    int k1offset = offset + delta - k2;
+                    if (k1offset >= 0 && k1offset < length && forward[k1offset] != -1) {
+                        int x1 = forward[k1offset];
+                        int y1 = x1 - (k1offset - offset);
+                        if (x1 >= n - x2) return new int[]{aLo + x1, bLo + y1};
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Change change(int aLo, int aHi, int bLo, int bHi) {
+        return new Change(aLo + 1, aHi + 1, bLo + 1, bHi + 1);
+    }
+
+    // Joins changes that touch, e.g. a deletion followed by an insertion at the same place
+    private static List<Change> merge(List<Change> changes) {
+        List<Change> ret = new ArrayList<>(changes.size());
+        for (Change c : changes) {
+            Change last = ret.isEmpty() ? null : ret.get(ret.size() - 1);
+            if (last != null && last.originalEnd() == c.originalStart() && last.modifiedEnd() == c.modifiedStart()) {
+                ret.set(ret.size() - 1, new Change(last.originalStart(), c.originalEnd(), last.modifiedStart(),
+                        c.modifiedEnd()));
+            } else {
+                ret.add(c);
+            }
+        }
+        return ret;
+    }
+}
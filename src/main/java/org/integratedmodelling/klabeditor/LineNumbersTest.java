@@ -1,5 +1,7 @@
 package org.integratedmodelling.klabeditor;
 
+import javafx.animation.PauseTransition;
+import javafx.animation.SequentialTransition;
 import javafx.application.Application;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
@@ -10,6 +12,7 @@ import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
 /**
  * Test application to demonstrate line numbers functionality in MonacoEditorView.
@@ -84,28 +87,25 @@ public class LineNumbersTest extends Application {
         primaryStage.setScene(scene);
         primaryStage.show();
 
-        // Test line numbers functionality after a brief delay
-        new Thread(() -> {
-            try {
-                Thread.sleep(2000); // Wait for editor to initialize
+        // Test line numbers functionality once the editor is up
+        editor.whenReady().thenRun(() -> {
+            // Test getting line numbers visibility
+            boolean visible = editor.isLineNumbersVisible();
+            System.out.println("Line numbers initially visible: " + visible);
 
-                // Test getting line numbers visibility
-                boolean visible = editor.isLineNumbersVisible();
-                System.out.println("Line numbers initially visible: " + visible);
-
-                // Test toggling line numbers
-                Thread.sleep(2000);
+            // Test toggling line numbers
+            PauseTransition hide = new PauseTransition(Duration.seconds(2));
+            hide.setOnFinished(e -> {
                 editor.setLineNumbers(false);
                 System.out.println("Line numbers hidden");
-
-                Thread.sleep(2000);
+            });
+            PauseTransition show = new PauseTransition(Duration.seconds(2));
+            show.setOnFinished(e -> {
                 editor.setLineNumbers(true);
                 System.out.println("Line numbers shown again");
-
-            } catch (InterruptedException ex) {
-                Thread.currentThread().interrupt();
-            }
-        }).start();
+            });
+            new SequentialTransition(hide, show).play();
+        });
     }
 
     public static void main(String[] args) {
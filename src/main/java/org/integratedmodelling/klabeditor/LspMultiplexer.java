@@ -0,0 +1,754 @@
+package org.integratedmodelling.klabeditor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * One connection to a language server shared by any number of editors. The server is either a process
+ * speaking LSP over stdio ({@link #launch}) or anything exposing a pair of streams ({@link #connect}), such
+ * as an in-process {@code LanguageServer} wired to piped streams.
+ * <p>
+ * Each editor talks JSON-RPC to the multiplexer through a {@link Session}: the Monaco-side client sends its
+ * requests through {@code JavaBridge}, and the multiplexer rewrites their ids into its own id space so that
+ * responses find their way back to the right editor. Document synchronization is owned by Java rather than
+ * by the browser: sessions open documents with a supplier of their mirror content, and edits are reported
+ * through {@link Session#didChange(String)}, which sends a debounced full-text {@code didChange}; any
+ * pending change is flushed before a request that targets the document, so the server always answers
+ * against the text the editor shows. A completion request supersedes the previous one of the same session,
+ * which is cancelled on the server and answered locally. Diagnostics are converted to {@link Marker}s and
+ * routed to the session that opened the document.
+ * <p>
+ * Messages are framed with {@code Content-Length} headers and written by a single writer thread, which
+ * drains everything queued since its last write and flushes once, so bursts of notifications and requests
+ * go out as one batch. The server is initialized once, when the multiplexer starts; the
+ * {@code initialize} requests of the sessions are answered with the server's capabilities.
+ */
+public final class LspMultiplexer implements AutoCloseable {
+
+    /**
+     * Owner of the markers produced from {@code textDocument/publishDiagnostics}.
+     */
+    public static final String MARKER_OWNER = "lsp";
+
+    // JSON-RPC error codes used for requests answered by the multiplexer itself
+    static final int REQUEST_CANCELLED = -32800;
+    static final int SERVER_NOT_RUNNING = -32099;
+
+    private static final int MAX_MESSAGE = 64 * 1024 * 1024;
+
+    /**
+     * Receives what the server sends to one session. Called on the multiplexer's reader thread.
+     */
+    public interface Listener {
+
+        /**
+         * A JSON-RPC response to a request sent through {@link Session#send(String)}, with the original id.
+         */
+        void onMessage(String message);
+
+        /**
+         * The current diagnostics of a document opened by the session, replacing any previous ones.
+         */
+        void onDiagnostics(String uri, List<Marker> markers);
+    }
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final Process process;
+    private final String rootUri;
+
+    private final BlockingQueue<byte[]> outgoing = new LinkedBlockingQueue<>();
+    private final CompletableFuture<Map<String, Object>> initialized = new CompletableFuture<>();
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    // Open documents by the URI the server knows them by
+    private final Map<String, Document> documents = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicInteger nextSession = new AtomicInteger();
+    private final ScheduledExecutorService debouncer =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("lsp-debounce").factory());
+
+    private Thread writer;
+    private volatile long changeDelay = 150;
+    private volatile boolean closed;
+
+    private record Pending(Session session, Object clientId, String method) {}
+
+    private LspMultiplexer(InputStream in, OutputStream out, Process process, String rootUri) {
+        this.in = new BufferedInputStream(in, 65536);
+        this.out = new BufferedOutputStream(out, 65536);
+        this.process = process;
+        this.rootUri = rootUri;
+    }
+
+    /**
+     * Start a language server process and connect to its stdin/stdout. Its stderr goes to ours.
+     *
+     * @param rootUri workspace root reported to the server, or null
+     */
+    public static LspMultiplexer launch(List<String> command, String rootUri) throws IOException {
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        LspMultiplexer ret = new LspMultiplexer(process.getInputStream(), process.getOutputStream(), process,
+                rootUri);
+        ret.start();
+        return ret;
+    }
+
+    /**
+     * Connect to a server through a pair of streams, e.g. an in-process server fed through pipes.
+     *
+     * @param in      what the server writes
+     * @param out     what the server reads
+     * @param rootUri workspace root reported to the server, or null
+     */
+    public static LspMultiplexer connect(InputStream in, OutputStream out, String rootUri) {
+        LspMultiplexer ret = new LspMultiplexer(in, out, null, rootUri);
+        ret.start();
+        return ret;
+    }
+
+    /**
+     * Completes with the server's {@code InitializeResult} once the handshake is done.
+     */
+    public CompletableFuture<Map<String, Object>> whenInitialized() {
+        return initialized;
+    }
+
+    /**
+     * Delay between the last reported edit of a document and the {@code didChange} that carries it.
+     */
+    public void setChangeDelay(Duration delay) {
+        changeDelay = Math.max(0, delay.toMillis());
+    }
+
+    public Duration getChangeDelay() {
+        return Duration.ofMillis(changeDelay);
+    }
+
+    public boolean isRunning() {
+        return !closed && (process == null || process.isAlive());
+    }
+
+    /**
+     * Create a session for one editor.
+     */
+    public Session openSession(Listener listener) {
+        return new Session(nextSession.incrementAndGet(), Objects.requireNonNull(listener, "listener"));
+    }
+
+    /**
+     * Shut the server down politely ({@code shutdown}, then {@code exit}), waiting a little for it to
+     * comply before closing the streams and, for a launched process, destroying it.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        try {
+            if (initialized.isDone() && !initialized.isCompletedExceptionally()) {
+                CompletableFuture<Void> shutdown = new CompletableFuture<>();
+                long id = nextId.incrementAndGet();
+                pending.put(id, new Pending(null, shutdown, "shutdown"));
+                enqueue(request(id, "shutdown", null));
+                try {
+                    shutdown.get(2, TimeUnit.SECONDS);
+                } catch (Exception ignored) {
+                    // the server gets killed below anyway
+                }
+                enqueue(notification("exit", null));
+            }
+        } finally {
+            closed = true;
+            debouncer.shutdownNow();
+            // let the writer send what is queued before the streams go away
+            outgoing.add(new byte[0]);
+            try {
+                writer.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            if (process != null) {
+                try {
+                    if (!process.waitFor(1, TimeUnit.SECONDS)) process.destroy();
+                } catch (InterruptedException e) {
+                    process.destroy();
+                    Thread.currentThread().interrupt();
+                }
+            }
+            failPending("Language server connection closed");
+        }
+    }
+
+    private void start() {
+        Thread.ofVirtual().name("lsp-reader").start(this::readLoop);
+        writer = Thread.ofVirtual().name("lsp-writer").start(this::writeLoop);
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("processId", ProcessHandle.current().pid());
+        params.put("rootUri", rootUri);
+        params.put("capabilities", clientCapabilities());
+        long id = nextId.incrementAndGet();
+        pending.put(id, new Pending(null, null, "initialize"));
+        // the only message allowed before the handshake completes, so it bypasses the writer's gate
+        try {
+            writeFrame(request(id, "initialize", params));
+            out.flush();
+        } catch (IOException e) {
+            initialized.completeExceptionally(e);
+        }
+    }
+
+    private static Map<String, Object> clientCapabilities() {
+        Map<String, Object> markup = Map.of("contentFormat", List.of("markdown", "plaintext"));
+        Map<String, Object> textDocument = new LinkedHashMap<>();
+        textDocument.put("synchronization", Map.of("dynamicRegistration", false, "didSave", false));
+        textDocument.put("completion", Map.of("contextSupport", true, "completionItem",
+                Map.of("snippetSupport", true, "documentationFormat", List.of("markdown", "plaintext"))));
+        textDocument.put("hover", markup);
+        textDocument.put("signatureHelp", Map.of("signatureInformation",
+                Map.of("documentationFormat", List.of("markdown", "plaintext"))));
+        textDocument.put("definition", Map.of("linkSupport", true));
+        textDocument.put("publishDiagnostics", Map.of("relatedInformation", false));
+        return Map.of("textDocument", textDocument, "workspace", Map.of("configuration", true));
+    }
+
+    // ---------------------------------------------------------------- sessions
+
+    /**
+     * The view of the server given to one editor. All methods are thread-safe and never block.
+     */
+    public final class Session implements AutoCloseable {
+
+        private final int id;
+        private final Listener listener;
+        // URIs of this session's documents and the URI the server knows each by. They only differ when
+        // another session already opened the same URI (e.g. the default model of every view).
+        private final Map<String, String> serverUris = new ConcurrentHashMap<>();
+        private final Map<String, String> clientUris = new ConcurrentHashMap<>();
+        private final Map<Object, Long> inFlight = new ConcurrentHashMap<>();
+        private volatile long lastCompletion = -1;
+        private volatile boolean sessionClosed;
+
+        private Session(int id, Listener listener) {
+            this.id = id;
+            this.listener = listener;
+        }
+
+        /**
+         * Handle a JSON-RPC message from the editor. Lifecycle and document synchronization messages are
+         * handled here instead of being forwarded; the response to {@code initialize} carries the
+         * capabilities the server declared.
+         */
+        public void send(String message) {
+            if (sessionClosed) return;
+            Map<String, Object> msg;
+            try {
+                msg = Json.parseObject(message);
+            } catch (IllegalArgumentException e) {
+                System.err.println("[LspMultiplexer] Dropping malformed message: " + e.getMessage());
+                return;
+            }
+            String method = Json.string(msg, "method");
+            Object clientId = msg.get("id");
+            if (method == null) return; // responses to server requests are answered by the multiplexer
+            switch (method) {
+                case "initialize" -> {
+                    initialized.whenComplete((result, t) -> {
+                        if (t == null) respond(clientId, result);
+                        else respondError(clientId, SERVER_NOT_RUNNING, t.getMessage());
+                    });
+                    return;
+                }
+                case "shutdown" -> {
+                    respond(clientId, null);
+                    return;
+                }
+                case "initialized", "exit", "textDocument/didOpen", "textDocument/didChange",
+                     "textDocument/didClose", "textDocument/didSave" -> {
+                    return;
+                }
+                case "$/cancelRequest" -> {
+                    Map<String, Object> params = Json.object(msg, "params");
+                    Long serverId = params == null || params.get("id") == null ? null
+                            : inFlight.remove(params.get("id"));
+                    if (serverId != null && pending.remove(serverId) != null) cancelOnServer(serverId);
+                    return;
+                }
+                default -> {
+                }
+            }
+            if (!serverUris.isEmpty()) rewriteUris(msg, serverUris);
+            Map<String, Object> params = Json.object(msg, "params");
+            String uri = Json.string(Json.object(params, "textDocument"), "uri");
+            if (uri != null) {
+                Document doc = documents.get(uri);
+                if (doc != null) doc.flush();
+            }
+            if (clientId == null) {
+                enqueue(Json.write(msg));
+                return;
+            }
+            if (!isRunning()) {
+                respondError(clientId, SERVER_NOT_RUNNING, "Language server is not running");
+                return;
+            }
+            long serverId = nextId.incrementAndGet();
+            if ("textDocument/completion".equals(method)) {
+                // a new completion makes the previous one stale: answer it now and stop the server's work
+                long previous = lastCompletion;
+                lastCompletion = serverId;
+                Pending stale = previous < 0 ? null : pending.remove(previous);
+                if (stale != null) {
+                    inFlight.remove(stale.clientId());
+                    cancelOnServer(previous);
+                    respondError(stale.clientId(), REQUEST_CANCELLED, "Superseded by a newer completion request");
+                }
+            }
+            pending.put(serverId, new Pending(this, clientId, method));
+            inFlight.put(clientId, serverId);
+            msg.put("id", serverId);
+            enqueue(Json.write(msg));
+        }
+
+        /**
+         * Open a document on the server. {@code content} is read (on any thread) each time the document is
+         * synchronized; it must return the current mirror content.
+         */
+        public void didOpen(String uri, String languageId, Supplier<TextDocument.Snapshot> content) {
+            if (sessionClosed) return;
+            didClose(uri);
+            String serverUri = uri;
+            Document doc = new Document(this, uri, languageId, content);
+            for (int n = 1; documents.putIfAbsent(serverUri, doc) != null; n++) {
+                serverUri = uri + (uri.indexOf('?') < 0 ? '?' : '&') + "klab-session=" + id + (n > 1 ? "-" + n
+                        : "");
+            }
+            doc.serverUri = serverUri;
+            if (!serverUri.equals(uri)) {
+                serverUris.put(uri, serverUri);
+                clientUris.put(serverUri, uri);
+            }
+            doc.open();
+        }
+
+        /**
+         * The mirror of {@code uri} changed. The change reaches the server after the debounce delay, or
+         * before the next request about the document, whichever comes first.
+         */
+        public void didChange(String uri) {
+            Document doc = documents.get(serverUris.getOrDefault(uri, uri));
+            if (doc != null && doc.session == this) doc.schedule();
+        }
+
+        public void didClose(String uri) {
+            String serverUri = serverUris.getOrDefault(uri, uri);
+            Document doc = documents.get(serverUri);
+            if (doc == null || doc.session != this) return;
+            documents.remove(serverUri);
+            serverUris.remove(uri);
+            clientUris.remove(serverUri);
+            doc.close();
+        }
+
+        public boolean isOpen(String uri) {
+            Document doc = documents.get(serverUris.getOrDefault(uri, uri));
+            return doc != null && doc.session == this;
+        }
+
+        /**
+         * Close all documents of the session and drop its outstanding requests.
+         */
+        @Override
+        public void close() {
+            if (sessionClosed) return;
+            for (Document doc : List.copyOf(documents.values())) {
+                if (doc.session == this) didClose(doc.uri);
+            }
+            sessionClosed = true;
+            pending.values().removeIf(p -> p.session() == this);
+            inFlight.clear();
+        }
+
+        private void respond(Object clientId, Object result) {
+            Map<String, Object> msg = new LinkedHashMap<>();
+            msg.put("jsonrpc", "2.0");
+            msg.put("id", clientId);
+            msg.put("result", result);
+            deliver(Json.write(msg));
+        }
+
+        private void respondError(Object clientId, int code, String message) {
+            Map<String, Object> msg = new LinkedHashMap<>();
+            msg.put("jsonrpc", "2.0");
+            msg.put("id", clientId);
+            msg.put("error", Map.of("code", code, "message", Objects.toString(message, "")));
+            deliver(Json.write(msg));
+        }
+
+        private void deliver(String message) {
+            if (sessionClosed) return;
+            try {
+                listener.onMessage(message);
+            } catch (RuntimeException e) {
+                System.err.println("[LspMultiplexer] Session listener failed: " + e);
+            }
+        }
+    }
+
+    // One document open on the server on behalf of a session
+    private final class Document {
+        final Session session;
+        final String uri;
+        final String languageId;
+        final Supplier<TextDocument.Snapshot> content;
+        volatile String serverUri;
+        // LSP version sent with the last open/change, and the mirror version it carried
+        private int version;
+        private int sentMirrorVersion = -1;
+        private ScheduledFuture<?> scheduled;
+        private boolean open;
+
+        Document(Session session, String uri, String languageId, Supplier<TextDocument.Snapshot> content) {
+            this.session = session;
+            this.uri = uri;
+            this.languageId = languageId;
+            this.content = content;
+        }
+
+        synchronized void open() {
+            TextDocument.Snapshot snapshot = content.get();
+            sentMirrorVersion = snapshot.getVersion();
+            version = 1;
+            open = true;
+            enqueue(notification("textDocument/didOpen", Map.of("textDocument", Map.of("uri", serverUri,
+                    "languageId", languageId, "version", version, "text", snapshot.getText()))));
+        }
+
+        // Restarts the delay on every edit, so a burst of typing produces a single didChange
+        synchronized void schedule() {
+            if (!open) return;
+            if (scheduled != null) scheduled.cancel(false);
+            try {
+                scheduled = debouncer.schedule(this::flush, changeDelay, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                // debouncer shut down: the multiplexer is closing
+            }
+        }
+
+        // Send the mirror content if it changed since it was last sent. Synchronized so that versions
+        // reach the writer queue in order.
+        synchronized void flush() {
+            if (scheduled != null) {
+                scheduled.cancel(false);
+                scheduled = null;
+            }
+            if (!open) return;
+            TextDocument.Snapshot snapshot = content.get();
+            if (snapshot.getVersion() == sentMirrorVersion) return;
+            sentMirrorVersion = snapshot.getVersion();
+            version++;
+            enqueue(notification("textDocument/didChange", Map.of(
+                    "textDocument", Map.of("uri", serverUri, "version", version),
+                    "contentChanges", List.of(Map.of("text", snapshot.getText())))));
+        }
+
+        synchronized void close() {
+            if (!open) return;
+            if (scheduled != null) scheduled.cancel(false);
+            open = false;
+            enqueue(notification("textDocument/didClose", Map.of("textDocument", Map.of("uri", serverUri))));
+        }
+    }
+
+    // ---------------------------------------------------------------- server to client
+
+    private void readLoop() {
+        try {
+            while (true) {
+                String message = readFrame();
+                if (message == null) break;
+                Map<String, Object> msg;
+                try {
+                    msg = Json.parseObject(message);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("[LspMultiplexer] Malformed message from server: " + e.getMessage());
+                    continue;
+                }
+                try {
+                    dispatch(msg);
+                } catch (RuntimeException e) {
+                    System.err.println("[LspMultiplexer] Failed to handle server message: " + e);
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) System.err.println("[LspMultiplexer] Connection to language server lost: " + e);
+        } finally {
+            closed = true;
+            initialized.completeExceptionally(new IOException("Language server exited"));
+            failPending("Language server exited");
+            outgoing.add(new byte[0]);
+        }
+    }
+
+    private void dispatch(Map<String, Object> msg) {
+        String method = Json.string(msg, "method");
+        Object id = msg.get("id");
+        if (method == null) {
+            if (id instanceof Number n) onResponse(n.longValue(), msg);
+        } else if (id != null) {
+            onServerRequest(id, method, msg);
+        } else if ("textDocument/publishDiagnostics".equals(method)) {
+            onDiagnostics(Json.object(msg, "params"));
+        } else if ("window/showMessage".equals(method) || "window/logMessage".equals(method)) {
+            Map<String, Object> params = Json.object(msg, "params");
+            // MessageType: 1 error, 2 warning
+            if (Json.integer(params, "type", 4) <= 2) {
+                System.err.println("[LspMultiplexer] " + Json.string(params, "message"));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onResponse(long id, Map<String, Object> msg) {
+        Pending p = pending.remove(id);
+        if (p == null) return; // cancelled or superseded
+        if (p.session() == null) {
+            if ("initialize".equals(p.method())) {
+                Map<String, Object> result = Json.object(msg, "result");
+                if (result == null) {
+                    initialized.completeExceptionally(new IOException("Language server refused to initialize: "
+                            + Json.write(msg.get("error"))));
+                    return;
+                }
+                try {
+                    writeFrame(notification("initialized", Map.of()));
+                    out.flush();
+                } catch (IOException e) {
+                    initialized.completeExceptionally(e);
+                    return;
+                }
+                initialized.complete(Collections.unmodifiableMap(result));
+            } else if (p.clientId() instanceof CompletableFuture<?> f) {
+                ((CompletableFuture<Object>) f).complete(msg.get("result"));
+            }
+            return;
+        }
+        Session session = p.session();
+        session.inFlight.remove(p.clientId());
+        msg.put("id", p.clientId());
+        if (!session.clientUris.isEmpty()) rewriteUris(msg, session.clientUris);
+        session.deliver(Json.write(msg));
+    }
+
+    // Requests from the server get neutral answers: no configuration, and acceptance of everything else
+    // (progress tokens, capability registrations) without acting on it
+    private void onServerRequest(Object id, String method, Map<String, Object> msg) {
+        Object result = null;
+        if ("workspace/configuration".equals(method)) {
+            List<Object> items = Json.array(Json.object(msg, "params"), "items");
+            result = items == null ? List.of() : Collections.nCopies(items.size(), null);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("jsonrpc", "2.0");
+        response.put("id", id);
+        response.put("result", result);
+        enqueue(Json.write(response));
+    }
+
+    private void onDiagnostics(Map<String, Object> params) {
+        String serverUri = Json.string(params, "uri");
+        Document doc = serverUri == null ? null : documents.get(serverUri);
+        if (doc == null) return;
+        List<Object> diagnostics = Json.array(params, "diagnostics");
+        List<Marker> markers = new ArrayList<>(diagnostics == null ? 0 : diagnostics.size());
+        if (diagnostics != null) {
+            for (Object d : diagnostics) {
+                Map<String, Object> range = Json.object(d, "range");
+                Map<String, Object> start = Json.object(range, "start");
+                Map<String, Object> end = Json.object(range, "end");
+                String message = Json.string(d, "message");
+                String source = Json.string(d, "source");
+                if (source != null && message != null) message = source + ": " + message;
+                // LSP positions are 0-based and count UTF-16 code units, as Java strings do
+                markers.add(new Marker(Json.integer(start, "line", 0) + 1, Json.integer(start, "character", 0) + 1,
+                        Json.integer(end, "line", 0) + 1, Json.integer(end, "character", 0) + 1,
+                        severity(Json.integer(d, "severity", 1)), message));
+            }
+        }
+        try {
+            doc.session.listener.onDiagnostics(doc.uri, markers);
+        } catch (RuntimeException e) {
+            System.err.println("[LspMultiplexer] Session listener failed: " + e);
+        }
+    }
+
+    private static Marker.Severity severity(int lspSeverity) {
+        return switch (lspSeverity) {
+            case 2 -> Marker.Severity.WARNING;
+            case 3 -> Marker.Severity.INFO;
+            case 4 -> Marker.Severity.HINT;
+            default -> Marker.Severity.ERROR;
+        };
+    }
+
+    private void failPending(String message) {
+        for (Long id : List.copyOf(pending.keySet())) {
+            Pending p = pending.remove(id);
+            if (p == null) continue;
+            if (p.session() != null) {
+                p.session().respondError(p.clientId(), SERVER_NOT_RUNNING, message);
+            } else if (p.clientId() instanceof CompletableFuture<?> f) {
+                f.completeExceptionally(new IOException(message));
+            }
+        }
+    }
+
+    private void cancelOnServer(long serverId) {
+        enqueue(notification("$/cancelRequest", Map.of("id", serverId)));
+    }
+
+    // Replaces document URIs in "uri" and "targetUri" properties anywhere in the message
+    @SuppressWarnings("unchecked")
+    private static void rewriteUris(Object node, Map<String, String> mapping) {
+        if (node instanceof Map<?, ?> map) {
+            for (Map.Entry<String, Object> e : ((Map<String, Object>) map).entrySet()) {
+                if (e.getValue() instanceof String s && (e.getKey().equals("uri") || e.getKey().equals(
+                        "targetUri"))) {
+                    String mapped = mapping.get(s);
+                    if (mapped != null) e.setValue(mapped);
+                } else {
+                    rewriteUris(e.getValue(), mapping);
+                }
+            }
+        } else if (node instanceof List<?> list) {
+            for (Object o : list) rewriteUris(o, mapping);
+        }
+    }
+
+    // ---------------------------------------------------------------- framing
+
+    private static String request(long id, String method, Object params) {
+        Map<String, Object> msg = new LinkedHashMap<>();
+        msg.put("jsonrpc", "2.0");
+        msg.put("id", id);
+        msg.put("method", method);
+        if (params != null) msg.put("params", params);
+        return Json.write(msg);
+    }
+
+    private static String notification(String method, Object params) {
+        Map<String, Object> msg = new LinkedHashMap<>();
+        msg.put("jsonrpc", "2.0");
+        msg.put("method", method);
+        if (params != null) msg.put("params", params);
+        return Json.write(msg);
+    }
+
+    private void enqueue(String message) {
+        if (closed) return;
+        outgoing.add(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeLoop() {
+        List<byte[]> batch = new ArrayList<>();
+        try {
+            // nothing but initialize may precede the initialized notification
+            initialized.join();
+            while (true) {
+                batch.add(outgoing.take());
+                outgoing.drainTo(batch);
+                boolean stop = false;
+                for (byte[] body : batch) {
+                    if (body.length == 0) {
+                        stop = closed;
+                        continue;
+                    }
+                    writeFrame(body);
+                }
+                out.flush();
+                batch.clear();
+                if (stop) return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            if (!closed) System.err.println("[LspMultiplexer] Cannot write to language server: " + e);
+        }
+    }
+
+    private void writeFrame(String message) throws IOException {
+        writeFrame(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeFrame(byte[] body) throws IOException {
+        synchronized (out) {
+            out.write(("Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(body);
+        }
+    }
+
+    // Next message body, or null at end of stream
+    private String readFrame() throws IOException {
+        int length = -1;
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        while (true) {
+            int c = in.read();
+            if (c < 0) {
+                if (line.size() == 0 && length < 0) return null;
+                throw new EOFException("Truncated message header");
+            }
+            if (c == '\r') continue;
+            if (c != '\n') {
+                line.write(c);
+                continue;
+            }
+            if (line.size() == 0) {
+                if (length >= 0) break;
+                continue; // stray blank line between messages
+            }
+            String header = line.toString(StandardCharsets.US_ASCII);
+            line.reset();
+            int colon = header.indexOf(':');
+            if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                String value = header.substring(colon + 1).trim();
+                try {
+                    length = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    length = -1;
+                }
+                if (length < 0 || length > MAX_MESSAGE) {
+                    throw new ProtocolException("Invalid Content-Length: " + value);
+                }
+            }
+        }
+        byte[] body = in.readNBytes(length);
+        if (body.length < length) throw new EOFException("Truncated message body");
+        return new String(body, StandardCharsets.UTF_8);
+    }
+}
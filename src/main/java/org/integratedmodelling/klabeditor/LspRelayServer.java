@@ -0,0 +1,803 @@
+package org.integratedmodelling.klabeditor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Loopback WebSocket endpoint for language servers that run as separate processes, for the bridge's
+ * {@code connectLsp(wsUrl, languageId)}. Each WebSocket connection gets its own server process, started from
+ * the command registered for the language, with the socket bridged to the process's stdio: WebSocket
+ * messages become {@code Content-Length} framed messages and back. Payloads are read once into a buffer of
+ * their exact size, unmasked in place and written out as they are; the only parsing is a scan of the
+ * top-level {@code id} and {@code method} of each message, for the metrics, and of the document URI of text
+ * document notifications, which are kept as they are for replay.
+ * <p>
+ * Every connection is served by blocking virtual threads, one per direction, so back-pressure is
+ * end-to-end: a server that stops reading stalls the socket reads and, through TCP, the browser; a slow
+ * client stalls the server's stdout. A server that exits while its client is connected is restarted and
+ * brought back to the client's state (initialize, then the didOpen of each open document and its last
+ * didChange, which carries the full text); requests
+ * it had not answered fail with an error response. Clients that synchronize incrementally cannot be
+ * replayed and are disconnected instead, as are servers that keep crashing.
+ * <p>
+ * Endpoints are {@code ws://127.0.0.1:<port>/<token>/<languageId>}; the random token keeps web pages
+ * opened in a browser on the same machine from reaching the servers. See {@link #urlFor(String)}.
+ */
+public final class LspRelayServer {
+
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_MESSAGE = 64 * 1024 * 1024;
+    private static final int MAX_RESTARTS = 5;
+    private static final long RESTART_WINDOW = TimeUnit.MINUTES.toNanos(1);
+
+    private final ServerSocket socket;
+    private final String token;
+    private final Map<String, List<String>> commands = new ConcurrentHashMap<>();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final Map<String, MethodStats> metrics = new ConcurrentHashMap<>();
+    private final AtomicLong restarts = new AtomicLong();
+    private volatile boolean stopped;
+
+    /**
+     * Latency of one LSP method, from the client's request to the server's response, in milliseconds.
+     * Percentiles are estimated from power-of-two buckets.
+     */
+    public record Latency(long count, long errors, double meanMillis, double p50Millis, double p95Millis,
+                          double maxMillis) {}
+
+    private LspRelayServer(ServerSocket socket) {
+        this.socket = socket;
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        this.token = HexFormat.of().formatHex(random);
+    }
+
+    /**
+     * Start a relay on a free loopback port.
+     */
+    public static LspRelayServer start() throws IOException {
+        return start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    public static LspRelayServer start(InetSocketAddress address) throws IOException {
+        ServerSocket ss = new ServerSocket();
+        ss.bind(address);
+        LspRelayServer ret = new LspRelayServer(ss);
+        Thread.ofVirtual().name("lsp-relay-accept").start(ret::acceptLoop);
+        return ret;
+    }
+
+    /**
+     * Serve {@code languageId} with a process started from {@code command} for each connection.
+     */
+    public void register(String languageId, List<String> command) {
+        if (command == null || command.isEmpty()) throw new IllegalArgumentException("empty command");
+        commands.put(languageId, List.copyOf(command));
+    }
+
+    /**
+     * WebSocket URL for {@code languageId}, to pass to {@link MonacoEditorView#connectLsp(String, String)}.
+     */
+    public String urlFor(String languageId) {
+        if (!commands.containsKey(languageId)) {
+            throw new IllegalArgumentException("No language server registered for " + languageId);
+        }
+        return "ws://127.0.0.1:" + getPort() + "/" + token + "/" + languageId;
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Number of server processes restarted after a crash since the relay started.
+     */
+    public long getRestartCount() {
+        return restarts.get();
+    }
+
+    /**
+     * Latency by LSP method, aggregated over all connections since start or the last reset.
+     */
+    public Map<String, Latency> getLatencyMetrics() {
+        Map<String, Latency> ret = new TreeMap<>();
+        metrics.forEach((method, stats) -> ret.put(method, stats.snapshot()));
+        return ret;
+    }
+
+    public void resetLatencyMetrics() {
+        metrics.clear();
+    }
+
+    /**
+     * Close all connections, terminate their servers and stop listening.
+     */
+    public void stop() {
+        stopped = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+        for (Connection c : List.copyOf(connections)) c.close(1001);
+    }
+
+    private void acceptLoop() {
+        while (!stopped) {
+            try {
+                Socket s = socket.accept();
+                Thread.ofVirtual().name("lsp-relay-client").start(() -> serve(s));
+            } catch (IOException e) {
+                if (!stopped) System.err.println("[LspRelayServer] Accept failed: " + e);
+            }
+        }
+    }
+
+    private void serve(Socket s) {
+        try {
+            s.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(s.getInputStream(), 65536);
+            OutputStream out = s.getOutputStream();
+            String languageId = handshake(in, out);
+            if (languageId == null) {
+                s.close();
+                return;
+            }
+            Connection c = new Connection(s, in, out, commands.get(languageId));
+            connections.add(c);
+            try {
+                c.run();
+            } finally {
+                connections.remove(c);
+            }
+        } catch (IOException e) {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // Reads the upgrade request and answers it; returns the language, or null after an error response
+    private String handshake(InputStream in, OutputStream out) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream(512);
+        int state = 0;
+        while (state < 4) {
+            int c = in.read();
+            if (c < 0) throw new EOFException();
+            head.write(c);
+            if (head.size() > 16384) return reject(out, "431 Request Header Fields Too Large");
+            state = (c == '\r' && (state == 0 || state == 2)) || (c == '\n' && (state == 1 || state == 3))
+                    ? state + 1 : (c == '\r' ? 1 : 0);
+        }
+        String[] lines = head.toString(StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                        lines[i].substring(colon + 1).trim());
+            }
+        }
+        if (requestLine.length < 2 || !"GET".equals(requestLine[0])) return reject(out, "405 Method Not Allowed");
+        String key = headers.get("sec-websocket-key");
+        if (key == null || !"websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+            return reject(out, "426 Upgrade Required");
+        }
+        String path = requestLine[1];
+        int query = path.indexOf('?');
+        if (query >= 0) path = path.substring(0, query);
+        String prefix = "/" + token + "/";
+        if (!path.startsWith(prefix)) return reject(out, "403 Forbidden");
+        String languageId = path.substring(prefix.length());
+        if (!commands.containsKey(languageId)) return reject(out, "404 Not Found");
+
+        String accept;
+        try {
+            accept = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1").digest(
+                    (key + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        StringBuilder response = new StringBuilder("HTTP/1.1 101 Switching Protocols\r\n")
+                .append("Upgrade: websocket\r\nConnection: Upgrade\r\n")
+                .append("Sec-WebSocket-Accept: ").append(accept).append("\r\n");
+        String protocols = headers.get("sec-websocket-protocol");
+        if (protocols != null) {
+            for (String p : protocols.split(",")) {
+                if (p.trim().equals("jsonrpc")) response.append("Sec-WebSocket-Protocol: jsonrpc\r\n");
+            }
+        }
+        out.write(response.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+        return languageId;
+    }
+
+    private static String reject(OutputStream out, String status) throws IOException {
+        out.write(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+        return null;
+    }
+
+    // ---------------------------------------------------------------- connections
+
+    // One WebSocket client and the server process serving it
+    private final class Connection {
+
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final List<String> command;
+
+        private final Object lock = new Object();
+        // current server; replaced under the lock by restart()
+        private Process process;
+        private OutputStream stdin;
+        private volatile boolean closing;
+
+        // client requests not yet answered, by raw id token, with their method and start time
+        private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+        // what a restarted server needs to catch up with the client
+        private byte[] initialize;
+        private String initializeId;
+        private byte[] initialized;
+        private final Map<String, OpenDocument> documents = new LinkedHashMap<>();
+        private boolean replayable = true;
+        private volatile String swallowId;
+        private final Deque<Long> restartTimes = new ArrayDeque<>();
+
+        private record InFlight(String method, long start) {}
+
+        // The didOpen of a document and the last didChange since, if any, as the client sent them
+        private record OpenDocument(byte[] open, byte[] change) {}
+
+        Connection(Socket socket, InputStream in, OutputStream out, List<String> command) {
+            this.socket = socket;
+            this.in = in;
+            this.out = out;
+            this.command = command;
+        }
+
+        void run() throws IOException {
+            synchronized (lock) {
+                if (!startProcess()) {
+                    close(1011);
+                    return;
+                }
+            }
+            try {
+                readClient();
+            } finally {
+                close(1000);
+            }
+        }
+
+        private boolean startProcess() {
+            try {
+                Process p = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                process = p;
+                stdin = new BufferedOutputStream(p.getOutputStream(), 65536);
+                Thread.ofVirtual().name("lsp-relay-server").start(() -> readServer(p));
+                return true;
+            } catch (IOException e) {
+                System.err.println("[LspRelayServer] Cannot start " + command + ": " + e.getMessage());
+                return false;
+            }
+        }
+
+        // Client to server: one WebSocket message at a time, written to the current server as one frame
+        private void readClient() throws IOException {
+            byte[] header = new byte[14];
+            ByteArrayOutputStream fragments = null;
+            while (!closing) {
+                if (in.readNBytes(header, 0, 2) < 2) return;
+                boolean fin = (header[0] & 0x80) != 0;
+                int opcode = header[0] & 0x0F;
+                boolean masked = (header[1] & 0x80) != 0;
+                long length = header[1] & 0x7F;
+                if (length == 126) {
+                    if (in.readNBytes(header, 2, 2) < 2) return;
+                    length = ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+                } else if (length == 127) {
+                    if (in.readNBytes(header, 2, 8) < 8) return;
+                    length = 0;
+                    for (int i = 2; i < 10; i++) length = (length << 8) | (header[i] & 0xFF);
+                }
+                // the most significant bit of a 64-bit length must be 0
+                if (!masked || length < 0) {
+                    close(1002);
+                    return;
+                }
+                if (length > MAX_MESSAGE || (fragments != null && fragments.size() + length > MAX_MESSAGE)) {
+                    close(1009);
+                    return;
+                }
+                byte[] mask = in.readNBytes(4);
+                byte[] payload = in.readNBytes((int) length);
+                if (mask.length < 4 || payload.length < length) return;
+                for (int i = 0; i < payload.length; i++) payload[i] ^= mask[i & 3];
+
+                switch (opcode) {
+                    case 0x8 -> { // close
+                        return;
+                    }
+                    case 0x9 -> sendFrame(0xA, payload); // ping
+                    case 0xA -> {
+                    }
+                    case 0x0 -> { // continuation
+                        if (fragments == null) {
+                            close(1002);
+                            return;
+                        }
+                        fragments.write(payload);
+                        if (fin) {
+                            forward(fragments.toByteArray());
+                            fragments = null;
+                        }
+                    }
+                    case 0x1, 0x2 -> {
+                        if (fin) {
+                            forward(payload);
+                        } else {
+                            fragments = new ByteArrayOutputStream(payload.length * 2);
+                            fragments.write(payload);
+                        }
+                    }
+                    default -> {
+                        close(1002);
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void forward(byte[] message) throws IOException {
+            RpcHeader h = RpcHeader.scan(message);
+            boolean replayed = track(h, message);
+            if (h.id() != null && h.method() != null) inFlight.put(h.id(), new InFlight(h.method(), System.nanoTime()));
+            synchronized (lock) {
+                while (!closing) {
+                    Process p = process;
+                    try {
+                        writeServerFrame(message);
+                        return;
+                    } catch (IOException e) {
+                        // the server died under us: wait for its replacement, which replays document state
+                        awaitRestart(p);
+                        if (replayed) return;
+                    }
+                }
+            }
+        }
+
+        // Remembers what a restarted server must be told; returns whether the message is part of that state
+        private boolean track(RpcHeader h, byte[] message) {
+            if (h.method() == null) return false;
+            switch (h.method()) {
+                case "initialize" -> {
+                    initialize = message;
+                    initializeId = h.id();
+                    return true;
+                }
+                case "initialized" -> {
+                    initialized = message;
+                    return true;
+                }
+                case "textDocument/didOpen", "textDocument/didChange", "textDocument/didClose" -> {
+                    trackDocument(h, message);
+                    return replayable;
+                }
+                default -> {
+                    return false;
+                }
+            }
+        }
+
+        private void trackDocument(RpcHeader h, byte[] message) {
+            if (h.uri() == null) return;
+            synchronized (documents) {
+                if (!replayable) return;
+                switch (h.method()) {
+                    case "textDocument/didOpen" -> documents.put(h.uri(), new OpenDocument(message, null));
+                    case "textDocument/didClose" -> documents.remove(h.uri());
+                    default -> {
+                        OpenDocument doc = documents.get(h.uri());
+                        if (doc == null || h.changes() == 0) return;
+                        if (h.ranged()) {
+                            // incremental sync: the full text is no longer known here
+                            replayable = false;
+                            documents.clear();
+                            return;
+                        }
+                        documents.put(h.uri(), new OpenDocument(doc.open(), message));
+                    }
+                }
+            }
+        }
+
+        // Server to client: one framed message at a time, sent as one WebSocket text message
+        private void readServer(Process p) {
+            InputStream stdout = new BufferedInputStream(p.getInputStream(), 65536);
+            try {
+                byte[] message;
+                while ((message = readServerFrame(stdout)) != null) {
+                    RpcHeader h = RpcHeader.scan(message);
+                    if (h.id() != null && h.method() == null) {
+                        if (h.id().equals(swallowId)) {
+                            swallowId = null;
+                            continue; // response to a replayed initialize
+                        }
+                        InFlight f = inFlight.remove(h.id());
+                        if (f != null) stats(f.method()).record(System.nanoTime() - f.start(), h.error());
+                    }
+                    sendFrame(0x1, message);
+                }
+            } catch (ProtocolException e) {
+                System.err.println("[LspRelayServer] Language server " + command + ": " + e.getMessage());
+                close(1002);
+                return;
+            } catch (IOException e) {
+                // server gone, or client gone while sending: decided below
+            }
+            if (!closing) restart(p);
+        }
+
+        private void restart(Process dead) {
+            synchronized (lock) {
+                if (closing || process != dead) return;
+                long now = System.nanoTime();
+                while (!restartTimes.isEmpty() && now - restartTimes.peekFirst() > RESTART_WINDOW) {
+                    restartTimes.removeFirst();
+                }
+                failInFlight();
+                boolean canReplay;
+                synchronized (documents) {
+                    canReplay = replayable;
+                }
+                if (!canReplay || restartTimes.size() >= MAX_RESTARTS) {
+                    System.err.println("[LspRelayServer] Language server " + command + " exited; disconnecting");
+                    close(1011);
+                    return;
+                }
+                restartTimes.addLast(now);
+                restarts.incrementAndGet();
+                System.err.println("[LspRelayServer] Language server " + command + " exited; restarting");
+                if (!startProcess()) {
+                    close(1011);
+                    lock.notifyAll();
+                    return;
+                }
+                try {
+                    replay();
+                } catch (IOException e) {
+                    // the new server died immediately: its reader thread restarts it again
+                }
+                lock.notifyAll();
+            }
+        }
+
+        private void replay() throws IOException {
+            if (initialize == null) return;
+            swallowId = initializeId;
+            writeServerFrame(initialize);
+            if (initialized != null) writeServerFrame(initialized);
+            List<OpenDocument> docs;
+            synchronized (documents) {
+                docs = List.copyOf(documents.values());
+            }
+            for (OpenDocument doc : docs) {
+                writeServerFrame(doc.open());
+                if (doc.change() != null) writeServerFrame(doc.change());
+            }
+        }
+
+        private void failInFlight() {
+            for (String id : List.copyOf(inFlight.keySet())) {
+                InFlight f = inFlight.remove(id);
+                if (f == null) continue;
+                stats(f.method()).record(System.nanoTime() - f.start(), true);
+                String error = "{\"jsonrpc\":\"2.0\",\"id\":" + id + ",\"error\":{\"code\":"
+                        + LspMultiplexer.SERVER_NOT_RUNNING + ",\"message\":\"Language server restarted\"}}";
+                try {
+                    sendFrame(0x1, error.getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        // Called with the lock held
+        private void awaitRestart(Process dead) {
+            while (!closing && process == dead) {
+                try {
+                    lock.wait(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                // the reader thread notices the exit; if the process is somehow still alive, stop waiting
+                if (dead.isAlive() && process == dead) {
+                    close(1011);
+                    return;
+                }
+            }
+        }
+
+        private void writeServerFrame(byte[] body) throws IOException {
+            stdin.write(("Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            stdin.write(body);
+            stdin.flush();
+        }
+
+        private static byte[] readServerFrame(InputStream stdout) throws IOException {
+            int length = -1;
+            StringBuilder line = new StringBuilder();
+            while (true) {
+                int c = stdout.read();
+                if (c < 0) return null;
+                if (c == '\r') continue;
+                if (c != '\n') {
+                    line.append((char) c);
+                    continue;
+                }
+                if (line.isEmpty()) {
+                    if (length >= 0) break;
+                    continue;
+                }
+                int colon = line.indexOf(":");
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                    String value = line.substring(colon + 1).trim();
+                    try {
+                        length = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        length = -1;
+                    }
+                    if (length < 0 || length > MAX_MESSAGE) {
+                        throw new ProtocolException("Invalid Content-Length: " + value);
+                    }
+                }
+                line.setLength(0);
+            }
+            byte[] body = stdout.readNBytes(length);
+            return body.length < length ? null : body;
+        }
+
+        private void sendFrame(int opcode, byte[] payload) throws IOException {
+            byte[] header;
+            int n = payload.length;
+            if (n < 126) {
+                header = new byte[]{(byte) (0x80 | opcode), (byte) n};
+            } else if (n < 65536) {
+                header = new byte[]{(byte) (0x80 | opcode), 126, (byte) (n >>> 8), (byte) n};
+            } else {
+                header = new byte[10];
+                header[0] = (byte) (0x80 | opcode);
+                header[1] = 127;
+                for (int i = 0; i < 8; i++) header[9 - i] = (byte) ((long) n >>> (8 * i));
+            }
+            synchronized (out) {
+                out.write(header);
+                out.write(payload);
+                out.flush();
+            }
+        }
+
+        void close(int status) {
+            Process p;
+            synchronized (this) {
+                if (closing) return;
+                closing = true;
+                p = process;
+            }
+            try {
+                sendFrame(0x8, new byte[]{(byte) (status >>> 8), (byte) status});
+            } catch (IOException ignored) {
+            }
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            if (p != null) {
+                try {
+                    stdin.close();
+                } catch (IOException ignored) {
+                }
+                p.onExit().orTimeout(2, TimeUnit.SECONDS).exceptionally(t -> {
+                    p.destroyForcibly();
+                    return null;
+                });
+            }
+        }
+    }
+
+    private MethodStats stats(String method) {
+        return metrics.computeIfAbsent(method, m -> new MethodStats());
+    }
+
+    // Lock-free latency accumulator; bucket i counts latencies below 2^i ms
+    private static final class MethodStats {
+        private static final int BUCKETS = 24;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos, boolean error) {
+            count.incrementAndGet();
+            if (error) errors.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+            buckets.incrementAndGet(bucket);
+        }
+
+        Latency snapshot() {
+            long n = count.get();
+            return new Latency(n, errors.get(), n == 0 ? 0 : totalNanos.get() / 1e6 / n, percentile(n, 0.5),
+                    percentile(n, 0.95), maxNanos.get() / 1e6);
+        }
+
+        // upper bound of the bucket holding the percentile
+        private double percentile(long n, double p) {
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(n * p);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) return i == 0 ? 1 : 1L << i;
+            }
+            return maxNanos.get() / 1e6;
+        }
+    }
+
+    /**
+     * Top-level {@code id} (raw JSON token) and {@code method} of a JSON-RPC message, and whether it carries
+     * an {@code error}; for text document notifications, {@code params.textDocument.uri}, the number of
+     * {@code params.contentChanges} and whether any of them has a {@code range}. Found by a single pass over
+     * the bytes without decoding the message.
+     */
+    record RpcHeader(String id, String method, boolean error, String uri, int changes, boolean ranged) {
+
+        // keys the scan tells apart, as indices in KEYS; any other key is OTHER
+        private static final int NONE = -1;
+        private static final int OTHER = 0;
+        private static final int ID = 1;
+        private static final int METHOD = 2;
+        private static final int ERROR = 3;
+        private static final int PARAMS = 4;
+        private static final int TEXT_DOCUMENT = 5;
+        private static final int URI = 6;
+        private static final int CONTENT_CHANGES = 7;
+        private static final int RANGE = 8;
+        private static final String[] KEYS =
+                {null, "id", "method", "error", "params", "textDocument", "uri", "contentChanges", "range"};
+        // containers nested deeper than this are skipped over
+        private static final int MAX_DEPTH = 8;
+
+        static RpcHeader scan(byte[] b) {
+            String id = null;
+            String method = null;
+            boolean error = false;
+            String uri = null;
+            int changes = 0;
+            boolean ranged = false;
+            int depth = 0;
+            // for each open container: whether it is an object, and the key it is the value of
+            boolean[] object = new boolean[MAX_DEPTH + 1];
+            int[] keyOf = new int[MAX_DEPTH + 1];
+            boolean keyNext = false;
+            // key of the value about to be read in the current object
+            int key = NONE;
+            for (int i = 0; i < b.length; i++) {
+                byte c = b[i];
+                if (c == '"') {
+                    int start = i + 1;
+                    i = skipString(b, start);
+                    if (depth > MAX_DEPTH) continue;
+                    if (keyNext) {
+                        key = key(b, start, i);
+                        keyNext = false;
+                        // params.contentChanges[n].range
+                        if (key == RANGE && depth == 4 && keyOf[3] == CONTENT_CHANGES && keyOf[2] == PARAMS) {
+                            ranged = true;
+                        }
+                        continue;
+                    }
+                    if (depth == 1 && key == ID) {
+                        id = new String(b, start - 1, i - start + 2, StandardCharsets.UTF_8);
+                    } else if (depth == 1 && key == METHOD) {
+                        method = new String(b, start, i - start, StandardCharsets.UTF_8);
+                    } else if (depth == 3 && key == URI && keyOf[3] == TEXT_DOCUMENT && keyOf[2] == PARAMS) {
+                        uri = new String(b, start, i - start, StandardCharsets.UTF_8);
+                    }
+                    key = NONE;
+                } else if (c == '{' || c == '[') {
+                    if (depth == 1 && key == ERROR) error = true;
+                    depth++;
+                    if (depth <= MAX_DEPTH) {
+                        object[depth] = c == '{';
+                        keyOf[depth] = key;
+                        if (c == '{' && depth == 4 && keyOf[3] == CONTENT_CHANGES && keyOf[2] == PARAMS) changes++;
+                    }
+                    keyNext = c == '{';
+                    key = NONE;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                    keyNext = false;
+                    key = NONE;
+                } else if (c == ',') {
+                    keyNext = depth >= 1 && depth <= MAX_DEPTH && object[depth];
+                    key = NONE;
+                } else if (depth == 1 && key >= 0 && c != ':' && c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                    int start = i;
+                    while (i < b.length && b[i] != ',' && b[i] != '}' && b[i] != ' ' && b[i] != '\r'
+                            && b[i] != '\n' && b[i] != '\t') i++;
+                    if (key == ID && !equals(b, start, i, "null")) {
+                        id = new String(b, start, i - start, StandardCharsets.US_ASCII);
+                    }
+                    if (key == ERROR && !equals(b, start, i, "null")) error = true;
+                    key = NONE;
+                    i--;
+                }
+            }
+            return new RpcHeader(id, method, error, uri, changes, ranged);
+        }
+
+        private static int key(byte[] b, int start, int end) {
+            for (int k = 1; k < KEYS.length; k++) {
+                if (equals(b, start, end, KEYS[k])) return k;
+            }
+            return OTHER;
+        }
+
+        // index of the closing quote of the string starting at start
+        private static int skipString(byte[] b, int start) {
+            int i = start;
+            while (i < b.length && b[i] != '"') i += b[i] == '\\' ? 2 : 1;
+            return Math.min(i, b.length);
+        }
+
+        private static boolean equals(byte[] b, int start, int end, String s) {
+            if (end - start != s.length()) return false;
+            for (int i = 0; i < s.length(); i++) {
+                if (b[start + i] != s.charAt(i)) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.integratedmodelling.klabeditor;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a text file in chunks of a bounded number of characters, decoding it straight from a memory mapping,
+ * so that neither the bytes nor the text of the whole file are ever held at once. The file is mapped in
+ * windows, which also covers files beyond the 2 GB of a single mapping; a sequence split by the end of a
+ * window is decoded from the next one. Malformed input is replaced, a UTF-8 byte order mark skipped, and a
+ * surrogate pair is never split between chunks.
+ */
+final class MappedTextReader implements AutoCloseable {
+
+    private static final long WINDOW = 64L << 20;
+
+    private final FileChannel channel;
+    private final long size;
+    private final CharsetDecoder decoder;
+    private final CharBuffer out;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private boolean flushing;
+    private boolean done;
+
+    MappedTextReader(Path path, Charset charset, int chunkChars) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            this.size = channel.size();
+            this.decoder = charset.newDecoder()
+                                  .onMalformedInput(CodingErrorAction.REPLACE)
+                                  .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.out = CharBuffer.allocate(Math.max(2, chunkChars));
+            map(0);
+            if (charset.equals(StandardCharsets.UTF_8) && size >= 3 && window.get(0) == (byte) 0xEF
+                    && window.get(1) == (byte) 0xBB && window.get(2) == (byte) 0xBF) {
+                window.position(3);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Size of the file in bytes.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Number of bytes decoded so far.
+     */
+    long position() {
+        return windowStart + window.position();
+    }
+
+    /**
+     * The next chunk of text, or null at the end of the file.
+     */
+    String next() throws IOException {
+        if (done) return null;
+        out.clear();
+        while (out.hasRemaining()) {
+            boolean last = windowStart + window.limit() == size;
+            CoderResult result = flushing ? decoder.flush(out) : decoder.decode(window, out, last);
+            if (result.isOverflow()) break;
+            if (result.isError()) result.throwException();
+            if (!last) {
+                // the rest of the window is at most an incomplete sequence, decoded from the next one
+                map(position());
+            } else if (!flushing) {
+                flushing = true;
+            } else {
+                done = true;
+                break;
+            }
+        }
+        out.flip();
+        return out.hasRemaining() || !done ? out.toString() : null;
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW, size - start));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
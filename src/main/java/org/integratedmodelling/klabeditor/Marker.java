@@ -0,0 +1,64 @@
+package org.integratedmodelling.klabeditor;
+
+import java.util.Locale;
+
+/**
+ * A diagnostic shown in the editor, with Monaco's 1-based line/column range conventions. Markers are
+ * posted in batches per owner through {@link MonacoEditorView#setMarkers(String, java.util.List)}.
+ */
+public record Marker(int startLineNumber, int startColumn, int endLineNumber, int endColumn, Severity severity,
+                     String message) {
+
+    /**
+     * Marker severities, carrying the numeric value of Monaco's {@code MarkerSeverity}.
+     */
+    public enum Severity {
+        HINT(1), INFO(2), WARNING(4), ERROR(8);
+
+        private final int monacoValue;
+
+        Severity(int monacoValue) {
+            this.monacoValue = monacoValue;
+        }
+
+        public int monacoValue() {
+            return monacoValue;
+        }
+
+        /**
+         * Parse one of "info", "warning", "error", "hint" (case-insensitive); anything else is INFO.
+         */
+        public static Severity parse(String s) {
+            if (s == null) return INFO;
+            return switch (s.toLowerCase(Locale.ROOT)) {
+                case "error" -> ERROR;
+                case "warning" -> WARNING;
+                case "hint" -> HINT;
+                default -> INFO;
+            };
+        }
+    }
+
+    public Marker {
+        if (severity == null) severity = Severity.INFO;
+        if (message == null) message = "";
+    }
+
+    /**
+     * A marker covering the start of a line, like the original single-marker API.
+     */
+    public static Marker atLine(int lineNumber, String message, Severity severity) {
+        int line = Math.max(1, lineNumber);
+        return new Marker(line, 1, line, 1, severity, message);
+    }
+
+    /**
+     * A marker covering {@code length} characters at {@code offset}, resolved against a document snapshot.
+     */
+    public static Marker atOffset(TextDocument.Snapshot snapshot, int offset, int length, String message,
+                                  Severity severity) {
+        TextDocument.Position start = snapshot.getPositionAt(offset);
+        TextDocument.Position end = snapshot.getPositionAt(offset + length);
+        return new Marker(start.lineNumber(), start.column(), end.lineNumber(), end.column(), severity, message);
+    }
+}
@@ -0,0 +1,248 @@
+package org.integratedmodelling.klabeditor;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * HTTP server for the Monaco editor page and bundle, for browsers outside the application (debugging,
+ * kiosks). Resources come from the {@link MonacoAssets} cache and are served with validators and caching
+ * headers: content-hashed chunks are immutable, everything else is revalidated through ETag or
+ * Last-Modified and answered with 304 when unchanged. Text resources are sent compressed to clients that
+ * accept it, and single byte ranges are supported. Each request runs on a virtual thread.
+ */
+public final class MonacoAssetServer {
+
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final String REVALIDATE = "no-cache";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final MonacoAssets assets;
+
+    private MonacoAssetServer(HttpServer server, MonacoAssets assets) {
+        this.server = server;
+        this.assets = assets;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.createContext("/", new AssetHandler());
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Start a server on {@code address}; port 0 picks a free port.
+     */
+    public static MonacoAssetServer start(InetSocketAddress address) throws IOException {
+        MonacoAssetServer ret = new MonacoAssetServer(HttpServer.create(address, 0), MonacoAssets.shared());
+        ret.server.start();
+        return ret;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stop accepting requests, waiting at most {@code delaySeconds} for exchanges in progress.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdownNow();
+    }
+
+    private final class AssetHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange ex) throws IOException {
+            try {
+                String method = ex.getRequestMethod();
+                boolean head = "HEAD".equals(method);
+                if (!head && !"GET".equals(method)) {
+                    ex.getResponseHeaders().add("Allow", "GET, HEAD");
+                    sendText(ex, 405, "Method Not Allowed");
+                    return;
+                }
+
+                String rawPath = Objects.toString(ex.getRequestURI().getPath(), "/");
+                // Special-case favicon to avoid noisy 404s
+                if ("/favicon.ico".equals(rawPath)) {
+                    ex.getResponseHeaders().add("Cache-Control", "public, max-age=86400");
+                    ex.sendResponseHeaders(204, -1);
+                    return;
+                }
+
+                String path = MonacoAssets.normalize(rawPath);
+                if (path == null) {
+                    sendText(ex, 400, "Bad Request");
+                    return;
+                }
+                MonacoAssets.Asset asset = assets.get(path);
+                if (asset == null) {
+                    sendText(ex, 404, "Not Found: " + rawPath);
+                    return;
+                }
+
+                Headers request = ex.getRequestHeaders();
+                Headers h = ex.getResponseHeaders();
+                h.add("Date", httpDate(System.currentTimeMillis()));
+                h.add("Last-Modified", httpDate(asset.lastModified()));
+                h.add("Cache-Control", asset.immutable() ? IMMUTABLE : REVALIDATE);
+                h.add("Vary", "Accept-Encoding");
+                h.add("Accept-Ranges", "bytes");
+
+                if (notModified(asset, request)) {
+                    h.add("ETag", asset.etag());
+                    ex.sendResponseHeaders(304, -1);
+                    return;
+                }
+
+                h.add("Content-Type", asset.contentType());
+                byte[] body = asset.bytes();
+                String encoding = null;
+                String range = request.getFirst("Range");
+                if (range != null && ifRangeMatches(asset, request.getFirst("If-Range"))) {
+                    long[] r = parseRange(range, body.length);
+                    if (r == null) {
+                        h.add("Content-Range", "bytes */" + body.length);
+                        sendText(ex, 416, "Range Not Satisfiable");
+                        return;
+                    }
+                    if (r.length == 2) {
+                        h.add("ETag", asset.etag());
+                        h.add("Content-Range", "bytes " + r[0] + "-" + r[1] + "/" + body.length);
+                        send(ex, 206, body, (int) r[0], (int) (r[1] - r[0] + 1), head);
+                        return;
+                    }
+                    // unsupported range forms (multiple ranges) get the whole resource
+                }
+
+                String accept = request.getFirst("Accept-Encoding");
+                byte[] gzip;
+                if (asset.brotli() != null && accepts(accept, "br")) {
+                    body = asset.brotli();
+                    encoding = "br";
+                } else if (accepts(accept, "gzip") && (gzip = assets.gzip(asset)) != null) {
+                    body = gzip;
+                    encoding = "gzip";
+                }
+                if (encoding != null) h.add("Content-Encoding", encoding);
+                h.add("ETag", asset.etag(encoding));
+                send(ex, 200, body, 0, body.length, head);
+            } catch (Throwable t) {
+                t.printStackTrace();
+                try {
+                    sendText(ex, 500, "Internal Server Error");
+                } catch (Throwable ignored) {
+                }
+            } finally {
+                ex.close();
+            }
+        }
+    }
+
+    // If-None-Match takes precedence over If-Modified-Since (RFC 9110 13.2.2)
+    private static boolean notModified(MonacoAssets.Asset asset, Headers request) {
+        String ifNoneMatch = request.getFirst("If-None-Match");
+        if (ifNoneMatch != null) return asset.matches(ifNoneMatch);
+        String ifModifiedSince = request.getFirst("If-Modified-Since");
+        if (ifModifiedSince == null) return false;
+        try {
+            long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME)
+                                      .toInstant().toEpochMilli();
+            return asset.lastModified() <= since;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private static boolean ifRangeMatches(MonacoAssets.Asset asset, String ifRange) {
+        return ifRange == null || ifRange.trim().equals(asset.etag());
+    }
+
+    /**
+     * Parse a single "bytes=" range against a resource of {@code length} bytes: {start, end} (inclusive),
+     * null if unsatisfiable, or an empty array if the header is not a single byte range.
+     */
+    static long[] parseRange(String header, long length) {
+        String spec = header.trim();
+        if (!spec.startsWith("bytes=") || spec.indexOf(',') >= 0) return new long[0];
+        spec = spec.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return new long[0];
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) return null;
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start >= length || start > end) return null;
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) return false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            if (!params[0].trim().equalsIgnoreCase(coding)) continue;
+            for (int i = 1; i < params.length; i++) {
+                String q = params[i].trim();
+                if (q.startsWith("q=") && q.substring(2).trim().matches("0(\\.0*)?")) return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static void send(HttpExchange ex, int code, byte[] bytes, int offset, int length, boolean head)
+            throws IOException {
+        if (head) {
+            ex.getResponseHeaders().add("Content-Length", Integer.toString(length));
+            ex.sendResponseHeaders(code, -1);
+            return;
+        }
+        ex.sendResponseHeaders(code, length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(bytes, offset, length);
+        }
+    }
+
+    private static void sendText(HttpExchange ex, int code, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+        ex.sendResponseHeaders(code, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static String httpDate(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC));
+    }
+}
@@ -0,0 +1,233 @@
+package org.integratedmodelling.klabeditor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-memory cache of the Monaco resources under {@value #RESOURCE_ROOT}, shared by the asset server and the
+ * {@code klab-monaco:} URL handler. Each resource is read from the classpath once, together with what is
+ * needed to serve it efficiently: content type, a content-hash ETag and last modification time. Text
+ * resources also get a gzip variant, computed the first time a client asks for it (or taken from a
+ * {@code .gz} sibling if packaged). Brotli variants are served only when a pre-compressed {@code .br}
+ * sibling is packaged, since the JDK has no encoder.
+ */
+final class MonacoAssets {
+
+    static final String RESOURCE_ROOT = "/org/integratedmodelling/klabeditor/monaco";
+
+    // Vite-style content-hashed chunks, e.g. vs/java-CI4ZMsH9.js or vs/assets/json.worker-DghZTZS7.js
+    private static final Pattern HASHED = Pattern.compile(".*-[A-Za-z0-9_-]{8}\\.(js|css)$");
+    private static final int MIN_COMPRESSIBLE = 1024;
+    // Last-Modified of resources whose connection does not report one
+    private static final long STARTED = System.currentTimeMillis();
+
+    private static final MonacoAssets SHARED = new MonacoAssets();
+
+    /**
+     * A cached resource. {@code brotli} is null when no pre-compressed variant is packaged.
+     */
+    record Asset(String path, byte[] bytes, byte[] brotli, String contentType, String etag, long lastModified,
+                 boolean immutable) {
+
+        String etag(String encoding) {
+            return encoding == null ? etag : etag.substring(0, etag.length() - 1) + "-" + encoding + '"';
+        }
+
+        boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) return false;
+            for (String tag : ifNoneMatch.split(",")) {
+                String t = tag.trim();
+                if (t.startsWith("W/")) t = t.substring(2);
+                if (t.equals("*") || t.equals(etag) || t.equals(etag("gzip")) || t.equals(etag("br"))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final Map<String, Optional<Asset>> cache = new ConcurrentHashMap<>();
+    private final Map<String, Optional<byte[]>> gzipCache = new ConcurrentHashMap<>();
+    private final AtomicBoolean preloading = new AtomicBoolean();
+
+    static MonacoAssets shared() {
+        return SHARED;
+    }
+
+    /**
+     * The resource at {@code path} (relative to the resource root, with or without leading slash), or null
+     * if it does not exist. Both hits and misses are cached.
+     */
+    Asset get(String path) {
+        String p = normalize(path);
+        if (p == null) return null;
+        return cache.computeIfAbsent(p, MonacoAssets::load).orElse(null);
+    }
+
+    /**
+     * The gzip variant of {@code asset}, or null if it is not worth compressing.
+     */
+    byte[] gzip(Asset asset) {
+        return gzipCache.computeIfAbsent(asset.path(), p -> {
+            if (asset.bytes().length < MIN_COMPRESSIBLE || !isCompressible(asset.contentType())) {
+                return Optional.empty();
+            }
+            try {
+                byte[] gzip = readSibling(p + ".gz");
+                if (gzip == null) gzip = gzip(asset.bytes());
+                return gzip.length < asset.bytes().length ? Optional.of(gzip) : Optional.empty();
+            } catch (IOException e) {
+                return Optional.empty();
+            }
+        }).orElse(null);
+    }
+
+    /**
+     * Run {@link #preload()} once, on a virtual thread.
+     */
+    void preloadAsync() {
+        if (preloading.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("monaco-assets-preload").start(this::preload);
+        }
+    }
+
+    /**
+     * Load every resource under the root into the cache, so that no later request touches the classpath.
+     * Works for exploded directories, jars and jlink images; returns the number of resources loaded.
+     */
+    int preload() {
+        URL root = MonacoAssets.class.getResource(RESOURCE_ROOT + "/index.html");
+        if (root == null) return 0;
+        try {
+            URI uri = root.toURI();
+            if ("jar".equals(uri.getScheme())) {
+                try {
+                    return preload(FileSystems.getFileSystem(uri).provider().getPath(uri).getParent());
+                } catch (FileSystemNotFoundException e) {
+                    try (FileSystem fs = FileSystems.newFileSystem(uri, Map.of())) {
+                        return preload(fs.provider().getPath(uri).getParent());
+                    }
+                }
+            }
+            return preload(Path.of(uri).getParent());
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            System.err.println("[MonacoAssets] Cannot list " + RESOURCE_ROOT + ", loading on demand: " + e);
+            return 0;
+        }
+    }
+
+    private int preload(Path dir) throws IOException {
+        List<String> paths;
+        try (Stream<Path> files = Files.walk(dir)) {
+            paths = files.filter(Files::isRegularFile)
+                         .map(f -> dir.relativize(f).toString().replace('\\', '/'))
+                         .filter(p -> !p.endsWith(".gz") && !p.endsWith(".br"))
+                         .toList();
+        }
+        paths.parallelStream().forEach(this::get);
+        return paths.size();
+    }
+
+    /**
+     * Canonical cache key: no leading slash, no classpath prefix, "" mapped to index.html; null if the path
+     * tries to leave the root.
+     */
+    static String normalize(String path) {
+        String p = path == null ? "" : path.replace('\\', '/');
+        while (p.contains("//")) p = p.replace("//", "/");
+        if (p.startsWith(RESOURCE_ROOT)) p = p.substring(RESOURCE_ROOT.length());
+        while (p.startsWith("/") || p.startsWith("./")) p = p.substring(p.startsWith("/") ? 1 : 2);
+        if (p.isEmpty()) p = "index.html";
+        if (p.contains("..")) return null;
+        return p;
+    }
+
+    private static Optional<Asset> load(String path) {
+        URL url = MonacoAssets.class.getResource(RESOURCE_ROOT + "/" + path);
+        if (url == null) return Optional.empty();
+        try {
+            URLConnection connection = url.openConnection();
+            long lastModified = connection.getLastModified();
+            byte[] bytes;
+            try (InputStream in = connection.getInputStream()) {
+                bytes = in.readAllBytes();
+            }
+            String contentType = guessContentType(path);
+            byte[] brotli = readSibling(path + ".br");
+            String etag = '"' + HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes), 0, 12)
+                    + '"';
+            // jrt: and some jar connections report 0; round down to seconds as HTTP dates do
+            long modified = (lastModified > 0 ? lastModified : STARTED) / 1000 * 1000;
+            return Optional.of(new Asset(path, bytes, brotli, contentType, etag, modified,
+                    HASHED.matcher(path).matches()));
+        } catch (IOException | NoSuchAlgorithmException e) {
+            System.err.println("[MonacoAssets] Failed to load " + path + ": " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private static byte[] readSibling(String path) throws IOException {
+        try (InputStream in = MonacoAssets.class.getResourceAsStream(RESOURCE_ROOT + "/" + path)) {
+            return in == null ? null : in.readAllBytes();
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 3);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out, 8192) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gz.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/") || contentType.startsWith("application/javascript")
+                || contentType.startsWith("application/json") || contentType.startsWith("image/svg");
+    }
+
+    static String guessContentType(String path) {
+        String lower = path.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".js")) return "application/javascript; charset=utf-8";
+        if (lower.endsWith(".mjs")) return "application/javascript; charset=utf-8";
+        if (lower.endsWith(".css")) return "text/css; charset=utf-8";
+        if (lower.endsWith(".map")) return "application/json; charset=utf-8";
+        if (lower.endsWith(".json")) return "application/json; charset=utf-8";
+        if (lower.endsWith(".html") || lower.endsWith(".htm")) return "text/html; charset=utf-8";
+        if (lower.endsWith(".ts")) return "text/plain; charset=utf-8";
+        if (lower.endsWith(".svg")) return "image/svg+xml";
+        if (lower.endsWith(".woff2")) return "font/woff2";
+        if (lower.endsWith(".woff")) return "font/woff";
+        if (lower.endsWith(".ttf")) return "font/ttf";
+        if (lower.endsWith(".png")) return "image/png";
+        if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) return "image/jpeg";
+        String ct = URLConnection.guessContentTypeFromName(path);
+        return ct != null ? ct : "application/octet-stream";
+    }
+}
@@ -0,0 +1,451 @@
+package org.integratedmodelling.klabeditor;
+
+import javafx.application.Platform;
+import javafx.scene.layout.StackPane;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * MonacoDiffView shows two versions of a document side by side in Monaco's diff editor, e.g. a k.IM file
+ * against its saved or committed version. The original is read-only; the modified text can be edited, and
+ * is mirrored in Java like the models of a {@link MonacoEditorView}.
+ * <p>
+ * The diff is computed by Monaco in the page, or with {@link DiffComputation#JAVA} by {@link LineDiff} in
+ * the background after every edit, Monaco only being handed the line changes. Monaco has no worker in the
+ * WebView, so its own diff runs on the page's single thread and stalls the UI on texts of a few MB; the Java
+ * diff does not, but it shows changed lines only, without the changes within them. {@link DiffComputation#AUTO},
+ * the default, uses the Java diff above {@link #AUTO_JAVA_CHARS} characters. If the bundle does not let a
+ * diff be handed to it, Monaco computes it anyway (see {@link #isJavaDiff()}).
+ * <p>
+ * A view takes a host from the pool it is given, or loads its own; while it is attached the host shows the
+ * diff editor instead of an editor. Methods may be called from any thread unless stated otherwise.
+ */
+public class MonacoDiffView extends StackPane {
+
+    /**
+     * Where the diff shown is computed.
+     */
+    public enum DiffComputation {
+        MONACO, JAVA, AUTO
+    }
+
+    /**
+     * Total length of the two texts above which {@link DiffComputation#AUTO} computes the diff in Java.
+     */
+    public static final int AUTO_JAVA_CHARS = 1 << 20;
+
+    // Time after an edit before the diff is computed again, so that typing does not diff on every key
+    private static final long DIFF_DELAY_MILLIS = 100;
+    private static final int PAYLOAD_THRESHOLD = 16 * 1024;
+    private static final Executor BACKGROUND = r -> Thread.ofVirtual().name("monaco-diff-bg").start(r);
+    private static final Executor DELAYED =
+            CompletableFuture.delayedExecutor(DIFF_DELAY_MILLIS, TimeUnit.MILLISECONDS, BACKGROUND);
+    // The fallback to diffing in the page is reported once: it comes from the Monaco build, not from a view
+    private static final AtomicBoolean JAVA_DIFF_WARNED = new AtomicBoolean();
+
+    private final MonacoHostPool pool;
+    // Accessed on the FX thread
+    private MonacoHost host;
+    private volatile CompletableFuture<Void> ready = new CompletableFuture<>();
+    // Strong reference: WebKit only holds a weak one to objects passed through setMember
+    private final DiffBridge javaBridge = new DiffBridge();
+    private final JsCommandQueue commands = new JsCommandQueue(this::exec, 256);
+    private final List<String> payloads = new ArrayList<>();
+    private int execDepth;
+
+    // Mirrors of the two sides; a side and its version change together under this lock
+    private final Object lock = new Object();
+    private final Side original = new Side("original");
+    private final Side modified = new Side("modified");
+    // Numbers the texts sent from Java, so that edits made in Monaco before one arrives are not applied to it
+    private int sequence;
+    private volatile String language = MonacoLanguages.PLAINTEXT;
+    private volatile String theme = "vs-dark";
+    private volatile DiffComputation computation = DiffComputation.AUTO;
+    // Whether the diff was asked of Java for the current texts, and whether Monaco took it
+    private volatile boolean javaRequested;
+    private volatile boolean javaDiff;
+    private final AtomicBoolean diffScheduled = new AtomicBoolean();
+    private volatile DiffResult lastDiff;
+
+    // One side of the diff: its mirror, the Monaco version it matches, and the text sent it is waiting for
+    private static final class Side {
+        final String name;
+        final TextDocument document = new TextDocument();
+        int version = -1;
+        int awaiting;
+
+        Side(String name) {
+            this.name = name;
+        }
+    }
+
+    private record DiffResult(int originalVersion, int modifiedVersion, LineDiff.Result result) {}
+
+    public MonacoDiffView() {
+        this(MonacoRuntime.sharedPoolIfWarm());
+    }
+
+    /**
+     * Create a view that borrows its WebEngine from {@code pool} (if not null) instead of loading its own.
+     */
+    public MonacoDiffView(MonacoHostPool pool) {
+        this.pool = pool;
+        setPrefSize(800, 600);
+        attach();
+    }
+
+    /**
+     * Take a host and show the diff in it. No-op if already attached. Must be called on the FX thread.
+     */
+    public void attach() {
+        if (host != null) return;
+        MonacoHost h = pool == null ? new MonacoHost() : pool.acquire();
+        host = h;
+        DebugWebView webView = h.getWebView();
+        getChildren().add(webView);
+        webView.prefWidthProperty().bind(widthProperty());
+        webView.prefHeightProperty().bind(heightProperty());
+
+        h.whenLoaded().thenAccept(loaded -> {
+            if (host != loaded) return;
+            loaded.bind(javaBridge);
+            commands.submitFirst("init", this::initScript);
+            commands.setReady(true);
+        });
+        CompletableFuture<Void> attached = ready;
+        h.whenEditorReady().thenAccept(r -> {
+            if (host != r) return;
+            commands.submit(null, () -> {
+                Platform.runLater(() -> attached.complete(null));
+                return null;
+            });
+        });
+    }
+
+    /**
+     * Release the host. The texts are kept and shown again by the next {@link #attach()}; undo history is
+     * lost. Must be called on the FX thread.
+     */
+    public void detach() {
+        MonacoHost h = host;
+        if (h == null) return;
+        commands.flush();
+        commands.setReady(false);
+        host = null;
+        if (ready.isDone()) ready = new CompletableFuture<>();
+        synchronized (lock) {
+            original.version = -1;
+            modified.version = -1;
+        }
+        DebugWebView webView = h.getWebView();
+        webView.prefWidthProperty().unbind();
+        webView.prefHeightProperty().unbind();
+        getChildren().remove(webView);
+        if (pool == null) {
+            h.dispose();
+        } else {
+            pool.release(h);
+        }
+    }
+
+    public boolean isAttached() {
+        return host != null;
+    }
+
+    /**
+     * Completes on the FX thread once the diff editor can be shown; again after each {@link #attach()}.
+     */
+    public CompletableFuture<Void> whenReady() {
+        return ready;
+    }
+
+    /**
+     * Show the diff of two texts, replacing both sides.
+     */
+    public void setDiff(String originalText, String modifiedText, String language) {
+        setDiff(originalText, modifiedText, language, theme);
+    }
+
+    public void setDiff(String originalText, String modifiedText, String language, String theme) {
+        String o = Objects.requireNonNullElse(originalText, "");
+        String m = Objects.requireNonNullElse(modifiedText, "");
+        this.language = language == null || language.isBlank() ? MonacoLanguages.PLAINTEXT
+                : MonacoLanguages.resolve(language);
+        if (theme != null) this.theme = theme;
+        synchronized (lock) {
+            original.document.setText(o);
+            modified.document.setText(m);
+            original.version = -1;
+            modified.version = -1;
+            // until initDiff runs; it then waits for its own sequence number
+            original.awaiting = ++sequence;
+            modified.awaiting = sequence;
+        }
+        lastDiff = null;
+        commands.submit("init", this::initScript);
+    }
+
+    /**
+     * Replace the original text, e.g. once the committed version has been read.
+     */
+    public void setOriginal(String text) {
+        setSide(original, Objects.requireNonNullElse(text, ""));
+    }
+
+    /**
+     * Replace the modified text, discarding edits made to it in the view.
+     */
+    public void setModified(String text) {
+        setSide(modified, Objects.requireNonNullElse(text, ""));
+    }
+
+    private void setSide(Side side, String text) {
+        int seq;
+        synchronized (lock) {
+            side.document.setText(text);
+            side.version = -1;
+            seq = ++sequence;
+            side.awaiting = seq;
+        }
+        lastDiff = null;
+        commands.submit("set:" + side.name, () -> "window.MonacoBridge.setDiffText(" + jsString(side.name) + ","
+                + jsPayload(text) + "," + seq + ");");
+    }
+
+    /**
+     * Set where diffs are computed from the next {@link #setDiff} on.
+     */
+    public void setDiffComputation(DiffComputation computation) {
+        this.computation = Objects.requireNonNull(computation, "computation");
+    }
+
+    public DiffComputation getDiffComputation() {
+        return computation;
+    }
+
+    /**
+     * Whether the diff shown is computed in Java.
+     */
+    public boolean isJavaDiff() {
+        return javaDiff;
+    }
+
+    public TextDocument.Snapshot getOriginalSnapshot() {
+        return original.document.snapshot();
+    }
+
+    /**
+     * The modified text, with the edits made in the view, without a round-trip to the page.
+     */
+    public TextDocument.Snapshot getModifiedSnapshot() {
+        return modified.document.snapshot();
+    }
+
+    public String getModifiedText() {
+        return modified.document.getText();
+    }
+
+    /**
+     * The last diff computed in Java for the texts as they are now, or null if there is none (yet), e.g.
+     * because Monaco computes the diff.
+     */
+    public LineDiff.Result getLineChanges() {
+        DiffResult diff = lastDiff;
+        if (diff == null) return null;
+        synchronized (lock) {
+            return diff.originalVersion == original.version && diff.modifiedVersion == modified.version
+                    ? diff.result : null;
+        }
+    }
+
+    // Creates the diff editor with the current texts; run at flush, on the FX thread
+    private String initScript() {
+        String o;
+        String m;
+        int seq;
+        synchronized (lock) {
+            o = original.document.getText();
+            m = modified.document.getText();
+            seq = ++sequence;
+            original.awaiting = seq;
+            modified.awaiting = seq;
+        }
+        DiffComputation c = computation;
+        javaRequested = c == DiffComputation.JAVA
+                || (c == DiffComputation.AUTO && (long) o.length() + m.length() > AUTO_JAVA_CHARS);
+        javaDiff = false;
+        return "window.MonacoBridge.initDiff(" + jsPayload(o) + "," + jsPayload(m) + "," + jsString(language) + ","
+                + jsString(theme) + "," + javaRequested + "," + seq + ");";
+    }
+
+    // -------------- Java diff --------------
+
+    private void scheduleDiff() {
+        if (javaDiff && diffScheduled.compareAndSet(false, true)) DELAYED.execute(this::computeDiff);
+    }
+
+    // Diffs the mirrors as they are and hands the result to Monaco, unless they changed in the meantime (a
+    // newer diff is then scheduled). Background thread.
+    private void computeDiff() {
+        diffScheduled.set(false);
+        TextDocument.Snapshot a;
+        TextDocument.Snapshot b;
+        int originalVersion;
+        int modifiedVersion;
+        synchronized (lock) {
+            if (original.version < 0 || modified.version < 0) return;
+            a = original.document.snapshot();
+            b = modified.document.snapshot();
+            originalVersion = original.version;
+            modifiedVersion = modified.version;
+        }
+        DiffResult previous = lastDiff;
+        if (previous != null && previous.originalVersion == originalVersion
+                && previous.modifiedVersion == modifiedVersion) {
+            return;
+        }
+        LineDiff.Result result;
+        try {
+            result = LineDiff.compute(a, b);
+        } catch (RuntimeException e) {
+            System.err.println("[MonacoDiffView] Diff failed: " + e.getMessage());
+            return;
+        }
+        synchronized (lock) {
+            if (original.version != originalVersion || modified.version != modifiedVersion) return;
+        }
+        lastDiff = new DiffResult(originalVersion, modifiedVersion, result);
+        String packed = pack(result);
+        commands.submit("diffResult", () -> "window.MonacoBridge.diffResult(" + originalVersion + ","
+                + modifiedVersion + "," + result.quitEarly() + "," + jsPayload(packed) + ");");
+    }
+
+    // Line numbers of the changes, four per change, comma-separated
+    private static String pack(LineDiff.Result result) {
+        StringBuilder sb = new StringBuilder(result.changes().size() * 24);
+        for (LineDiff.Change c : result.changes()) {
+            if (!sb.isEmpty()) sb.append(',');
+            sb.append(c.originalStart()).append(',').append(c.originalEnd()).append(',')
+              .append(c.modifiedStart()).append(',').append(c.modifiedEnd());
+        }
+        return sb.toString();
+    }
+
+    private Side side(String name) {
+        return original.name.equals(name) ? original : modified.name.equals(name) ? modified : null;
+    }
+
+    // -------------- Java<->JS glue helpers --------------
+
+    private void exec(String script) {
+        MonacoHost h = host;
+        execDepth++;
+        try {
+            if (h != null) h.exec(script);
+        } finally {
+            if (--execDepth == 0) payloads.clear();
+        }
+    }
+
+    private static String jsString(String s) {
+        return JsString.quote(s);
+    }
+
+    // As in MonacoEditorView: long strings are fetched by the script through DiffBridge.payload. FX thread only.
+    private String jsPayload(String s) {
+        if (s == null || s.length() < PAYLOAD_THRESHOLD) return jsString(s);
+        payloads.add(s);
+        return "window.JavaBridge.payload(" + (payloads.size() - 1) + ")";
+    }
+
+    /**
+     * Object exposed to JS as window.JavaBridge while the view is attached.
+     */
+    @SuppressWarnings("unused")
+    public class DiffBridge {
+
+        public String payload(int index) {
+            if (index < 0 || index >= payloads.size()) return null;
+            return payloads.set(index, null);
+        }
+
+        public void onEditorReady() {
+            MonacoHost h = host;
+            if (h != null) h.editorReady();
+        }
+
+        /**
+         * The diff editor was created; {@code javaDiff} tells whether it takes its diffs from Java.
+         */
+        public void onDiffEditorReady(boolean javaDiff) {
+            if (javaRequested && !javaDiff && JAVA_DIFF_WARNED.compareAndSet(false, true)) {
+                System.err.println("[MonacoDiffView] Cannot hand diffs to Monaco, computing them in the page; check"
+                        + " JAVA_DIFF_MONACO_VERSION in monaco-bridge.ts against the Monaco release");
+            }
+            MonacoDiffView.this.javaDiff = javaDiff;
+        }
+
+        /**
+         * The text a side was sent with {@code sequence} is in Monaco at {@code versionId}; {@code text} is
+         * that text if Monaco changed it (line endings), null otherwise.
+         */
+        public void onDiffSet(String name, int sequence, int versionId, String text) {
+            Side side = side(name);
+            if (side == null) return;
+            synchronized (lock) {
+                if (sequence != side.awaiting) return;
+                side.awaiting = 0;
+                if (text != null) side.document.setText(text);
+                side.version = versionId;
+            }
+            scheduleDiff();
+        }
+
+        /**
+         * One change of a side edited in the view, as a replaced range in its content before the change.
+         */
+        public void onDiffContentChanged(String name, int versionId, int rangeOffset, int rangeLength,
+                                         String text) {
+            Side side = side(name);
+            if (side == null) return;
+            synchronized (lock) {
+                // an edit to text that is being replaced from Java
+                if (side.awaiting != 0) return;
+                TextDocument document = side.document;
+                if (rangeOffset >= 0 && rangeLength >= 0 && rangeOffset + rangeLength <= document.getLength()) {
+                    document.replace(rangeOffset, rangeLength, text == null ? "" : text);
+                    side.version = versionId;
+                } else {
+                    System.err.println("[MonacoDiffView] Mirror of the " + name + " text out of sync at version "
+                            + versionId + ", resyncing");
+                    side.version = -1;
+                    side.awaiting = ++MonacoDiffView.this.sequence;
+                    exec("window.MonacoBridge.resyncDiff(" + jsString(name) + "," + side.awaiting + ");");
+                    return;
+                }
+            }
+            scheduleDiff();
+        }
+
+        /**
+         * The whole text of a side was replaced in the view, or its line endings converted.
+         */
+        public void onDiffReset(String name, int versionId, String text) {
+            Side side = side(name);
+            if (side == null) return;
+            synchronized (lock) {
+                if (side.awaiting != 0) return;
+                side.document.setText(text == null ? "" : text);
+                side.version = versionId;
+            }
+            scheduleDiff();
+        }
+    }
+}
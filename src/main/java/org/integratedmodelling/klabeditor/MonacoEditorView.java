@@ -1,20 +1,41 @@
 package org.integratedmodelling.klabeditor;
 
 import javafx.application.Platform;
-import javafx.beans.value.ChangeListener;
-import javafx.concurrent.Worker;
 import javafx.scene.Node;
 import javafx.scene.input.KeyCode;
 import javafx.scene.layout.StackPane;
-import javafx.scene.web.WebEngine;
 import javafx.scene.web.WebView;
-import netscape.javascript.JSObject;
 
+import java.io.IOException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * MonacoEditorView embeds a WebView that hosts the Microsoft Monaco editor and exposes a simple
@@ -36,18 +57,160 @@ import java.util.function.Consumer;
  * file and recompile to JS with your preferred toolchain. For this example, the precompiled JS is shipped and
  * used directly by the HTML.
  * <p>
- * 4) LSP integration: Proper Language Server Protocol support in Monaco requires integration with
- * monaco-languageclient and vscode-ws-jsonrpc, following the architecture explained here:
- * https://github.com/Barahlush/monaco-lsp-guide A bare WebSocket is not enough. The included bridge exposes a
- * stub "connectLsp" method with extensive comments on how to wire it once you bundle the required libraries.
+ * 4) LSP integration: {@link #connectLsp(LspMultiplexer, String)} routes the language features of a language
+ * to a server shared by all views. The bridge registers Monaco providers from the server capabilities and
+ * sends its JSON-RPC requests through the JavaBridge; documents are synchronized from the Java mirrors and
+ * diagnostics come back as markers. A server running as a separate process can be reached instead through
+ * an {@link LspRelayServer} endpoint with {@link #connectLsp(String, String)}.
+ * <p>
+ * 5) Validation: {@link #setValidationEngine(ValidationEngine)} runs the validators registered for the
+ * language of each model in the background after edits, and shows their diagnostics as markers.
+ * <p>
+ * 6) Highlighting from Java: {@link #setTokenizer(String, TokenizerProvider)} provides the semantic tokens
+ * of a language, e.g. one that has no Monarch grammar in the bundle, from a Java lexer.
+ * <p>
+ * 7) Completion from Java: {@link #registerCompletionProvider(String, CompletionProvider)} answers Monaco's
+ * completion requests for a language, e.g. from a {@link PrefixIndex} over a vocabulary.
+ * <p>
+ * 8) Large files: {@link #openFile(Path, String, Consumer)} reads a file through a memory mapping into the
+ * mirror in the background and streams it into Monaco in chunks, turning off the editor features that do
+ * not scale above the sizes set with {@link #setLargeFileLimits(LargeFileLimits)}.
+ * <p>
+ * 9) Session: with a {@link SessionStore} set through {@link #setSessionStore(SessionStore)}, the view state
+ * of each model (cursor, selections, scroll position and folding) is saved on {@link #saveSession()},
+ * {@link #detach()} and {@link #closeModel(String)}, and restored the first time the model is shown again
+ * with the same content.
+ * <p>
+ * 10) Saving: a model opened with {@link #openFile} (or given a file with {@link #setFile}) is saved to it by
+ * {@link #save(String)}, Ctrl+S and, with {@link #setAutosaveInterval(Duration)}, periodically while it has
+ * unsaved changes. Writes go through one I/O thread shared by all views, which coalesces repeated saves,
+ * skips content that is already on disk and replaces files atomically. Unsaved changes are tracked from
+ * Monaco's alternative version id, so undoing back to the saved content makes a model clean again.
+ * <p>
+ * 11) Find and replace: {@link #find} and {@link #findAll} search the Java mirrors of one or all open models
+ * in parallel with {@link TextSearch}, rather than in the page, and highlight the matches in batches as they
+ * are found. {@link #replaceAll(String, String, String, TextSearch.Options)} replaces every match of a model
+ * in one edit.
  */
 public class MonacoEditorView extends StackPane {
 
-    private final DebugWebView webView = new DebugWebView(false);
-    private final WebEngine webEngine = webView.getEngine();
+    // Source of the host when attaching; null for a host of our own, created and disposed with the view
+    private final MonacoHostPool pool;
+    // WebEngine currently displaying our models, null while detached. Accessed on the FX thread.
+    private MonacoHost host;
+    // Completes once the editor of the current host has shown the active model; replaced on detach
+    private volatile CompletableFuture<Void> ready = new CompletableFuture<>();
+
+    // Strong reference: WebKit only holds a weak one to objects passed through setMember
+    private final JavaBridge javaBridge = new JavaBridge();
+
+    /**
+     * URI of the model that exists from construction, used by the single-document API.
+     */
+    public static final String DEFAULT_MODEL_URI = "inmemory://klab/default";
+
+    // Open documents by URI. Each keeps its Java mirror for as long as it is open, even when its Monaco
+    // model has been disposed to stay within the memory budget.
+    private final Map<String, Model> models = new ConcurrentHashMap<>();
+    private volatile Model active;
+    private final AtomicLong useCounter = new AtomicLong();
+    private volatile long modelMemoryBudget = 32L * 1024 * 1024;
+
+    // Counters of the calls into JS and of the callbacks from it, published over JMX while attached
+    private final BridgeMetrics metrics = new BridgeMetrics(this::getQueueStatistics);
+    private static final AtomicInteger VIEWS = new AtomicInteger();
+    private final String metricsName = "editor-" + VIEWS.incrementAndGet();
+
+    // All calls into JS go through this queue, which batches them into one script per FX pulse
+    private final JsCommandQueue commands = new JsCommandQueue(this::exec, 1024, metrics);
+    private volatile boolean lineNumbers = true;
+
+    // Queries awaiting their JavaBridge.resolveQuery/rejectQuery callback, by id
+    private final Map<Integer, CompletableFuture<String>> pendingQueries = new ConcurrentHashMap<>();
+    private final AtomicInteger nextQueryId = new AtomicInteger();
+
+    // LSP sessions by language id; models of that language are open in the session
+    private final Map<String, LspMultiplexer.Session> lspSessions = new ConcurrentHashMap<>();
+    // WebSocket endpoints connected directly from the page, by language
+    private final Map<String, String> lspEndpoints = new ConcurrentHashMap<>();
+    // Background validation of the open models; null when not validating
+    private volatile ValidationEngine.Session validation;
+    // Java lexers providing the semantic tokens of languages
+    private final Map<String, TokenizerProvider> tokenizers = new ConcurrentHashMap<>();
+    // Java completion providers by language, and the cancellation flags of the requests still running, by
+    // the id the bridge gave them
+    private final Map<String, CompletionProvider> completionProviders = new ConcurrentHashMap<>();
+    private final Map<Integer, AtomicBoolean> completions = new ConcurrentHashMap<>();
+    // Sizes above which models opened from files lose editor features, and the number of characters sent
+    // per script when streaming one into Monaco
+    private volatile LargeFileLimits largeFileLimits = LargeFileLimits.DEFAULT;
+    private static final int STREAM_CHUNK = 1 << 20;
+    // Strings above this length are not inlined in scripts but fetched by the script through
+    // JavaBridge.payload, so that JavaScriptCore never has to parse them as literals
+    private static final int PAYLOAD_THRESHOLD = 16 * 1024;
+    // Payloads of the script being built, by index; taken by the script or dropped once it has run. FX thread
+    // only.
+    private final List<String> payloads = new ArrayList<>();
+    private int execDepth;
+    // Find: the search whose matches are highlighted, and its number; highlights of older ones are dropped
+    private volatile CompletableFuture<?> search;
+    private final AtomicInteger searchGeneration = new AtomicInteger();
+    // Where view states are saved and restored from; null when not persisting them
+    private volatile SessionStore sessionStore;
+    // Saving: the text of models saved with Ctrl+S or save() is also given to the callback, if any
+    private final Consumer<String> saveCallback;
+    private volatile BiConsumer<String, Boolean> dirtyListener;
+    private volatile Duration autosaveInterval;
+    // Periodic autosave while attached; FX thread only
+    private ScheduledFuture<?> autosave;
+    private static final ScheduledExecutorService AUTOSAVE =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("monaco-autosave").factory());
+    // Saved alternative version of a model whose Monaco model is being (re)created: the first version it
+    // reports is taken as saved unless the model had unsaved changes. Monaco's ids start at 1.
+    private static final int REBASE = 0;
+    // Saved alternative version of a model whose saved content is no state of its Monaco model
+    private static final int NOT_SAVED = -1;
+    // Searches of a replace-all whose model keeps being edited before the replacement can be applied
+    private static final int REPLACE_ATTEMPTS = 3;
+
+    // Work derived from query results (e.g. materializing large texts) never runs on the FX thread
+    private static final Executor BACKGROUND = r -> Thread.ofVirtual().name("monaco-editor-bg").start(r);
+
+    /**
+     * A selection in Monaco coordinates (1-based lines and columns), start always before end.
+     */
+    public record Selection(int startLineNumber, int startColumn, int endLineNumber, int endColumn) {
+        public boolean isEmpty() {
+            return startLineNumber == endLineNumber && startColumn == endColumn;
+        }
+    }
+
+    /**
+     * File sizes in bytes above which a model opened with {@link #openFile} is shown without the minimap,
+     * without folding, without word-based suggestions, and without tokenization. Above {@code tokenization}
+     * the model is shown as plaintext, and language servers, validators and Java tokenizers ignore it too.
+     */
+    public record LargeFileLimits(long minimap, long folding, long wordBasedSuggestions, long tokenization) {
+
+        public static final LargeFileLimits DEFAULT =
+                new LargeFileLimits(4L << 20, 8L << 20, 2L << 20, 16L << 20);
+    }
+
+    /**
+     * Progress of {@link #openFile}: characters shown in the editor so far, out of a total that is an
+     * estimate until the whole file has been read.
+     */
+    public record LoadProgress(String uri, long loaded, long total, boolean done) {
+
+        public double fraction() {
+            return done ? 1 : total <= 0 ? 0 : Math.min(1, (double) loaded / total);
+        }
+    }
 
-    private final AtomicBoolean pageLoaded = new AtomicBoolean(false);
-    private volatile JSObject window;
+    /**
+     * Owner of the markers created through {@link #createMarker} and {@link #createMarkerByOffset}.
+     */
+    public static final String DEFAULT_MARKER_OWNER = "java-bridge";
 
     // Memorize last requested init so we can re-apply if needed
     private String initialText = "";
@@ -58,67 +221,151 @@ public class MonacoEditorView extends StackPane {
         this(null);
     }
 
+    /**
+     * Create a view with its own host, or with one from the shared pool if {@link MonacoRuntime#prewarm}
+     * was called.
+     */
     public MonacoEditorView(Consumer<String> saveCallback) {
-        getChildren().add(webView);
+        this(saveCallback, MonacoRuntime.sharedPoolIfWarm());
+    }
+
+    /**
+     * Create a view that borrows its WebEngine from {@code pool} instead of loading its own. With a warm
+     * pool the editor is shown as soon as the active model is created, without a page load. The host is
+     * returned to the pool by {@link #detach()}.
+     */
+    public MonacoEditorView(Consumer<String> saveCallback, MonacoHostPool pool) {
+        this.pool = pool;
+        this.saveCallback = saveCallback;
+        active = new Model(DEFAULT_MODEL_URI);
+        active.lastUsed = useCounter.incrementAndGet();
+        models.put(DEFAULT_MODEL_URI, active);
+
         setPrefSize(800, 600);
 
+        onKeyPressedProperty().setValue(event -> {
+            Model model = active;
+            if (event.isControlDown() && event.getCode() == KeyCode.S
+                    && (model.path != null || saveCallback != null)) {
+                save(model).exceptionally(t -> {
+                    System.err.println("[MonacoEditorView] Save failed: " + t.getMessage());
+                    return null;
+                });
+            }
+        });
+
+        attach();
+    }
+
+    /**
+     * Take a host (from the pool, if any) and show the active model in it. Models are recreated in the
+     * host from their Java mirrors: the active one immediately, the others when switched to. No-op if
+     * already attached. Must be called on the FX thread.
+     */
+    public void attach() {
+        if (host != null) return;
+        MonacoHost h = pool == null ? new MonacoHost() : pool.acquire();
+        host = h;
+        metrics.register(metricsName);
+        scheduleAutosave();
+        DebugWebView webView = h.getWebView();
+        getChildren().add(webView);
         // Ensure WebView fills the container
         webView.setPrefSize(RegionU.width(this), RegionU.height(this));
         RegionU.bindToParent(this, webView);
 
-        // Expose a Java connector for callbacks from JS
-        webEngine.getLoadWorker().stateProperty().addListener(pageLoadListener());
-
-        if (saveCallback != null) {
-            onKeyPressedProperty().setValue(event -> {
-                if (event.isControlDown() && event.getCode() == KeyCode.S) {
-                    Thread.ofVirtual().start(() -> saveCallback.accept(getText()));
-                }
+        h.whenLoaded().thenAccept(loaded -> {
+            if (host != loaded) return;
+            // Provide a Java connector object callable from JS: window.JavaBridge
+            loaded.bind(javaBridge);
+            // Initialize the editor with the active model first, then run whatever was requested while
+            // not attached
+            commands.submitFirst("init", initCommand(active, null));
+            commands.submit("lineNumbers", "window.MonacoBridge && window.MonacoBridge.setLineNumbers("
+                    + lineNumbers + ");");
+            for (String languageId : lspSessions.keySet()) {
+                commands.submit("lsp:" + languageId, lspConnectScript(languageId));
+            }
+            lspEndpoints.forEach((languageId, wsUrl) ->
+                    commands.submit("lsp:" + languageId, lspConnectScript(wsUrl, languageId)));
+            tokenizers.forEach((languageId, tokenizer) ->
+                    commands.submit("tokenizer:" + languageId, tokenizerScript(languageId, tokenizer)));
+            completionProviders.forEach((languageId, provider) ->
+                    commands.submit("completion:" + languageId, completionScript(languageId, provider)));
+            commands.setReady(true);
+        });
+        CompletableFuture<Void> attached = ready;
+        h.whenEditorReady().thenAccept(r -> {
+            if (host != r) return;
+            // once the script with the init command, queued first, has run
+            commands.submit(null, () -> {
+                Platform.runLater(() -> attached.complete(null));
+                return null;
             });
-        }
+        });
+    }
 
-        // Load the editor host page from classpath
-        URL url = MonacoEditorView.class.getResource("/org/integratedmodelling/klabeditor/monaco/index.html");
-        if (url == null) {
-            // Helpful message if resources are missing
-            String msg = "Missing Monaco resources. Please copy the 'vs' folder from monaco-editor and " +
-                    "ensure index.html exists under /org/integratedmodelling/klabeditor/monaco";
-            webEngine.loadContent("<html><body><pre>" + escapeHtml(msg) + "</pre></body></html>");
+    /**
+     * Release the host, returning it to the pool (or disposing it if the view owns it). Content, markers
+     * and pending calls are kept on the Java side and replayed by the next {@link #attach()}; undo history
+     * is lost, and so is the view state unless a {@link SessionStore} is set. Must be called on the FX thread.
+     */
+    public void detach() {
+        MonacoHost h = host;
+        if (h == null) return;
+        saveSession();
+        commands.flush();
+        autosave();
+        commands.setReady(false);
+        host = null;
+        metrics.unregister();
+        scheduleAutosave();
+        if (ready.isDone()) ready = new CompletableFuture<>();
+        for (Model model : models.values()) {
+            released(model);
+            model.sessionChecked = false;
+        }
+        DebugWebView webView = h.getWebView();
+        webView.prefWidthProperty().unbind();
+        webView.prefHeightProperty().unbind();
+        getChildren().remove(webView);
+        if (pool == null) {
+            h.dispose();
         } else {
-            // In debug mode we prefer to open the external browser with query parameters when loadEditor() is called.
-            if (!webView.isDebug()) {
-                webEngine.load(url.toExternalForm());
-            }
+            pool.release(h);
         }
     }
 
-    private ChangeListener<Worker.State> pageLoadListener() {
-        return (obs, old, state) -> {
-            if (state == Worker.State.SUCCEEDED) {
-                pageLoaded.set(true);
-                window = (JSObject) webEngine.executeScript("window");
-
-                // Provide a Java connector object callable from JS: window.JavaBridge
-                JSObject win = window;
-                win.setMember("JavaBridge", new JavaBridge());
+    public boolean isAttached() {
+        return host != null;
+    }
 
-                // If we had initial text requested before page loaded, initialize now
-                Platform.runLater(() -> initEditor(initialText, initialLanguage, initialTheme));
-            }
-        };
+    /**
+     * Completes on the FX thread once the page has reported the editor as loaded through
+     * {@code JavaBridge.onEditorReady} and the editor shows the active model, i.e. once calls take effect
+     * without waiting for the bundle to load. After a {@link #detach()}, completes again once attached.
+     */
+    public CompletableFuture<Void> whenReady() {
+        return ready;
     }
 
     /**
      * Initialize the editor with provided content and configuration. This can be called multiple times;
-     * subsequent calls will update the model text and language.
+     * subsequent calls will update the text and language of the active model. A language that is not
+     * packaged with the bundle (see {@link MonacoLanguages}) is shown as plaintext.
      */
     public void loadEditor(String text, String language, String theme) {
-        if (language == null || language.isBlank()) language = "plaintext";
+        language = MonacoLanguages.resolve(language);
         if (theme == null || theme.isBlank()) theme = "vs"; // vs-dark
         this.initialText = text == null ? "" : text;
         this.initialLanguage = language;
         this.initialTheme = theme;
-        if (webView.isDebug()) {
+        Model model = active;
+        model.language = language;
+        syncLsp(model);
+        syncValidation(model);
+        MonacoHost h = host;
+        if (h != null && h.getWebView().isDebug()) {
             // Build a classpath URL to index.html with query parameters so the external browser can auto-bootstrap
             URL url = MonacoEditorView.class.getResource("/org/integratedmodelling/klabeditor/monaco/index.html");
             if (url != null) {
@@ -126,136 +373,1738 @@ public class MonacoEditorView extends StackPane {
                 String q = "?language=" + URLEncoder.encode(initialLanguage, StandardCharsets.UTF_8)
                         + "&theme=" + URLEncoder.encode(initialTheme, StandardCharsets.UTF_8)
                         + "&text=" + URLEncoder.encode(initialText, StandardCharsets.UTF_8);
-                webEngine.load(base + q);
+                h.getEngine().load(base + q);
             } else {
                 // Fall back to embedded message (even though in debug we don't display it internally)
                 String msg = "Missing Monaco resources. Please copy the 'vs' folder from monaco-editor and " +
                         "ensure index.html exists under /org/integratedmodelling/klabeditor/monaco";
-                webEngine.loadContent("<html><body><pre>" + escapeHtml(msg) + "</pre></body></html>");
+                h.getEngine().loadContent("<html><body><pre>" + escapeHtml(msg) + "</pre></body></html>");
             }
             return;
         }
-        if (pageLoaded.get()) {
-            initEditor(initialText, initialLanguage, initialTheme);
+        if (!commands.isReady()) {
+            // picked up from the mirror by the init command submitted on page load
+            mirrorSetText(model, initialText);
+            contentChanged(model);
+            return;
+        }
+        commands.submit("init", initCommand(model, initialText));
+    }
+
+    // Creates the editor showing the model; text is taken from the mirror when null
+    private Supplier<String> initCommand(Model model, String text) {
+        return () -> {
+            if (model.large && text == null) return streamScript(model, true);
+            String content = prepareModel(model, text);
+            restoreSession(model);
+            return "window.MonacoBridge && window.MonacoBridge.init(" + jsPayload(content) + "," + jsString(
+                    model.language) + "," + jsString(initialTheme) + "," + jsString(model.uri) + ");"
+                    + markerScripts(model);
+        };
+    }
+
+    /**
+     * Open a document in its own Monaco model, identified by {@code uri}, without showing it. Each model
+     * keeps its own undo history, markers and (once shown) view state. Opening a URI that is already open
+     * updates its content as a minimal edit instead.
+     */
+    public void openModel(String uri, String text, String language) {
+        Objects.requireNonNull(uri, "uri");
+        String content = text == null ? "" : text;
+        String lang = language == null || language.isBlank() ? null : MonacoLanguages.resolve(language);
+        Model model = models.get(uri);
+        if (model != null && (lang == null || lang.equals(model.language))) {
+            setText(model, content);
+            return;
+        }
+        if (model == null) {
+            model = models.computeIfAbsent(uri, Model::new);
+            model.lastUsed = useCounter.incrementAndGet();
+        }
+        if (lang != null) model.language = lang;
+        if (!commands.isReady()) {
+            mirrorSetText(model, content);
+        }
+        syncLsp(model);
+        syncValidation(model);
+        Model m = model;
+        commands.submit("open:" + uri, () -> materialize(m, content));
+    }
+
+    /**
+     * Show the model of {@code uri} in the editor. Switching between models that are still in memory only
+     * swaps the model and restores its view state; no content is sent. A model disposed by the memory
+     * budget is recreated from its Java mirror first, with an empty undo history.
+     *
+     * @throws IllegalArgumentException if no model is open for {@code uri}
+     */
+    public void switchTo(String uri) {
+        Model model = models.get(uri);
+        if (model == null) throw new IllegalArgumentException("No open model for " + uri);
+        model.lastUsed = useCounter.incrementAndGet();
+        active = model;
+        // only the last of a burst of switches matters
+        commands.submit("switch", () -> {
+            String open = model.resident ? "" : materialize(model, null);
+            restoreSession(model);
+            return open + "window.MonacoBridge && window.MonacoBridge.switchTo(" + jsString(model.uri) + ");"
+                    + evictionScript();
+        });
+    }
+
+    /**
+     * Close the model of {@code uri}, discarding its content, markers and history. Closing the active model
+     * shows the most recently used remaining one, or an empty default model if none is left. On the FX
+     * thread, the view state of the model is saved to the session store first, if one is set.
+     */
+    public void closeModel(String uri) {
+        Model model = models.get(uri);
+        if (model == null) return;
+        if (Platform.isFxApplicationThread()) saveSession();
+        if (!models.remove(uri, model)) return;
+        SavePipeline.shared().forget(model);
+        if (model.path != null) SavePipeline.shared().forget(model.path);
+        syncLsp(model);
+        syncValidation(model);
+        commands.submit(null, () -> {
+            model.resident = false;
+            return "window.MonacoBridge && window.MonacoBridge.closeModel(" + jsString(uri) + ");";
+        });
+        if (active == model) {
+            Model next = models.values().stream().max(Comparator.comparingLong(m -> m.lastUsed)).orElse(null);
+            if (next == null) openModel(DEFAULT_MODEL_URI, "", null);
+            switchTo(next == null ? DEFAULT_MODEL_URI : next.uri);
+        }
+    }
+
+    /**
+     * Approximate number of characters that Monaco models may hold. Beyond it, the least recently shown
+     * models are disposed (their Java mirror is kept) until the total fits again; the active model is never
+     * disposed. Checked on every {@link #switchTo(String)}.
+     */
+    public void setModelMemoryBudget(long chars) {
+        modelMemoryBudget = chars;
+    }
+
+    public long getModelMemoryBudget() {
+        return modelMemoryBudget;
+    }
+
+    /**
+     * URIs of all open models, including those currently disposed in Monaco.
+     */
+    public List<String> getOpenModels() {
+        return List.copyOf(models.keySet());
+    }
+
+    public String getActiveModelUri() {
+        return active.uri;
+    }
+
+    // Makes the model resident: normalizes its text (from the mirror when null) to the end-of-line sequence
+    // Monaco will detect, stores it in the mirror and returns it. FX thread only.
+    private String prepareModel(Model model, String text) {
+        String current = text == null ? model.document.getText() : text;
+        String modelEol = TextDocument.detectEol(current);
+        String content = TextDocument.normalizeEol(current, modelEol);
+        model.eol = modelEol;
+        if (text != null || !content.equals(current)) {
+            mirrorSetText(model, content);
+            contentChanged(model);
         }
+        model.resident = true;
+        return content;
+    }
+
+    // Creates (or overwrites) the Monaco model and reapplies the markers it had
+    private String materialize(Model model, String text) {
+        if (model.large && text == null) return streamScript(model, false);
+        String content = prepareModel(model, text);
+        return "window.MonacoBridge && window.MonacoBridge.openModel(" + jsString(model.uri) + "," + jsPayload(
+                content) + "," + jsString(model.language) + ");" + markerScripts(model);
     }
 
-    private void initEditor(String text, String language, String theme) {
-        String js = "window.MonacoBridge && window.MonacoBridge.init(" + jsString(text) + "," + jsString(
-                language) + "," + jsString(theme) + ");";
-        safeExec(js);
+    // Disposes least recently used Monaco models beyond the memory budget. FX thread only.
+    private String evictionScript() {
+        List<Model> resident = new ArrayList<>();
+        for (Model model : models.values()) {
+            if (model.resident) resident.add(model);
+        }
+        resident.sort(Comparator.comparingLong((Model m) -> m.lastUsed).reversed());
+        long total = 0;
+        StringBuilder js = new StringBuilder();
+        for (Model model : resident) {
+            total += model.document.getLength();
+            // a model still loading is never evicted, or its load would wait to be shown again
+            if (model != active && model.load == null && total > modelMemoryBudget) {
+                released(model);
+                js.append("window.MonacoBridge && window.MonacoBridge.disposeModel(").append(jsString(model.uri))
+                  .append(");");
+            }
+        }
+        return js.toString();
     }
 
     /**
-     * Set entire editor text.
+     * Set entire editor text. Only the region that actually differs from the current content is sent to
+     * Monaco, as a single edit, so undo history and unchanged text are preserved.
      */
     public void setText(String text) {
-        this.initialText = text == null ? "" : text;
-        safeExec("window.MonacoBridge && window.MonacoBridge.setText(" + jsString(initialText) + ");");
+        setText(active, text == null ? "" : text);
+    }
+
+    private void setText(Model model, String newText) {
+        if (!commands.isReady()) {
+            if (!model.document.getText().equals(newText)) setDirty(model, true);
+            mirrorSetText(model, newText);
+            contentChanged(model);
+        }
+        commands.submit("text:" + model.uri, () -> {
+            String target = TextDocument.normalizeEol(newText, model.eol);
+            String current = model.document.getText();
+            int prefix = 0;
+            int max = Math.min(current.length(), target.length());
+            while (prefix < max && current.charAt(prefix) == target.charAt(prefix)) prefix++;
+            int suffix = 0;
+            while (suffix < max - prefix && current.charAt(current.length() - 1 - suffix) == target.charAt(
+                    target.length() - 1 - suffix)) suffix++;
+            int removed = current.length() - prefix - suffix;
+            String inserted = target.substring(prefix, target.length() - suffix);
+            return removed > 0 || !inserted.isEmpty() ? applyEdit(model, prefix, removed, inserted) : null;
+        });
+    }
+
+    /**
+     * Replace {@code length} characters starting at {@code offset} with {@code text}. The edit is applied
+     * to the Java mirror and sent to Monaco as a delta; it becomes part of the editor's undo history.
+     */
+    public void replaceText(int offset, int length, String text) {
+        String t = text == null ? "" : text;
+        Model model = active;
+        if (!commands.isReady()) {
+            editMirror(model, offset, length, TextDocument.normalizeEol(t, model.eol));
+            return;
+        }
+        commands.submit(null, () -> applyEdit(model, offset, length, TextDocument.normalizeEol(t, model.eol)));
+    }
+
+    // Every change to a mirror goes through mirrorReplace or mirrorSetText, which keep its tokens, and the
+    // part of it already streamed into Monaco, in step
+    private static void mirrorReplace(Model model, int offset, int length, String text) {
+        int streamed = model.streamed;
+        if (streamed >= 0 && offset <= streamed) {
+            model.streamed = streamed - Math.min(length, streamed - offset) + (text == null ? 0 : text.length());
+        }
+        SemanticTokenCache cache = model.tokens;
+        if (cache != null) {
+            TextDocument.Snapshot before = model.document.snapshot();
+            int startLine = before.getPositionAt(offset).lineNumber() - 1;
+            int oldEndLine = before.getPositionAt(offset + length).lineNumber() - 1;
+            int breaks = 0;
+            for (int i = 0, n = text == null ? 0 : text.length(); i < n; i++) {
+                if (text.charAt(i) == '\n') breaks++;
+            }
+            cache.edited(startLine, oldEndLine, startLine + breaks);
+        }
+        model.document.replace(offset, length, text);
+    }
+
+    private static void mirrorSetText(Model model, String text) {
+        model.document.setText(text);
+        if (model.streamed >= 0) model.streamed = model.document.getLength();
+        SemanticTokenCache cache = model.tokens;
+        if (cache != null) cache.reset(model.document.snapshot().getLineCount());
+    }
+
+    // An edit of the mirror made through the API, attached or not
+    private void editMirror(Model model, int offset, int length, String text) {
+        mirrorReplace(model, offset, length, text);
+        contentChanged(model);
+        // made clean again by the version Monaco reports, if undone back to the saved content
+        setDirty(model, true);
+    }
+
+    // Applies the edit to the mirror and returns the script that applies it to the model
+    private String applyEdit(Model model, int offset, int length, String text) {
+        int streamed = model.streamed;
+        editMirror(model, offset, length, text);
+        // while being streamed, the Monaco model only holds the first streamed characters of the mirror
+        if (streamed >= 0) {
+            if (offset > streamed) return null;
+            length = Math.min(length, streamed - offset);
+        }
+        return "window.MonacoBridge && window.MonacoBridge.applyEdits(" + jsString(model.uri) + ",[[" + offset
+                + "," + length + "," + jsPayload(text) + "]]);";
     }
 
     /**
      * Toggle line number visibility.
      */
     public void setLineNumbers(boolean show) {
-        safeExec("window.MonacoBridge && window.MonacoBridge.setLineNumbers(" + show + ");");
+        lineNumbers = show;
+        commands.submit("lineNumbers", "window.MonacoBridge && window.MonacoBridge.setLineNumbers(" + show + ");");
+    }
+
+    /**
+     * Scroll the editor so that {@code lineNumber} (1-based) is at the top of the viewport.
+     */
+    public void revealLine(int lineNumber) {
+        commands.submit("reveal", "window.MonacoBridge && window.MonacoBridge.revealLine(" + lineNumber + ");");
     }
 
     /**
      * Query current line numbers visibility. Defaults to true if unknown.
      */
     public boolean isLineNumbersVisible() {
-        Object result = safeEval(
-                "(window.MonacoBridge && window.MonacoBridge.isLineNumbersVisible) ? window.MonacoBridge" + ".isLineNumbersVisible() : true");
-        if (result instanceof Boolean b) return b;
-        return true;
+        return lineNumbers;
     }
 
-
     /**
-     * Get current text content from the editor.
+     * Get current text content of the active model. The text is served from the Java-side mirror of the
+     * Monaco model, so no JavaScript is evaluated and the call is safe from any thread.
      *
      * @return Current text content, or empty string if not available
      */
     public String getText() {
-        Object result = safeEval(
-                "window.MonacoBridge && window.MonacoBridge.getText ? window.MonacoBridge.getText() : ''");
-        return result != null ? result.toString() : "";
+        // on the FX thread, make sure edits still queued are reflected
+        if (Platform.isFxApplicationThread()) commands.flush();
+        return active.document.getText();
+    }
+
+    /**
+     * Immutable view of the current content of the active model, for analyzers that need to resolve offsets,
+     * lines and positions without calling into JS. Cheap to take and safe to read from any thread.
+     */
+    public TextDocument.Snapshot getSnapshot() {
+        return active.document.snapshot();
+    }
+
+    /**
+     * Immutable view of the content of the model of {@code uri}, or null if it is not open.
+     */
+    public TextDocument.Snapshot getSnapshot(String uri) {
+        Model model = models.get(uri);
+        return model == null ? null : model.document.snapshot();
+    }
+
+    /**
+     * Snapshot of the active model once every call issued so far has been applied to it. Never blocks; the
+     * future completes on the FX thread.
+     */
+    public CompletableFuture<TextDocument.Snapshot> getSnapshotAsync() {
+        Model model = active;
+        CompletableFuture<TextDocument.Snapshot> result = new CompletableFuture<>();
+        commands.submit(null, () -> {
+            result.complete(model.document.snapshot());
+            return null;
+        });
+        return result;
+    }
+
+    /**
+     * Text content once every call issued so far has been applied. The string is materialized off the FX
+     * thread, so this is the call to use for saving large buffers.
+     */
+    public CompletableFuture<String> getTextAsync() {
+        return getSnapshotAsync().thenApplyAsync(TextDocument.Snapshot::getText, BACKGROUND);
+    }
+
+    /**
+     * Primary selection of the editor, or null if the editor has none.
+     */
+    public CompletableFuture<Selection> getSelectionAsync() {
+        return query("selection").thenApply(r -> {
+            int[] v = parseInts(r, 4);
+            return v == null ? null : new Selection(v[0], v[1], v[2], v[3]);
+        });
+    }
+
+    /**
+     * Cursor position of the editor, or null if the editor has none.
+     */
+    public CompletableFuture<TextDocument.Position> getCursorAsync() {
+        return query("cursor").thenApply(r -> {
+            int[] v = parseInts(r, 2);
+            return v == null ? null : new TextDocument.Position(v[0], v[1]);
+        });
+    }
+
+    /**
+     * Text of the primary selection, extracted from the Java mirror.
+     */
+    public CompletableFuture<String> getSelectedTextAsync() {
+        Model model = active;
+        return getSelectionAsync().thenApply(sel -> {
+            if (sel == null || sel.isEmpty()) return "";
+            TextDocument.Snapshot snapshot = model.document.snapshot();
+            int start = snapshot.getOffsetAt(sel.startLineNumber(), sel.startColumn());
+            int end = snapshot.getOffsetAt(sel.endLineNumber(), sel.endColumn());
+            return snapshot.getText(start, end - start);
+        });
+    }
+
+    /**
+     * First and last line currently visible in the editor viewport, as a two-element array.
+     */
+    public CompletableFuture<int[]> getVisibleLinesAsync() {
+        return query("visibleLines").thenApply(r -> parseInts(r, 2));
+    }
+
+    // Sends a named query to the bridge; the result comes back through JavaBridge.resolveQuery
+    private CompletableFuture<String> query(String name) {
+        int id = nextQueryId.incrementAndGet();
+        CompletableFuture<String> result = new CompletableFuture<>();
+        long start = System.nanoTime();
+        result.whenComplete((r, t) -> metrics.queryAnswered(start));
+        pendingQueries.put(id, result);
+        commands.submit("window.MonacoBridge && window.MonacoBridge.query(" + id + "," + jsString(name) + ");");
+        return result;
+    }
+
+    private static int[] parseInts(String csv, int count) {
+        if (csv == null || csv.isEmpty()) return null;
+        String[] parts = csv.split(",");
+        if (parts.length < count) return null;
+        int[] ret = new int[count];
+        for (int i = 0; i < count; i++) ret[i] = Integer.parseInt(parts[i].trim());
+        return ret;
+    }
+
+    /**
+     * Version id of the Monaco model the Java mirror of the active model was last synchronized with.
+     */
+    public int getModelVersion() {
+        return active.version;
     }
 
     /**
-     * Create a marker at a given line. Severity may be one of: info, warning, error, hint.
+     * Create a marker at a given line of the active model. Severity may be one of: info, warning, error,
+     * hint. Markers created this way accumulate under the {@value #DEFAULT_MARKER_OWNER} owner until cleared.
      */
     public void createMarker(int lineNumber, String message, String severity) {
-        String js = "window.MonacoBridge && window.MonacoBridge.createMarker(" + lineNumber + "," + jsString(
-                message == null ? "" : message) + "," + jsString(severity == null ? "info" : severity) + ");";
-        safeExec(js);
+        addMarker(active, Marker.atLine(lineNumber, message, Marker.Severity.parse(severity)));
     }
 
     /**
-     * Create a marker at a given character offset position. Severity may be one of: info, warning, error,
-     * hint.
+     * Create a marker at a given character offset position of the active model. Severity may be one of:
+     * info, warning, error, hint. The offsets are resolved to line/column against the Java mirror, not by
+     * Monaco.
      */
     public void createMarkerByOffset(int offset, int length, String message, String severity) {
-        String js =
-                "window.MonacoBridge && window.MonacoBridge.createMarkerByOffset(" + offset + "," + length + "," + jsString(
-                message == null ? "" : message) + "," + jsString(severity == null ? "info" : severity) + ");";
-        safeExec(js);
+        Model model = active;
+        addMarker(model, Marker.atOffset(model.document.snapshot(), offset, length, message,
+                Marker.Severity.parse(severity)));
+    }
+
+    private void addMarker(Model model, Marker marker) {
+        List<Marker> batch;
+        synchronized (model.markers) {
+            List<Marker> current = model.markers.getOrDefault(DEFAULT_MARKER_OWNER, List.of());
+            batch = new ArrayList<>(current.size() + 1);
+            batch.addAll(current);
+            batch.add(marker);
+            batch = List.copyOf(batch);
+            model.markers.put(DEFAULT_MARKER_OWNER, batch);
+        }
+        sendMarkers(model, DEFAULT_MARKER_OWNER, batch);
     }
 
     /**
-     * Optional: ask the bridge to connect to a local LSP server (see comments in TS).
+     * Replace all markers of {@code owner} on the active model with {@code markers}, leaving markers of
+     * other owners untouched. The whole batch is serialized once into a flat array and crosses the bridge
+     * in a single call, so posting thousands of diagnostics costs one script execution.
      */
-    public void connectLsp(String wsUrl, String languageId) {
-        if (wsUrl == null || wsUrl.isBlank()) return;
-        String lang = languageId == null ? "" : languageId;
-        String js = "window.MonacoBridge && window.MonacoBridge.connectLsp && window.MonacoBridge" +
-                ".connectLsp(" + jsString(
-                wsUrl) + "," + jsString(lang) + ");";
-        safeExec(js);
+    public void setMarkers(String owner, List<Marker> markers) {
+        setMarkers(active, owner, markers);
     }
 
-    // -------------- Java<->JS glue helpers --------------
+    /**
+     * Replace all markers of {@code owner} on the model of {@code uri}, which need not be the active one.
+     * Markers are kept with the model and reapplied if its Monaco model is recreated.
+     *
+     * @throws IllegalArgumentException if no model is open for {@code uri}
+     */
+    public void setMarkers(String uri, String owner, List<Marker> markers) {
+        Model model = models.get(uri);
+        if (model == null) throw new IllegalArgumentException("No open model for " + uri);
+        setMarkers(model, owner, markers);
+    }
 
-    private void safeExec(String script) {
-        if (!pageLoaded.get()) return; // queueing is handled JS-side in the bridge
-        Platform.runLater(() -> {
-            try {
-                webEngine.executeScript(script);
-            } catch (Throwable t) {
-                System.err.println("[MonacoEditorView] JS exec failed: " + t.getMessage());
+    private void setMarkers(Model model, String owner, List<Marker> markers) {
+        Objects.requireNonNull(owner, "owner");
+        List<Marker> batch = markers == null ? List.of() : List.copyOf(markers);
+        synchronized (model.markers) {
+            model.markers.put(owner, batch);
+        }
+        sendMarkers(model, owner, batch);
+    }
+
+    // A newer batch for the same model and owner supersedes a pending one, which is then never encoded
+    private void sendMarkers(Model model, String owner, List<Marker> markers) {
+        commands.submit("markers:" + model.uri + " " + owner, () -> markerScript(model, owner, markers));
+    }
+
+    private static String markerScript(Model model, String owner, List<Marker> markers) {
+        return "window.MonacoBridge && window.MonacoBridge.setMarkers(" + jsString(model.uri) + "," + jsString(
+                owner) + "," + encodeMarkers(markers) + ");";
+    }
+
+    // Markers of all owners, for a model whose Monaco counterpart is being (re)created
+    private static String markerScripts(Model model) {
+        Map<String, List<Marker>> all;
+        synchronized (model.markers) {
+            all = new LinkedHashMap<>(model.markers);
+        }
+        StringBuilder js = new StringBuilder();
+        all.forEach((owner, markers) -> js.append(markerScript(model, owner, markers)));
+        return js.toString();
+    }
+
+    /**
+     * Remove all markers of {@code owner} from the active model.
+     */
+    public void clearMarkers(String owner) {
+        clearMarkers(active, Objects.requireNonNull(owner, "owner"));
+    }
+
+    private void clearMarkers(Model model, String owner) {
+        synchronized (model.markers) {
+            model.markers.remove(owner);
+        }
+        commands.submit("markers:" + model.uri + " " + owner, "window.MonacoBridge && window.MonacoBridge"
+                + ".clearMarkers(" + jsString(model.uri) + "," + jsString(owner) + ");");
+    }
+
+    // Flat array literal with a stride of 6: startLine, startColumn, endLine, endColumn, severity, message
+    static String encodeMarkers(List<Marker> markers) {
+        StringBuilder sb = new StringBuilder(16 + markers.size() * 64);
+        sb.append('[');
+        for (int i = 0; i < markers.size(); i++) {
+            Marker m = markers.get(i);
+            if (i > 0) sb.append(',');
+            sb.append(m.startLineNumber()).append(',').append(m.startColumn()).append(',')
+              .append(m.endLineNumber()).append(',').append(m.endColumn()).append(',')
+              .append(m.severity().monacoValue()).append(',');
+            JsString.quote(m.message(), sb);
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Provide completion, hover, signature help, definitions and diagnostics for the models of
+     * {@code languageId} from {@code server}, which may be shared with other views. The open models of that
+     * language, and those opened later, are synchronized with the server from their Java mirrors; the
+     * server's diagnostics are shown as markers of owner {@value LspMultiplexer#MARKER_OWNER}. Replaces any
+     * previous connection for the language.
+     */
+    public void connectLsp(LspMultiplexer server, String languageId) {
+        Objects.requireNonNull(server, "server");
+        Objects.requireNonNull(languageId, "languageId");
+        disconnectLsp(languageId);
+        LspMultiplexer.Session session = server.openSession(new LspMultiplexer.Listener() {
+            @Override
+            public void onMessage(String message) {
+                commands.submit(null, () -> "window.MonacoBridge && window.MonacoBridge.lspReceive(" + jsString(
+                        languageId) + "," + jsPayload(message) + ");");
+            }
+
+            @Override
+            public void onDiagnostics(String uri, List<Marker> markers) {
+                Model model = models.get(uri);
+                if (model != null) setMarkers(model, LspMultiplexer.MARKER_OWNER, markers);
             }
         });
+        lspSessions.put(languageId, session);
+        for (Model model : models.values()) syncLsp(model);
+        commands.submit("lsp:" + languageId, lspConnectScript(languageId));
     }
 
-    private Object safeEval(String script) {
-        if (!pageLoaded.get()) return null;
-        try {
-            return webEngine.executeScript(script);
-        } catch (Throwable t) {
-            System.err.println("[MonacoEditorView] JS eval failed: " + t.getMessage());
-            return null;
+    /**
+     * Stop using a language server for {@code languageId}, closing its documents on the server and
+     * removing its diagnostics. The server itself is left running.
+     */
+    public void disconnectLsp(String languageId) {
+        LspMultiplexer.Session session = lspSessions.remove(languageId);
+        String endpoint = lspEndpoints.remove(languageId);
+        if (session == null && endpoint == null) return;
+        if (session != null) session.close();
+        for (Model model : models.values()) {
+            if (languageId.equals(model.language)) clearMarkers(model, LspMultiplexer.MARKER_OWNER);
         }
+        commands.submit("lsp:" + languageId, "window.MonacoBridge && window.MonacoBridge.disconnectLsp("
+                + jsString(languageId) + ");");
     }
 
-    private static String jsString(String s) {
-        if (s == null) return "null";
-        String esc = s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "");
-        return '"' + esc + '"';
+    private static String lspConnectScript(String languageId) {
+        return "window.MonacoBridge && window.MonacoBridge.connectJavaLsp(" + jsString(languageId) + ");";
     }
 
-    private static String escapeHtml(String s) {
-        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    private static String lspConnectScript(String wsUrl, String languageId) {
+        return "window.MonacoBridge && window.MonacoBridge.connectLsp(" + jsString(wsUrl) + ","
+                + jsString(languageId) + ");";
+    }
+
+    // Opens the model in the session of its language and closes it in any other, e.g. after a language
+    // change or when the model was closed
+    private void syncLsp(Model model) {
+        boolean open = models.get(model.uri) == model && languageFeatures(model);
+        lspSessions.forEach((languageId, session) -> {
+            boolean wanted = open && languageId.equals(model.language);
+            if (wanted && !session.isOpen(model.uri)) {
+                session.didOpen(model.uri, languageId, model.document::snapshot);
+            } else if (!wanted && session.isOpen(model.uri)) {
+                session.didClose(model.uri);
+            }
+        });
+    }
+
+    // The mirror of the model changed: let the language server and the validators know, after their
+    // debounce delays
+    private void contentChanged(Model model) {
+        if (!languageFeatures(model)) return;
+        LspMultiplexer.Session session = lspSessions.get(model.language);
+        if (session != null) session.didChange(model.uri);
+        ValidationEngine.Session v = validation;
+        if (v != null) v.schedule(model.uri, model.language, model.document.snapshot());
     }
 
     /**
-     * Object exposed to JS as window.JavaBridge to notify readiness, etc.
+     * Validate the open models with the validators registered in {@code engine} for their language; the
+     * engine may be shared with other views. Validation runs in the background after edits, debounced, and
+     * its diagnostics replace the markers of owner {@value ValidationEngine#MARKER_OWNER}. Null stops
+     * validating and removes those markers.
      */
-    @SuppressWarnings("unused")
-    public class JavaBridge {
-        public void onEditorReady() {
-            // Currently we rely on JS to queue calls before ready; this is just a hook if needed.
-            System.out.println("[MonacoEditorView] Editor ready (JS callback)");
+    public void setValidationEngine(ValidationEngine engine) {
+        ValidationEngine.Session previous = validation;
+        validation = engine == null ? null : engine.openSession(this::validated);
+        if (previous != null) {
+            previous.close();
+            for (Model model : models.values()) clearMarkers(model, ValidationEngine.MARKER_OWNER);
+        }
+        for (Model model : models.values()) syncValidation(model);
+    }
+
+    // Called on a validation thread; an edit may have been made since the validated version, and the markers
+    // of the next version will follow
+    private void validated(String uri, int version, List<Marker> markers) {
+        Model model = models.get(uri);
+        if (model != null && model.document.getVersion() == version) {
+            setMarkers(model, ValidationEngine.MARKER_OWNER, markers);
+        }
+    }
+
+    // Validates the model if it is open, e.g. after a language change, or stops validating it
+    private void syncValidation(Model model) {
+        ValidationEngine.Session v = validation;
+        if (v == null) return;
+        if (models.get(model.uri) == model && languageFeatures(model)) {
+            v.schedule(model.uri, model.language, model.document.snapshot());
+        } else {
+            v.cancel(model.uri);
+        }
+    }
+
+    /**
+     * Connect the models of {@code languageId} to a language server behind a WebSocket, typically an
+     * endpoint from {@link LspRelayServer#urlFor(String)}. The page talks to the server directly and
+     * synchronizes the documents itself; diagnostics are shown as markers of owner
+     * {@value LspMultiplexer#MARKER_OWNER}. Replaces any previous connection for the language.
+     */
+    public void connectLsp(String wsUrl, String languageId) {
+        if (wsUrl == null || wsUrl.isBlank()) return;
+        String lang = languageId == null || languageId.isBlank() ? MonacoLanguages.PLAINTEXT : languageId;
+        disconnectLsp(lang);
+        lspEndpoints.put(lang, wsUrl);
+        commands.submit("lsp:" + lang, lspConnectScript(wsUrl, lang));
+    }
+
+    /**
+     * Highlight the models of {@code languageId} with semantic tokens from {@code tokenizer}, replacing any
+     * previous tokenizer for the language; null removes it. Monaco asks for the tokens of the visible lines
+     * and Java answers from a per-model cache of line states, so an edit only costs tokenizing the lines it
+     * affects. A language unknown to the bundle is declared to {@link MonacoLanguages} and registered with
+     * Monaco, so set the tokenizer before opening models of such a language.
+     */
+    public void setTokenizer(String languageId, TokenizerProvider tokenizer) {
+        Objects.requireNonNull(languageId, "languageId");
+        if (tokenizer == null) {
+            if (tokenizers.remove(languageId) == null) return;
+            commands.submit("tokenizer:" + languageId, "window.MonacoBridge && window.MonacoBridge"
+                    + ".unregisterTokenizer(" + jsString(languageId) + ");");
+        } else {
+            if (!MonacoLanguages.isAvailable(languageId)) MonacoLanguages.register(languageId);
+            tokenizers.put(languageId, tokenizer);
+            commands.submit("tokenizer:" + languageId, tokenizerScript(languageId, tokenizer));
+        }
+        for (Model model : models.values()) {
+            if (languageId.equals(model.language)) model.tokens = null;
+        }
+    }
+
+    private static String tokenizerScript(String languageId, TokenizerProvider tokenizer) {
+        return "window.MonacoBridge && window.MonacoBridge.registerTokenizer(" + jsString(languageId) + ","
+                + jsStringArray(tokenizer.getTokenTypes()) + "," + jsStringArray(tokenizer.getTokenModifiers())
+                + ");";
+    }
+
+    /**
+     * Suggest completions for the models of {@code languageId} from {@code provider}, replacing any previous
+     * provider for the language; null removes it. Suggestions from a connected language server are shown
+     * alongside. A request supersedes the ones still running, which are cancelled, as does Monaco's
+     * cancellation when the user keeps typing.
+     */
+    public void registerCompletionProvider(String languageId, CompletionProvider provider) {
+        Objects.requireNonNull(languageId, "languageId");
+        if (provider == null) {
+            if (completionProviders.remove(languageId) == null) return;
+            commands.submit("completion:" + languageId, "window.MonacoBridge && window.MonacoBridge"
+                    + ".unregisterCompletion(" + jsString(languageId) + ");");
+        } else {
+            if (!MonacoLanguages.isAvailable(languageId)) MonacoLanguages.register(languageId);
+            completionProviders.put(languageId, provider);
+            commands.submit("completion:" + languageId, completionScript(languageId, provider));
+        }
+    }
+
+    private static String completionScript(String languageId, CompletionProvider provider) {
+        return "window.MonacoBridge && window.MonacoBridge.registerCompletion(" + jsString(languageId) + ","
+                + jsStringArray(provider.getTriggerCharacters()) + ");";
+    }
+
+    // Flat JSON array: the incomplete flag, then label, kind, detail, documentation and insert text per item
+    private static String encodeCompletions(CompletionProvider.Result result) {
+        List<CompletionProvider.Item> items = result == null ? List.of() : result.items();
+        StringBuilder sb = new StringBuilder(16 + items.size() * 48);
+        sb.append('[').append(result != null && result.incomplete() ? 1 : 0);
+        for (CompletionProvider.Item item : items) {
+            sb.append(',');
+            Json.quote(item.label(), sb);
+            sb.append(',');
+            Json.write(item.kind(), sb);
+            sb.append(',');
+            Json.write(item.detail(), sb);
+            sb.append(',');
+            Json.write(item.documentation(), sb);
+            sb.append(',');
+            Json.write(item.insertText(), sb);
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String jsStringArray(List<String> values) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) sb.append(',');
+            JsString.quote(values.get(i), sb);
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Open the UTF-8 file at {@code path} as the model of URI {@code path.toUri()}, without showing it.
+     *
+     * @see #openFile(Path, Charset, String, Consumer)
+     */
+    public CompletableFuture<Void> openFile(Path path, String language, Consumer<LoadProgress> progress) {
+        return openFile(path, StandardCharsets.UTF_8, language, progress);
+    }
+
+    /**
+     * Open a file of any size as the model of URI {@code path.toUri()}, without showing it; a model open
+     * under that URI is closed first. The file is decoded from a memory mapping, a chunk at a time, into the
+     * Java mirror on a background thread, and streamed from there into Monaco one chunk per pulse, so that
+     * neither the file nor its text are ever held in one piece and the FX thread stays responsive. The model
+     * can be shown and edited while it loads; {@code progress}, if not null, is called on the FX thread as
+     * chunks reach the editor.
+     * <p>
+     * Depending on the size of the file (see {@link LargeFileLimits}), the model is shown without some
+     * editor features. It is not synchronized with language servers and validators until it is loaded. When
+     * its Monaco model is recreated, e.g. after the memory budget disposed it, it is streamed again.
+     *
+     * @return completes on the FX thread once the whole file is in the editor, or exceptionally if it could
+     * not be read or the model was closed first
+     */
+    public CompletableFuture<Void> openFile(Path path, Charset charset, String language,
+                                            Consumer<LoadProgress> progress) {
+        Objects.requireNonNull(path, "path");
+        String uri = path.toUri().toString();
+        long size;
+        try {
+            size = Files.size(path);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (models.containsKey(uri)) closeModel(uri);
+        LargeFileLimits limits = largeFileLimits;
+        Model model = new Model(uri);
+        model.language = language == null || language.isBlank() ? MonacoLanguages.PLAINTEXT
+                : MonacoLanguages.resolve(language);
+        model.large = true;
+        model.plain = size > limits.tokenization();
+        model.editorOptions = editorOptions(limits, size);
+        FileLoad load = new FileLoad(size, progress);
+        model.load = load;
+        model.lastUsed = useCounter.incrementAndGet();
+        Charset cs = charset == null ? StandardCharsets.UTF_8 : charset;
+        model.path = path.toAbsolutePath().normalize();
+        model.charset = cs;
+        models.put(uri, model);
+        BACKGROUND.execute(() -> readFile(model, path, cs, load));
+        return load.done;
+    }
+
+    /**
+     * Save the model of {@code uri} to {@code path} in {@code charset} from now on; null stops saving it to a
+     * file. Models opened with {@link #openFile} are saved to their file already.
+     *
+     * @throws IllegalArgumentException if no model is open for {@code uri}
+     */
+    public void setFile(String uri, Path path, Charset charset) {
+        Model model = models.get(uri);
+        if (model == null) throw new IllegalArgumentException("No open model for " + uri);
+        Path previous = model.path;
+        model.path = path == null ? null : path.toAbsolutePath().normalize();
+        model.charset = charset == null ? StandardCharsets.UTF_8 : charset;
+        if (previous != null && !previous.equals(model.path)) SavePipeline.shared().forget(previous);
+    }
+
+    /**
+     * File the model of {@code uri} is saved to, or null if it has none or is not open.
+     */
+    public Path getFile(String uri) {
+        Model model = models.get(uri);
+        return model == null ? null : model.path;
+    }
+
+    /**
+     * Save the active model.
+     *
+     * @see #save(String)
+     */
+    public CompletableFuture<Boolean> save() {
+        return save(active.uri);
+    }
+
+    /**
+     * Save the content of the model of {@code uri}, once every call issued so far has been applied, to its
+     * file and to the save callback given to the constructor. The content is written in the background; a
+     * save of the same model still waiting to be written is replaced by this one, and content that is already
+     * in the file is not written again.
+     *
+     * @return completes on the FX thread with whether anything was written, or exceptionally if the model is
+     * not open, is still loading, has neither file nor save callback, or could not be written
+     */
+    public CompletableFuture<Boolean> save(String uri) {
+        Model model = models.get(uri);
+        if (model == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("No open model for " + uri));
+        }
+        if (Platform.isFxApplicationThread()) return save(model);
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        Platform.runLater(() -> save(model).whenComplete((written, failure) -> {
+            if (failure == null) {
+                result.complete(written);
+            } else {
+                result.completeExceptionally(failure);
+            }
+        }));
+        return result;
+    }
+
+    /**
+     * Save every model with unsaved changes that has a file and is loaded. Must be called on the FX thread.
+     */
+    public void saveAll() {
+        for (Model model : models.values()) {
+            if (model.dirty && model.path != null && model.load == null) {
+                save(model).exceptionally(t -> {
+                    System.err.println("[MonacoEditorView] Saving " + model.uri + " failed: " + t.getMessage());
+                    return null;
+                });
+            }
+        }
+    }
+
+    /**
+     * Whether the model of {@code uri} has changed since it was opened or last saved. Undoing its edits back
+     * to the saved content makes it clean again.
+     */
+    public boolean isDirty(String uri) {
+        Model model = models.get(uri);
+        return model != null && model.dirty;
+    }
+
+    public boolean isDirty() {
+        return active.dirty;
+    }
+
+    /**
+     * Call {@code listener} on the FX thread with the URI of a model and whether it has unsaved changes,
+     * every time that changes; null removes it.
+     */
+    public void setDirtyListener(BiConsumer<String, Boolean> listener) {
+        dirtyListener = listener;
+    }
+
+    /**
+     * Save the models with unsaved changes that have a file (see {@link #saveAll()}) every {@code interval}
+     * while attached, and on {@link #detach()}; null or zero turns autosave off. Must be called on the FX
+     * thread.
+     */
+    public void setAutosaveInterval(Duration interval) {
+        autosaveInterval = interval == null || interval.isZero() || interval.isNegative() ? null : interval;
+        scheduleAutosave();
+    }
+
+    public Duration getAutosaveInterval() {
+        return autosaveInterval;
+    }
+
+    // Hands the content of the model to the save pipeline. FX thread only.
+    private CompletableFuture<Boolean> save(Model model) {
+        commands.flush();
+        Path path = model.path;
+        Consumer<String> callback = saveCallback;
+        if (path == null && callback == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("No file to save " + model.uri + " to"));
+        }
+        if (model.load != null) {
+            // the mirror only holds part of the file
+            return CompletableFuture.failedFuture(new IllegalStateException(model.uri + " is still loading"));
+        }
+        TextDocument.Snapshot snapshot = model.document.snapshot();
+        int generation = model.generation;
+        // the alternative version only stands for the content while the Monaco model holds all of it
+        int alternativeVersion = model.resident && model.streamed < 0 && model.savedAlternativeVersion != REBASE
+                ? model.alternativeVersion : NOT_SAVED;
+        SavePipeline pipeline = SavePipeline.shared();
+        CompletableFuture<Boolean> written = CompletableFuture.completedFuture(false);
+        if (path != null) {
+            written = written.thenCombine(pipeline.save(path, snapshot, SavePipeline.file(path, model.charset)),
+                    Boolean::logicalOr);
+        }
+        if (callback != null) {
+            written = written.thenCombine(pipeline.save(model, snapshot, s -> callback.accept(s.getText())),
+                    Boolean::logicalOr);
+        }
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        written.whenComplete((w, failure) -> Platform.runLater(() -> {
+            if (failure != null) {
+                result.completeExceptionally(failure instanceof CompletionException && failure.getCause() != null
+                        ? failure.getCause() : failure);
+                return;
+            }
+            saved(model, snapshot, generation, alternativeVersion);
+            result.complete(w);
+        }));
+        return result;
+    }
+
+    // The content of snapshot is saved: the model is clean if it still has it, or once undone back to it.
+    // FX thread only.
+    private void saved(Model model, TextDocument.Snapshot snapshot, int generation, int alternativeVersion) {
+        boolean unchanged = model.document.snapshot() == snapshot;
+        if (model.savedAlternativeVersion == REBASE) {
+            // taken when the Monaco model being created reports its version
+            setDirty(model, !unchanged);
+        } else if (generation == model.generation && alternativeVersion != NOT_SAVED) {
+            model.savedAlternativeVersion = alternativeVersion;
+            setDirty(model, model.alternativeVersion != alternativeVersion);
+        } else {
+            model.savedAlternativeVersion = unchanged ? model.alternativeVersion : NOT_SAVED;
+            setDirty(model, !unchanged);
+        }
+    }
+
+    // Tracks unsaved changes from the alternative version reported by the Monaco model with every change;
+    // edited when the change did not come from Java. FX thread only.
+    private void trackDirty(Model model, int alternativeVersionId, boolean edited) {
+        model.alternativeVersion = alternativeVersionId;
+        if (model.streamed >= 0) {
+            // still being filled from the mirror: only edits in the editor are changes
+            if (edited) setDirty(model, true);
+            return;
+        }
+        rebase(model);
+        setDirty(model, alternativeVersionId != model.savedAlternativeVersion);
+    }
+
+    private static void rebase(Model model) {
+        if (model.savedAlternativeVersion == REBASE) {
+            model.savedAlternativeVersion = model.dirty ? NOT_SAVED : model.alternativeVersion;
+        }
+    }
+
+    // The Monaco model of the model is gone (or about to be); the next one is rebased. FX thread only.
+    private static void released(Model model) {
+        model.resident = false;
+        model.streamed = -1;
+        model.savedAlternativeVersion = REBASE;
+        model.generation++;
+    }
+
+    private void setDirty(Model model, boolean dirty) {
+        if (model.dirty == dirty) return;
+        model.dirty = dirty;
+        BiConsumer<String, Boolean> listener = dirtyListener;
+        if (listener == null) return;
+        Runnable notify = () -> {
+            try {
+                listener.accept(model.uri, dirty);
+            } catch (RuntimeException e) {
+                System.err.println("[MonacoEditorView] Dirty listener failed: " + e);
+            }
+        };
+        if (Platform.isFxApplicationThread()) {
+            notify.run();
+        } else {
+            Platform.runLater(notify);
+        }
+    }
+
+    // (Re)starts autosaving on the interval while attached. FX thread only.
+    private void scheduleAutosave() {
+        if (autosave != null) autosave.cancel(false);
+        autosave = null;
+        Duration interval = autosaveInterval;
+        if (host == null || interval == null) return;
+        long millis = Math.max(1, interval.toMillis());
+        autosave = AUTOSAVE.scheduleWithFixedDelay(() -> Platform.runLater(this::autosave), millis, millis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void autosave() {
+        if (host != null && autosaveInterval != null) saveAll();
+    }
+
+    /**
+     * Persist view states to {@code store}, or stop persisting them when null. Models shown from now on get
+     * their saved view state back if their content is the same as when it was saved. The store is not
+     * closed by the view.
+     */
+    public void setSessionStore(SessionStore store) {
+        sessionStore = store;
+    }
+
+    public SessionStore getSessionStore() {
+        return sessionStore;
+    }
+
+    /**
+     * Save the view state of every model shown so far to the session store, with the hash of the content it
+     * belongs to. Done by {@link #detach()} and {@link #closeModel(String)}; call it also before the
+     * application exits. No-op without a store or while detached. Must be called on the FX thread.
+     */
+    public void saveSession() {
+        SessionStore store = sessionStore;
+        MonacoHost h = host;
+        if (store == null || h == null || !commands.isReady()) return;
+        // the page answers for the calls made so far
+        commands.flush();
+        Object result = h.eval("window.MonacoBridge && window.MonacoBridge.viewStates ? "
+                + "window.MonacoBridge.viewStates() : '[]'");
+        if (!(result instanceof String json)) return;
+        List<?> pairs;
+        try {
+            pairs = Json.parse(json) instanceof List<?> list ? list : List.of();
+        } catch (IllegalArgumentException e) {
+            System.err.println("[MonacoEditorView] Unreadable view states: " + e.getMessage());
+            return;
+        }
+        Map<String, String> states = new LinkedHashMap<>();
+        Map<String, TextDocument.Snapshot> snapshots = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < pairs.size(); i += 2) {
+            if (!(pairs.get(i) instanceof String uri) || !(pairs.get(i + 1) instanceof String state)) continue;
+            Model model = models.get(uri);
+            // a model still loading or streaming has other content in Monaco than in its mirror
+            if (model == null || model.load != null || model.streamed >= 0) continue;
+            states.put(uri, state);
+            snapshots.put(uri, model.document.snapshot());
+        }
+        if (states.isEmpty()) return;
+        // hashing the content is linear in its size
+        BACKGROUND.execute(() -> states.forEach((uri, state) -> {
+            TextDocument.Snapshot snapshot = snapshots.get(uri);
+            try {
+                store.put(uri, snapshot.contentHash(), snapshot.getLength(), state);
+            } catch (IOException | IllegalStateException e) {
+                // the store may have been closed meanwhile, e.g. on exit
+                System.err.println("[MonacoEditorView] Saving the session failed: " + e.getMessage());
+            }
+        }));
+    }
+
+    // Looks up the saved view state of a model shown for the first time, off the FX thread, and restores it
+    // unless the model changed meanwhile. A model still loading is looked up once it is complete. FX thread
+    // only.
+    private void restoreSession(Model model) {
+        SessionStore store = sessionStore;
+        if (store == null || model.sessionChecked || model.load != null || model.streamed >= 0) return;
+        model.sessionChecked = true;
+        TextDocument.Snapshot shown = model.document.snapshot();
+        CompletableFuture.supplyAsync(() -> store.get(model.uri, shown.contentHash(), shown.getLength()), BACKGROUND)
+                         .thenAccept(state -> {
+                             if (state == null) return;
+                             commands.submit("restore:" + model.uri, () -> models.get(model.uri) != model
+                                     || model.document.snapshot() != shown ? null
+                                     : "window.MonacoBridge && window.MonacoBridge.restoreViewState("
+                                             + jsString(model.uri) + "," + jsString(state.viewState()) + ");");
+                         });
+    }
+
+    /**
+     * Find {@code query} in the active model.
+     *
+     * @see #findAll(String, TextSearch.Options, BiConsumer)
+     */
+    public CompletableFuture<TextSearch.Result> find(String query, TextSearch.Options options) {
+        Model model = active;
+        return find(List.of(model), query, options, null).thenApply(results -> results.get(model.uri));
+    }
+
+    /**
+     * Find {@code query} in every open model, e.g. for a project-wide find. The search runs on the Java
+     * mirrors, in parallel (see {@link TextSearch}), so that neither the FX thread nor the page waits for it,
+     * and replaces the previous one, whose future is cancelled. Matches are highlighted in the models Monaco
+     * holds as they are found, until the next search or {@link #clearFindHighlights()}; batches found after a
+     * model was edited are not highlighted. {@code matches}, if not null, is given every batch with the URI
+     * of its model, from pool threads, one batch at a time.
+     *
+     * @return the result of each model by URI; completes exceptionally if {@code query} is not a valid
+     * regular expression
+     */
+    public CompletableFuture<Map<String, TextSearch.Result>> findAll(String query, TextSearch.Options options,
+            BiConsumer<String, List<TextSearch.Match>> matches) {
+        return find(List.copyOf(models.values()), query, options, matches);
+    }
+
+    /**
+     * Stop the current search, if any, and remove the highlights of the last one.
+     */
+    public void clearFindHighlights() {
+        searchGeneration.incrementAndGet();
+        CompletableFuture<?> previous = search;
+        if (previous != null) previous.cancel(false);
+        commands.submit(null, "window.MonacoBridge && window.MonacoBridge.clearSearchMatches();");
+    }
+
+    private CompletableFuture<Map<String, TextSearch.Result>> find(List<Model> targets, String query,
+            TextSearch.Options options, BiConsumer<String, List<TextSearch.Match>> matches) {
+        clearFindHighlights();
+        int generation = searchGeneration.get();
+        Object lock = new Object();
+        Map<String, CompletableFuture<TextSearch.Result>> searches = new LinkedHashMap<>();
+        for (Model model : targets) {
+            TextDocument.Snapshot snapshot = model.document.snapshot();
+            searches.put(model.uri, TextSearch.search(snapshot, query, options, batch -> {
+                if (matches != null) {
+                    synchronized (lock) {
+                        matches.accept(model.uri, batch);
+                    }
+                }
+                highlight(model, snapshot, generation, batch);
+            }));
+        }
+        CompletableFuture<Map<String, TextSearch.Result>> ret =
+                CompletableFuture.allOf(searches.values().toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+                    Map<String, TextSearch.Result> results = new LinkedHashMap<>();
+                    searches.forEach((uri, result) -> results.put(uri, result.join()));
+                    return results;
+                });
+        ret.whenComplete((results, failure) -> {
+            if (ret.isCancelled()) searches.values().forEach(s -> s.cancel(false));
+        });
+        search = ret;
+        return ret;
+    }
+
+    // Shows a batch of matches found in snapshot, unless a newer search started or the model changed since
+    private void highlight(Model model, TextDocument.Snapshot snapshot, int generation, List<TextSearch.Match> batch) {
+        if (model.load != null || searchGeneration.get() != generation) return;
+        StringBuilder packed = new StringBuilder(batch.size() * 16);
+        for (TextSearch.Match match : batch) {
+            if (!packed.isEmpty()) packed.append(',');
+            packed.append(match.offset()).append(',').append(match.length());
+        }
+        commands.submit(null, () -> !model.resident || searchGeneration.get() != generation
+                || model.document.snapshot() != snapshot ? null
+                : "window.MonacoBridge && window.MonacoBridge.addSearchMatches(" + jsString(model.uri) + ",["
+                        + packed + "]);");
+    }
+
+    /**
+     * Replace every match of {@code query} in the active model.
+     *
+     * @see #replaceAll(String, String, String, TextSearch.Options)
+     */
+    public CompletableFuture<Integer> replaceAll(String query, String replacement, TextSearch.Options options) {
+        return replaceAll(active, query, replacement, options, REPLACE_ATTEMPTS);
+    }
+
+    /**
+     * Replace every match of {@code query} in the model of {@code uri} with {@code replacement} (see
+     * {@link TextSearch} for the syntax of group references). The matches are found on the mirror in the
+     * background and replaced in one edit, which is a single step of the undo history; if the model is edited
+     * while they are searched, they are searched again. While the view is detached, the replacement is made
+     * once it is attached again.
+     *
+     * @return the number of matches replaced; completes exceptionally if the model is not open or still
+     * loading, or if {@code query} is not a valid regular expression
+     */
+    public CompletableFuture<Integer> replaceAll(String uri, String query, String replacement,
+                                                TextSearch.Options options) {
+        Model model = models.get(uri);
+        if (model == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("No open model for " + uri));
+        }
+        return replaceAll(model, query, replacement, options, REPLACE_ATTEMPTS);
+    }
+
+    private CompletableFuture<Integer> replaceAll(Model model, String query, String replacement,
+                                                  TextSearch.Options options, int attempts) {
+        if (model.load != null) {
+            return CompletableFuture.failedFuture(new IllegalStateException(model.uri + " is still loading"));
+        }
+        TextDocument.Snapshot snapshot = model.document.snapshot();
+        return TextSearch.replacements(snapshot, query, replacement, options).thenCompose(edits -> {
+            if (edits.isEmpty()) return CompletableFuture.completedFuture(0);
+            CompletableFuture<Integer> ret = new CompletableFuture<>();
+            Supplier<String> apply = () -> {
+                if (model.document.snapshot() != snapshot) {
+                    if (attempts <= 1) {
+                        ret.completeExceptionally(new ConcurrentModificationException(
+                                model.uri + " kept changing while replacing"));
+                    } else {
+                        replaceAll(model, query, replacement, options, attempts - 1).whenComplete((n, failure) -> {
+                            if (failure == null) {
+                                ret.complete(n);
+                            } else {
+                                ret.completeExceptionally(failure);
+                            }
+                        });
+                    }
+                    return null;
+                }
+                String script = applyEdits(model, edits);
+                ret.complete(edits.size());
+                return script;
+            };
+            // on the FX thread, like every edit; while detached it waits to be replayed after the editor is created
+            commands.submit(null, apply);
+            return ret;
+        });
+    }
+
+    // Applies edits of the current content, in order of offset, to the mirror and returns the script that
+    // applies them to the model as one edit
+    private String applyEdits(Model model, List<TextSearch.Edit> edits) {
+        String[] texts = new String[edits.size()];
+        for (int i = edits.size() - 1; i >= 0; i--) {
+            TextSearch.Edit edit = edits.get(i);
+            texts[i] = TextDocument.normalizeEol(edit.text(), model.eol);
+            mirrorReplace(model, edit.offset(), edit.length(), texts[i]);
+        }
+        contentChanged(model);
+        setDirty(model, true);
+        StringBuilder js = new StringBuilder(edits.size() * 24 + 64)
+                .append("window.MonacoBridge && window.MonacoBridge.applyEdits(").append(jsString(model.uri))
+                .append(",[");
+        for (int i = 0; i < texts.length; i++) {
+            TextSearch.Edit edit = edits.get(i);
+            if (i > 0) js.append(',');
+            js.append('[').append(edit.offset()).append(',').append(edit.length()).append(',');
+            JsString.quote(texts[i], js);
+            js.append(']');
+        }
+        return js.append("]);").toString();
+    }
+
+    public void setLargeFileLimits(LargeFileLimits limits) {
+        largeFileLimits = Objects.requireNonNull(limits, "limits");
+    }
+
+    public LargeFileLimits getLargeFileLimits() {
+        return largeFileLimits;
+    }
+
+    // Editor options turning off the features a file of this size is too large for, as a JS object literal
+    private static String editorOptions(LargeFileLimits limits, long size) {
+        List<String> options = new ArrayList<>();
+        if (size > limits.minimap()) options.add("minimap:{enabled:false}");
+        if (size > limits.folding()) options.add("folding:false");
+        if (size > limits.wordBasedSuggestions()) options.add("wordBasedSuggestions:\"off\"");
+        return options.isEmpty() ? null : "{" + String.join(",", options) + "}";
+    }
+
+    // Reads the file into the mirror, ahead of the FX thread streaming it into Monaco
+    private void readFile(Model model, Path path, Charset charset, FileLoad load) {
+        try (MappedTextReader reader = new MappedTextReader(path, charset, STREAM_CHUNK)) {
+            String held = "";
+            for (String chunk = reader.next(); chunk != null; chunk = reader.next()) {
+                if (models.get(model.uri) != model) throw new CancellationException("Closed while loading");
+                String text = held + chunk;
+                // a '\r' ending the chunk may be the first half of a "\r\n"
+                held = text.endsWith("\r") ? "\r" : "";
+                text = text.substring(0, text.length() - held.length());
+                if (!load.opened) model.eol = TextDocument.detectEol(text);
+                model.document.append(TextDocument.normalizeEol(text, model.eol));
+                load.bytesRead = reader.position();
+                if (!load.opened) {
+                    load.opened = true;
+                    commands.submit("open:" + model.uri, () -> openStreamed(model));
+                }
+                commands.submit("stream:" + model.uri, () -> streamChunk(model));
+            }
+            model.document.append(TextDocument.normalizeEol(held, model.eol));
+            // saving this content again is skipped
+            Path file = model.path;
+            if (file != null && !model.dirty) SavePipeline.shared().saved(file, model.document.snapshot());
+            load.bytesRead = reader.size();
+            load.opened = true;
+            load.reading = false;
+            commands.submit("open:" + model.uri, () -> openStreamed(model));
+            commands.submit("stream:" + model.uri, () -> streamChunk(model));
+        } catch (Exception e) {
+            load.reading = false;
+            load.done.completeExceptionally(e);
+            Platform.runLater(() -> {
+                if (models.get(model.uri) == model) closeModel(model.uri);
+            });
+        }
+    }
+
+    // Creates the Monaco model of a file being read, unless switching to it did already
+    private String openStreamed(Model model) {
+        if (model.resident || models.get(model.uri) != model) return null;
+        return streamScript(model, active == model);
+    }
+
+    // Creates the Monaco model of a large model empty, in its line-ending sequence, and starts streaming the
+    // mirror into it; init also creates the editor and shows the model
+    private String streamScript(Model model, boolean init) {
+        FileLoad load = model.load;
+        // created by the reader once the first chunk has decided the line-ending sequence
+        if (load != null && !load.opened) return "";
+        model.resident = true;
+        model.streamed = 0;
+        commands.submit("stream:" + model.uri, () -> streamChunk(model));
+        String language = jsString(monacoLanguage(model));
+        String create = init
+                ? "init(\"\"," + language + "," + jsString(initialTheme) + "," + jsString(model.uri) + ","
+                        + jsString(model.eol) + ");"
+                : "openModel(" + jsString(model.uri) + ",\"\"," + language + "," + jsString(model.eol) + ");";
+        return "window.MonacoBridge && window.MonacoBridge." + create + "window.MonacoBridge && window.MonacoBridge"
+                + ".setModelOptions(" + jsString(model.uri) + "," + Objects.requireNonNullElse(model.editorOptions,
+                "null") + ");";
+    }
+
+    // Sends the next chunk of the mirror to a model being streamed. One chunk per pulse keeps the editor
+    // responsive; when the reader is behind, the next chunk is sent once it has appended more.
+    private String streamChunk(Model model) {
+        if (models.get(model.uri) != model) {
+            finishLoad(model, new CancellationException("Closed while loading"));
+            return null;
+        }
+        FileLoad load = model.load;
+        boolean reading = load != null && load.reading;
+        if (model.streamed < 0) {
+            // no Monaco model to fill: the load ends with the reading
+            if (!reading) finishLoad(model, null);
+            return null;
+        }
+        TextDocument.Snapshot snapshot = model.document.snapshot();
+        int length = snapshot.getLength();
+        int from = model.streamed;
+        int to = (int) Math.min(length, (long) from + STREAM_CHUNK);
+        if (to > from && (to < length || reading)) {
+            // Monaco would take a "\r" alone as a line break, and a lone surrogate as invalid
+            char last = snapshot.charAt(to - 1);
+            if (last == '\r' || Character.isHighSurrogate(last)) to--;
+        }
+        StringBuilder js = new StringBuilder();
+        if (to > from) {
+            model.streamed = to;
+            js.append("window.MonacoBridge && window.MonacoBridge.appendText(").append(jsString(model.uri))
+              .append(',').append(jsPayload(snapshot.getText(from, to - from))).append(");");
+        }
+        if (to < length) {
+            Platform.runLater(() -> commands.submit("stream:" + model.uri, () -> streamChunk(model)));
+        } else if (!reading) {
+            model.streamed = -1;
+            // otherwise done by the version reported for the last chunk
+            if (to == from) rebase(model);
+            js.append(markerScripts(model));
+            finishLoad(model, null);
+            restoreSession(model);
+        }
+        if (load != null && model.load == load) {
+            long total = !reading ? length
+                    : Math.max(length, (long) ((double) length * load.size / Math.max(1, load.bytesRead)));
+            reportProgress(load, new LoadProgress(model.uri, to, total, false));
+        }
+        return js.isEmpty() ? null : js.toString();
+    }
+
+    // The file is read and in the editor, or there is no Monaco model for it to go to
+    private void finishLoad(Model model, Throwable failure) {
+        FileLoad load = model.load;
+        if (load == null) return;
+        model.load = null;
+        if (failure != null) {
+            load.done.completeExceptionally(failure);
+            return;
+        }
+        syncLsp(model);
+        syncValidation(model);
+        long length = model.document.getLength();
+        // after the script of the last chunk has run
+        Platform.runLater(() -> {
+            reportProgress(load, new LoadProgress(model.uri, length, length, true));
+            load.done.complete(null);
+        });
+    }
+
+    private static void reportProgress(FileLoad load, LoadProgress progress) {
+        if (load.progress == null) return;
+        try {
+            load.progress.accept(progress);
+        } catch (RuntimeException e) {
+            System.err.println("[MonacoEditorView] Progress listener failed: " + e);
+        }
+    }
+
+    // Language Monaco gives the model: plaintext when it is too large to tokenize
+    private static String monacoLanguage(Model model) {
+        return model.plain ? MonacoLanguages.PLAINTEXT : model.language;
+    }
+
+    // Whether language servers, validators and Java tokenizers see the model
+    private static boolean languageFeatures(Model model) {
+        return !model.plain && model.load == null;
+    }
+
+    /**
+     * Counters of the JS command queue: current and peak depth, coalesced calls and script executions.
+     */
+    public JsCommandQueue.Statistics getQueueStatistics() {
+        return commands.getStatistics();
+    }
+
+    /**
+     * Instrumentation of the bridge since the view was created: calls into JS by method with their script
+     * sizes, queue wait, script execution and callback times. See {@link BridgeMetrics} for the JMX and JFR
+     * views of the same counters.
+     */
+    public BridgeMetrics.Snapshot getMetrics() {
+        return metrics.snapshot();
+    }
+
+    // -------------- Java<->JS glue helpers --------------
+
+    private void exec(String script) {
+        MonacoHost h = host;
+        execDepth++;
+        try {
+            if (h != null) {
+                BridgeMetrics.ScriptExecutionEvent execution = metrics.scriptStarted();
+                boolean ok = h.exec(script);
+                metrics.scriptEnded(execution, script.length(), !ok);
+            }
+        } finally {
+            // whatever the script did not take, e.g. because it failed, is garbage now; scripts run from bridge
+            // callbacks are nested in the one that may still take its payloads
+            if (--execDepth == 0) payloads.clear();
+        }
+    }
+
+    static String jsString(String s) {
+        return JsString.quote(s);
+    }
+
+    // Expression evaluating to s in a script run by exec: a literal for short strings, a call fetching the
+    // Java string itself for long ones. FX thread only.
+    private String jsPayload(String s) {
+        if (s == null || s.length() < PAYLOAD_THRESHOLD) return jsString(s);
+        payloads.add(s);
+        return "window.JavaBridge.payload(" + (payloads.size() - 1) + ")";
+    }
+
+    private static String escapeHtml(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * Object exposed to JS as window.JavaBridge to notify readiness, etc.
+     */
+    @SuppressWarnings("unused")
+    public class JavaBridge {
+        /**
+         * A string too large to be inlined in the script being run, by the index the script was given. Each
+         * payload is taken once.
+         */
+        public String payload(int index) {
+            BridgeMetrics.CallbackEvent callback = metrics.callbackStarted("payload");
+            try {
+                if (index < 0 || index >= payloads.size()) return null;
+                return payloads.set(index, null);
+            } finally {
+                metrics.callbackEnded(callback);
+            }
+        }
+
+        public void onEditorReady() {
+            // Currently we rely on JS to queue calls before ready; this is just a hook if needed.
+            System.out.println("[MonacoEditorView] Editor ready (JS callback)");
+            MonacoHost h = host;
+            if (h != null) h.editorReady();
+        }
+
+        /**
+         * One change from the onDidChangeContent of the model of {@code uri}, expressed as a replaced range
+         * in the content before the change. Changes of one event arrive in the order Monaco applies them.
+         */
+        public void onModelContentChanged(String uri, int versionId, int alternativeVersionId, int rangeOffset,
+                                          int rangeLength, String text) {
+            BridgeMetrics.CallbackEvent callback = metrics.callbackStarted("onModelContentChanged");
+            try {
+                Model model = models.get(uri);
+                if (model == null) return;
+                boolean inSync = rangeOffset >= 0 && rangeLength >= 0
+                        && rangeOffset + rangeLength <= model.document.getLength();
+                if (inSync) {
+                    mirrorReplace(model, rangeOffset, rangeLength, text);
+                    model.version = versionId;
+                    contentChanged(model);
+                    trackDirty(model, alternativeVersionId, true);
+                } else {
+                    System.err.println("[MonacoEditorView] Mirror of " + uri + " out of sync at version "
+                            + versionId + ", resyncing");
+                    exec("window.MonacoBridge && window.MonacoBridge.resync(" + jsString(uri) + ");");
+                }
+            } finally {
+                metrics.callbackEnded(callback);
+            }
+        }
+
+        /**
+         * Result of a {@code MonacoBridge.query} call issued by Java.
+         */
+        public void resolveQuery(int id, String result) {
+            BridgeMetrics.CallbackEvent callback = metrics.callbackStarted("resolveQuery");
+            try {
+                CompletableFuture<String> future = pendingQueries.remove(id);
+                if (future != null) future.complete(result);
+            } finally {
+                metrics.callbackEnded(callback);
+            }
+        }
+
+        public void rejectQuery(int id, String message) {
+            BridgeMetrics.CallbackEvent callback = metrics.callbackStarted("rejectQuery");
+            try {
+                CompletableFuture<String> future = pendingQueries.remove(id);
+                if (future != null) future.completeExceptionally(new IllegalStateException(message));
+            } finally {
+                metrics.callbackEnded(callback);
+            }
+        }
+
+        /**
+         * The model reached {@code versionId} through edits that originated from Java and are already
+         * applied to the mirror.
+         */
+        public void onModelSynced(String uri, int versionId, int alternativeVersionId) {
+            BridgeMetrics.CallbackEvent callback = metrics.callbackStarted("onModelSynced");
+            try {
+                Model model = models.get(uri);
+                if (model == null) return;
+                model.version = versionId;
+                trackDirty(model, alternativeVersionId, false);
+            } finally {
+                metrics.callbackEnded(callback);
+            }
+        }
+
+        /**
+         * The whole model content was replaced (flush) or normalized by Monaco, e.g. line endings: take it
+         * as the new mirror content.
+         */
+        public void onModelReset(String uri, int versionId, int alternativeVersionId, String text) {
+            BridgeMetrics.CallbackEvent callback = metrics.callbackStarted("onModelReset");
+            try {
+                Model model = models.get(uri);
+                if (model == null) return;
+                mirrorSetText(model, text);
+                model.eol = TextDocument.detectEol(text == null ? "" : text);
+                model.version = versionId;
+                contentChanged(model);
+                trackDirty(model, alternativeVersionId, true);
+            } finally {
+                metrics.callbackEnded(callback);
+            }
+        }
+
+        /**
+         * Semantic tokens of lines {@code startLine} to {@code endLine} (1-based, inclusive) of the model of
+         * {@code uri}, packed as described in {@link SemanticTokenCache}, or null if its language has no
+         * tokenizer. Called by Monaco's range semantic token provider for the visible lines, on the FX thread,
+         * where the mirror always matches the model.
+         */
+        public String semanticTokens(String uri, int startLine, int endLine) {
+            BridgeMetrics.CallbackEvent callback = metrics.callbackStarted("semanticTokens");
+            try {
+                Model model = models.get(uri);
+                if (model == null || !languageFeatures(model)) return null;
+                TokenizerProvider tokenizer = tokenizers.get(model.language);
+                if (tokenizer == null) return null;
+                TextDocument.Snapshot snapshot = model.document.snapshot();
+                SemanticTokenCache cache = model.tokens;
+                if (cache == null || cache.tokenizer != tokenizer) {
+                    cache = new SemanticTokenCache(tokenizer, snapshot.getLineCount());
+                    model.tokens = cache;
+                }
+                try {
+                    return cache.encode(snapshot, startLine - 1, endLine - 1);
+                } catch (RuntimeException e) {
+                    System.err.println("[MonacoEditorView] Tokenizer for " + model.language + " failed: " + e);
+                    model.tokens = null;
+                    return null;
+                }
+            } finally {
+                metrics.callbackEnded(callback);
+            }
+        }
+
+        /**
+         * Completion request {@code id} of the bridge at a position of the model of {@code uri}, with the part
+         * of the word before it. Returns the result of a {@linkplain CompletionProvider#isNonBlocking()
+         * non-blocking} provider at once; otherwise returns null, and the result follows through
+         * {@code MonacoBridge.completionResult} unless the request is cancelled first. The FX thread never
+         * waits for a provider.
+         */
+        public String complete(int id, String uri, int lineNumber, int column, String prefix) {
+            BridgeMetrics.CallbackEvent callback = metrics.callbackStarted("complete");
+            try {
+                Model model = models.get(uri);
+                CompletionProvider provider = model == null ? null : completionProviders.get(model.language);
+                if (provider == null) return encodeCompletions(CompletionProvider.Result.EMPTY);
+                // the user typed on: requests still running are stale
+                for (AtomicBoolean stale : completions.values()) stale.set(true);
+                completions.clear();
+                AtomicBoolean cancelled = new AtomicBoolean();
+                CompletionProvider.Context context = new CompletionProvider.Context(uri, model.document.snapshot(),
+                        lineNumber, column, prefix == null ? "" : prefix, cancelled::get);
+                if (provider.isNonBlocking()) {
+                    try {
+                        return encodeCompletions(provider.complete(context));
+                    } catch (Exception e) {
+                        System.err.println("[MonacoEditorView] Completion failed: " + e);
+                        return encodeCompletions(CompletionProvider.Result.EMPTY);
+                    }
+                }
+                completions.put(id, cancelled);
+                CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return encodeCompletions(provider.complete(context));
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, BACKGROUND).whenComplete((json, t) -> {
+                    if (!completions.remove(id, cancelled) || cancelled.get()) return;
+                    if (t != null) System.err.println("[MonacoEditorView] Completion failed: " + t.getCause());
+                    try {
+                        commands.submit(null, "window.MonacoBridge && window.MonacoBridge.completionResult(" + id
+                                + "," + (t == null ? json : "null") + ");");
+                    } catch (IllegalStateException e) {
+                        System.err.println("[MonacoEditorView] Completion result dropped: " + e.getMessage());
+                    }
+                });
+                return null;
+            } finally {
+                metrics.callbackEnded(callback);
+            }
+        }
+
+        public void cancelCompletion(int id) {
+            BridgeMetrics.CallbackEvent callback = metrics.callbackStarted("cancelCompletion");
+            try {
+                AtomicBoolean cancelled = completions.remove(id);
+                if (cancelled != null) cancelled.set(true);
+            } finally {
+                metrics.callbackEnded(callback);
+            }
+        }
+
+        /**
+         * A JSON-RPC message from the LSP client of {@code languageId}, for the language server.
+         */
+        public void lspSend(String languageId, String message) {
+            BridgeMetrics.CallbackEvent callback = metrics.callbackStarted("lspSend");
+            try {
+                LspMultiplexer.Session session = lspSessions.get(languageId);
+                if (session != null) session.send(message);
+            } finally {
+                metrics.callbackEnded(callback);
+            }
+        }
+    }
+
+    // One open document: its mirror, markers by owner and the state of its Monaco counterpart
+    private static final class Model {
+        final String uri;
+        final TextDocument document = new TextDocument();
+        final Map<String, List<Marker>> markers = new LinkedHashMap<>();
+        volatile String language = "plaintext";
+        // End-of-line sequence of the Monaco model; text sent from Java is normalized to it so that Monaco
+        // never rewrites it and offsets stay aligned with the mirror
+        volatile String eol = "\n";
+        volatile int version;
+        volatile long lastUsed;
+        // Tokens from the tokenizer of its language, created on the first request for them
+        volatile SemanticTokenCache tokens;
+        // Whether a Monaco model currently exists for it; read and written on the FX thread only
+        boolean resident;
+        // Opened with openFile: its Monaco model is streamed from the mirror and shown with the editor options
+        // of its size (a JS object literal, null if none); a plain one is shown as plaintext
+        volatile boolean large;
+        volatile boolean plain;
+        volatile String editorOptions;
+        // Set while its file is being read into the mirror
+        volatile FileLoad load;
+        // Length of the prefix of the mirror its Monaco model holds while being streamed, -1 otherwise; FX
+        // thread only
+        int streamed = -1;
+        // Whether its saved view state has been looked up since it was last created in Monaco; FX thread only
+        boolean sessionChecked;
+        // File it is saved to, if any
+        volatile Path path;
+        volatile Charset charset = StandardCharsets.UTF_8;
+        // Unsaved changes, from the alternative version id last reported by its Monaco model and the one it
+        // was saved at (or REBASE, NOT_SAVED); generation counts the Monaco models it had. FX thread only,
+        // except for reading dirty.
+        volatile boolean dirty;
+        int alternativeVersion;
+        int savedAlternativeVersion = REBASE;
+        int generation;
+
+        Model(String uri) {
+            this.uri = uri;
+        }
+    }
+
+    // A file being read into the mirror of a model by openFile
+    private static final class FileLoad {
+        final long size;
+        final Consumer<LoadProgress> progress;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        volatile long bytesRead;
+        // whether the first chunk has decided the line-ending sequence, and whether the file is still being read
+        volatile boolean opened;
+        volatile boolean reading = true;
+
+        FileLoad(long size, Consumer<LoadProgress> progress) {
+            this.size = size;
+            this.progress = progress;
         }
     }
 
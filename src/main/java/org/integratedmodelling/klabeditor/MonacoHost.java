@@ -0,0 +1,179 @@
+package org.integratedmodelling.klabeditor;
+
+import javafx.concurrent.Worker;
+import javafx.scene.web.WebEngine;
+import netscape.javascript.JSObject;
+
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One WebEngine with the Monaco host page loaded, which {@link MonacoEditorView}s attach to in order to
+ * display their models, and {@link MonacoDiffView}s to display a diff. A host outlives the views that use it:
+ * when a view detaches, its models are disposed in the page but the page, the AMD loader and the parsed
+ * editor bundle stay loaded, so the next view attaches without paying for them again. Hosts are normally
+ * obtained from a {@link MonacoHostPool}.
+ * <p>
+ * All methods must be called on the FX thread.
+ */
+public final class MonacoHost {
+
+    private final DebugWebView webView = new DebugWebView(false);
+    private final WebEngine webEngine = webView.getEngine();
+    private final CompletableFuture<MonacoHost> loaded = new CompletableFuture<>();
+    private final CompletableFuture<MonacoHost> editorReady = new CompletableFuture<>();
+
+    // Bound as window.JavaBridge while no view is attached, so that the page never bootstraps itself
+    private final HostBridge hostBridge = new HostBridge();
+    // Strong reference: WebKit only holds a weak one to objects passed through setMember
+    private Object bridge = hostBridge;
+    private JSObject window;
+    private boolean disposed;
+
+    MonacoHost() {
+        webEngine.getLoadWorker().stateProperty().addListener((obs, old, state) -> {
+            if (state == Worker.State.SUCCEEDED && !disposed) {
+                window = (JSObject) webEngine.executeScript("window");
+                window.setMember("JavaBridge", bridge);
+                loaded.complete(this);
+                // the bundle may have finished loading before the bridge was bound, missing the callback
+                if (Boolean.TRUE.equals(webEngine.executeScript(
+                        "!!(window.MonacoBridge && window.MonacoBridge.isReady && window.MonacoBridge.isReady())"))) {
+                    editorReady();
+                }
+            } else if (state == Worker.State.FAILED) {
+                IllegalStateException failure = new IllegalStateException("Monaco host page failed to load",
+                        webEngine.getLoadWorker().getException());
+                loaded.completeExceptionally(failure);
+                editorReady.completeExceptionally(failure);
+            }
+        });
+        // Served from memory through the klab-monaco: handler rather than through jar:/jrt: lookups
+        MonacoAssets.shared().preloadAsync();
+        URL url = MonacoUrlHandlerProvider.url("index.html");
+        if (url == null) {
+            String msg = "Missing Monaco resources. Please copy the 'vs' folder from monaco-editor and " +
+                    "ensure index.html exists under /org/integratedmodelling/klabeditor/monaco";
+            webEngine.loadContent("<html><body><pre>" + msg.replace("&", "&amp;").replace("<", "&lt;")
+                    .replace(">", "&gt;") + "</pre></body></html>");
+        } else if (!webView.isDebug()) {
+            webEngine.load(url.toExternalForm());
+        }
+    }
+
+    DebugWebView getWebView() {
+        return webView;
+    }
+
+    WebEngine getEngine() {
+        return webEngine;
+    }
+
+    /**
+     * Completes, on the FX thread, once the host page is loaded and scripts can be run.
+     */
+    CompletableFuture<MonacoHost> whenLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Completes, on the FX thread, once the page reports the editor bundle as loaded through
+     * {@code JavaBridge.onEditorReady}: from then on, creating an editor only costs its model.
+     */
+    CompletableFuture<MonacoHost> whenEditorReady() {
+        return editorReady;
+    }
+
+    boolean isEditorReady() {
+        return editorReady.isDone() && !editorReady.isCompletedExceptionally();
+    }
+
+    /**
+     * Create the editor instance and load the contributions of {@code languages} ahead of the first view.
+     */
+    void warmUp(List<String> languages) {
+        StringBuilder js = new StringBuilder("window.MonacoBridge && window.MonacoBridge.prewarm && "
+                + "window.MonacoBridge.prewarm([");
+        for (int i = 0; i < languages.size(); i++) {
+            if (i > 0) js.append(',');
+            js.append(MonacoEditorView.jsString(languages.get(i)));
+        }
+        exec(js.append("]);").toString());
+    }
+
+    boolean isDisposed() {
+        return disposed;
+    }
+
+    /**
+     * Route the page callbacks to {@code javaBridge}, or back to the host when null.
+     */
+    void bind(Object javaBridge) {
+        bridge = javaBridge == null ? hostBridge : javaBridge;
+        if (window != null) window.setMember("JavaBridge", bridge);
+    }
+
+    /**
+     * Dispose every model of the page, leaving the editor itself alive, and unbind the attached view.
+     */
+    void reset() {
+        if (window != null) exec("window.MonacoBridge && window.MonacoBridge.reset && window.MonacoBridge.reset();");
+        bind(null);
+    }
+
+    /**
+     * Run a script, reporting a failure on stderr.
+     *
+     * @return whether the script ran without throwing
+     */
+    boolean exec(String script) {
+        try {
+            webEngine.executeScript(script);
+            return true;
+        } catch (Throwable t) {
+            System.err.println("[MonacoHost] JS exec failed: " + t.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Run a script and return its result, or null if it threw (reported on stderr).
+     */
+    Object eval(String script) {
+        try {
+            return webEngine.executeScript(script);
+        } catch (Throwable t) {
+            System.err.println("[MonacoHost] JS eval failed: " + t.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Unload the page and release the WebKit resources held by it. The host cannot be used afterwards.
+     */
+    void dispose() {
+        if (disposed) return;
+        disposed = true;
+        bind(null);
+        window = null;
+        webEngine.load("about:blank");
+        IllegalStateException failure = new IllegalStateException("Monaco host disposed");
+        loaded.completeExceptionally(failure);
+        editorReady.completeExceptionally(failure);
+    }
+
+    void editorReady() {
+        editorReady.complete(this);
+    }
+
+    /**
+     * Object exposed to JS as window.JavaBridge while no view is attached.
+     */
+    @SuppressWarnings("unused")
+    public class HostBridge {
+        public void onEditorReady() {
+            editorReady();
+        }
+    }
+}
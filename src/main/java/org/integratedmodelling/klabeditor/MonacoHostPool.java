@@ -0,0 +1,147 @@
+package org.integratedmodelling.klabeditor;
+
+import javafx.animation.PauseTransition;
+import javafx.util.Duration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Pool of warm {@link MonacoHost}s shared by {@link MonacoEditorView}s created with
+ * {@link MonacoEditorView#MonacoEditorView(java.util.function.Consumer, MonacoHostPool)}. A view takes a
+ * host when it is attached and gives it back when detached; a warm host only needs the view's active model
+ * to be created in it, so showing an editor costs one script execution instead of a page load and a parse
+ * of the editor bundle.
+ * <p>
+ * Idle hosts are reused most-recently-released first. At most {@code maxIdle} are kept; idle hosts beyond
+ * {@code minIdle} are disposed after {@code idleTimeout}. All methods must be called on the FX thread.
+ */
+public final class MonacoHostPool {
+
+    private record Idle(MonacoHost host, long since) {}
+
+    private final Deque<Idle> idle = new ArrayDeque<>();
+    private int minIdle;
+    private int maxIdle;
+    private Duration idleTimeout;
+    private int leased;
+    private PauseTransition evictionTimer;
+
+    /**
+     * @param minIdle     idle hosts kept warm regardless of the timeout
+     * @param maxIdle     idle hosts kept at most; hosts released beyond it are disposed
+     * @param idleTimeout time after which idle hosts in excess of {@code minIdle} are disposed
+     */
+    public MonacoHostPool(int minIdle, int maxIdle, Duration idleTimeout) {
+        configure(minIdle, maxIdle, idleTimeout);
+    }
+
+    /**
+     * A pool keeping one warm host and up to four idle ones for a minute.
+     */
+    public MonacoHostPool() {
+        this(1, 4, Duration.minutes(1));
+    }
+
+    /**
+     * Change the eviction parameters; idle hosts in excess of the new limits are disposed.
+     */
+    public void configure(int minIdle, int maxIdle, Duration idleTimeout) {
+        if (minIdle < 0 || maxIdle < minIdle) {
+            throw new IllegalArgumentException("Invalid pool bounds: min " + minIdle + ", max " + maxIdle);
+        }
+        this.minIdle = minIdle;
+        this.maxIdle = maxIdle;
+        this.idleTimeout = idleTimeout == null ? Duration.INDEFINITE : idleTimeout;
+        while (idle.size() > maxIdle) idle.removeLast().host().dispose();
+        scheduleEviction();
+    }
+
+    /**
+     * Create hosts until {@code count} are idle (capped at {@code maxIdle}), so that they load in the
+     * background and are ready when editors are opened. Each idle host also creates its editor instance
+     * and loads the contributions of {@code languages}.
+     *
+     * @return completes, on the FX thread, when every idle host has its editor bundle loaded
+     */
+    public CompletableFuture<Void> prewarm(int count, String... languages) {
+        int target = Math.min(count, maxIdle);
+        while (idle.size() < target) idle.addLast(new Idle(new MonacoHost(), System.nanoTime()));
+        List<String> warm = new ArrayList<>();
+        for (String language : languages) {
+            if (MonacoLanguages.isAvailable(language)) warm.add(language);
+        }
+        List<CompletableFuture<MonacoHost>> ready = new ArrayList<>();
+        for (Idle entry : idle) {
+            ready.add(entry.host().whenEditorReady().thenApply(host -> {
+                if (!host.isDisposed()) host.warmUp(warm);
+                return host;
+            }));
+        }
+        return CompletableFuture.allOf(ready.toArray(CompletableFuture[]::new));
+    }
+
+    MonacoHost acquire() {
+        Idle entry = idle.pollFirst();
+        leased++;
+        return entry == null ? new MonacoHost() : entry.host();
+    }
+
+    void release(MonacoHost host) {
+        leased--;
+        if (host.isDisposed()) return;
+        host.reset();
+        if (idle.size() >= maxIdle) {
+            host.dispose();
+            return;
+        }
+        idle.addFirst(new Idle(host, System.nanoTime()));
+        scheduleEviction();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getLeasedCount() {
+        return leased;
+    }
+
+    /**
+     * Dispose all idle hosts. Hosts currently attached to views are disposed when they are released.
+     */
+    public void shutdown() {
+        maxIdle = 0;
+        minIdle = 0;
+        while (!idle.isEmpty()) idle.removeFirst().host().dispose();
+        if (evictionTimer != null) evictionTimer.stop();
+    }
+
+    private void scheduleEviction() {
+        if (evictionTimer != null) evictionTimer.stop();
+        if (idle.size() <= minIdle || idleTimeout.isIndefinite() || idleTimeout.isUnknown()) return;
+        evictionTimer = new PauseTransition(idleTimeout);
+        evictionTimer.setOnFinished(e -> evict());
+        evictionTimer.play();
+    }
+
+    // The oldest idle hosts are at the end of the deque
+    private void evict() {
+        long now = System.nanoTime();
+        long timeout = (long) (idleTimeout.toMillis() * 1_000_000);
+        int excess = idle.size() - minIdle;
+        Iterator<Idle> oldest = idle.descendingIterator();
+        while (excess > 0 && oldest.hasNext()) {
+            Idle entry = oldest.next();
+            if (now - entry.since() < timeout) break;
+            oldest.remove();
+            entry.host().dispose();
+            excess--;
+        }
+        scheduleEviction();
+    }
+}
@@ -0,0 +1,114 @@
+package org.integratedmodelling.klabeditor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Manifest of the languages actually packaged with the Monaco bundle. Monaco registers every language it
+ * knows at startup and loads a language's tokenizer (and, for json/css/html/typescript, its mode) only when
+ * a model first uses it. A slim build (the {@code monaco-slim} Maven profile) leaves most of those modules
+ * out, so the manifest is built from the contribution scripts that register them, keeping only the
+ * languages whose module is present on the classpath. Views resolve requested languages through it and
+ * fall back to plaintext instead of letting Monaco fail to load a missing module.
+ */
+public final class MonacoLanguages {
+
+    public static final String PLAINTEXT = "plaintext";
+
+    private static final String VS = "/org/integratedmodelling/klabeditor/monaco/vs/";
+
+    // t({id:"java",extensions:[...],...,loader:()=>new Promise((e,s)=>a(["../java-CI4ZMsH9"],e,s))})
+    private static final Pattern BASIC_LANGUAGE = Pattern.compile(
+            "id:\"([^\"]+)\"[^}]*?\\(\\[\"\\.\\./([^\"]+)\"\\]");
+    // function a(){return new Promise((t,e)=>r(["../../jsonMode-CJjR_ECa"],t,e))}
+    private static final Pattern LANGUAGE_MODE = Pattern.compile("\\[\"\\.\\./\\.\\./([^\"]+)\"\\]");
+    private static final Pattern REGISTERED_ID = Pattern.compile("languages\\.register\\(\\{id:\"([^\"]+)\"");
+
+    private static volatile Map<String, String> manifest;
+    // Languages defined at runtime rather than shipped with the bundle, e.g. k.IM
+    private static final Set<String> custom = ConcurrentHashMap.newKeySet();
+
+    private MonacoLanguages() {
+    }
+
+    /**
+     * Language ids that can be used in this bundle, with the module that implements each.
+     */
+    public static Map<String, String> getManifest() {
+        Map<String, String> ret = manifest;
+        if (ret == null) {
+            synchronized (MonacoLanguages.class) {
+                if (manifest == null) manifest = Collections.unmodifiableMap(scan());
+                ret = manifest;
+            }
+        }
+        return ret;
+    }
+
+    public static Set<String> getAvailableLanguages() {
+        return getManifest().keySet();
+    }
+
+    public static boolean isAvailable(String languageId) {
+        return languageId != null && (PLAINTEXT.equals(languageId) || custom.contains(languageId)
+                || getManifest().containsKey(languageId));
+    }
+
+    /**
+     * Declare a language that is registered with Monaco at runtime, so that it is not replaced by plaintext.
+     */
+    public static void register(String languageId) {
+        custom.add(languageId);
+    }
+
+    /**
+     * The language to use for {@code languageId}: itself if packaged, plaintext otherwise.
+     */
+    public static String resolve(String languageId) {
+        if (languageId == null || languageId.isBlank()) return PLAINTEXT;
+        if (isAvailable(languageId)) return languageId;
+        System.err.println("[MonacoLanguages] Language '" + languageId + "' is not packaged, using plaintext");
+        return PLAINTEXT;
+    }
+
+    private static Map<String, String> scan() {
+        Map<String, String> ret = new TreeMap<>();
+        String basic = read("basic-languages/monaco.contribution.js");
+        if (basic != null) {
+            Matcher m = BASIC_LANGUAGE.matcher(basic);
+            while (m.find()) {
+                if (exists(m.group(2))) ret.put(m.group(1), m.group(2));
+            }
+        }
+        // json, css, html and typescript are implemented by a mode module instead
+        for (String language : new String[]{"json", "css", "html", "typescript"}) {
+            String contribution = read("language/" + language + "/monaco.contribution.js");
+            if (contribution == null) continue;
+            Matcher mode = LANGUAGE_MODE.matcher(contribution);
+            if (!mode.find() || !exists(mode.group(1))) continue;
+            Matcher id = REGISTERED_ID.matcher(contribution);
+            while (id.find()) ret.putIfAbsent(id.group(1), mode.group(1));
+        }
+        return ret;
+    }
+
+    private static boolean exists(String module) {
+        return MonacoLanguages.class.getResource(VS + module + ".js") != null;
+    }
+
+    private static String read(String path) {
+        try (InputStream in = MonacoLanguages.class.getResourceAsStream(VS + path)) {
+            return in == null ? null : new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.integratedmodelling.klabeditor;
+
+import javafx.application.Platform;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Process-wide entry point to start Monaco ahead of the first editor. Calling {@link #prewarm(String...)}
+ * during startup (e.g. while a splash screen is shown) loads the host page, the AMD loader and the editor
+ * bundle in a hidden WebEngine of the shared {@link MonacoHostPool}, so that the first
+ * {@link MonacoEditorView} attaches to an editor that is already running.
+ */
+public final class MonacoRuntime {
+
+    private static MonacoHostPool sharedPool;
+    private static boolean warm;
+
+    private MonacoRuntime() {
+    }
+
+    /**
+     * The pool used by views created without an explicit one once {@link #prewarm} has been called.
+     */
+    public static synchronized MonacoHostPool getSharedPool() {
+        if (sharedPool == null) sharedPool = new MonacoHostPool();
+        return sharedPool;
+    }
+
+    /**
+     * Start a hidden host in the shared pool and preload the given languages in it. Can be called from any
+     * thread, including before the first window is shown; the JavaFX toolkit must be started.
+     *
+     * @return completes once the page has signalled {@code JavaBridge.onEditorReady}
+     */
+    public static CompletableFuture<Void> prewarm(String... languages) {
+        synchronized (MonacoRuntime.class) {
+            warm = true;
+        }
+        MonacoAssets.shared().preloadAsync();
+        CompletableFuture<Void> ready = new CompletableFuture<>();
+        Runnable start = () -> getSharedPool().prewarm(1, languages).whenComplete((v, t) -> {
+            if (t == null) ready.complete(null);
+            else ready.completeExceptionally(t);
+        });
+        if (Platform.isFxApplicationThread()) start.run();
+        else Platform.runLater(start);
+        return ready;
+    }
+
+    static synchronized MonacoHostPool sharedPoolIfWarm() {
+        return warm ? getSharedPool() : null;
+    }
+}
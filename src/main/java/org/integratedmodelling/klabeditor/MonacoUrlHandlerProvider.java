@@ -0,0 +1,126 @@
+package org.integratedmodelling.klabeditor;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.net.spi.URLStreamHandlerProvider;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Handler for {@code klab-monaco://editor/<path>} URLs, which serve the Monaco resources from the
+ * {@link MonacoAssets} cache. Loading the host page through it instead of a {@code jar:} or {@code jrt:}
+ * URL keeps every chunk request in memory and gives the page a single hierarchical origin, which relative
+ * module and worker URLs resolve against. Registered as a {@link URLStreamHandlerProvider} service, both in
+ * {@code module-info.java} and in {@code META-INF/services} for classpath launches.
+ */
+public final class MonacoUrlHandlerProvider extends URLStreamHandlerProvider {
+
+    public static final String PROTOCOL = "klab-monaco";
+    static final String BASE = PROTOCOL + "://editor/";
+
+    @Override
+    public URLStreamHandler createURLStreamHandler(String protocol) {
+        return PROTOCOL.equals(protocol) ? new Handler() : null;
+    }
+
+    /**
+     * URL of the resource at {@code path} (relative to the Monaco resource root). Falls back to the plain
+     * classpath URL if the handler is not registered, e.g. when the service file was stripped; null if the
+     * resource does not exist.
+     */
+    static URL url(String path) {
+        String p = MonacoAssets.normalize(path);
+        if (p == null || MonacoAssets.shared().get(p) == null) return null;
+        try {
+            return URI.create(BASE + p).toURL();
+        } catch (MalformedURLException | IllegalArgumentException e) {
+            return MonacoUrlHandlerProvider.class.getResource(MonacoAssets.RESOURCE_ROOT + "/" + p);
+        }
+    }
+
+    private static final class Handler extends URLStreamHandler {
+        @Override
+        protected URLConnection openConnection(URL u) {
+            return new Connection(u);
+        }
+    }
+
+    private static final class Connection extends URLConnection {
+
+        private MonacoAssets.Asset asset;
+
+        Connection(URL url) {
+            super(url);
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (connected) return;
+            asset = MonacoAssets.shared().get(url.getPath());
+            if (asset == null) throw new FileNotFoundException(url.toString());
+            connected = true;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            return new ByteArrayInputStream(asset.bytes());
+        }
+
+        @Override
+        public String getContentType() {
+            return connected() ? asset.contentType() : null;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return connected() ? asset.bytes().length : -1;
+        }
+
+        @Override
+        public long getLastModified() {
+            return connected() ? asset.lastModified() : 0;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            if (name == null) return null;
+            List<String> values = getHeaderFields().entrySet().stream()
+                                                   .filter(e -> name.equalsIgnoreCase(e.getKey()))
+                                                   .map(Map.Entry::getValue).findFirst().orElse(null);
+            return values == null ? null : values.get(0);
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            if (!connected()) return Map.of();
+            Map<String, List<String>> ret = new LinkedHashMap<>();
+            ret.put("Content-Type", List.of(asset.contentType()));
+            ret.put("Content-Length", List.of(Integer.toString(asset.bytes().length)));
+            ret.put("Last-Modified", List.of(DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                    Instant.ofEpochMilli(asset.lastModified()).atZone(ZoneOffset.UTC))));
+            ret.put("ETag", List.of(asset.etag()));
+            return ret;
+        }
+
+        private boolean connected() {
+            try {
+                connect();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package org.integratedmodelling.klabeditor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Completion over a fixed vocabulary, such as the concepts of an ontology, sized for hundreds of thousands
+ * of items. Labels are kept lowercased in a sorted array: the items starting with the typed prefix are a
+ * contiguous range found by binary search, and only the best {@code limit} of them are kept, ranked by
+ * exact match, case and length. When they do not fill the limit, the items sharing the first character are
+ * matched fuzzily (the prefix as a subsequence, with bonuses for consecutive characters and word starts).
+ * Scans are bounded, and a result that was truncated is marked incomplete so that the editor asks again
+ * with a longer prefix instead of filtering it. Key lengths are kept in a primitive array, so ranking the
+ * prefix range reads the strings only of the items that can still enter the result.
+ */
+public final class PrefixIndex implements CompletionProvider {
+
+    /** Candidates scored at most per request by the prefix and the fuzzy pass. */
+    private static final int SCAN_LIMIT = 20_000;
+    private static final int FUZZY_SCAN_LIMIT = 2_000;
+    private static final int PREFIX_SCORE = 1_000_000_000;
+
+    private final String[] keys;
+    private final int[] lengths;
+    private final Item[] items;
+    private final int limit;
+
+    public PrefixIndex(Collection<Item> items) {
+        this(items, 100);
+    }
+
+    /**
+     * @param limit maximum number of items returned per request
+     */
+    public PrefixIndex(Collection<Item> items, int limit) {
+        if (limit <= 0) throw new IllegalArgumentException("limit must be positive");
+        this.limit = limit;
+        Item[] sorted = items.toArray(new Item[0]);
+        String[] lower = new String[sorted.length];
+        Integer[] order = new Integer[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            lower[i] = sorted[i].label().toLowerCase(Locale.ROOT);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int c = lower[a].compareTo(lower[b]);
+            return c != 0 ? c : sorted[a].label().compareTo(sorted[b].label());
+        });
+        this.keys = new String[sorted.length];
+        this.lengths = new int[sorted.length];
+        this.items = new Item[sorted.length];
+        for (int i = 0; i < order.length; i++) {
+            keys[i] = lower[order[i]];
+            lengths[i] = keys[i].length();
+            this.items[i] = sorted[order[i]];
+        }
+    }
+
+    public int size() {
+        return items.length;
+    }
+
+    @Override
+    public Result complete(Context context) {
+        return search(context.prefix(), context::isCancelled);
+    }
+
+    /**
+     * A search scans a bounded number of items in memory, so it runs on the FX thread.
+     */
+    @Override
+    public boolean isNonBlocking() {
+        return true;
+    }
+
+    /**
+     * The best items for {@code prefix}, at most {@code limit} of them, or an empty result if cancelled.
+     */
+    public Result search(String prefix, BooleanSupplier cancelled) {
+        String query = prefix == null ? "" : prefix.toLowerCase(Locale.ROOT);
+        if (query.isEmpty()) {
+            List<Item> first = Arrays.asList(items).subList(0, Math.min(limit, items.length));
+            return new Result(List.copyOf(first), items.length > limit);
+        }
+        TopN top = new TopN(limit);
+        boolean truncated = false;
+
+        int from = lowerBound(query);
+        int to = upperBound(query, from);
+        int end = Math.min(to, from + SCAN_LIMIT);
+        for (int i = from; i < end; i++) {
+            if ((i & 1023) == 0 && cancelled.getAsBoolean()) return Result.EMPTY;
+            // exact matches first, then shorter keys, then matches with the typed case
+            int score = PREFIX_SCORE - Math.min(lengths[i] - query.length(), 999) * 2;
+            if (lengths[i] == query.length()) score += 10_000;
+            if (!top.accepts(score + 1)) continue;
+            if (items[i].label().startsWith(prefix)) score++;
+            top.offer(i, score);
+        }
+        if (end < to) truncated = true;
+
+        if (top.size < limit) {
+            // fuzzy pass over the items sharing the first character, around the prefix range
+            String first = query.substring(0, 1);
+            int fuzzyFrom = lowerBound(first);
+            int fuzzyTo = upperBound(first, fuzzyFrom);
+            int scanned = 0;
+            for (int i = fuzzyFrom; i < fuzzyTo; i++) {
+                if (i == from && to > from) {
+                    i = to - 1;
+                    continue;
+                }
+                if (scanned++ == FUZZY_SCAN_LIMIT) {
+                    truncated = true;
+                    break;
+                }
+                if ((scanned & 1023) == 0 && cancelled.getAsBoolean()) return Result.EMPTY;
+                int score = fuzzyScore(query, keys[i], items[i].label());
+                if (score >= 0) top.offer(i, score);
+            }
+        }
+        if (top.dropped) truncated = true;
+
+        List<Item> ret = new ArrayList<>(top.size);
+        for (int k = 0; k < top.size; k++) ret.add(items[top.indices[k]]);
+        return new Result(ret, truncated);
+    }
+
+    /**
+     * Score of {@code query} as a subsequence of {@code key} (its lowercased {@code label}), greedy from the
+     * start, or -1 if it is not one. Always below the score of a prefix match.
+     */
+    static int fuzzyScore(String query, String key, String label) {
+        int q = 0;
+        int score = 0;
+        int previous = -2;
+        boolean sameLength = key.length() == label.length();
+        for (int i = 0; i < key.length() && q < query.length(); i++) {
+            if (key.charAt(i) != query.charAt(q)) continue;
+            score += 1;
+            if (i == previous + 1) score += 5;
+            if (sameLength && (i == 0 || !Character.isLetterOrDigit(label.charAt(i - 1))
+                    || (Character.isUpperCase(label.charAt(i)) && Character.isLowerCase(label.charAt(i - 1))))) {
+                score += 8;
+            }
+            previous = i;
+            q++;
+        }
+        if (q < query.length()) return -1;
+        return score * 1000 - Math.min(key.length(), 999);
+    }
+
+    private int lowerBound(String query) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(query) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // First index at or after from whose key does not start with query
+    private int upperBound(String query, int from) {
+        int lo = from;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].startsWith(query)) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Best entries by score, ties broken by index (alphabetical order); insertion into a small sorted array
+    private static final class TopN {
+        final int[] indices;
+        final int[] scores;
+        int size;
+        boolean dropped;
+
+        TopN(int capacity) {
+            indices = new int[capacity];
+            scores = new int[capacity];
+        }
+
+        // Whether an entry with score, and a later index than those offered so far, would be kept
+        boolean accepts(int score) {
+            if (size < indices.length) return true;
+            dropped = true;
+            return score > scores[size - 1];
+        }
+
+        void offer(int index, int score) {
+            int capacity = indices.length;
+            if (size == capacity) {
+                dropped = true;
+                if (score <= scores[size - 1]) return;
+                size--;
+            }
+            int k = size;
+            while (k > 0 && (scores[k - 1] < score || (scores[k - 1] == score && indices[k - 1] > index))) {
+                indices[k] = indices[k - 1];
+                scores[k] = scores[k - 1];
+                k--;
+            }
+            indices[k] = index;
+            scores[k] = score;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package org.integratedmodelling.klabeditor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Write-behind saving of documents on a single I/O thread shared by all views, so that saves never run
+ * concurrently and never block the FX thread. Saves are keyed by target (a file, or a callback): a save
+ * requested while an earlier one to the same target is still waiting replaces it, so a burst of saves
+ * writes at most twice, and a snapshot whose content hash is the one last written is not written again.
+ */
+final class SavePipeline {
+
+    /**
+     * Where a snapshot is saved to. Called on the I/O thread.
+     */
+    interface Sink {
+        void write(TextDocument.Snapshot snapshot) throws IOException;
+    }
+
+    private static final SavePipeline SHARED = new SavePipeline();
+    // Characters encoded per write, so that the text is never materialized in one piece
+    private static final int CHUNK = 1 << 20;
+
+    private final ExecutorService worker =
+            Executors.newSingleThreadExecutor(Thread.ofPlatform().daemon().name("monaco-save").factory());
+    // Guarded by this
+    private final Map<Object, Target> targets = new HashMap<>();
+
+    private static final class Target {
+        // the save waiting to run, if any; guarded by the pipeline
+        TextDocument.Snapshot pending;
+        Sink sink;
+        CompletableFuture<Boolean> result;
+        boolean scheduled;
+        boolean forgotten;
+        // content last written to or known to be in the target; I/O thread only
+        long writtenHash;
+        int writtenLength = -1;
+    }
+
+    static SavePipeline shared() {
+        return SHARED;
+    }
+
+    /**
+     * Save {@code snapshot} to {@code sink}. If a save to {@code key} is already waiting, it is replaced by
+     * this one and both callers get the same result.
+     *
+     * @return completes on the I/O thread with whether the snapshot was written, false if the target already
+     * had its content, or exceptionally if writing failed
+     */
+    synchronized CompletableFuture<Boolean> save(Object key, TextDocument.Snapshot snapshot, Sink sink) {
+        Target target = targets.computeIfAbsent(key, k -> new Target());
+        target.forgotten = false;
+        target.pending = snapshot;
+        target.sink = sink;
+        if (target.result == null) target.result = new CompletableFuture<>();
+        CompletableFuture<Boolean> ret = target.result;
+        if (!target.scheduled) {
+            target.scheduled = true;
+            worker.execute(() -> drain(key, target));
+        }
+        return ret;
+    }
+
+    /**
+     * Record that {@code key} holds the content of {@code snapshot}, e.g. the file a document was read from,
+     * so that saving that content again is skipped. Hashed on the I/O thread.
+     */
+    synchronized void saved(Object key, TextDocument.Snapshot snapshot) {
+        Target target = targets.computeIfAbsent(key, k -> new Target());
+        worker.execute(() -> {
+            target.writtenHash = snapshot.contentHash();
+            target.writtenLength = snapshot.getLength();
+        });
+    }
+
+    /**
+     * Stop tracking {@code key}, once nothing will be saved to it again. A save still waiting runs.
+     */
+    synchronized void forget(Object key) {
+        Target target = targets.get(key);
+        if (target == null) return;
+        target.forgotten = true;
+        if (!target.scheduled) targets.remove(key);
+    }
+
+    // Runs the saves of a target until none is waiting. I/O thread only.
+    private void drain(Object key, Target target) {
+        while (true) {
+            TextDocument.Snapshot snapshot;
+            Sink sink;
+            CompletableFuture<Boolean> result;
+            synchronized (this) {
+                if (target.pending == null) {
+                    target.scheduled = false;
+                    if (target.forgotten) targets.remove(key, target);
+                    return;
+                }
+                snapshot = target.pending;
+                sink = target.sink;
+                result = target.result;
+                target.pending = null;
+                target.sink = null;
+                target.result = null;
+            }
+            try {
+                long hash = snapshot.contentHash();
+                if (hash == target.writtenHash && snapshot.getLength() == target.writtenLength) {
+                    result.complete(false);
+                    continue;
+                }
+                sink.write(snapshot);
+                target.writtenHash = hash;
+                target.writtenLength = snapshot.getLength();
+                result.complete(true);
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * A sink writing to {@code path} in {@code charset} through a temporary file in the same directory that
+     * replaces it atomically, so that the file is never seen half written. A character that the charset
+     * cannot encode fails the save rather than being replaced.
+     */
+    static Sink file(Path path, Charset charset) {
+        return snapshot -> writeAtomically(path, charset, snapshot);
+    }
+
+    private static void writeAtomically(Path path, Charset charset, TextDocument.Snapshot snapshot)
+            throws IOException {
+        Path target = path.toAbsolutePath();
+        Path tmp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+        try {
+            if (Files.exists(target)) {
+                try {
+                    Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(target));
+                } catch (UnsupportedOperationException ignored) {
+                    // not a POSIX file system
+                }
+            }
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+                 Writer writer = Channels.newWriter(channel, charset.newEncoder(), -1)) {
+                int length = snapshot.getLength();
+                for (int offset = 0; offset < length; offset += CHUNK) {
+                    writer.write(snapshot.getText(offset, Math.min(CHUNK, length - offset)));
+                }
+                writer.flush();
+                channel.force(true);
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.integratedmodelling.klabeditor;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Tokens of one document, by line, as produced by a {@link TokenizerProvider}. Lines are tokenized in
+ * order, on demand, up to the last line requested; each keeps the state it was tokenized from, its end state
+ * and its tokens as a flat array of (offset, length, type, modifiers). Edits drop the tokens of the edited
+ * lines and shift the others. Tokenizing again from the first edited line, a line that was not edited and
+ * starts in the same state as before ends the work: every line after it up to the end of the previously
+ * tokenized range is still valid.
+ * <p>
+ * Requests are answered in Monaco's semantic token encoding (deltaLine, deltaStartChar, length, type,
+ * modifiers per token), written as variable-length groups of 14 bits, one char per group with bit 14 set
+ * on all but the last group of a value, and preceded by the number of values. Chars never reach the
+ * surrogate range, so the string crosses the bridge unchanged, and the bridge decodes it straight into the
+ * {@code Uint32Array} Monaco consumes; no object is created per token on either side.
+ */
+final class SemanticTokenCache {
+
+    private static final int[] NO_TOKENS = new int[0];
+
+    final TokenizerProvider tokenizer;
+
+    private int lineCount;
+    private Object[] startStates;
+    private Object[] endStates;
+    private int[][] tokens;
+    // Lines [0, validPrefix) are tokenized from the right states. Lines [validPrefix, chainEnd) were
+    // tokenized in sequence before the latest edits; those not edited are valid again as soon as one of
+    // them, after the last edited line, turns out to start in the state it was tokenized from.
+    private int validPrefix;
+    private int chainEnd;
+    private int lastEdited = -1;
+
+    // tokens of the line being tokenized
+    private int[] buffer = new int[64];
+    private int size;
+    private final TokenizerProvider.TokenSink sink = this::add;
+
+    SemanticTokenCache(TokenizerProvider tokenizer, int lineCount) {
+        this.tokenizer = tokenizer;
+        reset(lineCount);
+    }
+
+    /**
+     * Forget all tokens, e.g. after the whole text was replaced.
+     */
+    synchronized void reset(int lineCount) {
+        this.lineCount = lineCount;
+        int capacity = Math.max(16, lineCount + 1);
+        startStates = new Object[capacity];
+        endStates = new Object[capacity];
+        tokens = new int[capacity][];
+        validPrefix = 0;
+        chainEnd = 0;
+        lastEdited = -1;
+    }
+
+    /**
+     * Lines {@code startLine} to {@code oldEndLine} (0-based, inclusive) were replaced by lines
+     * {@code startLine} to {@code newEndLine}.
+     */
+    synchronized void edited(int startLine, int oldEndLine, int newEndLine) {
+        int delta = newEndLine - oldEndLine;
+        int newCount = lineCount + delta;
+        if (delta != 0) {
+            if (newCount + 1 > tokens.length) {
+                int capacity = Math.max(newCount + 1, tokens.length + (tokens.length >> 1));
+                startStates = Arrays.copyOf(startStates, capacity);
+                endStates = Arrays.copyOf(endStates, capacity);
+                tokens = Arrays.copyOf(tokens, capacity);
+            }
+            int moved = lineCount - oldEndLine - 1;
+            if (moved > 0) {
+                System.arraycopy(startStates, oldEndLine + 1, startStates, newEndLine + 1, moved);
+                System.arraycopy(endStates, oldEndLine + 1, endStates, newEndLine + 1, moved);
+                System.arraycopy(tokens, oldEndLine + 1, tokens, newEndLine + 1, moved);
+            }
+            if (delta < 0) {
+                Arrays.fill(startStates, newCount, lineCount, null);
+                Arrays.fill(endStates, newCount, lineCount, null);
+                Arrays.fill(tokens, newCount, lineCount, null);
+            }
+            lineCount = newCount;
+        }
+        Arrays.fill(tokens, startLine, newEndLine + 1, null);
+        if (chainEnd > oldEndLine) {
+            chainEnd += delta;
+        } else if (chainEnd > startLine) {
+            chainEnd = startLine;
+        }
+        if (lastEdited > oldEndLine) lastEdited += delta;
+        lastEdited = Math.max(lastEdited, newEndLine);
+        validPrefix = Math.min(validPrefix, startLine);
+    }
+
+    /**
+     * Tokens of lines {@code startLine} to {@code endLine} (0-based, inclusive) of {@code snapshot}, which
+     * must be the text the edits reported so far lead to.
+     */
+    synchronized String encode(TextDocument.Snapshot snapshot, int startLine, int endLine) {
+        if (snapshot.getLineCount() != lineCount) reset(snapshot.getLineCount());
+        int first = Math.max(0, startLine);
+        int last = Math.min(endLine, lineCount - 1);
+        tokenizeTo(snapshot, last);
+        int values = 0;
+        for (int i = first; i <= last; i++) values += tokens[i].length / 4 * 5;
+        StringBuilder sb = new StringBuilder(values + 4);
+        appendValue(sb, values);
+        int previousLine = 0;
+        int previousStart = 0;
+        for (int i = first; i <= last; i++) {
+            int[] t = tokens[i];
+            for (int k = 0; k < t.length; k += 4) {
+                int deltaLine = i - previousLine;
+                appendValue(sb, deltaLine);
+                appendValue(sb, deltaLine == 0 ? t[k] - previousStart : t[k]);
+                appendValue(sb, t[k + 1]);
+                appendValue(sb, t[k + 2]);
+                appendValue(sb, t[k + 3]);
+                previousLine = i;
+                previousStart = t[k];
+            }
+        }
+        return sb.toString();
+    }
+
+    private void tokenizeTo(TextDocument.Snapshot snapshot, int last) {
+        int line = validPrefix;
+        Object state = line == 0 ? tokenizer.getInitialState() : endStates[line - 1];
+        while (line <= last) {
+            if (line < chainEnd && tokens[line] != null && Objects.equals(startStates[line], state)) {
+                if (line > lastEdited) {
+                    // back in step with the lines tokenized before the edits
+                    line = chainEnd;
+                    lastEdited = -1;
+                    state = endStates[line - 1];
+                    continue;
+                }
+            } else {
+                size = 0;
+                Object end = tokenizer.tokenizeLine(snapshot.getLineContent(line + 1), state, sink);
+                startStates[line] = state;
+                endStates[line] = end;
+                tokens[line] = size == 0 ? NO_TOKENS : Arrays.copyOf(buffer, size);
+            }
+            state = endStates[line];
+            line++;
+        }
+        validPrefix = Math.max(validPrefix, line);
+        chainEnd = Math.max(chainEnd, validPrefix);
+        if (validPrefix > lastEdited) lastEdited = -1;
+    }
+
+    private void add(int offset, int length, int type, int modifiers) {
+        // Monaco requires ordered, non-overlapping tokens
+        if (length <= 0 || offset < 0 || (size > 0 && offset < buffer[size - 4] + buffer[size - 3])) return;
+        if (size + 4 > buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        buffer[size++] = offset;
+        buffer[size++] = length;
+        buffer[size++] = type;
+        buffer[size++] = modifiers;
+    }
+
+    private static void appendValue(StringBuilder sb, int value) {
+        while (value >= 0x4000) {
+            sb.append((char) (0x4000 | (value & 0x3FFF)));
+            value >>>= 14;
+        }
+        sb.append((char) value);
+    }
+}
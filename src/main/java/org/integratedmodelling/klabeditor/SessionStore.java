@@ -0,0 +1,269 @@
+package org.integratedmodelling.klabeditor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * On-disk store of the editor view state (cursor, selections, scroll position and folding) of documents by
+ * URI, so that reopening a workspace shows each document as it was left. A state is kept with the hash and
+ * length of the content it was saved for (see {@link TextDocument.Snapshot#contentHash()}), and is only
+ * given back for that same content.
+ * <p>
+ * The file is an append-only log of records, the last one for a URI winning. Opening it maps the file and
+ * indexes the records without decoding any state; a state is decoded from the mapping the first time it
+ * is asked for. A record cut short by a crash is dropped on open, and the log is compacted on open and on
+ * {@link #close()} when more than half of it is superseded records. One store may be shared by any number
+ * of views; all methods are thread-safe.
+ */
+public final class SessionStore implements Closeable {
+
+    /**
+     * A saved view state: a JSON object as produced by Monaco's {@code saveViewState()}.
+     */
+    public record State(String viewState, long contentHash, int contentLength, long savedAt) {}
+
+    private static final int MAGIC = 0x4b4d5353; // "KMSS"
+    private static final int FORMAT = 1;
+    private static final int HEADER = 8;
+    // Record: int size of the rest, int uri length, uri, long hash, int content length, long time, int state
+    // length (-1 for a removal), state; strings in UTF-8
+    private static final int FIXED = 4 + 8 + 4 + 8 + 4;
+    private static final int COMPACT_MIN_BYTES = 64 * 1024;
+
+    // The latest record of a URI. Its state is either decoded, or in the mapping from offset for length bytes
+    private static final class Entry {
+        final long contentHash;
+        final int contentLength;
+        final long savedAt;
+        final int recordSize;
+        final int offset;
+        final int length;
+        String viewState;
+
+        Entry(long contentHash, int contentLength, long savedAt, int recordSize, int offset, int length,
+              String viewState) {
+            this.contentHash = contentHash;
+            this.contentLength = contentLength;
+            this.savedAt = savedAt;
+            this.recordSize = recordSize;
+            this.offset = offset;
+            this.length = length;
+            this.viewState = viewState;
+        }
+    }
+
+    private final Path file;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private FileChannel channel;
+    private MappedByteBuffer mapping;
+    private long size;
+    private long liveBytes;
+
+    private SessionStore(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Open the store in {@code file}, creating it (and its directory) if it does not exist.
+     */
+    public static SessionStore open(Path file) throws IOException {
+        SessionStore store = new SessionStore(Objects.requireNonNull(file, "file"));
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) Files.createDirectories(dir);
+        store.load();
+        if (store.shouldCompact()) store.compact();
+        return store;
+    }
+
+    /**
+     * The state saved for {@code uri}, or null if there is none or it was saved for other content.
+     *
+     * @throws IllegalStateException if the store is closed
+     */
+    public synchronized State get(String uri, long contentHash, int contentLength) {
+        ensureOpen();
+        Entry e = entries.get(uri);
+        if (e == null || e.contentHash != contentHash || e.contentLength != contentLength) return null;
+        return new State(viewState(e), e.contentHash, e.contentLength, e.savedAt);
+    }
+
+    /**
+     * Save the view state of {@code uri} for the content of the given hash and length, replacing any
+     * previous one. The record is appended to the file before this returns.
+     *
+     * @throws IllegalStateException if the store is closed
+     */
+    public synchronized void put(String uri, long contentHash, int contentLength, String viewState)
+            throws IOException {
+        ensureOpen();
+        Objects.requireNonNull(uri, "uri");
+        Objects.requireNonNull(viewState, "viewState");
+        Entry previous = entries.get(uri);
+        if (previous != null && previous.contentHash == contentHash && previous.contentLength == contentLength
+                && viewState.equals(previous.viewState)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int recordSize = append(uri, contentHash, contentLength, now, viewState);
+        if (previous != null) liveBytes -= previous.recordSize;
+        liveBytes += recordSize;
+        entries.put(uri, new Entry(contentHash, contentLength, now, recordSize, -1, 0, viewState));
+    }
+
+    /**
+     * Forget the state of {@code uri}.
+     *
+     * @throws IllegalStateException if the store is closed
+     */
+    public synchronized void remove(String uri) throws IOException {
+        ensureOpen();
+        Entry previous = entries.remove(uri);
+        if (previous == null) return;
+        append(uri, 0, 0, System.currentTimeMillis(), null);
+        liveBytes -= previous.recordSize;
+    }
+
+    public synchronized boolean contains(String uri) {
+        return entries.containsKey(uri);
+    }
+
+    /**
+     * Rewrite the file with only the current state of each URI.
+     *
+     * @throws IllegalStateException if the store is closed
+     */
+    public synchronized void compact() throws IOException {
+        ensureOpen();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(header());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                write(out, e.getKey(), entry.contentHash, entry.contentLength, entry.savedAt, viewState(entry));
+            }
+            out.force(true);
+        }
+        closeChannel();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        load();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel == null) return;
+        if (shouldCompact()) {
+            compact();
+        }
+        closeChannel();
+    }
+
+    // -------------- file format --------------
+
+    private void load() throws IOException {
+        entries.clear();
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long length = channel.size();
+        if (length < HEADER || length > Integer.MAX_VALUE) {
+            // new, or not something we can read: start over
+            channel.truncate(0);
+            channel.write(header(), 0);
+            length = HEADER;
+        }
+        mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        if (mapping.getInt(0) != MAGIC || mapping.getInt(4) != FORMAT) {
+            channel.truncate(0);
+            channel.write(header(), 0);
+            length = HEADER;
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        liveBytes = 0;
+        int pos = HEADER;
+        while (pos + 4 <= length) {
+            int rest = mapping.getInt(pos);
+            if (rest < FIXED || pos + 4L + rest > length) break;
+            int p = pos + 4;
+            int uriLength = mapping.getInt(p);
+            if (uriLength < 0 || uriLength > rest - FIXED) break;
+            byte[] uriBytes = new byte[uriLength];
+            mapping.get(p + 4, uriBytes);
+            p += 4 + uriLength;
+            long hash = mapping.getLong(p);
+            int contentLength = mapping.getInt(p + 8);
+            long savedAt = mapping.getLong(p + 12);
+            int stateLength = mapping.getInt(p + 20);
+            p += 24;
+            if (stateLength > pos + 4 + rest - p) break;
+            String uri = new String(uriBytes, StandardCharsets.UTF_8);
+            Entry previous = stateLength < 0
+                    ? entries.remove(uri)
+                    : entries.put(uri, new Entry(hash, contentLength, savedAt, 4 + rest, p, stateLength, null));
+            if (previous != null) liveBytes -= previous.recordSize;
+            if (stateLength >= 0) liveBytes += 4 + rest;
+            pos += 4 + rest;
+        }
+        if (pos < length) {
+            // a record cut short, e.g. by a crash while writing it
+            channel.truncate(pos);
+        }
+        size = pos;
+    }
+
+    private boolean shouldCompact() {
+        return size > COMPACT_MIN_BYTES && liveBytes < (size - HEADER) / 2;
+    }
+
+    private int append(String uri, long hash, int contentLength, long savedAt, String viewState) throws IOException {
+        channel.position(size);
+        int written = write(channel, uri, hash, contentLength, savedAt, viewState);
+        size += written;
+        return written;
+    }
+
+    private static int write(FileChannel out, String uri, long hash, int contentLength, long savedAt,
+                             String viewState) throws IOException {
+        byte[] uriBytes = uri.getBytes(StandardCharsets.UTF_8);
+        byte[] stateBytes = viewState == null ? new byte[0] : viewState.getBytes(StandardCharsets.UTF_8);
+        int rest = FIXED + uriBytes.length + stateBytes.length;
+        ByteBuffer buffer = ByteBuffer.allocate(4 + rest);
+        buffer.putInt(rest).putInt(uriBytes.length).put(uriBytes).putLong(hash).putInt(contentLength)
+              .putLong(savedAt).putInt(viewState == null ? -1 : stateBytes.length).put(stateBytes).flip();
+        while (buffer.hasRemaining()) out.write(buffer);
+        return 4 + rest;
+    }
+
+    private String viewState(Entry e) {
+        if (e.viewState == null) {
+            byte[] bytes = new byte[e.length];
+            mapping.get(e.offset, bytes);
+            e.viewState = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return e.viewState;
+    }
+
+    private static ByteBuffer header() {
+        return ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(FORMAT).flip();
+    }
+
+    private void ensureOpen() {
+        if (channel == null) throw new IllegalStateException("Session store " + file + " is closed");
+    }
+
+    private void closeChannel() throws IOException {
+        mapping = null;
+        if (channel != null) channel.close();
+        channel = null;
+    }
+}
@@ -0,0 +1,573 @@
+package org.integratedmodelling.klabeditor;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Java-side text buffer mirroring a Monaco model. The text is held in a persistent, height-balanced rope:
+ * leaves are short string chunks and every inner node caches the length and number of line breaks of its
+ * subtree, so insertions, deletions, line lookups and offset/position conversions are O(log n) and never
+ * copy the whole buffer.
+ * <p>
+ * Nodes are immutable. An edit builds a new root sharing all untouched subtrees with the previous one,
+ * which makes {@link #snapshot()} free: a snapshot is just a root reference and stays valid (and
+ * unchanged) no matter how the document is edited afterwards, so it can be handed to background readers
+ * such as validators without any locking.
+ * <p>
+ * Positions follow Monaco's conventions: line numbers and columns are 1-based, offsets are 0-based UTF-16
+ * indices, and a line break is a '\n' (an optional preceding '\r' is not counted as part of the line).
+ * Mutators are expected to be called from one thread at a time (the FX thread for editor mirrors); reads
+ * are safe from any thread.
+ */
+public final class TextDocument {
+
+    /** Target size of leaves when building from a string. */
+    private static final int CHUNK_SIZE = 1024;
+    /** Leaves are never grown beyond this size by in-place edits. */
+    private static final int MAX_LEAF = 2 * CHUNK_SIZE;
+
+    /**
+     * A Monaco-style position: 1-based line number and 1-based column.
+     */
+    public record Position(int lineNumber, int column) {}
+
+    private volatile Snapshot current;
+
+    public TextDocument() {
+        this("");
+    }
+
+    public TextDocument(CharSequence text) {
+        this.current = new Snapshot(build(text == null ? "" : text), 0);
+    }
+
+    /**
+     * Returns an immutable view of the current content. Taking a snapshot is O(1).
+     */
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    /**
+     * Monotonic counter incremented by every mutation of this document.
+     */
+    public int getVersion() {
+        return current.version;
+    }
+
+    public synchronized void setText(CharSequence text) {
+        current = new Snapshot(build(text == null ? "" : text), current.version + 1);
+    }
+
+    public void insert(int offset, CharSequence text) {
+        replace(offset, 0, text);
+    }
+
+    public void delete(int offset, int length) {
+        replace(offset, length, "");
+    }
+
+    /**
+     * Insert {@code text} at the end of the document. Unlike an insert at {@link #getLength()}, this is safe
+     * while another thread edits the document, e.g. when a file is read into it in chunks.
+     */
+    public synchronized void append(CharSequence text) {
+        replace(current.getLength(), 0, text);
+    }
+
+    /**
+     * Replace {@code length} characters at {@code offset} with {@code text}.
+     *
+     * @throws IndexOutOfBoundsException if the range is not within the document
+     */
+    public synchronized void replace(int offset, int length, CharSequence text) {
+        Snapshot s = current;
+        if (offset < 0 || length < 0 || offset + length > s.root.length()) {
+            throw new IndexOutOfBoundsException(
+                    "Range [" + offset + ", " + (offset + length) + ") outside document of length " + s.root.length());
+        }
+        String t = text == null ? "" : text.toString();
+        if (length == 0 && t.isEmpty()) return;
+        current = new Snapshot(replace(s.root, offset, length, t), s.version + 1);
+    }
+
+    /**
+     * The end-of-line sequence Monaco adopts for a text it is given: CRLF when carriage returns account for
+     * more than half of the line breaks, LF otherwise (including text without line breaks).
+     */
+    public static String detectEol(CharSequence text) {
+        int cr = 0;
+        int lf = 0;
+        int crlf = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            if (c == '\r') {
+                if (i + 1 < n && text.charAt(i + 1) == '\n') {
+                    crlf++;
+                    i++;
+                } else {
+                    cr++;
+                }
+            } else if (c == '\n') {
+                lf++;
+            }
+        }
+        int total = cr + lf + crlf;
+        return total > 0 && cr + crlf > total / 2.0 ? "\r\n" : "\n";
+    }
+
+    /**
+     * Rewrite every line break ("\r\n", "\n" or a lone "\r") as {@code eol}, as Monaco does with text
+     * entering a model. Returns the argument itself when nothing needs to change.
+     */
+    public static String normalizeEol(String text, String eol) {
+        boolean lf = "\n".equals(eol);
+        if (lf && text.indexOf('\r') < 0) return text;
+        StringBuilder sb = null;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            boolean crlf = c == '\r' && i + 1 < n && text.charAt(i + 1) == '\n';
+            boolean keep = crlf ? !lf : (c == '\n' ? lf : c != '\r');
+            if (!keep && sb == null) {
+                sb = new StringBuilder(text.length() + 16).append(text, 0, i);
+            }
+            if (sb != null) {
+                if (c == '\r' || c == '\n') sb.append(eol);
+                else sb.append(c);
+            }
+            if (crlf) i++;
+        }
+        return sb == null ? text : sb.toString();
+    }
+
+    // -------------- read API, delegated to the current snapshot --------------
+
+    public int getLength() {
+        return current.getLength();
+    }
+
+    public String getText() {
+        return current.getText();
+    }
+
+    public String getText(int offset, int length) {
+        return current.getText(offset, length);
+    }
+
+    public char charAt(int offset) {
+        return current.charAt(offset);
+    }
+
+    public int getLineCount() {
+        return current.getLineCount();
+    }
+
+    public int getLineStart(int lineNumber) {
+        return current.getLineStart(lineNumber);
+    }
+
+    public int getLineLength(int lineNumber) {
+        return current.getLineLength(lineNumber);
+    }
+
+    public String getLineContent(int lineNumber) {
+        return current.getLineContent(lineNumber);
+    }
+
+    public Position getPositionAt(int offset) {
+        return current.getPositionAt(offset);
+    }
+
+    public int getOffsetAt(int lineNumber, int column) {
+        return current.getOffsetAt(lineNumber, column);
+    }
+
+    @Override
+    public String toString() {
+        return getText();
+    }
+
+    /**
+     * Immutable state of a {@link TextDocument} at a given version.
+     */
+    public static final class Snapshot {
+
+        private final Node root;
+        private final int version;
+        // 0 until computed; a hash of 0 is stored as 1
+        private volatile long hash;
+
+        private Snapshot(Node root, int version) {
+            this.root = root;
+            this.version = version;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public int getLength() {
+            return root.length();
+        }
+
+        public String getText() {
+            StringBuilder sb = new StringBuilder(root.length());
+            append(root, 0, root.length(), sb);
+            return sb.toString();
+        }
+
+        public String getText(int offset, int length) {
+            if (offset < 0 || length < 0 || offset + length > root.length()) {
+                throw new IndexOutOfBoundsException(
+                        "Range [" + offset + ", " + (offset + length) + ") outside document of length " + root.length());
+            }
+            StringBuilder sb = new StringBuilder(length);
+            append(root, offset, offset + length, sb);
+            return sb.toString();
+        }
+
+        public char charAt(int offset) {
+            if (offset < 0 || offset >= root.length()) {
+                throw new IndexOutOfBoundsException("Offset " + offset + " outside document of length " + root.length());
+            }
+            Node n = root;
+            while (n instanceof Branch b) {
+                if (offset < b.left.length()) {
+                    n = b.left;
+                } else {
+                    offset -= b.left.length();
+                    n = b.right;
+                }
+            }
+            return ((Leaf) n).text.charAt(offset);
+        }
+
+        public int getLineCount() {
+            return root.lineBreaks() + 1;
+        }
+
+        /**
+         * Offset of the first character of a line. Line numbers are clamped to the valid range.
+         */
+        public int getLineStart(int lineNumber) {
+            int line = clamp(lineNumber, 1, getLineCount());
+            return line == 1 ? 0 : offsetAfterBreak(root, line - 1);
+        }
+
+        /**
+         * Length of a line, excluding its end-of-line sequence.
+         */
+        public int getLineLength(int lineNumber) {
+            int line = clamp(lineNumber, 1, getLineCount());
+            int start = getLineStart(line);
+            if (line == getLineCount()) return root.length() - start;
+            int end = offsetAfterBreak(root, line) - 1; // position of '\n'
+            if (end > start && charAt(end - 1) == '\r') end--;
+            return end - start;
+        }
+
+        public String getLineContent(int lineNumber) {
+            int line = clamp(lineNumber, 1, getLineCount());
+            return getText(getLineStart(line), getLineLength(line));
+        }
+
+        /**
+         * Equivalent of Monaco's {@code model.getPositionAt(offset)}: the offset is clamped to the document.
+         */
+        public Position getPositionAt(int offset) {
+            int off = clamp(offset, 0, root.length());
+            int line = breaksBefore(root, off) + 1;
+            int lineStart = line == 1 ? 0 : offsetAfterBreak(root, line - 1);
+            return new Position(line, off - lineStart + 1);
+        }
+
+        /**
+         * Equivalent of Monaco's {@code model.getOffsetAt(position)}: line and column are clamped to the
+         * document.
+         */
+        public int getOffsetAt(int lineNumber, int column) {
+            int line = clamp(lineNumber, 1, getLineCount());
+            int col = clamp(column, 1, getLineLength(line) + 1);
+            return getLineStart(line) + col - 1;
+        }
+
+        /**
+         * Find the matches of {@code query} in parallel, handing them to {@code matches} in batches.
+         *
+         * @see TextSearch#search(Snapshot, String, TextSearch.Options, Consumer)
+         */
+        public CompletableFuture<TextSearch.Result> search(String query, TextSearch.Options options,
+                                                           Consumer<List<TextSearch.Match>> matches) {
+            return TextSearch.search(this, query, options, matches);
+        }
+
+        /**
+         * 64-bit FNV-1a hash of the UTF-16 content, computed once per snapshot by walking the leaves, to tell
+         * whether a document still has the content some cached state was derived from.
+         */
+        public long contentHash() {
+            long h = hash;
+            if (h == 0) {
+                h = hash(root, 0xcbf29ce484222325L);
+                if (h == 0) h = 1;
+                hash = h;
+            }
+            return h;
+        }
+
+        @Override
+        public String toString() {
+            return getText();
+        }
+    }
+
+    // -------------- rope nodes --------------
+
+    private abstract static sealed class Node permits Leaf, Branch {
+        abstract int length();
+
+        abstract int lineBreaks();
+
+        abstract int height();
+    }
+
+    private static final class Leaf extends Node {
+        final String text;
+        final int breaks;
+
+        Leaf(String text) {
+            this.text = text;
+            int count = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '\n') count++;
+            }
+            this.breaks = count;
+        }
+
+        @Override
+        int length() {
+            return text.length();
+        }
+
+        @Override
+        int lineBreaks() {
+            return breaks;
+        }
+
+        @Override
+        int height() {
+            return 0;
+        }
+    }
+
+    private static final class Branch extends Node {
+        final Node left;
+        final Node right;
+        final int length;
+        final int breaks;
+        final int height;
+
+        Branch(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+            this.length = left.length() + right.length();
+            this.breaks = left.lineBreaks() + right.lineBreaks();
+            this.height = Math.max(left.height(), right.height()) + 1;
+        }
+
+        @Override
+        int length() {
+            return length;
+        }
+
+        @Override
+        int lineBreaks() {
+            return breaks;
+        }
+
+        @Override
+        int height() {
+            return height;
+        }
+    }
+
+    private static final Leaf EMPTY = new Leaf("");
+
+    private static Node build(CharSequence text) {
+        int n = text.length();
+        if (n == 0) return EMPTY;
+        Node[] nodes = new Node[(n + CHUNK_SIZE - 1) / CHUNK_SIZE + 1];
+        int count = 0;
+        for (int start = 0; start < n; ) {
+            int end = Math.min(n, start + CHUNK_SIZE);
+            // never split a surrogate pair between leaves
+            if (end < n && Character.isHighSurrogate(text.charAt(end - 1))) end++;
+            nodes[count++] = new Leaf(text.subSequence(start, end).toString());
+            start = end;
+        }
+        return build(nodes, 0, count);
+    }
+
+    private static Node build(Node[] nodes, int from, int to) {
+        if (to - from == 1) return nodes[from];
+        int mid = (from + to) >>> 1;
+        return new Branch(build(nodes, from, mid), build(nodes, mid, to));
+    }
+
+    private static Node replace(Node root, int offset, int length, String text) {
+        Node inPlace = replaceInLeaf(root, offset, length, text);
+        if (inPlace != null) return inPlace;
+        Node[] head = split(root, offset);
+        Node[] tail = split(head[1], length);
+        return concat(concat(head[0], build(text)), tail[1]);
+    }
+
+    /**
+     * Fast path for typing: when the edited range lies within one leaf that stays small enough, only the
+     * path from the root to that leaf is copied. Returns null when the general split/concat is needed.
+     */
+    private static Node replaceInLeaf(Node n, int offset, int length, String text) {
+        if (n instanceof Leaf leaf) {
+            int newLength = leaf.text.length() - length + text.length();
+            if (newLength == 0 || newLength > MAX_LEAF) return null;
+            return new Leaf(leaf.text.substring(0, offset) + text + leaf.text.substring(offset + length));
+        }
+        Branch b = (Branch) n;
+        int leftLength = b.left.length();
+        if (offset + length <= leftLength) {
+            Node left = replaceInLeaf(b.left, offset, length, text);
+            return left == null ? null : new Branch(left, b.right);
+        }
+        if (offset >= leftLength) {
+            Node right = replaceInLeaf(b.right, offset - leftLength, length, text);
+            return right == null ? null : new Branch(b.left, right);
+        }
+        return null;
+    }
+
+    private static Node[] split(Node n, int offset) {
+        if (offset == 0) return new Node[]{EMPTY, n};
+        if (offset == n.length()) return new Node[]{n, EMPTY};
+        if (n instanceof Leaf leaf) {
+            return new Node[]{new Leaf(leaf.text.substring(0, offset)), new Leaf(leaf.text.substring(offset))};
+        }
+        Branch b = (Branch) n;
+        int leftLength = b.left.length();
+        if (offset < leftLength) {
+            Node[] s = split(b.left, offset);
+            return new Node[]{s[0], concat(s[1], b.right)};
+        }
+        if (offset == leftLength) return new Node[]{b.left, b.right};
+        Node[] s = split(b.right, offset - leftLength);
+        return new Node[]{concat(b.left, s[0]), s[1]};
+    }
+
+    private static Node concat(Node a, Node b) {
+        if (a.length() == 0) return b;
+        if (b.length() == 0) return a;
+        if (a instanceof Leaf la && b instanceof Leaf lb && la.text.length() + lb.text.length() <= MAX_LEAF) {
+            return new Leaf(la.text + lb.text);
+        }
+        return join(a, b);
+    }
+
+    // AVL join: descend the taller tree along the facing spine and rebalance on the way back up
+    private static Node join(Node a, Node b) {
+        int ha = a.height();
+        int hb = b.height();
+        if (ha > hb + 1) {
+            Branch ba = (Branch) a;
+            return balance(ba.left, join(ba.right, b));
+        }
+        if (hb > ha + 1) {
+            Branch bb = (Branch) b;
+            return balance(join(a, bb.left), bb.right);
+        }
+        return new Branch(a, b);
+    }
+
+    private static Node balance(Node l, Node r) {
+        int diff = l.height() - r.height();
+        if (diff > 1) {
+            Branch bl = (Branch) l;
+            if (bl.left.height() >= bl.right.height()) {
+                return new Branch(bl.left, new Branch(bl.right, r));
+            }
+            Branch blr = (Branch) bl.right;
+            return new Branch(new Branch(bl.left, blr.left), new Branch(blr.right, r));
+        }
+        if (diff < -1) {
+            Branch br = (Branch) r;
+            if (br.right.height() >= br.left.height()) {
+                return new Branch(new Branch(l, br.left), br.right);
+            }
+            Branch brl = (Branch) br.left;
+            return new Branch(new Branch(l, brl.left), new Branch(brl.right, br.right));
+        }
+        return new Branch(l, r);
+    }
+
+    private static void append(Node n, int from, int to, StringBuilder sb) {
+        if (from >= to) return;
+        if (n instanceof Leaf leaf) {
+            sb.append(leaf.text, from, to);
+            return;
+        }
+        Branch b = (Branch) n;
+        int leftLength = b.left.length();
+        if (from < leftLength) append(b.left, from, Math.min(to, leftLength), sb);
+        if (to > leftLength) append(b.right, Math.max(0, from - leftLength), to - leftLength, sb);
+    }
+
+    private static long hash(Node n, long h) {
+        if (n instanceof Branch b) return hash(b.right, hash(b.left, h));
+        String text = ((Leaf) n).text;
+        for (int i = 0; i < text.length(); i++) {
+            h = (h ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** Number of line breaks in [0, offset). */
+    private static int breaksBefore(Node n, int offset) {
+        int count = 0;
+        while (n instanceof Branch b) {
+            if (offset <= b.left.length()) {
+                n = b.left;
+            } else {
+                count += b.left.lineBreaks();
+                offset -= b.left.length();
+                n = b.right;
+            }
+        }
+        String text = ((Leaf) n).text;
+        for (int i = 0; i < offset; i++) {
+            if (text.charAt(i) == '\n') count++;
+        }
+        return count;
+    }
+
+    /** Offset just past the k-th (1-based) line break. */
+    private static int offsetAfterBreak(Node n, int k) {
+        int offset = 0;
+        while (n instanceof Branch b) {
+            if (k <= b.left.lineBreaks()) {
+                n = b.left;
+            } else {
+                k -= b.left.lineBreaks();
+                offset += b.left.length();
+                n = b.right;
+            }
+        }
+        String text = ((Leaf) n).text;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n' && --k == 0) return offset + i + 1;
+        }
+        throw new IllegalStateException("Line break index out of range");
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,312 @@
+package org.integratedmodelling.klabeditor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Find and replace over {@link TextDocument.Snapshot}s, with the semantics of Monaco's find widget: literal
+ * or regular expression queries, optionally case-sensitive and whole-word, {@code ^} and {@code $} matching
+ * at line breaks, and empty matches skipped.
+ * <p>
+ * The text is searched in chunks of about {@link #CHUNK} characters, ending at line breaks, in parallel on
+ * the common fork-join pool; matches are handed out in batches as chunks find them, so that they can be
+ * shown before the search is over. A query that can match across lines (a literal with a line break, or a
+ * regular expression with {@code \n}, {@code \r} or {@code \W}, as Monaco decides) is searched in one piece.
+ * Cancelling the future returned stops the search.
+ */
+public final class TextSearch {
+
+    /**
+     * @param maxMatches matches reported at most; which ones are kept when a search finds more is not
+     *                   specified, since chunks are searched in parallel
+     */
+    public record Options(boolean regex, boolean matchCase, boolean wholeWord, int maxMatches) {
+
+        public static final Options DEFAULT = new Options(false, false, false, Integer.MAX_VALUE);
+
+        public Options {
+            if (maxMatches < 0) throw new IllegalArgumentException("maxMatches < 0");
+        }
+    }
+
+    /**
+     * A match as a range of characters of the snapshot searched.
+     */
+    public record Match(int offset, int length) {}
+
+    /**
+     * @param limitHit whether the search stopped at {@link Options#maxMatches()}
+     */
+    public record Result(int matches, boolean limitHit) {}
+
+    // A match and the text it is replaced with
+    record Edit(int offset, int length, String text) {}
+
+    /**
+     * Characters searched per task, rounded up to the end of a line.
+     */
+    public static final int CHUNK = 1 << 20;
+    // Matches per batch handed to the caller
+    private static final int BATCH = 1024;
+    // Monaco's default editor.wordSeparators; whitespace separates words too
+    private static final String WORD_SEPARATORS = "`~!@#$%^&*()-=+[{]}\\|;:'\",.<>/?";
+
+    private TextSearch() {
+    }
+
+    /**
+     * Find the matches of {@code query} in {@code snapshot}, giving them to {@code matches} in batches, from
+     * pool threads but one batch at a time. The batches are in no particular order.
+     *
+     * @return completes when the whole text has been searched, or exceptionally if {@code query} is not a
+     * valid regular expression
+     */
+    public static CompletableFuture<Result> search(TextDocument.Snapshot snapshot, String query, Options options,
+                                                   Consumer<List<Match>> matches) {
+        Objects.requireNonNull(matches, "matches");
+        Pattern pattern;
+        try {
+            pattern = compile(query, options);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<Result> ret = new CompletableFuture<>();
+        if (query.isEmpty() || options.maxMatches() == 0) {
+            ret.complete(new Result(0, false));
+            return ret;
+        }
+        int[] bounds = chunks(snapshot, multiline(query, options.regex()));
+        AtomicInteger count = new AtomicInteger();
+        AtomicBoolean limitHit = new AtomicBoolean();
+        Object sinkLock = new Object();
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[bounds.length - 1];
+        for (int i = 0; i < tasks.length; i++) {
+            int start = bounds[i];
+            int end = bounds[i + 1];
+            tasks[i] = CompletableFuture.runAsync(() -> {
+                if (ret.isDone()) return;
+                List<Match> batch = new ArrayList<>();
+                String text = snapshot.getText(start, end - start);
+                Matcher m = pattern.matcher(text);
+                while (!ret.isDone() && find(m, text, options.wholeWord())) {
+                    if (count.incrementAndGet() > options.maxMatches()) {
+                        limitHit.set(true);
+                        break;
+                    }
+                    batch.add(new Match(start + m.start(), m.end() - m.start()));
+                    if (batch.size() == BATCH) {
+                        synchronized (sinkLock) {
+                            matches.accept(batch);
+                        }
+                        batch = new ArrayList<>();
+                    }
+                }
+                if (!batch.isEmpty() && !ret.isDone()) {
+                    synchronized (sinkLock) {
+                        matches.accept(batch);
+                    }
+                }
+            }, ForkJoinPool.commonPool());
+        }
+        CompletableFuture.allOf(tasks).whenComplete((v, t) -> {
+            if (t != null) {
+                ret.completeExceptionally(t);
+            } else {
+                ret.complete(new Result(Math.min(count.get(), options.maxMatches()), limitHit.get()));
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * The edits replacing every match of {@code query} in {@code snapshot} with {@code replacement}, in order
+     * of offset. For a regular expression, {@code replacement} is read as by Monaco's find widget:
+     * {@code $&} or {@code $0} stands for the whole match, {@code $1} to {@code $99} for a group and
+     * {@code $$} for a dollar sign, {@code \n}, {@code \t} and {@code \\} for a line break, a tab and a
+     * backslash, and any other backslash is kept; {@code ${name}} refers to a named group too. A literal
+     * replacement is used as is. {@link Options#maxMatches()} is ignored.
+     */
+    static CompletableFuture<List<Edit>> replacements(TextDocument.Snapshot snapshot, String query,
+                                                      String replacement, Options options) {
+        Pattern pattern;
+        try {
+            pattern = compile(query, options);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (query.isEmpty()) return CompletableFuture.completedFuture(List.of());
+        List<Object> pieces = replacement == null ? List.of()
+                : options.regex() ? parseReplacement(replacement, pattern) : List.of(replacement);
+        int[] bounds = chunks(snapshot, multiline(query, options.regex()));
+        List<CompletableFuture<List<Edit>>> tasks = new ArrayList<>(bounds.length - 1);
+        for (int i = 0; i < bounds.length - 1; i++) {
+            int start = bounds[i];
+            int end = bounds[i + 1];
+            tasks.add(CompletableFuture.supplyAsync(() -> {
+                List<Edit> edits = new ArrayList<>();
+                String text = snapshot.getText(start, end - start);
+                Matcher m = pattern.matcher(text);
+                while (find(m, text, options.wholeWord())) {
+                    edits.add(new Edit(start + m.start(), m.end() - m.start(), expand(pieces, m)));
+                }
+                return edits;
+            }, ForkJoinPool.commonPool()));
+        }
+        return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<Edit> ret = new ArrayList<>();
+            for (CompletableFuture<List<Edit>> task : tasks) ret.addAll(task.join());
+            return ret;
+        });
+    }
+
+    // A regular expression replacement as literal strings and group numbers, following Monaco's
+    // parseReplaceString without its case operators
+    private static List<Object> parseReplacement(String replacement, Pattern pattern) {
+        List<Object> pieces = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int n = replacement.length();
+        for (int i = 0; i < n; i++) {
+            char c = replacement.charAt(i);
+            if ((c != '\\' && c != '$') || i + 1 == n) {
+                literal.append(c);
+                continue;
+            }
+            char next = replacement.charAt(++i);
+            int group = -1;
+            if (c == '\\') {
+                switch (next) {
+                    case '\\' -> literal.append('\\');
+                    case 'n' -> literal.append('\n');
+                    case 't' -> literal.append('\t');
+                    default -> literal.append(c).append(next);
+                }
+            } else if (next == '$') {
+                literal.append('$');
+            } else if (next == '&' || next == '0') {
+                group = 0;
+            } else if (next >= '1' && next <= '9') {
+                group = next - '0';
+                if (i + 1 < n && replacement.charAt(i + 1) >= '0' && replacement.charAt(i + 1) <= '9') {
+                    group = group * 10 + replacement.charAt(++i) - '0';
+                }
+            } else if (next == '{') {
+                int close = replacement.indexOf('}', i);
+                Integer named = close < 0 ? null : pattern.namedGroups().get(replacement.substring(i + 1, close));
+                if (named == null) {
+                    literal.append(c).append(next);
+                } else {
+                    group = named;
+                    i = close;
+                }
+            } else {
+                literal.append(c).append(next);
+            }
+            if (group >= 0) {
+                if (!literal.isEmpty()) pieces.add(literal.toString());
+                literal.setLength(0);
+                pieces.add(group);
+            }
+        }
+        if (!literal.isEmpty()) pieces.add(literal.toString());
+        return pieces;
+    }
+
+    private static String expand(List<Object> pieces, Matcher m) {
+        StringBuilder sb = new StringBuilder();
+        for (Object piece : pieces) {
+            if (piece instanceof String text) {
+                sb.append(text);
+                continue;
+            }
+            // as in Monaco, $12 without a twelfth group is the first group followed by 2, and $5 without a
+            // fifth group is kept
+            int group = (Integer) piece;
+            if (group == 0) {
+                sb.append(m.group());
+                continue;
+            }
+            String rest = "";
+            while (group > 0 && group > m.groupCount()) {
+                rest = group % 10 + rest;
+                group /= 10;
+            }
+            if (group == 0) {
+                sb.append('$');
+            } else if (m.group(group) != null) {
+                sb.append(m.group(group));
+            }
+            sb.append(rest);
+        }
+        return sb.toString();
+    }
+
+    private static Pattern compile(String query, Options options) {
+        Objects.requireNonNull(query, "query");
+        Objects.requireNonNull(options, "options");
+        int flags = Pattern.MULTILINE;
+        if (!options.regex()) flags |= Pattern.LITERAL;
+        if (!options.matchCase()) flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        return Pattern.compile(query, flags);
+    }
+
+    // Monaco's isMultilineRegexSource
+    private static boolean multiline(String query, boolean regex) {
+        if (!regex) return query.indexOf('\n') >= 0;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '\n') return true;
+            if (c == '\\' && i + 1 < query.length()) {
+                char next = query.charAt(++i);
+                if (next == 'n' || next == 'r' || next == 'W') return true;
+            }
+        }
+        return false;
+    }
+
+    // Offsets where chunks start, and the length of the text: each chunk ends at a line start
+    private static int[] chunks(TextDocument.Snapshot snapshot, boolean whole) {
+        int length = snapshot.getLength();
+        if (whole || length <= CHUNK) return new int[]{0, length};
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        int lines = snapshot.getLineCount();
+        int last = 0;
+        while (last + CHUNK < length) {
+            int line = snapshot.getPositionAt(last + CHUNK).lineNumber();
+            int next = line < lines ? snapshot.getLineStart(line + 1) : length;
+            if (next >= length) break;
+            bounds.add(next);
+            last = next;
+        }
+        bounds.add(length);
+        return bounds.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Next non-empty match, whole words only if asked
+    private static boolean find(Matcher m, String text, boolean wholeWord) {
+        while (m.find()) {
+            if (m.end() == m.start()) continue;
+            if (!wholeWord || isWholeWord(text, m.start(), m.end())) return true;
+        }
+        return false;
+    }
+
+    // As Monaco: each end of the match is next to a separator, or is a separator itself
+    private static boolean isWholeWord(String text, int start, int end) {
+        boolean left = start == 0 || isSeparator(text.charAt(start - 1)) || isSeparator(text.charAt(start));
+        boolean right = end == text.length() || isSeparator(text.charAt(end)) || isSeparator(text.charAt(end - 1));
+        return left && right;
+    }
+
+    private static boolean isSeparator(char c) {
+        return Character.isWhitespace(c) || WORD_SEPARATORS.indexOf(c) >= 0;
+    }
+}
@@ -0,0 +1,49 @@
+package org.integratedmodelling.klabeditor;
+
+import java.util.List;
+
+/**
+ * A line-oriented lexer implemented in Java, providing the semantic highlighting of a language through
+ * {@link MonacoEditorView#setTokenizer(String, TokenizerProvider)}. Lines are tokenized one at a time,
+ * starting from the state the previous line ended in; the end state of every line is cached, so after an
+ * edit only the edited lines are tokenized again, plus the following ones until a line ends in the same
+ * state as before.
+ */
+public interface TokenizerProvider {
+
+    /**
+     * Receives the tokens of one line, in increasing and non-overlapping order.
+     */
+    @FunctionalInterface
+    interface TokenSink {
+
+        /**
+         * A token of {@code length} characters at the 0-based {@code offset} in the line. {@code type} is
+         * an index in {@link #getTokenTypes()}, {@code modifiers} a bit set over {@link #getTokenModifiers()}.
+         */
+        void token(int offset, int length, int type, int modifiers);
+    }
+
+    /**
+     * Names of the token types, matched against the rules of the editor theme (e.g. "keyword", "comment",
+     * "string", "number", "type", "variable").
+     */
+    List<String> getTokenTypes();
+
+    default List<String> getTokenModifiers() {
+        return List.of();
+    }
+
+    /**
+     * State at the start of the document.
+     */
+    Object getInitialState();
+
+    /**
+     * Tokenize {@code line} (without its end-of-line sequence) starting in {@code state}, and return the
+     * state at the end of the line. States are compared with {@code equals} to decide where tokenizing can
+     * stop, so they must be immutable values; use a small set of shared instances where possible. Called on
+     * the FX thread.
+     */
+    Object tokenizeLine(CharSequence line, Object state, TokenSink sink);
+}
@@ -0,0 +1,260 @@
+package org.integratedmodelling.klabeditor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the {@link Validator}s registered for a language in the background, shared by any number of editors.
+ * Each editor reports edits through a {@link Session}; validation starts once a document has been left
+ * alone for the debounce delay, on a virtual thread, against an immutable snapshot of its mirror, so the FX
+ * thread never waits for it. An edit cancels the validation in progress for the document, whose result is
+ * then dropped: results are delivered in version order, one batch with the markers of all validators per
+ * document version, and a result is not delivered if a newer edit was reported before its validation ended.
+ * The listener is called without holding any lock that reporting an edit needs, so it may block, e.g. on
+ * the FX thread; an edit can then be reported while a result is being delivered.
+ */
+public final class ValidationEngine implements AutoCloseable {
+
+    /**
+     * Owner of the markers produced by validators.
+     */
+    public static final String MARKER_OWNER = "validation";
+
+    /**
+     * Receives the results for the documents of one session. Called on a validation thread.
+     */
+    public interface Listener {
+
+        /**
+         * The diagnostics of {@code version} of the document of {@code uri}, replacing any previous ones.
+         * An edit reported while this runs makes them stale: receivers should check the version they apply
+         * them to.
+         */
+        void onValidated(String uri, int version, List<Marker> markers);
+    }
+
+    private final Map<String, List<Validator>> validators = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService debouncer =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("validation-debounce").factory());
+    private final ExecutorService workers =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("validation-", 0).factory());
+
+    private volatile long delay = 300;
+    private volatile boolean closed;
+
+    /**
+     * Run {@code validator} on documents of {@code languageId}, after the validators already registered.
+     */
+    public void register(String languageId, Validator validator) {
+        Objects.requireNonNull(validator, "validator");
+        validators.computeIfAbsent(languageId, l -> new CopyOnWriteArrayList<>()).add(validator);
+    }
+
+    public void unregister(String languageId, Validator validator) {
+        List<Validator> list = validators.get(languageId);
+        if (list != null) list.remove(validator);
+    }
+
+    public boolean hasValidators(String languageId) {
+        List<Validator> list = validators.get(languageId);
+        return list != null && !list.isEmpty();
+    }
+
+    /**
+     * Delay between the last reported edit of a document and the start of its validation.
+     */
+    public void setDelay(Duration delay) {
+        this.delay = Math.max(0, delay.toMillis());
+    }
+
+    public Duration getDelay() {
+        return Duration.ofMillis(delay);
+    }
+
+    /**
+     * Create a session for one editor.
+     */
+    public Session openSession(Listener listener) {
+        return new Session(Objects.requireNonNull(listener, "listener"));
+    }
+
+    /**
+     * Cancel all validations; sessions stop delivering results.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        debouncer.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * The documents of one editor.
+     */
+    public final class Session {
+
+        private final Listener listener;
+        private final Map<String, Document> documents = new ConcurrentHashMap<>();
+        private volatile boolean sessionClosed;
+
+        private Session(Listener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * The document of {@code uri} changed to {@code snapshot}: validate it as {@code languageId} once the
+         * delay has passed without further calls. A validation of the document in progress is cancelled.
+         */
+        public void schedule(String uri, String languageId, TextDocument.Snapshot snapshot) {
+            Objects.requireNonNull(snapshot, "snapshot");
+            if (sessionClosed || closed) return;
+            documents.computeIfAbsent(uri, u -> new Document(this, u)).schedule(languageId, snapshot);
+        }
+
+        /**
+         * Stop validating the document of {@code uri}, e.g. when it is closed. No further results are
+         * delivered for it.
+         */
+        public void cancel(String uri) {
+            Document doc = documents.remove(uri);
+            if (doc != null) doc.close();
+        }
+
+        public void close() {
+            sessionClosed = true;
+            for (Document doc : documents.values()) doc.close();
+            documents.clear();
+        }
+    }
+
+    // Validation state of one document of a session
+    private final class Document {
+        final Session session;
+        final String uri;
+        private String languageId;
+        private TextDocument.Snapshot snapshot;
+        private ScheduledFuture<?> scheduled;
+        private Run running;
+        // version and language of the last delivered result
+        private int deliveredVersion = -1;
+        private String deliveredLanguage;
+        private volatile boolean closed;
+        // held while calling the listener, which keeps deliveries in order without holding the monitor
+        private final Object delivering = new Object();
+
+        Document(Session session, String uri) {
+            this.session = session;
+            this.uri = uri;
+        }
+
+        // Restarts the delay on every edit, and cancels the run the edit made stale
+        synchronized void schedule(String languageId, TextDocument.Snapshot snapshot) {
+            if (closed) return;
+            this.languageId = languageId;
+            this.snapshot = snapshot;
+            cancelRun();
+            if (scheduled != null) scheduled.cancel(false);
+            try {
+                scheduled = debouncer.schedule(this::start, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // engine closed
+            }
+        }
+
+        private synchronized void start() {
+            scheduled = null;
+            if (closed) return;
+            if (snapshot.getVersion() == deliveredVersion && Objects.equals(languageId, deliveredLanguage)) return;
+            // nothing to run and nothing shown that could need clearing
+            if (deliveredLanguage == null && !hasValidators(languageId)) return;
+            Run run = new Run(this, languageId, snapshot);
+            try {
+                run.future = workers.submit(run);
+                running = run;
+            } catch (RejectedExecutionException e) {
+                // engine closed
+            }
+        }
+
+        // Delivers the result of the current run only; called on the run's thread. The listener is called
+        // outside the monitor, which edits need, since it may wait for a thread that is reporting one
+        void deliver(Run run, List<Marker> markers) {
+            int version = run.snapshot.getVersion();
+            synchronized (delivering) {
+                synchronized (this) {
+                    if (closed || run != running || run.cancelled) return;
+                    running = null;
+                    if (version < deliveredVersion) return;
+                    deliveredVersion = version;
+                    deliveredLanguage = run.languageId;
+                }
+                try {
+                    session.listener.onValidated(uri, version, markers);
+                } catch (RuntimeException e) {
+                    System.err.println("[ValidationEngine] Listener failed for " + uri + ": " + e);
+                }
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            cancelRun();
+            if (scheduled != null) scheduled.cancel(false);
+            scheduled = null;
+        }
+
+        private void cancelRun() {
+            if (running == null) return;
+            running.cancelled = true;
+            running.future.cancel(true);
+            running = null;
+        }
+    }
+
+    // One validation of one snapshot by all validators of its language, in registration order
+    private final class Run implements Runnable {
+        final Document document;
+        final String languageId;
+        final TextDocument.Snapshot snapshot;
+        Future<?> future;
+        volatile boolean cancelled;
+
+        Run(Document document, String languageId, TextDocument.Snapshot snapshot) {
+            this.document = document;
+            this.languageId = languageId;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public void run() {
+            List<Marker> markers = new ArrayList<>();
+            for (Validator validator : validators.getOrDefault(languageId, List.of())) {
+                if (cancelled) return;
+                try {
+                    List<Marker> result = validator.validate(document.uri, snapshot, () -> cancelled);
+                    if (result != null) markers.addAll(result);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    if (cancelled) return;
+                    System.err.println("[ValidationEngine] Validator " + validator + " failed on " + document.uri
+                            + ": " + e);
+                }
+            }
+            markers.removeIf(Objects::isNull);
+            document.deliver(this, List.copyOf(markers));
+        }
+    }
+}
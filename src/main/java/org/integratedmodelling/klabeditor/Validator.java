@@ -0,0 +1,20 @@
+package org.integratedmodelling.klabeditor;
+
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Produces diagnostics for documents of a language, registered with a {@link ValidationEngine}.
+ */
+@FunctionalInterface
+public interface Validator {
+
+    /**
+     * Diagnostics for one version of the document of {@code uri}. Called on a virtual thread with an
+     * immutable snapshot, never on the FX thread. When an edit supersedes the snapshot, {@code cancelled}
+     * turns true and the thread is interrupted; the result is discarded then, so long validations should
+     * check it and return early.
+     */
+    List<Marker> validate(String uri, TextDocument.Snapshot snapshot, BooleanSupplier cancelled)
+            throws Exception;
+}
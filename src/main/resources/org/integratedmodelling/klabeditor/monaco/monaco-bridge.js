@@ -1,45 +1,25 @@
-var __awaiter = (this && this.__awaiter) || function (thisArg, _arguments, P, generator) {
-    function adopt(value) { return value instanceof P ? value : new P(function (resolve) { resolve(value); }); }
-    return new (P || (P = Promise))(function (resolve, reject) {
-        function fulfilled(value) { try { step(generator.next(value)); } catch (e) { reject(e); } }
-        function rejected(value) { try { step(generator["throw"](value)); } catch (e) { reject(e); } }
-        function step(result) { result.done ? resolve(result.value) : adopt(result.value).then(fulfilled, rejected); }
-        step((generator = generator.apply(thisArg, _arguments || [])).next());
-    });
-};
-var __generator = (this && this.__generator) || function (thisArg, body) {
-    var _ = { label: 0, sent: function() { if (t[0] & 1) throw t[1]; return t[1]; }, trys: [], ops: [] }, f, y, t, g = Object.create((typeof Iterator === "function" ? Iterator : Object).prototype);
-    return g.next = verb(0), g["throw"] = verb(1), g["return"] = verb(2), typeof Symbol === "function" && (g[Symbol.iterator] = function() { return this; }), g;
-    function verb(n) { return function (v) { return step([n, v]); }; }
-    function step(op) {
-        if (f) throw new TypeError("Generator is already executing.");
-        while (g && (g = 0, op[0] && (_ = 0)), _) try {
-            if (f = 1, y && (t = op[0] & 2 ? y["return"] : op[0] ? y["throw"] || ((t = y["return"]) && t.call(y), 0) : y.next) && !(t = t.call(y, op[1])).done) return t;
-            if (y = 0, t) op = [op[0] & 2, t.value];
-            switch (op[0]) {
-                case 0: case 1: t = op; break;
-                case 4: _.label++; return { value: op[1], done: false };
-                case 5: _.label++; y = op[1]; op = [0]; continue;
-                case 7: op = _.ops.pop(); _.trys.pop(); continue;
-                default:
-                    if (!(t = _.trys, t = t.length > 0 && t[t.length - 1]) && (op[0] === 6 || op[0] === 2)) { _ = 0; continue; }
-                    if (op[0] === 3 && (!t || (op[1] > t[0] && op[1] < t[3]))) { _.label = op[1]; break; }
-                    if (op[0] === 6 && _.label < t[1]) { _.label = t[1]; t = op; break; }
-                    if (t && _.label < t[2]) { _.label = t[2]; _.ops.push(op); break; }
-                    if (t[2]) _.ops.pop();
-                    _.trys.pop(); continue;
-            }
-            op = body.call(thisArg, _);
-        } catch (e) { op = [6, e]; y = 0; } finally { f = t = 0; }
-        if (op[0] & 5) throw op[1]; return { value: op[0] ? op[1] : void 0, done: true };
-    }
-};
 (function () {
+    var DEFAULT_URI = 'inmemory://klab/default';
+    var REQUEST_CANCELLED = -32800;
+    var LSP_CHANGE_DELAY = 150;
+    var FEATURE_OPTIONS = { minimap: { enabled: true }, folding: true, wordBasedSuggestions: 'matchingDocuments' };
+    var LSP_COMPLETION_KINDS = ['Text', 'Method', 'Function', 'Constructor', 'Field', 'Variable', 'Class',
+        'Interface', 'Module', 'Property', 'Unit', 'Value', 'Enum', 'Keyword', 'Snippet', 'Color', 'File',
+        'Reference', 'Folder', 'EnumMember', 'Constant', 'Struct', 'Event', 'Operator', 'TypeParameter'];
     var state = {
         editor: null,
         container: null,
         ready: false,
         showLineNumbers: true,
+        suppressSync: 0,
+        models: {},
+        activeUri: null,
+        lsp: {},
+        tokenizers: {},
+        completions: {},
+        diff: null,
+        pendingCompletions: {},
+        nextCompletion: 1,
         pendingCalls: []
     };
     function flush() {
@@ -58,14 +38,644 @@ var __generator = (this && this.__generator) || function (thisArg, body) {
         else
             state.pendingCalls.push(f);
     }
-    function toSeverity(s) {
-        var m = (s || 'info').toLowerCase();
-        switch (m) {
-            case 'error': return monaco.MarkerSeverity.Error;
-            case 'warning': return monaco.MarkerSeverity.Warning;
-            case 'hint': return monaco.MarkerSeverity.Hint;
-            case 'info':
-            default: return monaco.MarkerSeverity.Info;
+    function javaBridge() {
+        return window.JavaBridge;
+    }
+    function modelOf(uri) {
+        var entry = state.models[uri];
+        return entry ? entry.model : null;
+    }
+    function activeModel() {
+        var _a, _b;
+        return ((_b = (_a = state.editor) === null || _a === void 0 ? void 0 : _a.getModel) === null || _b === void 0 ? void 0 : _b.call(_a)) || null;
+    }
+    function ensureEditor(theme) {
+        if (!state.editor) {
+            if (!state.container) {
+                console.error('Monaco container not available');
+                return null;
+            }
+            state.editor = monaco.editor.create(state.container, {
+                model: null,
+                theme: theme || 'vs-dark',
+                automaticLayout: true,
+                lineNumbers: state.showLineNumbers ? 'on' : 'off',
+                'semanticHighlighting.enabled': true,
+            });
+        }
+        else if (theme) {
+            state.editor.updateOptions({ theme: theme });
+        }
+        return state.editor;
+    }
+    function fromJava(f) {
+        state.suppressSync++;
+        try {
+            f();
+        }
+        finally {
+            state.suppressSync--;
+        }
+    }
+    function reportValue(uri, entry, expectedLength) {
+        var bridge = javaBridge();
+        var model = entry.model;
+        entry.eol = model.getEOL();
+        if (!bridge)
+            return;
+        if (model.getValueLength() !== expectedLength) {
+            bridge.onModelReset(uri, model.getVersionId(), model.getAlternativeVersionId(), model.getValue());
+        }
+        else {
+            bridge.onModelSynced(uri, model.getVersionId(), model.getAlternativeVersionId());
+        }
+    }
+    function attachSync(uri, entry) {
+        var model = entry.model;
+        entry.listener = model.onDidChangeContent(function (e) {
+            var bridge = javaBridge();
+            if (!bridge)
+                return;
+            var alternativeVersionId = model.getAlternativeVersionId();
+            try {
+                if (state.suppressSync > 0) {
+                    bridge.onModelSynced(uri, e.versionId, alternativeVersionId);
+                }
+                else if (e.isFlush || e.eol !== entry.eol) {
+                    entry.eol = e.eol;
+                    bridge.onModelReset(uri, e.versionId, alternativeVersionId, model.getValue());
+                }
+                else {
+                    for (var _i = 0, _a = e.changes; _i < _a.length; _i++) {
+                        var c = _a[_i];
+                        bridge.onModelContentChanged(uri, e.versionId, alternativeVersionId, c.rangeOffset, c.rangeLength, c.text);
+                    }
+                }
+            }
+            catch (err) {
+                console.error('[MonacoBridge] change sync failed', err);
+            }
+        });
+    }
+    function openModel(uri, text, language, eol) {
+        ensureLanguage(language);
+        var entry = state.models[uri];
+        if (entry && entry.model) {
+            if (language)
+                monaco.editor.setModelLanguage(entry.model, language);
+            fromJava(function () { return entry.model.setValue(text || ''); });
+        }
+        else {
+            var resource = monaco.Uri.parse(uri);
+            var stale = monaco.editor.getModel(resource);
+            if (stale)
+                stale.dispose();
+            entry = entry || { model: null, viewState: null, eol: '\n', listener: null };
+            entry.model = monaco.editor.createModel(text || '', language || 'plaintext', resource);
+            state.models[uri] = entry;
+            attachSync(uri, entry);
+        }
+        if (eol) {
+            var sequence = eol === '\r\n' ? monaco.editor.EndOfLineSequence.CRLF : monaco.editor.EndOfLineSequence.LF;
+            fromJava(function () { return entry.model.setEOL(sequence); });
+        }
+        reportValue(uri, entry, (text || '').length);
+    }
+    function applyModelOptions(entry) {
+        if (state.editor)
+            state.editor.updateOptions(Object.assign({}, FEATURE_OPTIONS, entry.options || {}));
+    }
+    function switchTo(uri) {
+        var entry = state.models[uri];
+        if (!entry || !entry.model) {
+            console.warn('[MonacoBridge] switchTo: no model for ' + uri);
+            return;
+        }
+        var editor = ensureEditor();
+        if (!editor)
+            return;
+        if (editor.getModel() === entry.model) {
+            state.activeUri = uri;
+            return;
+        }
+        var current = state.activeUri ? state.models[state.activeUri] : null;
+        if (current && current.model)
+            current.viewState = editor.saveViewState();
+        editor.setModel(entry.model);
+        applyModelOptions(entry);
+        if (entry.viewState)
+            editor.restoreViewState(entry.viewState);
+        state.activeUri = uri;
+    }
+    function disposeEntry(entry) {
+        if (entry.listener)
+            entry.listener.dispose();
+        if (entry.model)
+            entry.model.dispose();
+        entry.listener = null;
+        entry.model = null;
+        entry.searchMatches = undefined;
+    }
+    function uriOf(model) {
+        for (var _i = 0, _a = Object.keys(state.models); _i < _a.length; _i++) {
+            var uri = _a[_i];
+            if (state.models[uri].model === model)
+                return uri;
+        }
+        return model.uri.toString();
+    }
+    function ensureLanguage(languageId) {
+        if (!languageId || monaco.languages.getLanguages().some(function (l) { return l.id === languageId; }))
+            return;
+        monaco.languages.register({ id: languageId });
+    }
+    function decodeTokens(packed) {
+        if (!packed)
+            return null;
+        var pos = 0;
+        var next = function () {
+            var value = 0;
+            var scale = 1;
+            var c;
+            do {
+                c = packed.charCodeAt(pos++);
+                value += (c & 0x3FFF) * scale;
+                scale *= 0x4000;
+            } while (c & 0x4000);
+            return value;
+        };
+        var data = new Uint32Array(next());
+        for (var i = 0; i < data.length; i++)
+            data[i] = next();
+        return { data: data };
+    }
+    function disposeTokenizer(languageId) {
+        var providers = state.tokenizers[languageId];
+        if (!providers)
+            return;
+        for (var _i = 0, providers_1 = providers; _i < providers_1.length; _i++) {
+            var provider = providers_1[_i];
+            provider.dispose();
+        }
+        delete state.tokenizers[languageId];
+    }
+    function disposeCompletion(languageId) {
+        var provider = state.completions[languageId];
+        if (!provider)
+            return;
+        provider.dispose();
+        delete state.completions[languageId];
+    }
+    function toJavaCompletions(result, range) {
+        if (!result)
+            return { suggestions: [] };
+        var suggestions = [];
+        for (var i = 1, rank = 0; i + 4 < result.length; i += 5, rank++) {
+            var kind = monaco.languages.CompletionItemKind[result[i + 1]];
+            suggestions.push({
+                label: result[i],
+                kind: kind === undefined ? monaco.languages.CompletionItemKind.Text : kind,
+                detail: result[i + 2] || undefined,
+                documentation: result[i + 3] ? { value: result[i + 3] } : undefined,
+                insertText: result[i + 4] || result[i],
+                sortText: String(100000 + rank),
+                range: range
+            });
+        }
+        return { suggestions: suggestions, incomplete: result[0] === 1 };
+    }
+    function toLspPosition(position) {
+        return { line: position.lineNumber - 1, character: position.column - 1 };
+    }
+    function toMonacoRange(range) {
+        return new monaco.Range(range.start.line + 1, range.start.character + 1, range.end.line + 1, range.end.character + 1);
+    }
+    function toMarkdown(content) {
+        if (content === null || content === undefined)
+            return null;
+        if (typeof content === 'string')
+            return { value: content };
+        if (content.kind)
+            return { value: content.value || '' };
+        if (content.language)
+            return { value: '```' + content.language + '\n' + content.value + '\n```' };
+        return { value: String(content.value || '') };
+    }
+    function lspRequest(client, method, params, token) {
+        return new Promise(function (resolve) {
+            var id = ++client.nextId;
+            client.pending[id] = function (response) {
+                if (response.error) {
+                    if (response.error.code !== REQUEST_CANCELLED) {
+                        console.warn('[LSP] ' + method + ' failed: ' + response.error.message);
+                    }
+                    resolve(null);
+                }
+                else {
+                    resolve(response.result);
+                }
+            };
+            var uri = params && params.textDocument ? params.textDocument.uri : null;
+            if (uri && client.flush)
+                client.flush(uri);
+            if (token) {
+                token.onCancellationRequested(function () {
+                    if (!client.pending[id])
+                        return;
+                    delete client.pending[id];
+                    client.send(JSON.stringify({ jsonrpc: '2.0', method: '$/cancelRequest', params: { id: id } }));
+                    resolve(null);
+                });
+            }
+            client.send(JSON.stringify({ jsonrpc: '2.0', id: id, method: method, params: params }));
+        });
+    }
+    function toCompletionItem(item, defaultRange) {
+        var insertText = item.insertText || item.label;
+        var range = defaultRange;
+        var edit = item.textEdit;
+        if (edit) {
+            insertText = edit.newText;
+            range = edit.range ? toMonacoRange(edit.range)
+                : { insert: toMonacoRange(edit.insert), replace: toMonacoRange(edit.replace) };
+        }
+        return {
+            label: item.label,
+            kind: monaco.languages.CompletionItemKind[LSP_COMPLETION_KINDS[(item.kind || 1) - 1] || 'Text'],
+            detail: item.detail,
+            documentation: toMarkdown(item.documentation) || undefined,
+            sortText: item.sortText,
+            filterText: item.filterText,
+            preselect: item.preselect,
+            insertText: insertText,
+            insertTextRules: item.insertTextFormat === 2
+                ? monaco.languages.CompletionItemInsertTextRule.InsertAsSnippet : undefined,
+            range: range
+        };
+    }
+    function registerProviders(client, caps) {
+        var lang = client.languageId;
+        var providers = client.disposables;
+        if (caps.completionProvider) {
+            providers.push(monaco.languages.registerCompletionItemProvider(lang, {
+                triggerCharacters: caps.completionProvider.triggerCharacters || [],
+                provideCompletionItems: function (model, position, context, token) {
+                    var word = model.getWordUntilPosition(position);
+                    var range = new monaco.Range(position.lineNumber, word.startColumn, position.lineNumber, word.endColumn);
+                    return lspRequest(client, 'textDocument/completion', {
+                        textDocument: { uri: uriOf(model) },
+                        position: toLspPosition(position),
+                        context: { triggerKind: context.triggerKind + 1, triggerCharacter: context.triggerCharacter }
+                    }, token).then(function (result) {
+                        if (!result)
+                            return { suggestions: [] };
+                        var items = Array.isArray(result) ? result : result.items || [];
+                        return {
+                            suggestions: items.map(function (item) { return toCompletionItem(item, range); }),
+                            incomplete: !Array.isArray(result) && !!result.isIncomplete
+                        };
+                    });
+                }
+            }));
+        }
+        if (caps.hoverProvider) {
+            providers.push(monaco.languages.registerHoverProvider(lang, {
+                provideHover: function (model, position, token) {
+                    return lspRequest(client, 'textDocument/hover', {
+                        textDocument: { uri: uriOf(model) },
+                        position: toLspPosition(position)
+                    }, token).then(function (result) {
+                        if (!result || !result.contents)
+                            return null;
+                        var contents = Array.isArray(result.contents) ? result.contents : [result.contents];
+                        return {
+                            contents: contents.map(toMarkdown).filter(function (c) { return c && c.value; }),
+                            range: result.range ? toMonacoRange(result.range) : undefined
+                        };
+                    });
+                }
+            }));
+        }
+        if (caps.signatureHelpProvider) {
+            providers.push(monaco.languages.registerSignatureHelpProvider(lang, {
+                signatureHelpTriggerCharacters: caps.signatureHelpProvider.triggerCharacters || [],
+                signatureHelpRetriggerCharacters: caps.signatureHelpProvider.retriggerCharacters || [],
+                provideSignatureHelp: function (model, position, token) {
+                    return lspRequest(client, 'textDocument/signatureHelp', {
+                        textDocument: { uri: uriOf(model) },
+                        position: toLspPosition(position)
+                    }, token).then(function (result) {
+                        if (!result || !result.signatures || !result.signatures.length)
+                            return null;
+                        return {
+                            value: {
+                                signatures: result.signatures.map(function (s) { return ({
+                                    label: s.label,
+                                    documentation: toMarkdown(s.documentation) || undefined,
+                                    parameters: (s.parameters || []).map(function (p) { return ({
+                                        label: p.label,
+                                        documentation: toMarkdown(p.documentation) || undefined
+                                    }); })
+                                }); }),
+                                activeSignature: result.activeSignature || 0,
+                                activeParameter: result.activeParameter || 0
+                            },
+                            dispose: function () { }
+                        };
+                    });
+                }
+            }));
+        }
+        if (caps.definitionProvider) {
+            providers.push(monaco.languages.registerDefinitionProvider(lang, {
+                provideDefinition: function (model, position, token) {
+                    return lspRequest(client, 'textDocument/definition', {
+                        textDocument: { uri: uriOf(model) },
+                        position: toLspPosition(position)
+                    }, token).then(function (result) {
+                        if (!result)
+                            return null;
+                        var locations = Array.isArray(result) ? result : [result];
+                        return locations.map(function (l) { return ({
+                            uri: monaco.Uri.parse(l.targetUri || l.uri),
+                            range: toMonacoRange(l.targetSelectionRange || l.range)
+                        }); });
+                    });
+                }
+            }));
+        }
+    }
+    function notify(client, method, params) {
+        client.send(JSON.stringify({ jsonrpc: '2.0', method: method, params: params }));
+    }
+    function receive(client, message) {
+        var msg;
+        try {
+            msg = JSON.parse(message);
+        }
+        catch (e) {
+            console.error('[LSP] Malformed message', e);
+            return;
+        }
+        var hasId = msg.id !== undefined && msg.id !== null;
+        if (msg.method && hasId) {
+            var items = msg.method === 'workspace/configuration' && msg.params ? msg.params.items || [] : null;
+            client.send(JSON.stringify({ jsonrpc: '2.0', id: msg.id, result: items ? items.map(function () { return null; }) : null }));
+        }
+        else if (msg.method === 'textDocument/publishDiagnostics' && msg.params) {
+            var model = modelOf(msg.params.uri) || monaco.editor.getModel(monaco.Uri.parse(msg.params.uri));
+            if (!model)
+                return;
+            var severities_1 = [8, 8, 4, 2, 1];
+            monaco.editor.setModelMarkers(model, 'lsp', (msg.params.diagnostics || []).map(function (d) { return ({
+                startLineNumber: d.range.start.line + 1,
+                startColumn: d.range.start.character + 1,
+                endLineNumber: d.range.end.line + 1,
+                endColumn: d.range.end.character + 1,
+                severity: severities_1[d.severity || 1] || 8,
+                message: d.source ? d.source + ': ' + d.message : d.message
+            }); }));
+        }
+        else if (hasId) {
+            var callback = client.pending[msg.id];
+            if (callback) {
+                delete client.pending[msg.id];
+                callback(msg);
+            }
+        }
+    }
+    function syncDocuments(client) {
+        var docs = {};
+        var flush = function (uri) {
+            var doc = docs[uri];
+            if (!doc || doc.timer === null)
+                return;
+            clearTimeout(doc.timer);
+            doc.timer = null;
+            notify(client, 'textDocument/didChange', {
+                textDocument: { uri: uri, version: ++doc.version },
+                contentChanges: [{ text: doc.model.getValue() }]
+            });
+        };
+        var open = function (model) {
+            if (model.isDisposed() || model.getLanguageId() !== client.languageId)
+                return;
+            var uri = uriOf(model);
+            if (docs[uri])
+                return;
+            var doc = { model: model, version: 1, timer: null, listener: null };
+            docs[uri] = doc;
+            notify(client, 'textDocument/didOpen', {
+                textDocument: { uri: uri, languageId: client.languageId, version: 1, text: model.getValue() }
+            });
+            doc.listener = model.onDidChangeContent(function () {
+                if (doc.timer !== null)
+                    clearTimeout(doc.timer);
+                doc.timer = setTimeout(function () { return flush(uri); }, LSP_CHANGE_DELAY);
+            });
+        };
+        var close = function (model) {
+            for (var _i = 0, _a = Object.keys(docs); _i < _a.length; _i++) {
+                var uri = _a[_i];
+                var doc = docs[uri];
+                if (doc.model !== model)
+                    continue;
+                if (doc.timer !== null)
+                    clearTimeout(doc.timer);
+                doc.listener.dispose();
+                delete docs[uri];
+                notify(client, 'textDocument/didClose', { textDocument: { uri: uri } });
+            }
+        };
+        client.flush = flush;
+        for (var _i = 0, _a = monaco.editor.getModels(); _i < _a.length; _i++) {
+            var model = _a[_i];
+            open(model);
+        }
+        client.disposables.push(monaco.editor.onDidCreateModel(function (model) { return Promise.resolve().then(function () { return open(model); }); }), monaco.editor.onWillDisposeModel(close), monaco.editor.onDidChangeModelLanguage(function (e) {
+            close(e.model);
+            open(e.model);
+        }), {
+            dispose: function () {
+                for (var _i = 0, _a = Object.keys(docs); _i < _a.length; _i++) {
+                    var uri = _a[_i];
+                    if (docs[uri].timer !== null)
+                        clearTimeout(docs[uri].timer);
+                    docs[uri].listener.dispose();
+                }
+            }
+        });
+    }
+    var SEARCH_MATCH = {
+        className: 'findMatch',
+        stickiness: 1,
+        overviewRuler: { color: 'rgba(209, 134, 22, 0.49)', position: 2 }
+    };
+    var DIFF_ORIGINAL_URI = 'inmemory://klab/diff/original';
+    var DIFF_MODIFIED_URI = 'inmemory://klab/diff/modified';
+    var diffClasses = null;
+    var JAVA_DIFF_MONACO_VERSION = '0.54.0';
+    var javaDiffWarned = false;
+    function diffModel(side) {
+        var diff = state.diff;
+        if (!diff)
+            return null;
+        return side === 'original' ? diff.original : diff.modified;
+    }
+    function createDiffModel(uri, language) {
+        var resource = monaco.Uri.parse(uri);
+        var stale = monaco.editor.getModel(resource);
+        if (stale)
+            stale.dispose();
+        return monaco.editor.createModel('', language, resource);
+    }
+    function attachDiffSync(side, model) {
+        var eol = model.getEOL();
+        return model.onDidChangeContent(function (e) {
+            var bridge = javaBridge();
+            if (!bridge || state.suppressSync > 0)
+                return;
+            try {
+                if (e.isFlush || e.eol !== eol) {
+                    eol = e.eol;
+                    bridge.onDiffReset(side, e.versionId, model.getValue());
+                }
+                else {
+                    for (var _i = 0, _a = e.changes; _i < _a.length; _i++) {
+                        var c = _a[_i];
+                        bridge.onDiffContentChanged(side, e.versionId, c.rangeOffset, c.rangeLength, c.text);
+                    }
+                }
+            }
+            catch (err) {
+                console.error('[MonacoBridge] diff sync failed', err);
+            }
+        });
+    }
+    function setDiffModelText(side, model, text, sequence) {
+        fromJava(function () { return model.setValue(text || ''); });
+        var bridge = javaBridge();
+        if (!bridge)
+            return;
+        var normalized = model.getValueLength() !== (text || '').length ? model.getValue() : null;
+        bridge.onDiffSet(side, sequence, model.getVersionId(), normalized);
+    }
+    function emptyDiff() {
+        return { changes: [], identical: true, quitEarly: false, moves: [] };
+    }
+    function toDiff(quitEarly, packed) {
+        var values = packed ? packed.split(',') : [];
+        var changes = [];
+        for (var i = 0; i + 3 < values.length; i += 4) {
+            changes.push(new diffClasses.mapping(new diffClasses.lineRange(+values[i], +values[i + 1]), new diffClasses.lineRange(+values[i + 2], +values[i + 3]), undefined));
+        }
+        return { changes: changes, identical: changes.length === 0, quitEarly: quitEarly, moves: [] };
+    }
+    function requestDiff(diff, original, modified) {
+        if (state.diff !== diff || original.isDisposed() || modified.isDisposed())
+            return Promise.resolve(emptyDiff());
+        var originalVersion = original.getVersionId();
+        var modifiedVersion = modified.getVersionId();
+        var result = diff.result;
+        if (result && result.originalVersion === originalVersion && result.modifiedVersion === modifiedVersion) {
+            return Promise.resolve(result.diff);
+        }
+        return new Promise(function (resolve) {
+            diff.waiters.push({ originalVersion: originalVersion, modifiedVersion: modifiedVersion, resolve: resolve });
+        });
+    }
+    function javaDiffUnavailable(reason, err) {
+        if (javaDiffWarned)
+            return;
+        javaDiffWarned = true;
+        console.warn('[MonacoBridge] ' + reason + ', diffs are computed in the page; the diff editor internals'
+            + ' differ from Monaco ' + JAVA_DIFF_MONACO_VERSION, err === undefined ? '' : err);
+    }
+    function installJavaDiff(diff, viewModel) {
+        var observable = viewModel && viewModel._diffProvider;
+        if (!observable || typeof observable.get !== 'function') {
+            javaDiffUnavailable('no diff provider in the view model');
+            return Promise.resolve(false);
+        }
+        var provider;
+        try {
+            provider = observable.get().diffProvider;
+        }
+        catch (err) {
+            javaDiffUnavailable('no diff provider in the view model', err);
+            return Promise.resolve(false);
+        }
+        if (!provider || typeof provider.setOptions !== 'function' || typeof provider.computeDiff !== 'function') {
+            javaDiffUnavailable('unknown diff provider');
+            return Promise.resolve(false);
+        }
+        var algorithm = {
+            onDidChange: function () { return ({ dispose: function () { } }); },
+            computeDiff: function (original, modified) { return requestDiff(diff, original, modified); }
+        };
+        var probe = Promise.resolve(null);
+        if (!diffClasses) {
+            var original_1 = monaco.editor.createModel('');
+            var modified_1 = monaco.editor.createModel('a');
+            probe = Promise.resolve(provider.computeDiff(original_1, modified_1, {
+                ignoreTrimWhitespace: false, maxComputationTimeMs: 0, computeMoves: false
+            }, { isCancellationRequested: false, onCancellationRequested: function () { return ({ dispose: function () { } }); } }))
+                .then(function (result) {
+                var change = result && result.changes && result.changes[0];
+                if (change && change.original) {
+                    diffClasses = { mapping: change.constructor, lineRange: change.original.constructor };
+                }
+            })
+                .finally(function () {
+                original_1.dispose();
+                modified_1.dispose();
+            });
+        }
+        return probe.then(function () {
+            if (state.diff !== diff)
+                return false;
+            if (!diffClasses) {
+                javaDiffUnavailable('unknown diff result classes');
+                return false;
+            }
+            provider.setOptions({ diffAlgorithm: algorithm });
+            return true;
+        }).catch(function (err) {
+            javaDiffUnavailable('cannot set the diff algorithm', err);
+            return false;
+        });
+    }
+    function disposeDiff() {
+        var diff = state.diff;
+        if (!diff)
+            return;
+        state.diff = null;
+        for (var _i = 0, _a = diff.waiters; _i < _a.length; _i++) {
+            var waiter = _a[_i];
+            waiter.resolve(emptyDiff());
+        }
+        diff.waiters = [];
+        for (var _b = 0, _c = diff.listeners; _b < _c.length; _b++) {
+            var listener = _c[_b];
+            listener.dispose();
+        }
+        diff.editor.dispose();
+        diff.original.dispose();
+        diff.modified.dispose();
+    }
+    function disposeClient(client) {
+        for (var _i = 0, _a = client.disposables; _i < _a.length; _i++) {
+            var disposable = _a[_i];
+            disposable.dispose();
+        }
+        client.disposables = [];
+        if (client.close)
+            client.close();
+        var pending = client.pending;
+        client.pending = {};
+        for (var _b = 0, _c = Object.keys(pending); _b < _c.length; _b++) {
+            var id = _c[_b];
+            pending[+id]({ error: { code: REQUEST_CANCELLED, message: 'disconnected' } });
         }
     }
     var api = {
@@ -79,39 +689,181 @@ var __generator = (this && this.__generator) || function (thisArg, body) {
             }
             catch (_b) { }
         },
-        init: function (text, language, theme) {
+        isReady: function () {
+            return state.ready;
+        },
+        prewarm: function (languages) {
+            ensureReady(function () {
+                ensureEditor();
+                for (var _i = 0, _a = languages || []; _i < _a.length; _i++) {
+                    var language = _a[_i];
+                    monaco.editor.createModel('', language).dispose();
+                }
+            });
+        },
+        init: function (text, language, theme, uri, eol) {
             if (language === void 0) { language = 'plaintext'; }
             if (theme === void 0) { theme = 'vs-dark'; }
+            if (uri === void 0) { uri = DEFAULT_URI; }
             ensureReady(function () {
-                if (!state.container) {
-                    console.error('Monaco container not available');
+                if (!ensureEditor(theme))
                     return;
+                openModel(uri, text, language, eol);
+                switchTo(uri);
+            });
+        },
+        openModel: function (uri, text, language, eol) {
+            ensureReady(function () { return openModel(uri, text, language, eol); });
+        },
+        appendText: function (uri, text) {
+            ensureReady(function () {
+                var model = modelOf(uri);
+                if (!model)
+                    return;
+                var line = model.getLineCount();
+                var column = model.getLineMaxColumn(line);
+                fromJava(function () { return model.applyEdits([{ range: new monaco.Range(line, column, line, column), text: text }]); });
+            });
+        },
+        setModelOptions: function (uri, options) {
+            ensureReady(function () {
+                var entry = state.models[uri];
+                if (!entry)
+                    return;
+                entry.options = options;
+                if (state.activeUri === uri)
+                    applyModelOptions(entry);
+            });
+        },
+        switchTo: function (uri) {
+            ensureReady(function () { return switchTo(uri); });
+        },
+        // View states (cursor, selections, scroll, folding) of all models that have one, for Java to persist:
+        // a JSON array of uri and JSON-encoded state pairs. Called synchronously, once pending calls have run.
+        viewStates: function () {
+            var ret = [];
+            if (!state.ready)
+                return '[]';
+            for (var _i = 0, _a = Object.keys(state.models); _i < _a.length; _i++) {
+                var uri = _a[_i];
+                var entry = state.models[uri];
+                var viewState = uri === state.activeUri && state.editor ? state.editor.saveViewState() : entry.viewState;
+                if (viewState)
+                    ret.push(uri, JSON.stringify(viewState));
+            }
+            return JSON.stringify(ret);
+        },
+        // A view state persisted by Java, applied now if the model is shown or kept for when it is
+        restoreViewState: function (uri, viewState) {
+            ensureReady(function () {
+                var entry = state.models[uri];
+                if (!entry)
+                    return;
+                var parsed;
+                try {
+                    parsed = JSON.parse(viewState);
                 }
-                if (!state.editor) {
-                    state.editor = monaco.editor.create(state.container, {
-                        value: text || '',
-                        language: language || 'plaintext',
-                        theme: theme || 'vs-dark',
-                        automaticLayout: true,
-                        lineNumbers: state.showLineNumbers ? 'on' : 'off',
-                    });
+                catch (_a) {
+                    return;
                 }
-                else {
-                    state.editor.updateOptions({ theme: theme });
-                    var model = state.editor.getModel();
-                    if (model) {
-                        monaco.editor.setModelLanguage(model, language);
-                        model.setValue(text || '');
-                    }
+                if (uri === state.activeUri && state.editor)
+                    state.editor.restoreViewState(parsed);
+                else
+                    entry.viewState = parsed;
+            });
+        },
+        closeModel: function (uri) {
+            ensureReady(function () {
+                var _a;
+                var entry = state.models[uri];
+                if (!entry)
+                    return;
+                if (state.activeUri === uri) {
+                    (_a = state.editor) === null || _a === void 0 ? void 0 : _a.setModel(null);
+                    state.activeUri = null;
+                }
+                disposeEntry(entry);
+                delete state.models[uri];
+            });
+        },
+        disposeModel: function (uri) {
+            ensureReady(function () {
+                var entry = state.models[uri];
+                if (!entry || !entry.model || state.activeUri === uri)
+                    return;
+                disposeEntry(entry);
+            });
+        },
+        reset: function () {
+            ensureReady(function () {
+                disposeDiff();
+                if (state.editor)
+                    state.editor.setModel(null);
+                for (var _i = 0, _a = Object.keys(state.models); _i < _a.length; _i++) {
+                    var uri = _a[_i];
+                    disposeEntry(state.models[uri]);
+                }
+                state.models = {};
+                state.activeUri = null;
+                for (var _b = 0, _c = Object.keys(state.lsp); _b < _c.length; _b++) {
+                    var languageId = _c[_b];
+                    disposeClient(state.lsp[languageId]);
+                }
+                state.lsp = {};
+                for (var _d = 0, _e = Object.keys(state.tokenizers); _d < _e.length; _d++) {
+                    var languageId = _e[_d];
+                    disposeTokenizer(languageId);
+                }
+                for (var _f = 0, _g = Object.keys(state.completions); _f < _g.length; _f++) {
+                    var languageId = _g[_f];
+                    disposeCompletion(languageId);
                 }
+                for (var _h = 0, _j = Object.keys(state.pendingCompletions); _h < _j.length; _h++) {
+                    var id = _j[_h];
+                    state.pendingCompletions[+id](null);
+                }
+                state.pendingCompletions = {};
             });
         },
         setText: function (text) {
             ensureReady(function () {
-                var _a, _b;
-                var model = (_b = (_a = state.editor) === null || _a === void 0 ? void 0 : _a.getModel) === null || _b === void 0 ? void 0 : _b.call(_a);
-                if (model)
-                    model.setValue(text || '');
+                var uri = state.activeUri;
+                var entry = uri ? state.models[uri] : null;
+                if (!uri || !entry || !entry.model)
+                    return;
+                fromJava(function () { return entry.model.setValue(text || ''); });
+                reportValue(uri, entry, (text || '').length);
+            });
+        },
+        getText: function () {
+            var model = activeModel();
+            return model ? model.getValue() : '';
+        },
+        applyEdits: function (uri, edits) {
+            ensureReady(function () {
+                var model = modelOf(uri);
+                if (!model)
+                    return;
+                var ops = edits.map(function (_a) {
+                    var offset = _a[0], length = _a[1], text = _a[2];
+                    var start = model.getPositionAt(offset);
+                    var end = model.getPositionAt(offset + length);
+                    return {
+                        range: new monaco.Range(start.lineNumber, start.column, end.lineNumber, end.column),
+                        text: text,
+                        forceMoveMarkers: true
+                    };
+                });
+                fromJava(function () { return model.pushEditOperations([], ops, function () { return null; }); });
+            });
+        },
+        resync: function (uri) {
+            ensureReady(function () {
+                var model = modelOf(uri);
+                var bridge = javaBridge();
+                if (!model || !bridge)
+                    return;
+                bridge.onModelReset(uri, model.getVersionId(), model.getAlternativeVersionId(), model.getValue());
             });
         },
         setLineNumbers: function (show) {
@@ -125,74 +877,358 @@ var __generator = (this && this.__generator) || function (thisArg, body) {
         isLineNumbersVisible: function () {
             return !!state.showLineNumbers;
         },
-        createMarker: function (line, message, severity) {
-            if (severity === void 0) { severity = 'info'; }
+        // Scrolls the editor so that the line is at the top of the viewport, without animation
+        revealLine: function (lineNumber) {
             ensureReady(function () {
-                var _a, _b;
-                var model = (_b = (_a = state.editor) === null || _a === void 0 ? void 0 : _a.getModel) === null || _b === void 0 ? void 0 : _b.call(_a);
-                if (!model)
+                if (state.editor)
+                    state.editor.revealLineNearTop(lineNumber, monaco.editor.ScrollType.Immediate);
+            });
+        },
+        query: function (id, what) {
+            ensureReady(function () {
+                var bridge = javaBridge();
+                if (!bridge)
                     return;
-                var owner = 'java-bridge';
-                var markers = [{
-                        startLineNumber: Math.max(1, Math.floor(line || 1)),
-                        endLineNumber: Math.max(1, Math.floor(line || 1)),
-                        startColumn: 1,
-                        endColumn: 1,
-                        message: message || '',
-                        severity: toSeverity(severity)
-                    }];
-                monaco.editor.setModelMarkers(model, owner, markers);
+                var editor = state.editor;
+                if (!editor) {
+                    bridge.rejectQuery(id, 'editor not initialized');
+                    return;
+                }
+                try {
+                    var result = '';
+                    switch (what) {
+                        case 'selection': {
+                            var s = editor.getSelection();
+                            if (s)
+                                result = [s.startLineNumber, s.startColumn, s.endLineNumber, s.endColumn].join(',');
+                            break;
+                        }
+                        case 'cursor': {
+                            var p = editor.getPosition();
+                            if (p)
+                                result = p.lineNumber + ',' + p.column;
+                            break;
+                        }
+                        case 'visibleLines': {
+                            var ranges = editor.getVisibleRanges();
+                            if (ranges.length)
+                                result = ranges[0].startLineNumber + ',' + ranges[ranges.length - 1].endLineNumber;
+                            break;
+                        }
+                        default:
+                            bridge.rejectQuery(id, 'unknown query: ' + what);
+                            return;
+                    }
+                    bridge.resolveQuery(id, result);
+                }
+                catch (e) {
+                    bridge.rejectQuery(id, String(e));
+                }
             });
         },
-        createMarkerByOffset: function (offset, length, message, severity) {
-            if (severity === void 0) { severity = 'info'; }
+        setMarkers: function (uri, owner, packed) {
             ensureReady(function () {
-                var _a, _b;
-                var model = (_b = (_a = state.editor) === null || _a === void 0 ? void 0 : _a.getModel) === null || _b === void 0 ? void 0 : _b.call(_a);
+                var model = modelOf(uri);
                 if (!model)
                     return;
-                var owner = 'java-bridge';
-                var startPosition = model.getPositionAt(offset);
-                var endPosition = model.getPositionAt(offset + length);
-                var markers = [{
-                        startLineNumber: startPosition.lineNumber,
-                        endLineNumber: endPosition.lineNumber,
-                        startColumn: startPosition.column,
-                        endColumn: endPosition.column,
-                        message: message || '',
-                        severity: toSeverity(severity)
-                    }];
+                var markers = new Array(Math.floor(packed.length / 6));
+                for (var i = 0, k = 0; k < markers.length; i += 6, k++) {
+                    markers[k] = {
+                        startLineNumber: packed[i],
+                        startColumn: packed[i + 1],
+                        endLineNumber: packed[i + 2],
+                        endColumn: packed[i + 3],
+                        severity: packed[i + 4],
+                        message: packed[i + 5]
+                    };
+                }
                 monaco.editor.setModelMarkers(model, owner, markers);
             });
         },
+        clearMarkers: function (uri, owner) {
+            ensureReady(function () {
+                var model = modelOf(uri);
+                if (model)
+                    monaco.editor.setModelMarkers(model, owner, []);
+            });
+        },
         connectLsp: function (wsUrl, languageId) {
-            return __awaiter(this, void 0, void 0, function () {
-                var g;
-                return __generator(this, function (_a) {
+            var lang = languageId || 'plaintext';
+            return new Promise(function (resolve) {
+                ensureReady(function () {
+                    var existing = state.lsp[lang];
+                    if (existing)
+                        disposeClient(existing);
+                    var socket;
                     try {
-                        g = window;
-                        if (!g.monaco || !state.editor) {
-                            console.warn('Monaco or editor not ready');
-                            return [2, false];
+                        socket = new WebSocket(wsUrl, 'jsonrpc');
+                    }
+                    catch (e) {
+                        console.error('[LSP] Failed to connect:', e);
+                        resolve(false);
+                        return;
+                    }
+                    var queue = [];
+                    var client = {
+                        languageId: lang,
+                        send: function (message) {
+                            if (socket.readyState === 1)
+                                socket.send(message);
+                            else if (socket.readyState === 0)
+                                queue.push(message);
+                        },
+                        nextId: 0,
+                        pending: {},
+                        disposables: [],
+                        close: function () {
+                            socket.onclose = null;
+                            socket.close();
                         }
-                        if (!g.monaco_languageclient || !g.monaco_languageclient.MonacoLanguageClient) {
-                            console.warn('[LSP] monaco-languageclient not found on window. Please bundle and load it.');
-                            return [2, false];
+                    };
+                    state.lsp[lang] = client;
+                    socket.onopen = function () {
+                        while (queue.length)
+                            socket.send(queue.shift());
+                    };
+                    socket.onmessage = function (e) { return receive(client, e.data); };
+                    socket.onclose = function () {
+                        if (state.lsp[lang] === client) {
+                            console.warn('[LSP] Connection to ' + wsUrl + ' closed');
+                            delete state.lsp[lang];
+                            disposeClient(client);
                         }
-                        if (!g.reconnecting_websocket && !g.WebSocket) {
-                            console.warn('[LSP] WebSocket not available');
-                            return [2, false];
+                        resolve(false);
+                    };
+                    lspRequest(client, 'initialize', { processId: null, rootUri: null, capabilities: {} }).then(function (result) {
+                        if (state.lsp[lang] !== client || !result) {
+                            resolve(false);
+                            return;
                         }
-                        console.warn('[LSP] connectLsp stub invoked; see monaco-bridge.ts comments to enable real client.');
-                        return [2, false];
+                        registerProviders(client, result.capabilities || {});
+                        notify(client, 'initialized', {});
+                        syncDocuments(client);
+                        resolve(true);
+                    });
+                });
+            });
+        },
+        connectJavaLsp: function (languageId) {
+            ensureReady(function () {
+                var existing = state.lsp[languageId];
+                if (existing)
+                    disposeClient(existing);
+                var client = {
+                    languageId: languageId,
+                    send: function (message) {
+                        var bridge = javaBridge();
+                        if (bridge)
+                            bridge.lspSend(languageId, message);
+                    },
+                    nextId: 0,
+                    pending: {},
+                    disposables: []
+                };
+                state.lsp[languageId] = client;
+                lspRequest(client, 'initialize', { processId: null, rootUri: null, capabilities: {} }).then(function (result) {
+                    if (state.lsp[languageId] !== client)
+                        return;
+                    if (!result) {
+                        console.warn('[LSP] No language server for ' + languageId);
+                        return;
                     }
-                    catch (e) {
-                        console.error('[LSP] Failed to connect:', e);
-                        return [2, false];
+                    registerProviders(client, result.capabilities || {});
+                    notify(client, 'initialized', {});
+                });
+            });
+        },
+        lspReceive: function (languageId, message) {
+            var client = state.lsp[languageId];
+            if (client)
+                receive(client, message);
+        },
+        disconnectLsp: function (languageId) {
+            ensureReady(function () {
+                var client = state.lsp[languageId];
+                if (!client)
+                    return;
+                disposeClient(client);
+                delete state.lsp[languageId];
+            });
+        },
+        registerTokenizer: function (languageId, tokenTypes, tokenModifiers) {
+            ensureReady(function () {
+                disposeTokenizer(languageId);
+                ensureLanguage(languageId);
+                var legend = { tokenTypes: tokenTypes, tokenModifiers: tokenModifiers };
+                var provide = function (model, startLine, endLine) {
+                    var bridge = javaBridge();
+                    return bridge ? decodeTokens(bridge.semanticTokens(uriOf(model), startLine, endLine)) : null;
+                };
+                state.tokenizers[languageId] = [
+                    monaco.languages.registerDocumentRangeSemanticTokensProvider(languageId, {
+                        getLegend: function () { return legend; },
+                        provideDocumentRangeSemanticTokens: function (model, range) {
+                            return provide(model, range.startLineNumber, range.endLineNumber);
+                        }
+                    })
+                ];
+            });
+        },
+        unregisterTokenizer: function (languageId) {
+            ensureReady(function () { return disposeTokenizer(languageId); });
+        },
+        registerCompletion: function (languageId, triggerCharacters) {
+            ensureReady(function () {
+                disposeCompletion(languageId);
+                ensureLanguage(languageId);
+                state.completions[languageId] = monaco.languages.registerCompletionItemProvider(languageId, {
+                    triggerCharacters: triggerCharacters,
+                    provideCompletionItems: function (model, position, context, token) {
+                        var bridge = javaBridge();
+                        if (!bridge)
+                            return { suggestions: [] };
+                        var word = model.getWordUntilPosition(position);
+                        var range = new monaco.Range(position.lineNumber, word.startColumn, position.lineNumber, word.endColumn);
+                        var id = state.nextCompletion++;
+                        var result = bridge.complete(id, uriOf(model), position.lineNumber, position.column, word.word);
+                        if (result)
+                            return toJavaCompletions(JSON.parse(result), range);
+                        return new Promise(function (resolve) {
+                            state.pendingCompletions[id] = function (items) {
+                                delete state.pendingCompletions[id];
+                                resolve(toJavaCompletions(items, range));
+                            };
+                            token.onCancellationRequested(function () {
+                                var pending = state.pendingCompletions[id];
+                                if (!pending)
+                                    return;
+                                bridge.cancelCompletion(id);
+                                pending(null);
+                            });
+                        });
                     }
-                    return [2];
                 });
             });
+        },
+        unregisterCompletion: function (languageId) {
+            ensureReady(function () { return disposeCompletion(languageId); });
+        },
+        completionResult: function (id, result) {
+            var pending = state.pendingCompletions[id];
+            if (pending)
+                pending(result);
+        },
+        initDiff: function (original, modified, language, theme, javaDiff, sequence) {
+            ensureReady(function () {
+                if (!state.container) {
+                    console.error('Monaco container not available');
+                    return;
+                }
+                disposeDiff();
+                if (state.editor) {
+                    state.editor.dispose();
+                    state.editor = null;
+                    state.activeUri = null;
+                }
+                ensureLanguage(language);
+                var editor = monaco.editor.createDiffEditor(state.container, {
+                    theme: theme || 'vs-dark',
+                    automaticLayout: true,
+                    originalEditable: false,
+                    lineNumbers: state.showLineNumbers ? 'on' : 'off'
+                });
+                var originalModel = createDiffModel(DIFF_ORIGINAL_URI, language || 'plaintext');
+                var modifiedModel = createDiffModel(DIFF_MODIFIED_URI, language || 'plaintext');
+                var diff = {
+                    editor: editor, original: originalModel, modified: modifiedModel, listeners: [], javaDiff: false,
+                    result: null, waiters: []
+                };
+                state.diff = diff;
+                diff.listeners.push(attachDiffSync('original', originalModel), attachDiffSync('modified', modifiedModel));
+                var viewModel = editor.createViewModel({ original: originalModel, modified: modifiedModel });
+                editor.setModel(viewModel);
+                (javaDiff ? installJavaDiff(diff, viewModel) : Promise.resolve(false)).then(function (installed) {
+                    if (state.diff !== diff)
+                        return;
+                    diff.javaDiff = installed;
+                    var bridge = javaBridge();
+                    if (bridge)
+                        bridge.onDiffEditorReady(installed);
+                    setDiffModelText('original', originalModel, original, sequence);
+                    setDiffModelText('modified', modifiedModel, modified, sequence);
+                });
+            });
+        },
+        setDiffText: function (side, text, sequence) {
+            ensureReady(function () {
+                var model = diffModel(side);
+                if (model)
+                    setDiffModelText(side, model, text, sequence);
+            });
+        },
+        resyncDiff: function (side, sequence) {
+            ensureReady(function () {
+                var model = diffModel(side);
+                var bridge = javaBridge();
+                if (model && bridge)
+                    bridge.onDiffSet(side, sequence, model.getVersionId(), model.getValue());
+            });
+        },
+        diffResult: function (originalVersion, modifiedVersion, quitEarly, packed) {
+            ensureReady(function () {
+                var diff = state.diff;
+                if (!diff || !diff.javaDiff)
+                    return;
+                var current = originalVersion === diff.original.getVersionId()
+                    && modifiedVersion === diff.modified.getVersionId();
+                var result = toDiff(quitEarly, packed);
+                if (current)
+                    diff.result = { originalVersion: originalVersion, modifiedVersion: modifiedVersion, diff: result };
+                var waiting = diff.waiters;
+                diff.waiters = [];
+                for (var _i = 0, waiting_1 = waiting; _i < waiting_1.length; _i++) {
+                    var waiter = waiting_1[_i];
+                    if (current || (waiter.originalVersion === originalVersion && waiter.modifiedVersion === modifiedVersion)) {
+                        waiter.resolve(result);
+                    }
+                    else {
+                        diff.waiters.push(waiter);
+                    }
+                }
+            });
+        },
+        disposeDiff: function () {
+            ensureReady(function () { return disposeDiff(); });
+        },
+        addSearchMatches: function (uri, packed) {
+            ensureReady(function () {
+                var entry = state.models[uri];
+                var model = entry ? entry.model : null;
+                if (!model)
+                    return;
+                var decorations = new Array(packed.length >> 1);
+                for (var i = 0, k = 0; k < decorations.length; i += 2, k++) {
+                    var start = model.getPositionAt(packed[i]);
+                    var end = model.getPositionAt(packed[i] + packed[i + 1]);
+                    decorations[k] = {
+                        range: new monaco.Range(start.lineNumber, start.column, end.lineNumber, end.column),
+                        options: SEARCH_MATCH
+                    };
+                }
+                var ids = model.deltaDecorations([], decorations);
+                entry.searchMatches = entry.searchMatches ? entry.searchMatches.concat(ids) : ids;
+            });
+        },
+        clearSearchMatches: function () {
+            ensureReady(function () {
+                for (var _i = 0, _a = Object.keys(state.models); _i < _a.length; _i++) {
+                    var uri = _a[_i];
+                    var entry = state.models[uri];
+                    if (entry.model && entry.searchMatches)
+                        entry.model.deltaDecorations(entry.searchMatches, []);
+                    entry.searchMatches = undefined;
+                }
+            });
         }
     };
     window.MonacoBridge = api;
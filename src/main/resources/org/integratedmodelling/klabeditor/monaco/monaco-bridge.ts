@@ -3,21 +3,15 @@
 // The Java side exposes window.JavaBridge (see MonacoEditorView). We expose window.MonacoBridge
 // which Java calls to control the editor.
 
-// IMPORTANT on LSP integration
-// ----------------------------
-// A working LSP hookup in Monaco needs the JSON-RPC plumbing provided by
-//  - vscode-ws-jsonrpc
-//  - monaco-languageclient
-// as explained in: https://github.com/Barahlush/monaco-lsp-guide
-// Merely opening a WebSocket is not enough; you must create a MessageConnection
-// and a MonacoLanguageClient, then call client.start() and listenUntilClosed.
-//
-// To enable LSP here, bundle the UMD builds (or webpack-bundle) of these libraries
-// alongside this file and reference them from index.html BEFORE calling connectLsp.
-// Example (pseudo, not included here by default):
-//   <script src="lib/vscode-ws-jsonrpc.js"></script>
-//   <script src="lib/monaco-languageclient.js"></script>
-// Then implement the commented section in connectLsp(..) below.
+// LSP integration
+// ---------------
+// Language features come from a small JSON-RPC client that registers Monaco providers for the capabilities
+// the server declares. It has two transports:
+//  - connectJavaLsp: messages travel through JavaBridge.lspSend and come back through
+//    MonacoBridge.lspReceive. The Java LspMultiplexer shares one server among all editors and owns document
+//    synchronization (didOpen/didChange are sent from the Java mirror, never from here).
+//  - connectLsp: a WebSocket to a server, e.g. through the Java LspRelayServer. Documents are synchronized
+//    from here, with debounced full-text changes.
 
 // Minimal ambient declarations for global AMD monaco
 declare const monaco: any;
@@ -28,34 +22,164 @@ interface MarkerOptions {
 }
 
 interface MonacoBridgeApi {
-    init(text: string, language?: string, theme?: string): void;
+    init(text: string, language?: string, theme?: string, uri?: string, eol?: string): void;
+
+    openModel(uri: string, text: string, language?: string, eol?: string): void;
+
+    appendText(uri: string, text: string): void;
+
+    setModelOptions(uri: string, options: any | null): void;
+
+    switchTo(uri: string): void;
+
+    viewStates(): string;
+
+    restoreViewState(uri: string, viewState: string): void;
+
+    closeModel(uri: string): void;
+
+    disposeModel(uri: string): void;
+
+    reset(): void;
 
     setText(text: string): void;
 
+    getText(): string;
+
+    applyEdits(uri: string, edits: Array<[number, number, string]>): void;
+
+    resync(uri: string): void;
+
     setLineNumbers(show: boolean): void;
 
+    revealLine(lineNumber: number): void;
+
     isLineNumbersVisible(): boolean;
 
-    createMarker(line: number, message: string, severity?: 'info' | 'warning' | 'error' | 'hint'): void;
+    query(id: number, what: 'selection' | 'cursor' | 'visibleLines'): void;
 
-    createMarkerByOffset(offset: number, length: number, message: string, severity?: 'info' | 'warning' | 'error' | 'hint'): void;
+    setMarkers(uri: string, owner: string, packed: Array<number | string>): void;
+
+    clearMarkers(uri: string, owner: string): void;
 
     connectLsp(wsUrl: string, languageId?: string): Promise<boolean>;
+
+    connectJavaLsp(languageId: string): void;
+
+    lspReceive(languageId: string, message: string): void;
+
+    disconnectLsp(languageId: string): void;
+
+    registerTokenizer(languageId: string, tokenTypes: string[], tokenModifiers: string[]): void;
+
+    unregisterTokenizer(languageId: string): void;
+
+    registerCompletion(languageId: string, triggerCharacters: string[]): void;
+
+    unregisterCompletion(languageId: string): void;
+
+    completionResult(id: number, result: any[] | null): void;
+
+    initDiff(original: string, modified: string, language: string, theme: string, javaDiff: boolean,
+             sequence: number): void;
+
+    setDiffText(side: 'original' | 'modified', text: string, sequence: number): void;
+
+    resyncDiff(side: 'original' | 'modified', sequence: number): void;
+
+    diffResult(originalVersion: number, modifiedVersion: number, quitEarly: boolean, packed: string): void;
+
+    disposeDiff(): void;
+
+    addSearchMatches(uri: string, packed: number[]): void;
+
+    clearSearchMatches(): void;
+
+    isReady(): boolean;
+
+    prewarm(languages?: string[]): void;
   _onAmdReady(container: HTMLElement): void; // internal, called from index.html after AMD loads
 }
 
+// One entry per document opened by Java, keyed by URI. The model may be disposed to save memory while the
+// entry (and its view state) is kept, so that reopening it restores cursor and scroll position.
+interface ModelEntry {
+  model: any | null,
+  viewState: any | null,
+  eol: string,
+  listener: any | null,
+  options?: any | null,
+  searchMatches?: string[]
+}
+
+// Client side of the LSP connection for one language. Messages go out through `send`; responses are matched
+// to `pending` by id when they come back. `flush` sends the pending change of a document, if the client
+// synchronizes documents itself; `close` ends the transport.
+interface LspClient {
+  languageId: string,
+  send: (message: string) => void,
+  nextId: number,
+  pending: { [id: number]: (response: any) => void },
+  disposables: any[],
+  flush?: (uri: string) => void,
+  close?: () => void
+}
+
+// The diff editor shown instead of the editor by a MonacoDiffView. With a Java diff, the line changes come
+// from MonacoDiffView.DiffBridge through diffResult, tagged with the versions of both models they were
+// computed for: `result` is the last one for the current versions, and `waiters` are the diff editor's
+// requests still waiting for one.
+interface DiffState {
+  editor: any,
+  original: any,
+  modified: any,
+  listeners: any[],
+  javaDiff: boolean,
+  result: { originalVersion: number, modifiedVersion: number, diff: any } | null,
+  waiters: Array<{ originalVersion: number, modifiedVersion: number, resolve: (diff: any) => void }>
+}
+
 (function () {
+  const DEFAULT_URI = 'inmemory://klab/default';
+  const REQUEST_CANCELLED = -32800;
+  const LSP_CHANGE_DELAY = 150;
+  // Editor options that the model shown may turn off (MonacoEditorView.LargeFileLimits), with the values
+  // every other model is shown with
+  const FEATURE_OPTIONS = { minimap: { enabled: true }, folding: true, wordBasedSuggestions: 'matchingDocuments' };
+  // LSP CompletionItemKind values start at 1, in this order; Monaco's enum has the same names
+  const LSP_COMPLETION_KINDS = ['Text', 'Method', 'Function', 'Constructor', 'Field', 'Variable', 'Class',
+    'Interface', 'Module', 'Property', 'Unit', 'Value', 'Enum', 'Keyword', 'Snippet', 'Color', 'File',
+    'Reference', 'Folder', 'EnumMember', 'Constant', 'Struct', 'Event', 'Operator', 'TypeParameter'];
+
   const state: {
     editor: any | null,
     container: HTMLElement | null,
     ready: boolean,
     showLineNumbers: boolean,
+    suppressSync: number,
+    models: { [uri: string]: ModelEntry },
+    activeUri: string | null,
+    lsp: { [languageId: string]: LspClient },
+    tokenizers: { [languageId: string]: any[] },
+    completions: { [languageId: string]: any },
+    diff: DiffState | null,
+    pendingCompletions: { [id: number]: (result: any[] | null) => void },
+    nextCompletion: number,
     pendingCalls: Array<() => void>
   } = {
     editor: null,
     container: null,
     ready: false,
     showLineNumbers: true,
+    suppressSync: 0,
+    models: {},
+    activeUri: null,
+    lsp: {},
+    tokenizers: {},
+    completions: {},
+    diff: null,
+    pendingCompletions: {},
+    nextCompletion: 1,
     pendingCalls: []
   };
 
@@ -69,14 +193,655 @@ interface MonacoBridgeApi {
     if (state.ready) f(); else state.pendingCalls.push(f);
   }
 
-  function toSeverity(s?: string) {
-    const m = (s || 'info').toLowerCase();
-    switch (m) {
-      case 'error': return monaco.MarkerSeverity.Error;
-      case 'warning': return monaco.MarkerSeverity.Warning;
-      case 'hint': return monaco.MarkerSeverity.Hint;
-      case 'info':
-      default: return monaco.MarkerSeverity.Info;
+  function javaBridge(): any {
+    return (window as any).JavaBridge;
+  }
+
+  function modelOf(uri: string): any | null {
+    const entry = state.models[uri];
+    return entry ? entry.model : null;
+  }
+
+  function activeModel(): any | null {
+    return state.editor?.getModel?.() || null;
+  }
+
+  function ensureEditor(theme?: string): any | null {
+    if (!state.editor) {
+      if (!state.container) {
+        console.error('Monaco container not available');
+        return null;
+      }
+      state.editor = monaco.editor.create(state.container, {
+        model: null,
+        theme: theme || 'vs-dark',
+        automaticLayout: true,
+        lineNumbers: state.showLineNumbers ? 'on' : 'off',
+        'semanticHighlighting.enabled': true,
+      });
+    } else if (theme) {
+      state.editor.updateOptions({ theme });
+    }
+    return state.editor;
+  }
+
+  // Run a model mutation requested by Java: the resulting change events are not echoed back as deltas,
+  // since Java already applied them to its mirror; only the new version id is reported.
+  function fromJava(f: () => void) {
+    state.suppressSync++;
+    try { f(); } finally { state.suppressSync--; }
+  }
+
+  // Reports the content of the model after a Java-initiated full replacement. Monaco normalizes line
+  // endings, so when the length differs from what Java sent the normalized text is pushed back.
+  function reportValue(uri: string, entry: ModelEntry, expectedLength: number) {
+    const bridge = javaBridge();
+    const model = entry.model;
+    entry.eol = model.getEOL();
+    if (!bridge) return;
+    if (model.getValueLength() !== expectedLength) {
+      bridge.onModelReset(uri, model.getVersionId(), model.getAlternativeVersionId(), model.getValue());
+    } else {
+      bridge.onModelSynced(uri, model.getVersionId(), model.getAlternativeVersionId());
+    }
+  }
+
+  // Push every content change to Java as (uri, versionId, alternativeVersionId, rangeOffset, rangeLength,
+  // text) so that the Java mirror stays authoritative without ever transferring the whole buffer. The
+  // alternative version id returns to an earlier value when edits are undone, which is what Java tracks
+  // unsaved changes with. Listening on the model rather than the editor also covers edits to models that
+  // are not currently shown.
+  function attachSync(uri: string, entry: ModelEntry) {
+    const model = entry.model;
+    entry.listener = model.onDidChangeContent((e: any) => {
+      const bridge = javaBridge();
+      if (!bridge) return;
+      const alternativeVersionId = model.getAlternativeVersionId();
+      try {
+        if (state.suppressSync > 0) {
+          bridge.onModelSynced(uri, e.versionId, alternativeVersionId);
+        } else if (e.isFlush || e.eol !== entry.eol) {
+          // full replacement or line-ending conversion: offsets no longer line up, resend everything
+          entry.eol = e.eol;
+          bridge.onModelReset(uri, e.versionId, alternativeVersionId, model.getValue());
+        } else {
+          for (const c of e.changes) {
+            bridge.onModelContentChanged(uri, e.versionId, alternativeVersionId, c.rangeOffset, c.rangeLength,
+                c.text);
+          }
+        }
+      } catch (err) {
+        console.error('[MonacoBridge] change sync failed', err);
+      }
+    });
+  }
+
+  // Java streams large models into an empty model, so the line-ending sequence is set up front
+  function openModel(uri: string, text: string, language?: string, eol?: string) {
+    ensureLanguage(language);
+    let entry = state.models[uri];
+    if (entry && entry.model) {
+      if (language) monaco.editor.setModelLanguage(entry.model, language);
+      fromJava(() => entry.model.setValue(text || ''));
+    } else {
+      const resource = monaco.Uri.parse(uri);
+      const stale = monaco.editor.getModel(resource);
+      if (stale) stale.dispose();
+      entry = entry || { model: null, viewState: null, eol: '\n', listener: null };
+      entry.model = monaco.editor.createModel(text || '', language || 'plaintext', resource);
+      state.models[uri] = entry;
+      attachSync(uri, entry);
+    }
+    if (eol) {
+      const sequence = eol === '\r\n' ? monaco.editor.EndOfLineSequence.CRLF : monaco.editor.EndOfLineSequence.LF;
+      fromJava(() => entry.model.setEOL(sequence));
+    }
+    reportValue(uri, entry, (text || '').length);
+  }
+
+  function applyModelOptions(entry: ModelEntry) {
+    if (state.editor) state.editor.updateOptions(Object.assign({}, FEATURE_OPTIONS, entry.options || {}));
+  }
+
+  // Swapping models keeps each model's tokens and undo stack alive; only the view state is saved and
+  // restored, so switching costs the same regardless of document size.
+  function switchTo(uri: string) {
+    const entry = state.models[uri];
+    if (!entry || !entry.model) {
+      console.warn('[MonacoBridge] switchTo: no model for ' + uri);
+      return;
+    }
+    const editor = ensureEditor();
+    if (!editor) return;
+    if (editor.getModel() === entry.model) {
+      state.activeUri = uri;
+      return;
+    }
+    const current = state.activeUri ? state.models[state.activeUri] : null;
+    if (current && current.model) current.viewState = editor.saveViewState();
+    editor.setModel(entry.model);
+    applyModelOptions(entry);
+    if (entry.viewState) editor.restoreViewState(entry.viewState);
+    state.activeUri = uri;
+  }
+
+  function disposeEntry(entry: ModelEntry) {
+    if (entry.listener) entry.listener.dispose();
+    if (entry.model) entry.model.dispose();
+    entry.listener = null;
+    entry.model = null;
+    entry.searchMatches = undefined;
+  }
+
+  // URI under which Java knows the model; Monaco's own rendering of it may differ in encoding
+  function uriOf(model: any): string {
+    for (const uri of Object.keys(state.models)) {
+      if (state.models[uri].model === model) return uri;
+    }
+    return model.uri.toString();
+  }
+
+  // Languages defined at runtime, e.g. highlighted by a Java tokenizer, must be known to Monaco before a
+  // model uses them, or the model falls back to plaintext
+  function ensureLanguage(languageId?: string) {
+    if (!languageId || monaco.languages.getLanguages().some((l: any) => l.id === languageId)) return;
+    monaco.languages.register({ id: languageId });
+  }
+
+  // Semantic tokens from JavaBridge.semanticTokens: the number of values, then the values in Monaco's
+  // delta encoding, each as groups of 14 bits, one char per group, bit 14 set on all groups but the last
+  function decodeTokens(packed: string): any {
+    if (!packed) return null;
+    let pos = 0;
+    const next = () => {
+      let value = 0;
+      let scale = 1;
+      let c: number;
+      do {
+        c = packed.charCodeAt(pos++);
+        value += (c & 0x3FFF) * scale;
+        scale *= 0x4000;
+      } while (c & 0x4000);
+      return value;
+    };
+    const data = new Uint32Array(next());
+    for (let i = 0; i < data.length; i++) data[i] = next();
+    return { data: data };
+  }
+
+  function disposeTokenizer(languageId: string) {
+    const providers = state.tokenizers[languageId];
+    if (!providers) return;
+    for (const provider of providers) provider.dispose();
+    delete state.tokenizers[languageId];
+  }
+
+  function disposeCompletion(languageId: string) {
+    const provider = state.completions[languageId];
+    if (!provider) return;
+    provider.dispose();
+    delete state.completions[languageId];
+  }
+
+  // Result of JavaBridge.complete: the incomplete flag, then label, kind, detail, documentation and insert
+  // text per item, in order of relevance, which sortText keeps
+  function toJavaCompletions(result: any[] | null, range: any) {
+    if (!result) return { suggestions: [] };
+    const suggestions = [];
+    for (let i = 1, rank = 0; i + 4 < result.length; i += 5, rank++) {
+      const kind = monaco.languages.CompletionItemKind[result[i + 1]];
+      suggestions.push({
+        label: result[i],
+        kind: kind === undefined ? monaco.languages.CompletionItemKind.Text : kind,
+        detail: result[i + 2] || undefined,
+        documentation: result[i + 3] ? { value: result[i + 3] } : undefined,
+        insertText: result[i + 4] || result[i],
+        sortText: String(100000 + rank),
+        range: range
+      });
+    }
+    return { suggestions: suggestions, incomplete: result[0] === 1 };
+  }
+
+  function toLspPosition(position: any) {
+    return { line: position.lineNumber - 1, character: position.column - 1 };
+  }
+
+  function toMonacoRange(range: any) {
+    return new monaco.Range(range.start.line + 1, range.start.character + 1, range.end.line + 1,
+      range.end.character + 1);
+  }
+
+  // MarkupContent, MarkedString or plain string, as a Monaco IMarkdownString
+  function toMarkdown(content: any): any {
+    if (content === null || content === undefined) return null;
+    if (typeof content === 'string') return { value: content };
+    if (content.kind) return { value: content.value || '' };
+    if (content.language) return { value: '```' + content.language + '\n' + content.value + '\n```' };
+    return { value: String(content.value || '') };
+  }
+
+  // Resolves with the result, or null on error or cancellation, which is what Monaco providers expect
+  function lspRequest(client: LspClient, method: string, params: any, token?: any): Promise<any> {
+    return new Promise((resolve) => {
+      const id = ++client.nextId;
+      client.pending[id] = (response: any) => {
+        if (response.error) {
+          if (response.error.code !== REQUEST_CANCELLED) {
+            console.warn('[LSP] ' + method + ' failed: ' + response.error.message);
+          }
+          resolve(null);
+        } else {
+          resolve(response.result);
+        }
+      };
+      const uri = params && params.textDocument ? params.textDocument.uri : null;
+      if (uri && client.flush) client.flush(uri);
+      if (token) {
+        token.onCancellationRequested(() => {
+          if (!client.pending[id]) return;
+          delete client.pending[id];
+          client.send(JSON.stringify({ jsonrpc: '2.0', method: '$/cancelRequest', params: { id: id } }));
+          resolve(null);
+        });
+      }
+      client.send(JSON.stringify({ jsonrpc: '2.0', id: id, method: method, params: params }));
+    });
+  }
+
+  function toCompletionItem(item: any, defaultRange: any): any {
+    let insertText = item.insertText || item.label;
+    let range = defaultRange;
+    const edit = item.textEdit;
+    if (edit) {
+      insertText = edit.newText;
+      range = edit.range ? toMonacoRange(edit.range)
+        : { insert: toMonacoRange(edit.insert), replace: toMonacoRange(edit.replace) };
+    }
+    return {
+      label: item.label,
+      kind: monaco.languages.CompletionItemKind[LSP_COMPLETION_KINDS[(item.kind || 1) - 1] || 'Text'],
+      detail: item.detail,
+      documentation: toMarkdown(item.documentation) || undefined,
+      sortText: item.sortText,
+      filterText: item.filterText,
+      preselect: item.preselect,
+      insertText: insertText,
+      insertTextRules: item.insertTextFormat === 2
+        ? monaco.languages.CompletionItemInsertTextRule.InsertAsSnippet : undefined,
+      range: range
+    };
+  }
+
+  function registerProviders(client: LspClient, caps: any) {
+    const lang = client.languageId;
+    const providers = client.disposables;
+    if (caps.completionProvider) {
+      providers.push(monaco.languages.registerCompletionItemProvider(lang, {
+        triggerCharacters: caps.completionProvider.triggerCharacters || [],
+        provideCompletionItems(model: any, position: any, context: any, token: any) {
+          const word = model.getWordUntilPosition(position);
+          const range = new monaco.Range(position.lineNumber, word.startColumn, position.lineNumber, word.endColumn);
+          return lspRequest(client, 'textDocument/completion', {
+            textDocument: { uri: uriOf(model) },
+            position: toLspPosition(position),
+            // Monaco's CompletionTriggerKind is 0-based, LSP's 1-based
+            context: { triggerKind: context.triggerKind + 1, triggerCharacter: context.triggerCharacter }
+          }, token).then((result: any) => {
+            if (!result) return { suggestions: [] };
+            const items = Array.isArray(result) ? result : result.items || [];
+            return {
+              suggestions: items.map((item: any) => toCompletionItem(item, range)),
+              incomplete: !Array.isArray(result) && !!result.isIncomplete
+            };
+          });
+        }
+      }));
+    }
+    if (caps.hoverProvider) {
+      providers.push(monaco.languages.registerHoverProvider(lang, {
+        provideHover(model: any, position: any, token: any) {
+          return lspRequest(client, 'textDocument/hover', {
+            textDocument: { uri: uriOf(model) },
+            position: toLspPosition(position)
+          }, token).then((result: any) => {
+            if (!result || !result.contents) return null;
+            const contents = Array.isArray(result.contents) ? result.contents : [result.contents];
+            return {
+              contents: contents.map(toMarkdown).filter((c: any) => c && c.value),
+              range: result.range ? toMonacoRange(result.range) : undefined
+            };
+          });
+        }
+      }));
+    }
+    if (caps.signatureHelpProvider) {
+      providers.push(monaco.languages.registerSignatureHelpProvider(lang, {
+        signatureHelpTriggerCharacters: caps.signatureHelpProvider.triggerCharacters || [],
+        signatureHelpRetriggerCharacters: caps.signatureHelpProvider.retriggerCharacters || [],
+        provideSignatureHelp(model: any, position: any, token: any) {
+          return lspRequest(client, 'textDocument/signatureHelp', {
+            textDocument: { uri: uriOf(model) },
+            position: toLspPosition(position)
+          }, token).then((result: any) => {
+            if (!result || !result.signatures || !result.signatures.length) return null;
+            return {
+              value: {
+                signatures: result.signatures.map((s: any) => ({
+                  label: s.label,
+                  documentation: toMarkdown(s.documentation) || undefined,
+                  parameters: (s.parameters || []).map((p: any) => ({
+                    label: p.label,
+                    documentation: toMarkdown(p.documentation) || undefined
+                  }))
+                })),
+                activeSignature: result.activeSignature || 0,
+                activeParameter: result.activeParameter || 0
+              },
+              dispose() {}
+            };
+          });
+        }
+      }));
+    }
+    if (caps.definitionProvider) {
+      providers.push(monaco.languages.registerDefinitionProvider(lang, {
+        provideDefinition(model: any, position: any, token: any) {
+          return lspRequest(client, 'textDocument/definition', {
+            textDocument: { uri: uriOf(model) },
+            position: toLspPosition(position)
+          }, token).then((result: any) => {
+            if (!result) return null;
+            const locations = Array.isArray(result) ? result : [result];
+            return locations.map((l: any) => ({
+              uri: monaco.Uri.parse(l.targetUri || l.uri),
+              range: toMonacoRange(l.targetSelectionRange || l.range)
+            }));
+          });
+        }
+      }));
+    }
+  }
+
+  function notify(client: LspClient, method: string, params: any) {
+    client.send(JSON.stringify({ jsonrpc: '2.0', method: method, params: params }));
+  }
+
+  // Handles a message from the server: responses complete their request, requests from the server get
+  // neutral answers and diagnostics become markers (only WebSocket servers send them here)
+  function receive(client: LspClient, message: string) {
+    let msg: any;
+    try {
+      msg = JSON.parse(message);
+    } catch (e) {
+      console.error('[LSP] Malformed message', e);
+      return;
+    }
+    const hasId = msg.id !== undefined && msg.id !== null;
+    if (msg.method && hasId) {
+      const items = msg.method === 'workspace/configuration' && msg.params ? msg.params.items || [] : null;
+      client.send(JSON.stringify({ jsonrpc: '2.0', id: msg.id, result: items ? items.map(() => null) : null }));
+    } else if (msg.method === 'textDocument/publishDiagnostics' && msg.params) {
+      const model = modelOf(msg.params.uri) || monaco.editor.getModel(monaco.Uri.parse(msg.params.uri));
+      if (!model) return;
+      // LSP DiagnosticSeverity 1..4 (error first) to Monaco MarkerSeverity
+      const severities = [8, 8, 4, 2, 1];
+      monaco.editor.setModelMarkers(model, 'lsp', (msg.params.diagnostics || []).map((d: any) => ({
+        startLineNumber: d.range.start.line + 1,
+        startColumn: d.range.start.character + 1,
+        endLineNumber: d.range.end.line + 1,
+        endColumn: d.range.end.character + 1,
+        severity: severities[d.severity || 1] || 8,
+        message: d.source ? d.source + ': ' + d.message : d.message
+      })));
+    } else if (hasId) {
+      const callback = client.pending[msg.id];
+      if (callback) {
+        delete client.pending[msg.id];
+        callback(msg);
+      }
+    }
+  }
+
+  // Document synchronization for clients that talk to a server directly: every model of the client's
+  // language is opened on the server and its full text is sent after edits, debounced
+  function syncDocuments(client: LspClient) {
+    const docs: { [uri: string]: { model: any, version: number, timer: any, listener: any } } = {};
+    const flush = (uri: string) => {
+      const doc = docs[uri];
+      if (!doc || doc.timer === null) return;
+      clearTimeout(doc.timer);
+      doc.timer = null;
+      notify(client, 'textDocument/didChange', {
+        textDocument: { uri: uri, version: ++doc.version },
+        contentChanges: [{ text: doc.model.getValue() }]
+      });
+    };
+    const open = (model: any) => {
+      if (model.isDisposed() || model.getLanguageId() !== client.languageId) return;
+      const uri = uriOf(model);
+      if (docs[uri]) return;
+      const doc = { model: model, version: 1, timer: null as any, listener: null as any };
+      docs[uri] = doc;
+      notify(client, 'textDocument/didOpen', {
+        textDocument: { uri: uri, languageId: client.languageId, version: 1, text: model.getValue() }
+      });
+      doc.listener = model.onDidChangeContent(() => {
+        if (doc.timer !== null) clearTimeout(doc.timer);
+        doc.timer = setTimeout(() => flush(uri), LSP_CHANGE_DELAY);
+      });
+    };
+    const close = (model: any) => {
+      for (const uri of Object.keys(docs)) {
+        const doc = docs[uri];
+        if (doc.model !== model) continue;
+        if (doc.timer !== null) clearTimeout(doc.timer);
+        doc.listener.dispose();
+        delete docs[uri];
+        notify(client, 'textDocument/didClose', { textDocument: { uri: uri } });
+      }
+    };
+    client.flush = flush;
+    for (const model of monaco.editor.getModels()) open(model);
+    client.disposables.push(
+      // deferred so that the registry already knows the model's URI
+      monaco.editor.onDidCreateModel((model: any) => Promise.resolve().then(() => open(model))),
+      monaco.editor.onWillDisposeModel(close),
+      monaco.editor.onDidChangeModelLanguage((e: any) => {
+        close(e.model);
+        open(e.model);
+      }),
+      {
+        dispose: () => {
+          for (const uri of Object.keys(docs)) {
+            if (docs[uri].timer !== null) clearTimeout(docs[uri].timer);
+            docs[uri].listener.dispose();
+          }
+        }
+      });
+  }
+
+  // Matches of a search in Java, shown like those of the find widget
+  const SEARCH_MATCH = {
+    className: 'findMatch',
+    stickiness: 1, // NeverGrowsWhenTypingAtEdges
+    overviewRuler: { color: 'rgba(209, 134, 22, 0.49)', position: 2 } // OverviewRulerLane.Center
+  };
+
+  // -------------- diff editor --------------
+
+  const DIFF_ORIGINAL_URI = 'inmemory://klab/diff/original';
+  const DIFF_MODIFIED_URI = 'inmemory://klab/diff/modified';
+  // Constructors of the diff editor's internal result classes (DetailedLineRangeMapping, LineRange), which
+  // a diff algorithm has to return instances of; taken from a diff of the default algorithm
+  let diffClasses: { mapping: any, lineRange: any } | null = null;
+  // The Monaco release whose diff editor internals installJavaDiff relies on (the view model's _diffProvider
+  // observable, the provider's setOptions and computeDiff, the result classes). Check them again, and update
+  // this, when upgrading Monaco: if they changed, diffs silently go back to being computed in the page.
+  const JAVA_DIFF_MONACO_VERSION = '0.54.0';
+  let javaDiffWarned = false;
+
+  function diffModel(side: string): any | null {
+    const diff = state.diff;
+    if (!diff) return null;
+    return side === 'original' ? diff.original : diff.modified;
+  }
+
+  function createDiffModel(uri: string, language: string): any {
+    const resource = monaco.Uri.parse(uri);
+    const stale = monaco.editor.getModel(resource);
+    if (stale) stale.dispose();
+    return monaco.editor.createModel('', language, resource);
+  }
+
+  // Edits typed into a side are pushed to its Java mirror as in attachSync; text set from Java is
+  // acknowledged by setDiffModelText instead
+  function attachDiffSync(side: string, model: any): any {
+    let eol = model.getEOL();
+    return model.onDidChangeContent((e: any) => {
+      const bridge = javaBridge();
+      if (!bridge || state.suppressSync > 0) return;
+      try {
+        if (e.isFlush || e.eol !== eol) {
+          eol = e.eol;
+          bridge.onDiffReset(side, e.versionId, model.getValue());
+        } else {
+          for (const c of e.changes) {
+            bridge.onDiffContentChanged(side, e.versionId, c.rangeOffset, c.rangeLength, c.text);
+          }
+        }
+      } catch (err) {
+        console.error('[MonacoBridge] diff sync failed', err);
+      }
+    });
+  }
+
+  // Replace the text of a side on behalf of Java, which waits for this sequence number before taking edits
+  // of that side again; the text is sent back only if Monaco normalized its line endings
+  function setDiffModelText(side: string, model: any, text: string, sequence: number) {
+    fromJava(() => model.setValue(text || ''));
+    const bridge = javaBridge();
+    if (!bridge) return;
+    const normalized = model.getValueLength() !== (text || '').length ? model.getValue() : null;
+    bridge.onDiffSet(side, sequence, model.getVersionId(), normalized);
+  }
+
+  function emptyDiff(): any {
+    return { changes: [], identical: true, quitEarly: false, moves: [] };
+  }
+
+  // Java's changes, packed as comma-separated groups of four 1-based line numbers (original start and end,
+  // modified start and end, ends exclusive), as the result a diff algorithm returns; line changes only
+  function toDiff(quitEarly: boolean, packed: string): any {
+    const values = packed ? packed.split(',') : [];
+    const changes: any[] = [];
+    for (let i = 0; i + 3 < values.length; i += 4) {
+      changes.push(new diffClasses!.mapping(new diffClasses!.lineRange(+values[i], +values[i + 1]),
+          new diffClasses!.lineRange(+values[i + 2], +values[i + 3]), undefined));
+    }
+    return { changes: changes, identical: changes.length === 0, quitEarly: quitEarly, moves: [] };
+  }
+
+  // Called by the diff editor whenever it needs the diff: the Java result for the current versions if it has
+  // arrived, or a promise of it
+  function requestDiff(diff: DiffState, original: any, modified: any): Promise<any> {
+    if (state.diff !== diff || original.isDisposed() || modified.isDisposed()) return Promise.resolve(emptyDiff());
+    const originalVersion = original.getVersionId();
+    const modifiedVersion = modified.getVersionId();
+    const result = diff.result;
+    if (result && result.originalVersion === originalVersion && result.modifiedVersion === modifiedVersion) {
+      return Promise.resolve(result.diff);
+    }
+    return new Promise((resolve) => {
+      diff.waiters.push({ originalVersion: originalVersion, modifiedVersion: modifiedVersion, resolve: resolve });
+    });
+  }
+
+  // Once per page, since every diff editor falls back the same way
+  function javaDiffUnavailable(reason: string, err?: any) {
+    if (javaDiffWarned) return;
+    javaDiffWarned = true;
+    console.warn('[MonacoBridge] ' + reason + ', diffs are computed in the page; the diff editor internals'
+        + ' differ from Monaco ' + JAVA_DIFF_MONACO_VERSION, err === undefined ? '' : err);
+  }
+
+  // There is no public way to give the diff editor a diff: the diff provider of its view model (internal, see
+  // JAVA_DIFF_MONACO_VERSION) takes a diff algorithm object in place of an algorithm name. Resolves to whether
+  // that worked; if not, the editor keeps computing diffs itself.
+  function installJavaDiff(diff: DiffState, viewModel: any): Promise<boolean> {
+    const observable = viewModel && viewModel._diffProvider;
+    if (!observable || typeof observable.get !== 'function') {
+      javaDiffUnavailable('no diff provider in the view model');
+      return Promise.resolve(false);
+    }
+    let provider: any;
+    try {
+      provider = observable.get().diffProvider;
+    } catch (err) {
+      javaDiffUnavailable('no diff provider in the view model', err);
+      return Promise.resolve(false);
+    }
+    if (!provider || typeof provider.setOptions !== 'function' || typeof provider.computeDiff !== 'function') {
+      javaDiffUnavailable('unknown diff provider');
+      return Promise.resolve(false);
+    }
+    const algorithm = {
+      onDidChange: () => ({ dispose: () => {} }),
+      computeDiff: (original: any, modified: any) => requestDiff(diff, original, modified)
+    };
+    let probe: Promise<any> = Promise.resolve(null);
+    if (!diffClasses) {
+      // an empty original is diffed without a worker
+      const original = monaco.editor.createModel('');
+      const modified = monaco.editor.createModel('a');
+      probe = Promise.resolve(provider.computeDiff(original, modified, {
+        ignoreTrimWhitespace: false, maxComputationTimeMs: 0, computeMoves: false
+      }, { isCancellationRequested: false, onCancellationRequested: () => ({ dispose: () => {} }) }))
+          .then((result: any) => {
+            const change = result && result.changes && result.changes[0];
+            if (change && change.original) {
+              diffClasses = { mapping: change.constructor, lineRange: change.original.constructor };
+            }
+          })
+          .finally(() => {
+            original.dispose();
+            modified.dispose();
+          });
+    }
+    return probe.then(() => {
+      if (state.diff !== diff) return false;
+      if (!diffClasses) {
+        javaDiffUnavailable('unknown diff result classes');
+        return false;
+      }
+      provider.setOptions({ diffAlgorithm: algorithm });
+      return true;
+    }).catch((err: any) => {
+      javaDiffUnavailable('cannot set the diff algorithm', err);
+      return false;
+    });
+  }
+
+  function disposeDiff() {
+    const diff = state.diff;
+    if (!diff) return;
+    state.diff = null;
+    for (const waiter of diff.waiters) waiter.resolve(emptyDiff());
+    diff.waiters = [];
+    for (const listener of diff.listeners) listener.dispose();
+    diff.editor.dispose();
+    diff.original.dispose();
+    diff.modified.dispose();
+  }
+
+  function disposeClient(client: LspClient) {
+    for (const disposable of client.disposables) disposable.dispose();
+    client.disposables = [];
+    if (client.close) client.close();
+    const pending = client.pending;
+    client.pending = {};
+    for (const id of Object.keys(pending)) {
+      pending[+id]({ error: { code: REQUEST_CANCELLED, message: 'disconnected' } });
     }
   }
 
@@ -91,35 +856,164 @@ interface MonacoBridgeApi {
       try { (window as any).JavaBridge?.onEditorReady(); } catch {}
     },
 
-    init(text: string, language = 'plaintext', theme = 'vs-dark') {
+    isReady(): boolean {
+      return state.ready;
+    },
+
+    // Create the editor before any model is shown and load the contributions of the given languages, so
+    // that the first init() only has to create a model
+    prewarm(languages?: string[]) {
       ensureReady(() => {
-        if (!state.container) {
-          console.error('Monaco container not available');
-          return;
+        ensureEditor();
+        for (const language of languages || []) {
+          // creating a model fires onLanguage, which loads the tokenizer and configuration
+          monaco.editor.createModel('', language).dispose();
         }
-        if (!state.editor) {
-          state.editor = monaco.editor.create(state.container, {
-            value: text || '',
-            language: language || 'plaintext',
-            theme: theme || 'vs-dark',
-            automaticLayout: true,
-            lineNumbers: state.showLineNumbers ? 'on' : 'off',
-          });
-        } else {
-          state.editor.updateOptions({ theme });
-          const model = state.editor.getModel();
-          if (model) {
-            monaco.editor.setModelLanguage(model, language);
-            model.setValue(text || '');
-          }
+      });
+    },
+
+    init(text: string, language = 'plaintext', theme = 'vs-dark', uri = DEFAULT_URI, eol?: string) {
+      ensureReady(() => {
+        if (!ensureEditor(theme)) return;
+        openModel(uri, text, language, eol);
+        switchTo(uri);
+      });
+    },
+
+    openModel(uri: string, text: string, language?: string, eol?: string) {
+      ensureReady(() => openModel(uri, text, language, eol));
+    },
+
+    // A chunk of a model streamed from Java (MonacoEditorView.openFile), appended without undo history
+    appendText(uri: string, text: string) {
+      ensureReady(() => {
+        const model = modelOf(uri);
+        if (!model) return;
+        const line = model.getLineCount();
+        const column = model.getLineMaxColumn(line);
+        fromJava(() => model.applyEdits([{ range: new monaco.Range(line, column, line, column), text: text }]));
+      });
+    },
+
+    // Editor options of a model, e.g. features turned off for a large file, applied whenever it is shown
+    setModelOptions(uri: string, options: any | null) {
+      ensureReady(() => {
+        const entry = state.models[uri];
+        if (!entry) return;
+        entry.options = options;
+        if (state.activeUri === uri) applyModelOptions(entry);
+      });
+    },
+
+    switchTo(uri: string) {
+      ensureReady(() => switchTo(uri));
+    },
+
+    // View states (cursor, selections, scroll, folding) of all models that have one, for Java to persist:
+    // a JSON array of uri and JSON-encoded state pairs. Called synchronously, once pending calls have run.
+    viewStates(): string {
+      const ret: string[] = [];
+      if (!state.ready) return '[]';
+      for (const uri of Object.keys(state.models)) {
+        const entry = state.models[uri];
+        const viewState = uri === state.activeUri && state.editor ? state.editor.saveViewState() : entry.viewState;
+        if (viewState) ret.push(uri, JSON.stringify(viewState));
+      }
+      return JSON.stringify(ret);
+    },
+
+    // A view state persisted by Java, applied now if the model is shown or kept for when it is
+    restoreViewState(uri: string, viewState: string) {
+      ensureReady(() => {
+        const entry = state.models[uri];
+        if (!entry) return;
+        let parsed: any;
+        try { parsed = JSON.parse(viewState); } catch { return; }
+        if (uri === state.activeUri && state.editor) state.editor.restoreViewState(parsed);
+        else entry.viewState = parsed;
+      });
+    },
+
+    closeModel(uri: string) {
+      ensureReady(() => {
+        const entry = state.models[uri];
+        if (!entry) return;
+        if (state.activeUri === uri) {
+          state.editor?.setModel(null);
+          state.activeUri = null;
         }
+        disposeEntry(entry);
+        delete state.models[uri];
+      });
+    },
+
+    // Frees an idle model (chosen by Java's LRU policy) but keeps its view state for a later reopen
+    disposeModel(uri: string) {
+      ensureReady(() => {
+        const entry = state.models[uri];
+        if (!entry || !entry.model || state.activeUri === uri) return;
+        disposeEntry(entry);
+      });
+    },
+
+    // Hand the editor over to another Java view: every model is disposed, the editor itself is kept
+    reset() {
+      ensureReady(() => {
+        disposeDiff();
+        if (state.editor) state.editor.setModel(null);
+        for (const uri of Object.keys(state.models)) disposeEntry(state.models[uri]);
+        state.models = {};
+        state.activeUri = null;
+        // providers would otherwise keep calling into the next view's JavaBridge
+        for (const languageId of Object.keys(state.lsp)) disposeClient(state.lsp[languageId]);
+        state.lsp = {};
+        for (const languageId of Object.keys(state.tokenizers)) disposeTokenizer(languageId);
+        for (const languageId of Object.keys(state.completions)) disposeCompletion(languageId);
+        for (const id of Object.keys(state.pendingCompletions)) state.pendingCompletions[+id](null);
+        state.pendingCompletions = {};
       });
     },
 
     setText(text: string) {
       ensureReady(() => {
-        const model = state.editor?.getModel?.();
-        if (model) model.setValue(text || '');
+        const uri = state.activeUri;
+        const entry = uri ? state.models[uri] : null;
+        if (!uri || !entry || !entry.model) return;
+        fromJava(() => entry.model.setValue(text || ''));
+        reportValue(uri, entry, (text || '').length);
+      });
+    },
+
+    getText(): string {
+      const model = activeModel();
+      return model ? model.getValue() : '';
+    },
+
+    // Edits are [offset, length, text] triples relative to the content before any of them is applied,
+    // exactly as Java computed them against its mirror.
+    applyEdits(uri: string, edits: Array<[number, number, string]>) {
+      ensureReady(() => {
+        const model = modelOf(uri);
+        if (!model) return;
+        const ops = edits.map(([offset, length, text]) => {
+          const start = model.getPositionAt(offset);
+          const end = model.getPositionAt(offset + length);
+          return {
+            range: new monaco.Range(start.lineNumber, start.column, end.lineNumber, end.column),
+            text: text,
+            forceMoveMarkers: true
+          };
+        });
+        fromJava(() => model.pushEditOperations([], ops, () => null));
+      });
+    },
+
+    resync(uri: string) {
+      ensureReady(() => {
+        const model = modelOf(uri);
+        const bridge = javaBridge();
+        if (!model || !bridge) return;
+        bridge.onModelReset(uri, model.getVersionId(), model.getAlternativeVersionId(), model.getValue());
       });
     },
 
@@ -136,81 +1030,369 @@ interface MonacoBridgeApi {
       return !!state.showLineNumbers;
     },
 
-    createMarker(line: number, message: string, severity: 'info'|'warning'|'error'|'hint' = 'info') {
+    // Scrolls the editor so that the line is at the top of the viewport, without animation
+    revealLine(lineNumber: number) {
+      ensureReady(() => {
+        if (state.editor) state.editor.revealLineNearTop(lineNumber, monaco.editor.ScrollType.Immediate);
+      });
+    },
+
+    // Answers asynchronous queries from Java through JavaBridge.resolveQuery/rejectQuery; results are
+    // comma-separated numbers, or an empty string when there is nothing to report.
+    query(id: number, what: 'selection' | 'cursor' | 'visibleLines') {
+      ensureReady(() => {
+        const bridge = javaBridge();
+        if (!bridge) return;
+        const editor = state.editor;
+        if (!editor) {
+          bridge.rejectQuery(id, 'editor not initialized');
+          return;
+        }
+        try {
+          let result = '';
+          switch (what) {
+            case 'selection': {
+              const s = editor.getSelection();
+              if (s) result = [s.startLineNumber, s.startColumn, s.endLineNumber, s.endColumn].join(',');
+              break;
+            }
+            case 'cursor': {
+              const p = editor.getPosition();
+              if (p) result = p.lineNumber + ',' + p.column;
+              break;
+            }
+            case 'visibleLines': {
+              const ranges = editor.getVisibleRanges();
+              if (ranges.length) result = ranges[0].startLineNumber + ',' + ranges[ranges.length - 1].endLineNumber;
+              break;
+            }
+            default:
+              bridge.rejectQuery(id, 'unknown query: ' + what);
+              return;
+          }
+          bridge.resolveQuery(id, result);
+        } catch (e) {
+          bridge.rejectQuery(id, String(e));
+        }
+      });
+    },
+
+    // Replaces only the markers of `owner` on the model of `uri`. The batch is a flat array with a stride
+    // of 6: startLine, startColumn, endLine, endColumn, severity (Monaco MarkerSeverity value), message.
+    setMarkers(uri: string, owner: string, packed: Array<number | string>) {
       ensureReady(() => {
-        const model = state.editor?.getModel?.();
+        const model = modelOf(uri);
         if (!model) return;
-        const owner = 'java-bridge';
-        const markers = [{
-          startLineNumber: Math.max(1, Math.floor(line || 1)),
-          endLineNumber: Math.max(1, Math.floor(line || 1)),
-          startColumn: 1,
-          endColumn: 1,
-          message: message || '',
-          severity: toSeverity(severity)
-        }];
+        const markers = new Array(Math.floor(packed.length / 6));
+        for (let i = 0, k = 0; k < markers.length; i += 6, k++) {
+          markers[k] = {
+            startLineNumber: packed[i] as number,
+            startColumn: packed[i + 1] as number,
+            endLineNumber: packed[i + 2] as number,
+            endColumn: packed[i + 3] as number,
+            severity: packed[i + 4] as number,
+            message: packed[i + 5] as string
+          };
+        }
         monaco.editor.setModelMarkers(model, owner, markers);
       });
     },
 
-      createMarkerByOffset(offset: number, length: number, message: string, severity: 'info' | 'warning' | 'error' | 'hint' = 'info') {
-          ensureReady(() => {
-              const model = state.editor?.getModel?.();
-              if (!model) return;
-              const owner = 'java-bridge';
-              const startPosition = model.getPositionAt(offset);
-              const endPosition = model.getPositionAt(offset + length);
-              const markers = [{
-                  startLineNumber: startPosition.lineNumber,
-                  endLineNumber: endPosition.lineNumber,
-                  startColumn: startPosition.column,
-                  endColumn: endPosition.column,
-                  message: message || '',
-                  severity: toSeverity(severity)
-              }];
-              monaco.editor.setModelMarkers(model, owner, markers);
+    clearMarkers(uri: string, owner: string) {
+      ensureReady(() => {
+        const model = modelOf(uri);
+        if (model) monaco.editor.setModelMarkers(model, owner, []);
+      });
+    },
+
+    // Connect the language to a server behind a WebSocket speaking JSON-RPC, such as an endpoint of the Java
+    // LspRelayServer. Resolves with true once the server is initialized and the providers are registered.
+    connectLsp(wsUrl: string, languageId?: string): Promise<boolean> {
+      const lang = languageId || 'plaintext';
+      return new Promise((resolve) => {
+        ensureReady(() => {
+          const existing = state.lsp[lang];
+          if (existing) disposeClient(existing);
+          let socket: any;
+          try {
+            socket = new WebSocket(wsUrl, 'jsonrpc');
+          } catch (e) {
+            console.error('[LSP] Failed to connect:', e);
+            resolve(false);
+            return;
+          }
+          const queue: string[] = [];
+          const client: LspClient = {
+            languageId: lang,
+            send: (message: string) => {
+              if (socket.readyState === 1) socket.send(message);
+              else if (socket.readyState === 0) queue.push(message);
+            },
+            nextId: 0,
+            pending: {},
+            disposables: [],
+            close: () => {
+              socket.onclose = null;
+              socket.close();
+            }
+          };
+          state.lsp[lang] = client;
+          socket.onopen = () => {
+            while (queue.length) socket.send(queue.shift());
+          };
+          socket.onmessage = (e: any) => receive(client, e.data);
+          socket.onclose = () => {
+            if (state.lsp[lang] === client) {
+              console.warn('[LSP] Connection to ' + wsUrl + ' closed');
+              delete state.lsp[lang];
+              disposeClient(client);
+            }
+            resolve(false);
+          };
+          lspRequest(client, 'initialize', { processId: null, rootUri: null, capabilities: {} }).then((result: any) => {
+            if (state.lsp[lang] !== client || !result) {
+              resolve(false);
+              return;
+            }
+            registerProviders(client, result.capabilities || {});
+            notify(client, 'initialized', {});
+            syncDocuments(client);
+            resolve(true);
           });
-      },
-
-      async connectLsp(wsUrl: string, languageId?: string): Promise<boolean> {
-      // See https://github.com/Barahlush/monaco-lsp-guide for a complete wiring.
-      // The high-level steps are:
-      // 1) Create a WebSocket to the LSP server (e.g., ws://localhost:PORT/your-lang)
-      // 2) Wrap it with a MessageReader/MessageWriter from vscode-ws-jsonrpc
-      // 3) Create and configure a MonacoLanguageClient with services and languageId
-      // 4) Start the client and establish the connection
-      // This stub returns false unless the necessary libraries are present globally.
-      try {
-        const g: any = window as any;
-        if (!g.monaco || !state.editor) { console.warn('Monaco or editor not ready'); return false; }
-        if (!g.monaco_languageclient || !g.monaco_languageclient.MonacoLanguageClient) {
-          console.warn('[LSP] monaco-languageclient not found on window. Please bundle and load it.');
-          return false;
-        }
-        if (!g.reconnecting_websocket && !g.WebSocket) {
-          console.warn('[LSP] WebSocket not available');
-          return false;
-        }
-        // Example skeleton (commented out):
-        // const url = wsUrl;
-        // const socket = new WebSocket(url, 'jsonrpc');
-        // const reader = new g.VSCodeWebSocketMessageReader(socket);
-        // const writer = new g.VSCodeWebSocketMessageWriter(socket);
-        // const connection = g.createMessageConnection(reader, writer);
-        // const client = new g.monaco_languageclient.MonacoLanguageClient({
-        //   name: 'LSP',
-        //   clientOptions: { documentSelector: [languageId || 'plaintext'],
-        //     workspaceFolder: { uri: window.location.href, name: 'root', index: 0 } },
-        //   connectionProvider: { get: () => Promise.resolve({ reader, writer }) }
-        // });
-        // client.start();
-        // reader.onClose(() => client.stop());
-        console.warn('[LSP] connectLsp stub invoked; see monaco-bridge.ts comments to enable real client.');
-        return false;
-      } catch (e) {
-        console.error('[LSP] Failed to connect:', e);
-        return false;
-      }
+        });
+      });
+    },
+
+    // Connect the language to the Java LspMultiplexer session of this view. The initialize response carries
+    // the capabilities of the shared server, from which the providers are registered.
+    connectJavaLsp(languageId: string) {
+      ensureReady(() => {
+        const existing = state.lsp[languageId];
+        if (existing) disposeClient(existing);
+        const client: LspClient = {
+          languageId: languageId,
+          send: (message: string) => {
+            const bridge = javaBridge();
+            if (bridge) bridge.lspSend(languageId, message);
+          },
+          nextId: 0,
+          pending: {},
+          disposables: []
+        };
+        state.lsp[languageId] = client;
+        lspRequest(client, 'initialize', { processId: null, rootUri: null, capabilities: {} }).then((result: any) => {
+          if (state.lsp[languageId] !== client) return;
+          if (!result) {
+            console.warn('[LSP] No language server for ' + languageId);
+            return;
+          }
+          registerProviders(client, result.capabilities || {});
+          notify(client, 'initialized', {});
+        });
+      });
+    },
+
+    lspReceive(languageId: string, message: string) {
+      const client = state.lsp[languageId];
+      if (client) receive(client, message);
+    },
+
+    disconnectLsp(languageId: string) {
+      ensureReady(() => {
+        const client = state.lsp[languageId];
+        if (!client) return;
+        disposeClient(client);
+        delete state.lsp[languageId];
+      });
+    },
+
+    // Semantic highlighting of a language by a Java tokenizer (MonacoEditorView.setTokenizer). Only a range
+    // provider is registered: Monaco asks it for the visible lines after scrolling and edits, and Java answers
+    // from its cache of line states. A document provider would make every edit encode the tokens of the whole
+    // document, and lex the lines not cached yet, on the FX thread.
+    registerTokenizer(languageId: string, tokenTypes: string[], tokenModifiers: string[]) {
+      ensureReady(() => {
+        disposeTokenizer(languageId);
+        ensureLanguage(languageId);
+        const legend = { tokenTypes: tokenTypes, tokenModifiers: tokenModifiers };
+        const provide = (model: any, startLine: number, endLine: number) => {
+          const bridge = javaBridge();
+          return bridge ? decodeTokens(bridge.semanticTokens(uriOf(model), startLine, endLine)) : null;
+        };
+        state.tokenizers[languageId] = [
+          monaco.languages.registerDocumentRangeSemanticTokensProvider(languageId, {
+            getLegend: () => legend,
+            provideDocumentRangeSemanticTokens: (model: any, range: any) =>
+              provide(model, range.startLineNumber, range.endLineNumber)
+          })
+        ];
+      });
+    },
+
+    unregisterTokenizer(languageId: string) {
+      ensureReady(() => disposeTokenizer(languageId));
+    },
+
+    // Completion of a language by a Java provider (MonacoEditorView.registerCompletionProvider). Java
+    // answers at once when it can; otherwise the result follows through completionResult, unless Monaco
+    // cancels the request first because the user kept typing.
+    registerCompletion(languageId: string, triggerCharacters: string[]) {
+      ensureReady(() => {
+        disposeCompletion(languageId);
+        ensureLanguage(languageId);
+        state.completions[languageId] = monaco.languages.registerCompletionItemProvider(languageId, {
+          triggerCharacters: triggerCharacters,
+          provideCompletionItems: (model: any, position: any, context: any, token: any) => {
+            const bridge = javaBridge();
+            if (!bridge) return { suggestions: [] };
+            const word = model.getWordUntilPosition(position);
+            const range = new monaco.Range(position.lineNumber, word.startColumn, position.lineNumber, word.endColumn);
+            const id = state.nextCompletion++;
+            const result = bridge.complete(id, uriOf(model), position.lineNumber, position.column, word.word);
+            if (result) return toJavaCompletions(JSON.parse(result), range);
+            return new Promise((resolve) => {
+              state.pendingCompletions[id] = (items: any[] | null) => {
+                delete state.pendingCompletions[id];
+                resolve(toJavaCompletions(items, range));
+              };
+              token.onCancellationRequested(() => {
+                const pending = state.pendingCompletions[id];
+                if (!pending) return;
+                bridge.cancelCompletion(id);
+                pending(null);
+              });
+            });
+          }
+        });
+      });
+    },
+
+    unregisterCompletion(languageId: string) {
+      ensureReady(() => disposeCompletion(languageId));
+    },
+
+    completionResult(id: number, result: any[] | null) {
+      const pending = state.pendingCompletions[id];
+      if (pending) pending(result);
+    },
+
+    // Show a diff editor in place of the editor. The texts are set only once the diff editor computes diffs
+    // the way Java asked, so that a large diff is never computed in the page by mistake; Java is told through
+    // onDiffEditorReady whether its diffs are used.
+    initDiff(original: string, modified: string, language: string, theme: string, javaDiff: boolean,
+             sequence: number) {
+      ensureReady(() => {
+        if (!state.container) {
+          console.error('Monaco container not available');
+          return;
+        }
+        disposeDiff();
+        if (state.editor) {
+          // the container shows one editor at a time; models are kept
+          state.editor.dispose();
+          state.editor = null;
+          state.activeUri = null;
+        }
+        ensureLanguage(language);
+        const editor = monaco.editor.createDiffEditor(state.container, {
+          theme: theme || 'vs-dark',
+          automaticLayout: true,
+          originalEditable: false,
+          lineNumbers: state.showLineNumbers ? 'on' : 'off'
+        });
+        const originalModel = createDiffModel(DIFF_ORIGINAL_URI, language || 'plaintext');
+        const modifiedModel = createDiffModel(DIFF_MODIFIED_URI, language || 'plaintext');
+        const diff: DiffState = {
+          editor: editor, original: originalModel, modified: modifiedModel, listeners: [], javaDiff: false,
+          result: null, waiters: []
+        };
+        state.diff = diff;
+        diff.listeners.push(attachDiffSync('original', originalModel), attachDiffSync('modified', modifiedModel));
+        const viewModel = editor.createViewModel({ original: originalModel, modified: modifiedModel });
+        editor.setModel(viewModel);
+        (javaDiff ? installJavaDiff(diff, viewModel) : Promise.resolve(false)).then((installed: boolean) => {
+          if (state.diff !== diff) return;
+          diff.javaDiff = installed;
+          const bridge = javaBridge();
+          if (bridge) bridge.onDiffEditorReady(installed);
+          setDiffModelText('original', originalModel, original, sequence);
+          setDiffModelText('modified', modifiedModel, modified, sequence);
+        });
+      });
+    },
+
+    setDiffText(side: 'original' | 'modified', text: string, sequence: number) {
+      ensureReady(() => {
+        const model = diffModel(side);
+        if (model) setDiffModelText(side, model, text, sequence);
+      });
+    },
+
+    // Send the whole text of a side to Java, whose mirror lost track of it
+    resyncDiff(side: 'original' | 'modified', sequence: number) {
+      ensureReady(() => {
+        const model = diffModel(side);
+        const bridge = javaBridge();
+        if (model && bridge) bridge.onDiffSet(side, sequence, model.getVersionId(), model.getValue());
+      });
+    },
+
+    // A diff computed by Java for the given versions of the two models. Requests for earlier versions are
+    // answered with it too when it is for the current ones: the diff editor asks again after every edit, so a
+    // diff that is briefly ahead of a request is replaced straight away.
+    diffResult(originalVersion: number, modifiedVersion: number, quitEarly: boolean, packed: string) {
+      ensureReady(() => {
+        const diff = state.diff;
+        if (!diff || !diff.javaDiff) return;
+        const current = originalVersion === diff.original.getVersionId()
+            && modifiedVersion === diff.modified.getVersionId();
+        const result = toDiff(quitEarly, packed);
+        if (current) diff.result = { originalVersion: originalVersion, modifiedVersion: modifiedVersion, diff: result };
+        const waiting = diff.waiters;
+        diff.waiters = [];
+        for (const waiter of waiting) {
+          if (current || (waiter.originalVersion === originalVersion && waiter.modifiedVersion === modifiedVersion)) {
+            waiter.resolve(result);
+          } else {
+            diff.waiters.push(waiter);
+          }
+        }
+      });
+    },
+
+    disposeDiff() {
+      ensureReady(() => disposeDiff());
+    },
+
+    // A batch of matches of MonacoEditorView.find, as offset and length pairs in the current content,
+    // added to those already shown
+    addSearchMatches(uri: string, packed: number[]) {
+      ensureReady(() => {
+        const entry = state.models[uri];
+        const model = entry ? entry.model : null;
+        if (!model) return;
+        const decorations = new Array(packed.length >> 1);
+        for (let i = 0, k = 0; k < decorations.length; i += 2, k++) {
+          const start = model.getPositionAt(packed[i]);
+          const end = model.getPositionAt(packed[i] + packed[i + 1]);
+          decorations[k] = {
+            range: new monaco.Range(start.lineNumber, start.column, end.lineNumber, end.column),
+            options: SEARCH_MATCH
+          };
+        }
+        const ids = model.deltaDecorations([], decorations);
+        entry.searchMatches = entry.searchMatches ? entry.searchMatches.concat(ids) : ids;
+      });
+    },
+
+    clearSearchMatches() {
+      ensureReady(() => {
+        for (const uri of Object.keys(state.models)) {
+          const entry = state.models[uri];
+          if (entry.model && entry.searchMatches) entry.model.deltaDecorations(entry.searchMatches, []);
+          entry.searchMatches = undefined;
+        }
+      });
     }
   };
 
@@ -0,0 +1,201 @@
+package org.integratedmodelling.klabeditor;
+
+import javafx.animation.AnimationTimer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.condition.EnabledIf;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Performance checks of {@link MonacoEditorView} against a live editor: scripted typing, deleting, scrolling
+ * and marker workloads, with limits on frame time (the longest interval between two pulses while a workload
+ * runs), bridge latency (95th percentile of the round-trip of a call until the page applied it) and heap
+ * growth across repeated rounds. Runs headless on Monocle without a display.
+ * <p>
+ * The limits, in milliseconds and megabytes, are the {@code perf.maxFrameMillis}, {@code perf.maxLatencyMillis}
+ * and {@code perf.maxHeapGrowthMB} system properties; {@code perf.size} sets the document size in characters
+ * and {@code perf.rounds} the number of rounds of the heap check. The pom passes its properties of the same
+ * names, so they can be set on the command line, e.g. {@code mvn verify -Dperf.maxLatencyMillis=50}. The
+ * defaults are regression tripwires for software rendering on a single-core CI machine, where the run takes
+ * about a minute; on hardware with a display the workloads are an order of magnitude faster.
+ */
+@EnabledIf("org.integratedmodelling.klabeditor.HeadlessFx#isAvailable")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class EditorPerformanceTest {
+
+    private static final double MAX_FRAME_MILLIS =
+            Double.parseDouble(System.getProperty("perf.maxFrameMillis", "2000"));
+    private static final double MAX_LATENCY_MILLIS =
+            Double.parseDouble(System.getProperty("perf.maxLatencyMillis", "1000"));
+    private static final long MAX_HEAP_GROWTH_MB = Long.getLong("perf.maxHeapGrowthMB", 64);
+    private static final int SIZE = Integer.getInteger("perf.size", 1 << 17);
+    private static final int ROUNDS = Integer.getInteger("perf.rounds", 3);
+
+    private interface Step {
+        void run(MonacoEditorView view, int i);
+    }
+
+    private record Result(String workload, double p50, double p95, double maxFrame) {}
+
+    private MonacoEditorView view;
+    private int lines;
+    private List<Marker> markers;
+
+    @BeforeAll
+    void openEditor() {
+        view = HeadlessFx.openEditor(HeadlessFx.document(SIZE), "java");
+        lines = view.getSnapshot().getLineCount();
+        markers = new ArrayList<>();
+        for (int line = 1; line <= lines && markers.size() < 5000; line += 2) {
+            markers.add(Marker.atLine(line, "Marker on line " + line, Marker.Severity.WARNING));
+        }
+    }
+
+    @AfterAll
+    void closeEditor() {
+        if (view != null) HeadlessFx.close(view);
+    }
+
+    @Test
+    @Order(1)
+    void whenReadyCompletesOnceTheEditorIsShownAgain() {
+        assertTrue(view.whenReady().isDone());
+        HeadlessFx.run(view::detach);
+        assertFalse(view.whenReady().isDone());
+        HeadlessFx.run(view::attach);
+        view.whenReady().orTimeout(2, TimeUnit.MINUTES).join();
+        HeadlessFx.barrier(view);
+        assertEquals(SIZE, view.getSnapshot().getLength());
+    }
+
+    @Test
+    @Order(2)
+    void typing() {
+        check(typing(view));
+    }
+
+    @Test
+    @Order(3)
+    void deleting() {
+        check(deleting(view));
+    }
+
+    @Test
+    @Order(4)
+    void scrolling() {
+        check(scrolling(view));
+    }
+
+    @Test
+    @Order(5)
+    void settingMarkers() {
+        check(settingMarkers(view));
+    }
+
+    @Test
+    @Order(6)
+    void heapDoesNotGrowAcrossRounds() {
+        // the first round warms up code and caches: growth is measured from its end
+        long baseline = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            typing(view);
+            deleting(view);
+            scrolling(view);
+            settingMarkers(view);
+            if (round == 0) baseline = usedHeapAfterGc();
+        }
+        long growth = usedHeapAfterGc() - baseline;
+        System.out.printf(Locale.ROOT, "heap growth over %d rounds: %d KB%n", ROUNDS - 1, growth >> 10);
+        assertTrue(growth <= MAX_HEAP_GROWTH_MB << 20,
+                "heap growth " + (growth >> 20) + " MB > " + MAX_HEAP_GROWTH_MB + " MB");
+    }
+
+    private Result typing(MonacoEditorView v) {
+        int middle = v.getSnapshot().getLineStart(lines / 2);
+        return workload("typing", v, 200, (e, i) -> e.replaceText(middle + i, 0, "x"));
+    }
+
+    // Deletes what typing inserted, so that the rounds of the heap check start from the same document
+    private Result deleting(MonacoEditorView v) {
+        int middle = v.getSnapshot().getLineStart(lines / 2);
+        return workload("deleting", v, 200, (e, i) -> e.replaceText(middle + 199 - i, 1, ""));
+    }
+
+    private Result scrolling(MonacoEditorView v) {
+        return workload("scrolling", v, 40, (e, i) -> e.revealLine(1 + (int) ((long) i * lines / 40)));
+    }
+
+    private Result settingMarkers(MonacoEditorView v) {
+        return workload("markers", v, 20,
+                (e, i) -> e.setMarkers("perf", i % 2 == 0 ? markers : markers.subList(0, markers.size() / 2)));
+    }
+
+    private static void check(Result r) {
+        System.out.printf(Locale.ROOT, "%-10s p50 %8.2f ms  p95 %8.2f ms  max frame %8.2f ms%n", r.workload(),
+                r.p50(), r.p95(), r.maxFrame());
+        assertAll(r.workload(),
+                () -> assertTrue(r.p95() <= MAX_LATENCY_MILLIS, String.format(Locale.ROOT,
+                        "p95 latency %.2f ms > %.2f ms", r.p95(), MAX_LATENCY_MILLIS)),
+                () -> assertTrue(r.maxFrame() <= MAX_FRAME_MILLIS, String.format(Locale.ROOT,
+                        "frame time %.2f ms > %.2f ms", r.maxFrame(), MAX_FRAME_MILLIS)));
+    }
+
+    // Runs the steps one after the other, each until the page has applied it, while recording the interval
+    // between pulses on the FX thread
+    private static Result workload(String name, MonacoEditorView view, int steps, Step step) {
+        FrameRecorder frames = new FrameRecorder();
+        HeadlessFx.run(frames::start);
+        long[] latencies = new long[steps];
+        for (int i = 0; i < steps; i++) {
+            long start = System.nanoTime();
+            step.run(view, i);
+            HeadlessFx.barrier(view);
+            latencies[i] = System.nanoTime() - start;
+        }
+        HeadlessFx.run(frames::stop);
+        Arrays.sort(latencies);
+        return new Result(name, latencies[steps / 2] / 1e6, latencies[Math.min(steps - 1, steps * 95 / 100)] / 1e6,
+                frames.maxInterval / 1e6);
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // Longest interval between two pulses; read after stop, on the FX thread or after joining it
+    private static final class FrameRecorder extends AnimationTimer {
+        private long last;
+        volatile long maxInterval;
+
+        @Override
+        public void handle(long now) {
+            if (last != 0) maxInterval = Math.max(maxInterval, now - last);
+            last = now;
+        }
+    }
+}
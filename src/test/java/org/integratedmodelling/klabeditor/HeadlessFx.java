@@ -0,0 +1,148 @@
+package org.integratedmodelling.klabeditor;
+
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JavaFX toolkit and editor setup shared by the tests that need a live editor and by the benchmarks, which
+ * get it from the test jar. On Linux without a display, or with {@code -Dheadless=true}, the toolkit runs on
+ * Monocle's headless glass with software rendering, so that both run on CI machines; {@code -Dheadless=false}
+ * keeps the desktop toolkit, e.g. under xvfb.
+ */
+final class HeadlessFx {
+
+    private static boolean started;
+
+    private HeadlessFx() {
+    }
+
+    /**
+     * Whether the toolkit can start: on the desktop, or headless with Monocle on the classpath. Tests that
+     * need a live editor are enabled by it.
+     */
+    static boolean isAvailable() {
+        if (!headless()) return true;
+        try {
+            Class.forName("com.sun.glass.ui.monocle.MonoclePlatformFactory", false, HeadlessFx.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static boolean headless() {
+        String headless = System.getProperty("headless");
+        boolean noDisplay = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("linux")
+                && System.getenv("DISPLAY") == null && System.getenv("WAYLAND_DISPLAY") == null;
+        return headless == null ? noDisplay : Boolean.parseBoolean(headless);
+    }
+
+    static synchronized void start() {
+        if (started) return;
+        if (headless()) {
+            System.setProperty("glass.platform", "Monocle");
+            System.setProperty("monocle.platform", "Headless");
+            System.setProperty("prism.order", "sw");
+            System.setProperty("prism.text", "t2k");
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            Platform.startup(latch::countDown);
+        } catch (IllegalStateException e) {
+            // already started by someone else
+            latch.countDown();
+        }
+        await(latch);
+        Platform.setImplicitExit(false);
+        started = true;
+    }
+
+    /**
+     * Run {@code task} on the FX thread and wait for its result.
+     */
+    static <T> T call(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        return result.join();
+    }
+
+    static void run(Runnable task) {
+        call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * A view shown in its own window, with its editor created and showing {@code text}: returns once
+     * {@link MonacoEditorView#whenReady()} has completed.
+     */
+    static MonacoEditorView openEditor(String text, String language) {
+        start();
+        MonacoEditorView view = call(() -> {
+            MonacoEditorView v = new MonacoEditorView();
+            Stage stage = new Stage();
+            stage.setScene(new Scene(v, 1024, 768));
+            stage.show();
+            v.loadEditor(text, language, "vs");
+            return v;
+        });
+        view.whenReady().orTimeout(5, TimeUnit.MINUTES).join();
+        barrier(view);
+        return view;
+    }
+
+    static void close(MonacoEditorView view) {
+        run(() -> {
+            if (view.getScene() != null && view.getScene().getWindow() instanceof Stage stage) stage.close();
+            view.detach();
+        });
+    }
+
+    /**
+     * Wait until the page has processed every call issued to {@code view} so far. A query is answered by the
+     * bridge only after the calls queued before it, so its round-trip is the end of the pipeline.
+     */
+    static void barrier(MonacoEditorView view) {
+        view.getCursorAsync().orTimeout(5, TimeUnit.MINUTES).join();
+    }
+
+    /**
+     * Java-like source of about {@code size} characters.
+     */
+    static String document(int size) {
+        StringBuilder sb = new StringBuilder(size + 80);
+        for (int i = 0; sb.length() < size; i++) {
+            switch (i % 4) {
+                case 0 -> sb.append("    public int value").append(i).append("(int x) {\n");
+                case 1 -> sb.append("        return x * ").append(i).append(" + \"text\".length(); // note\n");
+                case 2 -> sb.append("    }\n");
+                default -> sb.append('\n');
+            }
+        }
+        sb.setLength(size);
+        return sb.toString();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(1, TimeUnit.MINUTES)) throw new IllegalStateException("JavaFX did not start");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.integratedmodelling.klabeditor;
+
+import javafx.application.Platform;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIf;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@EnabledIf("org.integratedmodelling.klabeditor.HeadlessFx#isAvailable")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class JsCommandQueueTest {
+
+    private final List<String> scripts = new CopyOnWriteArrayList<>();
+
+    @BeforeAll
+    void startToolkit() {
+        HeadlessFx.start();
+    }
+
+    @Test
+    void commandsWaitUntilReady() {
+        scripts.clear();
+        JsCommandQueue queue = new JsCommandQueue(scripts::add, 16);
+        queue.submit("a;");
+        HeadlessFx.run(() -> {});
+        assertEquals(List.of(), scripts);
+        assertEquals(1, queue.getDepth());
+
+        queue.setReady(true);
+        HeadlessFx.run(() -> {});
+        assertEquals(List.of(commands("a;")), scripts);
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    void coalescedCommandTakesThePlaceOfTheOlderOneAtTheEnd() {
+        scripts.clear();
+        JsCommandQueue queue = new JsCommandQueue(scripts::add, 16);
+        queue.submit("k", "a;");
+        queue.submit(null, "b;");
+        queue.submit("k", "c;");
+        // e.g. the editor initialization, which must precede the calls made before the page was loaded
+        queue.submitFirst("init", () -> "init;");
+        queue.setReady(true);
+        HeadlessFx.run(() -> {});
+
+        assertEquals(List.of(commands("init;", "b;", "c;")), scripts);
+        JsCommandQueue.Statistics statistics = queue.getStatistics();
+        assertEquals(4, statistics.submitted());
+        assertEquals(1, statistics.coalesced());
+        assertEquals(1, statistics.flushes());
+        assertEquals(3, statistics.executed());
+    }
+
+    @Test
+    void fullQueueRejectsUnkeyedCommandsButNotKeyedOnes() throws InterruptedException {
+        scripts.clear();
+        JsCommandQueue queue = new JsCommandQueue(scripts::add, 2, null, 200);
+        queue.setReady(true);
+        CountDownLatch release = blockFxThread();
+        try {
+            queue.submit(null, "a;");
+            queue.submit(null, "b;");
+            IllegalStateException e = assertThrows(IllegalStateException.class, () -> queue.submit(null, "c;"));
+            assertTrue(e.getMessage().contains("depth 2"), e.getMessage());
+            assertEquals(1, queue.getStatistics().rejected());
+            // one pending command per key, so keyed commands never wait
+            queue.submit("markers:a", "d;");
+            queue.submit("text:a", "e;");
+            queue.submit("markers:a", "f;");
+            assertEquals(4, queue.getDepth());
+        } finally {
+            release.countDown();
+        }
+        HeadlessFx.run(() -> {});
+        assertEquals(List.of(commands("a;", "b;", "e;", "f;")), scripts);
+    }
+
+    @Test
+    void waitingSubmitterGoesOnOnceTheQueueIsFlushed() throws Exception {
+        scripts.clear();
+        JsCommandQueue queue = new JsCommandQueue(scripts::add, 1, null, TimeUnit.MINUTES.toMillis(1));
+        queue.setReady(true);
+        CountDownLatch release = blockFxThread();
+        CompletableFuture<Thread> submitter = new CompletableFuture<>();
+        CompletableFuture<Void> submitted;
+        try {
+            queue.submit(null, "a;");
+            submitted = CompletableFuture.runAsync(() -> {
+                submitter.complete(Thread.currentThread());
+                queue.submit(null, "b;");
+            });
+            Thread thread = submitter.get(10, TimeUnit.SECONDS);
+            while (thread.getState() != Thread.State.TIMED_WAITING) {
+                assertFalse(submitted.isDone());
+                Thread.onSpinWait();
+            }
+            assertEquals(1, queue.getDepth());
+        } finally {
+            release.countDown();
+        }
+        submitted.get(10, TimeUnit.SECONDS);
+        HeadlessFx.run(() -> {});
+        assertEquals(List.of(commands("a;"), commands("b;")), scripts);
+        assertEquals(0, queue.getStatistics().rejected());
+    }
+
+    // Occupy the FX thread until the returned latch is released, so that nothing is flushed meanwhile
+    private static CountDownLatch blockFxThread() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Platform.runLater(() -> {
+            blocked.countDown();
+            try {
+                release.await(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        return release;
+    }
+
+    // The script of one flush running the given commands
+    private static String commands(String... js) {
+        StringBuilder sb = new StringBuilder();
+        for (String command : js) sb.append("try{").append(command).append("}catch(e){console.error(e);}\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,69 @@
+package org.integratedmodelling.klabeditor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class JsStringTest {
+
+    @Test
+    void quotesPlainTextAsIs() {
+        assertEquals("\"plain text, é and 中\"", JsString.quote("plain text, é and 中"));
+        assertEquals("null", JsString.quote(null));
+        StringBuilder sb = new StringBuilder("f(");
+        JsString.quote("a", sb);
+        JsString.quote(null, sb.append(','));
+        assertEquals("f(\"a\",null", sb.toString());
+    }
+
+    @Test
+    void escapesQuotesBackslashesAndControlCharacters() {
+        assertEquals("\"a\\\"b\\\\c\\n\\r\\t\\b\\f\\u0000\\u001f\\u007f\"",
+                JsString.quote("a\"b\\c\n\r\t\b\f\u0000\u001f\u007f"));
+    }
+
+    @Test
+    void escapesLineSeparators() {
+        assertEquals("\"a\\u2028b\\u2029c\"", JsString.quote("a\u2028b\u2029c"));
+    }
+
+    @Test
+    void escapesLoneSurrogatesOnly() {
+        String pair = "\uD83D\uDE00";
+        assertEquals("\"" + pair + "\"", JsString.quote(pair));
+        assertEquals("\"\\ud83d!\"", JsString.quote("\uD83D!"));
+        assertEquals("\"!\\ude00\"", JsString.quote("!\uDE00"));
+        assertEquals("\"\\ude00\\ud83d\"", JsString.quote("\uDE00\uD83D"));
+        assertEquals("\"x\\ud83d\"", JsString.quote("x\uD83D"));
+    }
+
+    @Test
+    void escapesTheStartOfClosingTagsAndComments() {
+        assertEquals("\"\\u003c/script>\"", JsString.quote("</script>"));
+        assertEquals("\"\\u003c!-- a < b\"", JsString.quote("<!-- a < b"));
+        assertEquals("\"<\"", JsString.quote("<"));
+    }
+
+    @Test
+    void randomStringsSurviveTheRoundTrip() {
+        Random random = new Random(11);
+        String special = "\"\\\n\r\t\u0000\u007f\u2028\u2029<</!é\uD83D\uDE00";
+        for (int n = 0; n < 2000; n++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(64);
+            for (int i = 0; i < length; i++) {
+                sb.append(random.nextInt(4) == 0 ? (char) random.nextInt(0x10000)
+                        : special.charAt(random.nextInt(special.length())));
+            }
+            String s = sb.toString();
+            String literal = JsString.quote(s);
+            // every escape JsString writes is also a JSON escape
+            assertEquals(s, Json.parse(literal));
+            assertFalse(literal.contains("</") || literal.contains("<!"), literal);
+            assertFalse(literal.indexOf('\u2028') >= 0 || literal.indexOf('\u2029') >= 0, literal);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.integratedmodelling.klabeditor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JsonTest {
+
+    @Test
+    void parsesToMapsListsLongsAndDoubles() {
+        Map<String, Object> message = Json.parseObject(
+                " {\"jsonrpc\":\"2.0\", \"id\": 7, \"params\": {\"items\": [1, -2.5, 1e3, true, false, null]}}\n");
+        assertEquals(List.of("jsonrpc", "id", "params"), new ArrayList<>(message.keySet()));
+        assertEquals(7L, message.get("id"));
+        assertEquals(Arrays.asList(1L, -2.5, 1000.0, true, false, null),
+                Json.array(Json.object(message, "params"), "items"));
+    }
+
+    @Test
+    void largeIntegersBecomeDoubles() {
+        assertEquals(123456789012345678L, Json.parse("123456789012345678"));
+        assertEquals(1.2345678901234567e19, Json.parse("12345678901234567890"));
+    }
+
+    @Test
+    void decodesEscapes() {
+        assertEquals("a\"b\\c/d\n\r\t\b\f\u00e9\u2028", Json.parse("\"a\\\"b\\\\c\\/d\\n\\r\\t\\b\\f\\u00e9\\u2028\""));
+        assertEquals("plain", Json.parse("\"plain\""));
+    }
+
+    @Test
+    void writesWhatItReads() {
+        Map<String, Object> value = new LinkedHashMap<>();
+        value.put("text", "line\n\"quoted\"\t\u0001\u2028\u2029end");
+        value.put("numbers", List.of(1L, 2.5, -3L));
+        value.put("flag", true);
+        value.put("nothing", null);
+        String json = Json.write(value);
+        assertEquals("{\"text\":\"line\\n\\\"quoted\\\"\\t\\u0001\\u2028\\u2029end\",\"numbers\":[1,2.5,-3],"
+                + "\"flag\":true,\"nothing\":null}", json);
+        assertEquals(value, Json.parse(json));
+    }
+
+    @Test
+    void writesNonFiniteNumbersAsNull() {
+        assertEquals("[null,null]", Json.write(List.of(Double.NaN, Double.POSITIVE_INFINITY)));
+    }
+
+    @Test
+    void accessorsReturnNullOnMissingOrMistypedValues() {
+        Map<String, Object> message = Json.parseObject("{\"id\":\"x\",\"n\":3,\"o\":{},\"a\":[]}");
+        assertEquals("x", Json.string(message, "id"));
+        assertNull(Json.string(message, "n"));
+        assertEquals(3, Json.integer(message, "n", -1));
+        assertEquals(-1, Json.integer(message, "id", -1));
+        assertNull(Json.object(message, "a"));
+        assertNull(Json.array(message, "o"));
+        assertNull(Json.object("not a map", "o"));
+    }
+
+    @Test
+    void rejectsInvalidJson() {
+        for (String text : List.of("", "{", "{\"a\" 1}", "[1,]", "[1 2]", "tru", "\"open", "{\"a\":1} x", "\"\\q\"",
+                "-", "{1:2}")) {
+            assertThrows(IllegalArgumentException.class, () -> Json.parse(text), text);
+        }
+        assertThrows(IllegalArgumentException.class, () -> Json.parseObject("[]"));
+    }
+}
@@ -0,0 +1,158 @@
+package org.integratedmodelling.klabeditor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LineDiffTest {
+
+    @Test
+    void identicalTextsHaveNoChanges() {
+        assertTrue(LineDiff.compute("a\nb\nc", "a\nb\nc").identical());
+        // end-of-line sequences are not content
+        assertTrue(LineDiff.compute("a\r\nb\r\n", "a\nb\n").identical());
+        assertTrue(LineDiff.compute("", "").identical());
+    }
+
+    @Test
+    void changesAreOneBasedLineRanges() {
+        assertEquals(List.of(new LineDiff.Change(2, 3, 2, 3)),
+                LineDiff.compute("a\nb\nc", "a\nB\nc").changes());
+        // an insertion is an empty range of the original, a deletion an empty range of the modified text
+        assertEquals(List.of(new LineDiff.Change(2, 2, 2, 4)),
+                LineDiff.compute("a\nc", "a\nb1\nb2\nc").changes());
+        assertEquals(List.of(new LineDiff.Change(1, 2, 1, 1)),
+                LineDiff.compute("a\nb", "b").changes());
+        // a deletion next to an insertion is one change
+        assertEquals(List.of(new LineDiff.Change(2, 3, 2, 3)),
+                LineDiff.compute("a\nx\nc", "a\ny\nc").changes());
+    }
+
+    @Test
+    void randomDiffsAreMinimal() {
+        Random random = new Random(3);
+        for (int n = 0; n < 3000; n++) {
+            // few distinct lines, so that there are many ways to match them; a text has at least one line
+            List<String> original = randomLines(random, 1 + random.nextInt(40), 1 + random.nextInt(6));
+            List<String> modified = random.nextBoolean()
+                    ? randomLines(random, 1 + random.nextInt(40), 1 + random.nextInt(6))
+                    : edit(random, original, 1 + random.nextInt(8));
+            LineDiff.Result result = LineDiff.compute(String.join("\n", original), String.join("\n", modified));
+            assertFalse(result.quitEarly());
+            assertApplies(original, modified, result.changes());
+            assertEquals(original.size() + modified.size() - 2 * lcs(original, modified), cost(result.changes()),
+                    () -> original + " -> " + modified + ": " + result.changes());
+        }
+    }
+
+    @Test
+    void largeDiffsAreSplitOnUniqueLines() {
+        Random random = new Random(5);
+        List<String> original = new ArrayList<>();
+        for (int i = 0; i < 30_000; i++) original.add(i % 50 == 0 ? "}" : "line " + i);
+        List<String> modified = new ArrayList<>(original);
+        int edits = 0;
+        for (int i = 0; i < 300; i++) {
+            int at = random.nextInt(modified.size());
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    modified.remove(at);
+                    edits += 1;
+                }
+                case 1 -> {
+                    modified.add(at, "inserted " + i);
+                    edits += 1;
+                }
+                default -> {
+                    modified.set(at, "replaced " + i);
+                    edits += 2;
+                }
+            }
+        }
+        LineDiff.Result result = LineDiff.compute(String.join("\n", original), String.join("\n", modified));
+        assertFalse(result.quitEarly());
+        assertApplies(original, modified, result.changes());
+        assertTrue(cost(result.changes()) <= edits, cost(result.changes()) + " > " + edits);
+    }
+
+    @Test
+    void tooCostlyPiecesAreReplacedAsAWhole() {
+        List<String> original = new ArrayList<>();
+        List<String> modified = new ArrayList<>();
+        for (int i = 0; i < LineDiff.MAX_COST; i++) {
+            original.add("a" + i);
+            modified.add("b" + i);
+        }
+        original.add("end");
+        modified.add("end");
+        LineDiff.Result result = LineDiff.compute(String.join("\n", original), String.join("\n", modified));
+        assertTrue(result.quitEarly());
+        assertEquals(List.of(new LineDiff.Change(1, LineDiff.MAX_COST + 1, 1, LineDiff.MAX_COST + 1)),
+                result.changes());
+    }
+
+    // Replaying the changes on the original gives the modified lines, and the lines between changes are equal
+    private static void assertApplies(List<String> original, List<String> modified, List<LineDiff.Change> changes) {
+        List<String> replayed = new ArrayList<>();
+        int a = 0;
+        int b = 0;
+        for (LineDiff.Change c : changes) {
+            assertTrue(c.originalStart() - 1 >= a && c.modifiedStart() - 1 >= b, "changes out of order");
+            assertTrue(c.originalStart() < c.originalEnd() || c.modifiedStart() < c.modifiedEnd(), "empty change");
+            assertEquals(c.originalStart() - 1 - a, c.modifiedStart() - 1 - b, "unequal unchanged ranges");
+            replayed.addAll(original.subList(a, c.originalStart() - 1));
+            replayed.addAll(modified.subList(c.modifiedStart() - 1, c.modifiedEnd() - 1));
+            a = c.originalEnd() - 1;
+            b = c.modifiedEnd() - 1;
+        }
+        assertEquals(original.size() - a, modified.size() - b, "unequal unchanged ranges");
+        replayed.addAll(original.subList(a, original.size()));
+        assertEquals(modified, replayed);
+    }
+
+    private static int cost(List<LineDiff.Change> changes) {
+        int ret = 0;
+        for (LineDiff.Change c : changes) {
+            ret += (c.originalEnd() - c.originalStart()) + (c.modifiedEnd() - c.modifiedStart());
+        }
+        return ret;
+    }
+
+    // Length of the longest common subsequence, by dynamic programming
+    private static int lcs(List<String> x, List<String> y) {
+        int[][] table = new int[x.size() + 1][y.size() + 1];
+        for (int i = 1; i <= x.size(); i++) {
+            for (int j = 1; j <= y.size(); j++) {
+                table[i][j] = x.get(i - 1).equals(y.get(j - 1))
+                        ? table[i - 1][j - 1] + 1
+                        : Math.max(table[i - 1][j], table[i][j - 1]);
+            }
+        }
+        return table[x.size()][y.size()];
+    }
+
+    private static List<String> randomLines(Random random, int count, int distinct) {
+        List<String> ret = new ArrayList<>();
+        for (int i = 0; i < count; i++) ret.add("l" + random.nextInt(distinct));
+        return ret;
+    }
+
+    private static List<String> edit(Random random, List<String> lines, int edits) {
+        List<String> ret = new ArrayList<>(lines);
+        for (int i = 0; i < edits; i++) {
+            int at = random.nextInt(ret.size() + 1);
+            if (at < ret.size() && ret.size() > 1 && random.nextBoolean()) {
+                ret.remove(at);
+            } else {
+                ret.add(at, "l" + random.nextInt(8));
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,56 @@
+package org.integratedmodelling.klabeditor;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LspRelayServerTest {
+
+    @Test
+    void scansRequestsAndResponses() {
+        LspRelayServer.RpcHeader request = scan("{\"jsonrpc\":\"2.0\",\"id\":12,\"method\":\"textDocument/hover\","
+                + "\"params\":{\"id\":99,\"method\":\"nested\",\"textDocument\":{\"uri\":\"file:///a\"}}}");
+        assertEquals("12", request.id());
+        assertEquals("textDocument/hover", request.method());
+        assertFalse(request.error());
+
+        LspRelayServer.RpcHeader response = scan("{ \"id\" : \"abc\", \"error\" : {\"code\": -32601} }");
+        assertEquals("\"abc\"", response.id());
+        assertNull(response.method());
+        assertTrue(response.error());
+        assertFalse(scan("{\"id\":1,\"result\":null,\"error\":null}").error());
+    }
+
+    @Test
+    void scansTextDocumentNotifications() {
+        LspRelayServer.RpcHeader open = scan("{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didOpen\",\"params\":"
+                + "{\"textDocument\":{\"uri\":\"file:///a.kim\",\"languageId\":\"kim\",\"version\":1,"
+                + "\"text\":\"\\\"uri\\\": \\\"range\\\" [{\"}}}");
+        assertEquals("textDocument/didOpen", open.method());
+        assertEquals("file:///a.kim", open.uri());
+        assertEquals(0, open.changes());
+        assertFalse(open.ranged());
+
+        LspRelayServer.RpcHeader full = scan("{\"method\":\"textDocument/didChange\",\"params\":{\"textDocument\":"
+                + "{\"uri\":\"file:///a.kim\",\"version\":2},\"contentChanges\":[{\"text\":\"range\"}]}}");
+        assertEquals("file:///a.kim", full.uri());
+        assertEquals(1, full.changes());
+        assertFalse(full.ranged());
+
+        LspRelayServer.RpcHeader incremental = scan("{\"method\":\"textDocument/didChange\",\"params\":"
+                + "{\"contentChanges\":[{\"text\":\"x\"},{\"range\":{\"start\":{\"line\":0,\"character\":0},"
+                + "\"end\":{\"line\":0,\"character\":1}},\"text\":\"y\"}],\"textDocument\":{\"uri\":\"file:///b\"}}}");
+        assertEquals("file:///b", incremental.uri());
+        assertEquals(2, incremental.changes());
+        assertTrue(incremental.ranged());
+    }
+
+    private static LspRelayServer.RpcHeader scan(String message) {
+        return LspRelayServer.RpcHeader.scan(message.getBytes(StandardCharsets.UTF_8));
+    }
+}
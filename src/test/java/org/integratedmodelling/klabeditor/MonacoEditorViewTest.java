@@ -0,0 +1,92 @@
+package org.integratedmodelling.klabeditor;
+
+import javafx.application.Platform;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIf;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@EnabledIf("org.integratedmodelling.klabeditor.HeadlessFx#isAvailable")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class MonacoEditorViewTest {
+
+    private static final String TEXT = "double t = temperature;\nt = temperature * 2; // temperature\n";
+
+    private MonacoEditorView view;
+
+    @BeforeAll
+    void openEditor() {
+        view = HeadlessFx.openEditor(TEXT, "java");
+    }
+
+    @AfterAll
+    void closeEditor() {
+        if (view != null) HeadlessFx.close(view);
+    }
+
+    @Test
+    void replaceAllWhileDetachedIsMadeOnTheFxThreadOnceAttached() {
+        HeadlessFx.run(() -> view.setText(TEXT));
+        HeadlessFx.barrier(view);
+        HeadlessFx.run(view::detach);
+        long submitted = view.getQueueStatistics().submitted();
+        CompletableFuture<Integer> replaced = view.replaceAll("temperature", "temp",
+                new TextSearch.Options(false, true, false, Integer.MAX_VALUE));
+        CompletableFuture<Boolean> onFxThread = replaced.thenApply(n -> Platform.isFxApplicationThread());
+        // the edits are found in the background, then queued until the editor is attached
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (view.getQueueStatistics().submitted() == submitted) {
+            assertTrue(System.nanoTime() < deadline, "replacement never queued");
+            Thread.onSpinWait();
+        }
+        HeadlessFx.run(() -> {});
+        assertFalse(replaced.isDone());
+        assertTrue(view.getQueueStatistics().depth() > 0);
+        assertEquals(TEXT, view.getSnapshot().getText());
+
+        HeadlessFx.run(view::attach);
+        view.whenReady().orTimeout(2, TimeUnit.MINUTES).join();
+        assertEquals(3, replaced.orTimeout(1, TimeUnit.MINUTES).join());
+        assertTrue(onFxThread.join());
+        assertEquals(TEXT.replace("temperature", "temp"), view.getSnapshot().getText());
+        assertTrue(view.isDirty());
+    }
+
+    @Test
+    void replaceTextWhileDetachedUsesTheLineBreaksOfTheModel() {
+        String uri = "file:///crlf.txt";
+        String previous = view.getActiveModelUri();
+        HeadlessFx.run(() -> {
+            view.openModel(uri, "a\r\nb\r\n", "plaintext");
+            view.switchTo(uri);
+        });
+        HeadlessFx.barrier(view);
+        assertFalse(view.isDirty(uri));
+        try {
+            HeadlessFx.run(() -> {
+                view.detach();
+                view.replaceText(0, 0, "x\ny\n");
+            });
+            assertEquals("x\r\ny\r\na\r\nb\r\n", view.getSnapshot(uri).getText());
+            assertTrue(view.isDirty(uri));
+
+            HeadlessFx.run(view::attach);
+            view.whenReady().orTimeout(2, TimeUnit.MINUTES).join();
+            assertEquals("x\r\ny\r\na\r\nb\r\n", view.getTextAsync().orTimeout(1, TimeUnit.MINUTES).join());
+        } finally {
+            HeadlessFx.run(() -> {
+                if (!view.isAttached()) view.attach();
+                view.switchTo(previous);
+                view.closeModel(uri);
+            });
+        }
+    }
+}
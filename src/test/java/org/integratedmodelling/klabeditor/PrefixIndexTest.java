@@ -0,0 +1,82 @@
+package org.integratedmodelling.klabeditor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrefixIndexTest {
+
+    private static final PrefixIndex INDEX = new PrefixIndex(items("Temperature", "temp", "TemperatureAnomaly",
+            "Tempo", "Elevation", "ElevationModel", "Precipitation", "AirTemperature", "tmp_total"));
+
+    @Test
+    void ranksExactMatchThenLengthThenCase() {
+        assertEquals(List.of("temp", "Tempo", "Temperature", "TemperatureAnomaly"),
+                labels(INDEX.search("temp", () -> false)));
+        // among keys of the same length, the one with the typed case wins
+        assertEquals(List.of("Tempo", "tempo"), labels(new PrefixIndex(items("tempo", "Tempo",
+                "Temperature"), 2).search("Temp", () -> false)));
+    }
+
+    @Test
+    void fillsTheLimitWithFuzzyMatchesSharingTheFirstCharacter() {
+        assertEquals(List.of("ElevationModel"), labels(INDEX.search("elmo", () -> false)));
+        // prefix matches come before fuzzy ones
+        List<String> tm = labels(INDEX.search("tm", () -> false));
+        assertEquals("tmp_total", tm.get(0));
+        assertEquals(5, tm.size());
+        // word starts count: "tt" picks t_t over letters in the middle of a word
+        assertEquals("tmp_total", labels(INDEX.search("tt", () -> false)).get(0));
+    }
+
+    @Test
+    void truncatedResultsAreIncomplete() {
+        List<CompletionProvider.Item> many = new ArrayList<>();
+        for (int i = 0; i < 500; i++) many.add(CompletionProvider.Item.of("value" + i, "Field"));
+        PrefixIndex index = new PrefixIndex(many, 10);
+        CompletionProvider.Result result = index.search("value", () -> false);
+        assertEquals(10, result.items().size());
+        assertTrue(result.incomplete());
+        // the shortest keys come first, in alphabetical order
+        assertEquals("value0", result.items().get(0).label());
+        assertEquals("value9", result.items().get(9).label());
+
+        CompletionProvider.Result all = INDEX.search("Elev", () -> false);
+        assertEquals(List.of("Elevation", "ElevationModel"), labels(all));
+        assertFalse(all.incomplete());
+
+        assertTrue(index.search("", () -> false).incomplete());
+        assertFalse(new PrefixIndex(many.subList(0, 5), 10).search("", () -> false).incomplete());
+    }
+
+    @Test
+    void cancelledSearchIsEmpty() {
+        List<CompletionProvider.Item> many = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) many.add(CompletionProvider.Item.of("item" + i, null));
+        assertSame(CompletionProvider.Result.EMPTY, new PrefixIndex(many).search("item", () -> true));
+    }
+
+    @Test
+    void answersContextsWithoutBlocking() throws Exception {
+        assertTrue(INDEX.isNonBlocking());
+        CompletionProvider.Context context = new CompletionProvider.Context("inmemory://a", null, 1, 5,
+                "Elev", () -> false);
+        assertEquals(List.of("Elevation", "ElevationModel"), labels(INDEX.complete(context)));
+    }
+
+    private static List<CompletionProvider.Item> items(String... labels) {
+        List<CompletionProvider.Item> ret = new ArrayList<>();
+        for (String label : labels) ret.add(CompletionProvider.Item.of(label, "Class"));
+        return ret;
+    }
+
+    private static List<String> labels(CompletionProvider.Result result) {
+        return result.items().stream().map(CompletionProvider.Item::label).toList();
+    }
+}
@@ -0,0 +1,125 @@
+package org.integratedmodelling.klabeditor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SavePipelineTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void savesWaitingForTheSameTargetAreCoalesced() throws Exception {
+        SavePipeline pipeline = new SavePipeline();
+        List<String> written = new CopyOnWriteArrayList<>();
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SavePipeline.Sink sink = snapshot -> {
+            writing.countDown();
+            try {
+                assertTrue(release.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            written.add(snapshot.getText());
+        };
+        CompletableFuture<Boolean> first = pipeline.save("a", snapshot("v1"), sink);
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+        // v1 is being written: the next saves wait, each replacing the one before
+        CompletableFuture<Boolean> second = pipeline.save("a", snapshot("v2"), sink);
+        CompletableFuture<Boolean> third = pipeline.save("a", snapshot("v3"), sink);
+        CompletableFuture<Boolean> fourth = pipeline.save("a", snapshot("v4"), sink);
+        assertNotSame(first, second);
+        assertSame(second, third);
+        assertSame(second, fourth);
+        release.countDown();
+        assertTrue(first.get(10, TimeUnit.SECONDS));
+        assertTrue(fourth.get(10, TimeUnit.SECONDS));
+        assertEquals(List.of("v1", "v4"), written);
+    }
+
+    @Test
+    void unchangedContentIsNotWrittenAgain() throws Exception {
+        SavePipeline pipeline = new SavePipeline();
+        List<String> written = new CopyOnWriteArrayList<>();
+        SavePipeline.Sink sink = snapshot -> written.add(snapshot.getText());
+        assertTrue(pipeline.save("a", snapshot("same"), sink).get(10, TimeUnit.SECONDS));
+        assertFalse(pipeline.save("a", snapshot("same"), sink).get(10, TimeUnit.SECONDS));
+        assertTrue(pipeline.save("a", snapshot("other"), sink).get(10, TimeUnit.SECONDS));
+        // targets are independent
+        assertTrue(pipeline.save("b", snapshot("same"), sink).get(10, TimeUnit.SECONDS));
+        // content known to be in the target, e.g. the file a document was read from
+        pipeline.saved("c", snapshot("loaded"));
+        assertFalse(pipeline.save("c", snapshot("loaded"), sink).get(10, TimeUnit.SECONDS));
+        assertEquals(List.of("same", "other", "same"), written);
+    }
+
+    @Test
+    void failedWriteIsRetriedOnTheNextSave() throws Exception {
+        SavePipeline pipeline = new SavePipeline();
+        CompletableFuture<Boolean> failed = pipeline.save("a", snapshot("x"), snapshot -> {
+            throw new IOException("disk full");
+        });
+        CompletionException e = assertThrows(CompletionException.class, failed::join);
+        assertInstanceOf(IOException.class, e.getCause());
+        assertTrue(pipeline.save("a", snapshot("x"), snapshot -> {}).get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void fileSinkReplacesTheFileAtomically() throws Exception {
+        Path file = dir.resolve("model.kim");
+        Files.writeString(file, "old content");
+        boolean posix = Files.getFileStore(file).supportsFileAttributeView("posix");
+        if (posix) Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-r-----"));
+        // more than one chunk of characters, with some that take several bytes
+        String text = "é中😀 line\n".repeat(150_000);
+        SavePipeline.Sink sink = SavePipeline.file(file, StandardCharsets.UTF_8);
+        assertTrue(new SavePipeline().save(file, snapshot(text), sink).get(30, TimeUnit.SECONDS));
+        assertEquals(text, Files.readString(file));
+        if (posix) assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+        assertEquals(List.of(file), list());
+    }
+
+    @Test
+    void unencodableTextFailsTheSaveAndKeepsTheFile() throws Exception {
+        Path file = dir.resolve("model.kim");
+        Files.writeString(file, "old content");
+        SavePipeline.Sink sink = SavePipeline.file(file, StandardCharsets.US_ASCII);
+        CompletableFuture<Boolean> result = new SavePipeline().save(file, snapshot("temperature in °C"), sink);
+        CompletionException e = assertThrows(CompletionException.class, result::join);
+        assertInstanceOf(IOException.class, e.getCause());
+        assertEquals("old content", Files.readString(file));
+        assertEquals(List.of(file), list());
+    }
+
+    private static TextDocument.Snapshot snapshot(String text) {
+        return new TextDocument(text).snapshot();
+    }
+
+    private List<Path> list() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.toList();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.integratedmodelling.klabeditor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void statesSurviveReopeningAndRemovals() throws IOException {
+        Path file = dir.resolve("sessions/views.bin");
+        try (SessionStore store = SessionStore.open(file)) {
+            store.put("file:///a", 1, 10, "{\"a\":1}");
+            store.put("file:///b", 2, 20, "{\"b\":1}");
+            store.put("file:///a", 3, 30, "{\"a\":2}");
+            store.put("file:///c", 4, 40, "{\"c\":\"é\"}");
+            store.remove("file:///b");
+        }
+        try (SessionStore store = SessionStore.open(file)) {
+            assertEquals("{\"a\":2}", store.get("file:///a", 3, 30).viewState());
+            assertEquals("{\"c\":\"é\"}", store.get("file:///c", 4, 40).viewState());
+            assertFalse(store.contains("file:///b"));
+            assertNull(store.get("file:///b", 2, 20));
+        }
+    }
+
+    @Test
+    void stateIsOnlyGivenBackForTheSameContent() throws IOException {
+        Path file = dir.resolve("views.bin");
+        try (SessionStore store = SessionStore.open(file)) {
+            store.put("file:///a", 42, 100, "{}");
+            assertEquals(42, store.get("file:///a", 42, 100).contentHash());
+            assertNull(store.get("file:///a", 43, 100));
+            assertNull(store.get("file:///a", 42, 101));
+        }
+        try (SessionStore store = SessionStore.open(file)) {
+            assertTrue(store.contains("file:///a"));
+            assertNull(store.get("file:///a", 43, 100));
+            assertEquals("{}", store.get("file:///a", 42, 100).viewState());
+        }
+    }
+
+    @Test
+    void recordCutShortIsDropped() throws IOException {
+        Path file = dir.resolve("views.bin");
+        long intact;
+        try (SessionStore store = SessionStore.open(file)) {
+            store.put("file:///a", 1, 1, "{\"a\":1}");
+            store.put("file:///b", 2, 2, "{\"b\":1}");
+            intact = Files.size(file);
+            store.put("file:///c", 3, 3, "{\"c\":1}");
+        }
+        // a crash while writing the last record leaves only part of it
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(file) - 5);
+        }
+        try (SessionStore store = SessionStore.open(file)) {
+            assertEquals(intact, Files.size(file));
+            assertEquals("{\"b\":1}", store.get("file:///b", 2, 2).viewState());
+            assertFalse(store.contains("file:///c"));
+            store.put("file:///c", 3, 3, "{\"c\":2}");
+        }
+        try (SessionStore store = SessionStore.open(file)) {
+            assertEquals("{\"a\":1}", store.get("file:///a", 1, 1).viewState());
+            assertEquals("{\"c\":2}", store.get("file:///c", 3, 3).viewState());
+        }
+    }
+
+    @Test
+    void unreadableFileStartsOver() throws IOException {
+        Path file = dir.resolve("views.bin");
+        Files.write(file, "not a session store".getBytes(StandardCharsets.UTF_8));
+        try (SessionStore store = SessionStore.open(file)) {
+            assertFalse(store.contains("file:///a"));
+            store.put("file:///a", 1, 1, "{}");
+        }
+        try (SessionStore store = SessionStore.open(file)) {
+            assertEquals("{}", store.get("file:///a", 1, 1).viewState());
+        }
+    }
+
+    @Test
+    void supersededRecordsAreCompactedAway() throws IOException {
+        Path file = dir.resolve("views.bin");
+        String padding = "x".repeat(1000);
+        long live;
+        try (SessionStore store = SessionStore.open(file)) {
+            store.put("file:///kept", 7, 7, "{\"kept\":true}");
+            store.put("file:///gone", 8, 8, padding);
+            for (int i = 0; i < 200; i++) {
+                store.put("file:///a", i, i, "{\"i\":" + i + ",\"p\":\"" + padding + "\"}");
+            }
+            store.remove("file:///gone");
+            assertTrue(Files.size(file) > 200_000);
+            store.compact();
+            live = Files.size(file);
+            assertTrue(live < 2_000, "compacted to " + live + " bytes");
+            // the store stays usable after compacting
+            store.put("file:///b", 9, 9, "{}");
+        }
+        try (SessionStore store = SessionStore.open(file)) {
+            assertEquals("{\"kept\":true}", store.get("file:///kept", 7, 7).viewState());
+            assertTrue(store.get("file:///a", 199, 199).viewState().startsWith("{\"i\":199,"));
+            assertEquals("{}", store.get("file:///b", 9, 9).viewState());
+            assertFalse(store.contains("file:///gone"));
+        }
+        assertFalse(Files.exists(dir.resolve("views.bin.tmp")));
+    }
+
+    @Test
+    void closeCompactsWhenMostOfTheLogIsSuperseded() throws IOException {
+        Path file = dir.resolve("views.bin");
+        String padding = "y".repeat(1000);
+        try (SessionStore store = SessionStore.open(file)) {
+            for (int i = 0; i < 100; i++) store.put("file:///a", i, i, padding + i);
+            assertTrue(Files.size(file) > 100_000);
+        }
+        assertTrue(Files.size(file) < 2_000, "compacted to " + Files.size(file) + " bytes");
+        try (SessionStore store = SessionStore.open(file)) {
+            assertEquals(padding + 99, store.get("file:///a", 99, 99).viewState());
+        }
+    }
+
+    @Test
+    void closedStoreRefusesCalls() throws IOException {
+        SessionStore store = SessionStore.open(dir.resolve("views.bin"));
+        store.put("file:///a", 1, 1, "{}");
+        store.close();
+        // closing again does nothing
+        store.close();
+        assertThrows(IllegalStateException.class, () -> store.put("file:///a", 2, 2, "{}"));
+        assertThrows(IllegalStateException.class, () -> store.put("file:///b", 1, 1, "{}"));
+        assertThrows(IllegalStateException.class, () -> store.remove("file:///a"));
+        assertThrows(IllegalStateException.class, () -> store.get("file:///a", 1, 1));
+        assertThrows(IllegalStateException.class, store::compact);
+    }
+}
@@ -0,0 +1,147 @@
+package org.integratedmodelling.klabeditor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TextDocumentTest {
+
+    @Test
+    void randomEditsMatchAStringBuilder() {
+        Random random = new Random(42);
+        TextDocument doc = new TextDocument();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            int offset = random.nextInt(expected.length() + 1);
+            int length = random.nextInt(Math.min(expected.length() - offset, 200) + 1);
+            String text = randomText(random, random.nextInt(300));
+            doc.replace(offset, length, text);
+            expected.replace(offset, offset + length, text);
+            if (i % 250 == 0) assertSameText(expected.toString(), doc.snapshot());
+        }
+        assertSameText(expected.toString(), doc.snapshot());
+    }
+
+    @Test
+    void largeTextIsSplitIntoLeaves() {
+        String text = randomText(new Random(7), 200_000);
+        TextDocument doc = new TextDocument(text);
+        assertSameText(text, doc.snapshot());
+        doc.insert(100_000, "middle\n");
+        doc.delete(0, 10);
+        String expected = text.substring(10, 100_000) + "middle\n" + text.substring(100_000);
+        assertSameText(expected, doc.snapshot());
+    }
+
+    @Test
+    void snapshotsAreUnaffectedByLaterEdits() {
+        TextDocument doc = new TextDocument("one\ntwo\nthree");
+        TextDocument.Snapshot before = doc.snapshot();
+        assertSame(before, doc.snapshot());
+        doc.replace(4, 3, "2");
+        doc.append("\nfour");
+        assertEquals("one\ntwo\nthree", before.getText());
+        assertEquals(3, before.getLineCount());
+        assertEquals("one\n2\nthree\nfour", doc.getText());
+        assertEquals(before.getVersion() + 2, doc.getVersion());
+    }
+
+    @Test
+    void emptyEditDoesNotChangeTheVersion() {
+        TextDocument doc = new TextDocument("abc");
+        TextDocument.Snapshot before = doc.snapshot();
+        doc.replace(1, 0, "");
+        assertSame(before, doc.snapshot());
+    }
+
+    @Test
+    void lineIndexFollowsMonaco() {
+        TextDocument doc = new TextDocument("ab\r\ncd\n\nef");
+        assertEquals(4, doc.getLineCount());
+        assertEquals(0, doc.getLineStart(1));
+        assertEquals(4, doc.getLineStart(2));
+        assertEquals(2, doc.getLineLength(1));
+        assertEquals("ab", doc.getLineContent(1));
+        assertEquals("", doc.getLineContent(3));
+        assertEquals("ef", doc.getLineContent(4));
+        // out of range line numbers and columns are clamped, as in Monaco
+        assertEquals(0, doc.getLineStart(0));
+        assertEquals(doc.getLineStart(4), doc.getLineStart(99));
+        assertEquals(6, doc.getOffsetAt(2, 99));
+        assertEquals(new TextDocument.Position(2, 3), doc.getPositionAt(6));
+        assertEquals(new TextDocument.Position(4, 3), doc.getPositionAt(1000));
+    }
+
+    @Test
+    void outOfRangeEditsAreRejected() {
+        TextDocument doc = new TextDocument("abc");
+        assertThrows(IndexOutOfBoundsException.class, () -> doc.replace(2, 2, "x"));
+        assertThrows(IndexOutOfBoundsException.class, () -> doc.insert(-1, "x"));
+        assertThrows(IndexOutOfBoundsException.class, () -> doc.getText(1, 3));
+        assertThrows(IndexOutOfBoundsException.class, () -> doc.charAt(3));
+        assertEquals("abc", doc.getText());
+    }
+
+    @Test
+    void contentHashDependsOnContentOnly() {
+        String text = randomText(new Random(3), 50_000);
+        TextDocument built = new TextDocument(text);
+        TextDocument edited = new TextDocument();
+        for (int i = 0; i < text.length(); i += 777) {
+            edited.append(text.substring(i, Math.min(text.length(), i + 777)));
+        }
+        assertEquals(built.snapshot().contentHash(), edited.snapshot().contentHash());
+        edited.replace(25_000, 1, text.charAt(25_000) == 'x' ? "y" : "x");
+        assertNotEquals(built.snapshot().contentHash(), edited.snapshot().contentHash());
+        assertNotEquals(new TextDocument("ab").snapshot().contentHash(),
+                new TextDocument("ba").snapshot().contentHash());
+    }
+
+    @Test
+    void detectsAndNormalizesLineBreaks() {
+        assertEquals("\n", TextDocument.detectEol("no breaks"));
+        assertEquals("\r\n", TextDocument.detectEol("a\r\nb\r\nc\n"));
+        assertEquals("\n", TextDocument.detectEol("a\r\nb\nc\n"));
+        assertEquals("a\nb\nc\nd", TextDocument.normalizeEol("a\r\nb\rc\nd", "\n"));
+        assertEquals("a\r\nb\r\nc\r\nd", TextDocument.normalizeEol("a\r\nb\rc\nd", "\r\n"));
+        String unchanged = "a\nb";
+        assertSame(unchanged, TextDocument.normalizeEol(unchanged, "\n"));
+    }
+
+    // Compares every read of the snapshot with the same read of the expected text
+    private static void assertSameText(String expected, TextDocument.Snapshot snapshot) {
+        assertEquals(expected.length(), snapshot.getLength());
+        assertEquals(expected, snapshot.getText());
+        String[] lines = expected.split("\n", -1);
+        assertEquals(lines.length, snapshot.getLineCount());
+        int start = 0;
+        for (int i = 0; i < lines.length; i++) {
+            int line = i + 1;
+            // a '\r' before the line break is not part of the line
+            boolean cr = line < lines.length && lines[i].endsWith("\r");
+            String content = cr ? lines[i].substring(0, lines[i].length() - 1) : lines[i];
+            assertEquals(start, snapshot.getLineStart(line), "start of line " + line);
+            assertEquals(content, snapshot.getLineContent(line), "content of line " + line);
+            assertEquals(new TextDocument.Position(line, 1), snapshot.getPositionAt(start));
+            assertEquals(start, snapshot.getOffsetAt(line, 1));
+            start += lines[i].length() + 1;
+        }
+        if (!expected.isEmpty()) {
+            int offset = expected.length() / 2;
+            assertEquals(expected.charAt(offset), snapshot.charAt(offset));
+            assertEquals(expected.substring(offset / 2, offset), snapshot.getText(offset / 2, offset - offset / 2));
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        String alphabet = "abcdefghij  \n\n\r\té中";
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,182 @@
+package org.integratedmodelling.klabeditor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextSearchTest {
+
+    private static final TextSearch.Options LITERAL = TextSearch.Options.DEFAULT;
+    private static final TextSearch.Options MATCH_CASE = new TextSearch.Options(false, true, false, Integer.MAX_VALUE);
+    private static final TextSearch.Options WHOLE_WORD = new TextSearch.Options(false, true, true, Integer.MAX_VALUE);
+    private static final TextSearch.Options REGEX = new TextSearch.Options(true, true, false, Integer.MAX_VALUE);
+
+    // Lines of 64 characters, each starting with "omega" and ending with "alpha", over several chunks
+    private static final int LINES = 3 * TextSearch.CHUNK / 64 + 100;
+    private static final String LARGE = large();
+
+    @Test
+    void literalQueriesIgnoreCaseUnlessAsked() {
+        String text = "Temp temp TEMP";
+        assertEquals(List.of(new TextSearch.Match(0, 4), new TextSearch.Match(5, 4), new TextSearch.Match(10, 4)),
+                search(text, "temp", LITERAL));
+        assertEquals(List.of(new TextSearch.Match(5, 4)), search(text, "temp", MATCH_CASE));
+        // regular expression syntax is literal
+        assertEquals(List.of(new TextSearch.Match(2, 3)), search("a a.b aab", "a.b", LITERAL));
+    }
+
+    @Test
+    void wholeWordsEndAtSeparators() {
+        String text = "temp temperature tmp_temp (temp) temp.x";
+        assertEquals(List.of(new TextSearch.Match(0, 4), new TextSearch.Match(27, 4), new TextSearch.Match(33, 4)),
+                search(text, "temp", WHOLE_WORD));
+        // an end of the match that is a separator is a word end
+        assertEquals(List.of(new TextSearch.Match(26, 5)), search(text, "(temp", WHOLE_WORD));
+        assertEquals(List.of(), search("atemp", "temp", WHOLE_WORD));
+    }
+
+    @Test
+    void lineAnchorsMatchAtLineBreaks() {
+        String text = "foo bar\nfoo\r\nbar foo\nfoo";
+        assertEquals(List.of(new TextSearch.Match(0, 3), new TextSearch.Match(8, 3), new TextSearch.Match(21, 3)),
+                search(text, "^foo", REGEX));
+        assertEquals(List.of(new TextSearch.Match(8, 3), new TextSearch.Match(17, 3), new TextSearch.Match(21, 3)),
+                search(text, "foo$", REGEX));
+        assertEquals(List.of(new TextSearch.Match(8, 3), new TextSearch.Match(21, 3)), search(text, "^foo$", REGEX));
+    }
+
+    @Test
+    void emptyMatchesAreSkipped() {
+        assertEquals(List.of(new TextSearch.Match(1, 2), new TextSearch.Match(4, 1)), search("axxbx", "x*", REGEX));
+        assertEquals(List.of(), search("abc", "", LITERAL));
+    }
+
+    @Test
+    void invalidRegularExpressionFails() {
+        CompletionException e = assertThrows(CompletionException.class,
+                () -> TextSearch.search(snapshot("abc"), "(", REGEX, batch -> {}).join());
+        assertInstanceOf(PatternSyntaxException.class, e.getCause());
+    }
+
+    @Test
+    void searchStopsAtMaxMatches() {
+        TextSearch.Result result = TextSearch.search(snapshot(LARGE), "omega",
+                new TextSearch.Options(false, true, false, 10), batch -> {}).join();
+        assertEquals(10, result.matches());
+        assertTrue(result.limitHit());
+        assertFalse(TextSearch.search(snapshot("omega"), "omega", LITERAL, batch -> {}).join().limitHit());
+    }
+
+    @Test
+    void matchesAreFoundInEveryChunk() {
+        assertTrue(LARGE.length() > 3 * TextSearch.CHUNK);
+        List<TextSearch.Match> starts = search(LARGE, "^omega", REGEX);
+        List<TextSearch.Match> ends = search(LARGE, "alpha$", REGEX);
+        List<TextSearch.Match> words = search(LARGE, "temp", WHOLE_WORD);
+        assertEquals(LINES, starts.size());
+        assertEquals(LINES, ends.size());
+        assertEquals(LINES, words.size());
+        for (int line = 0; line < LINES; line++) {
+            int start = line * 64;
+            assertEquals(new TextSearch.Match(start, 5), starts.get(line));
+            assertEquals(new TextSearch.Match(start + 58, 5), ends.get(line));
+            assertEquals(new TextSearch.Match(LARGE.indexOf(" temp ", start) + 1, 4), words.get(line));
+        }
+        // "temperature", "temp" and "tmp_temp" on every line
+        assertEquals(3 * LINES, search(LARGE, "temp", MATCH_CASE).size());
+    }
+
+    @Test
+    void queriesAcrossLinesSearchTheWholeText() {
+        List<TextSearch.Match> literal = search(LARGE, "alpha\nomega", MATCH_CASE);
+        List<TextSearch.Match> regex = search(LARGE, "alpha\\nomega", REGEX);
+        assertEquals(LINES - 1, literal.size());
+        assertEquals(literal, regex);
+        for (int line = 0; line < LINES - 1; line++) {
+            assertEquals(new TextSearch.Match(line * 64 + 58, 11), literal.get(line));
+        }
+    }
+
+    @Test
+    void replacementsReferToGroups() {
+        String text = "value = 1; other = 22;";
+        assertEquals("<1>; <22>;", replace(text, "\\w+ = (\\d+)", "<$1>", REGEX));
+        assertEquals("[value = 1;] [other = 22;]", replace(text, "\\w+ = \\d+;", "[$&]", REGEX));
+        assertEquals("1=value; 22=other;", replace(text, "(?<k>\\w+) = (?<v>\\d+)", "${v}=${k}", REGEX));
+        // a literal replacement is used as is
+        assertEquals("$1 = 1; other = 22;", replace(text, "value", "$1", MATCH_CASE));
+        assertEquals(" = 1;  = 22;", replace(text, "\\w+(?= =)", null, REGEX));
+    }
+
+    @Test
+    void regexReplacementsFollowMonaco() {
+        assertEquals("a\nb", replace("x", "x", "a\\nb", REGEX));
+        assertEquals("a\tb", replace("x", "x", "a\\tb", REGEX));
+        assertEquals("C:\\dir", replace("x", "x", "C:\\\\dir", REGEX));
+        // any other backslash is kept, with the character after it
+        assertEquals("C:\\dir", replace("x", "x", "C:\\dir", REGEX));
+        assertEquals("\\$1", replace("x", "(x)", "\\$1", REGEX));
+        assertEquals("$5", replace("x", "x", "$$5", REGEX));
+        assertEquals("[x]", replace("x", "x", "[$0]", REGEX));
+        // groups that do not exist: $12 is the first group and 2, $5 and ${name} are kept
+        assertEquals("x2", replace("x", "(x)", "$12", REGEX));
+        assertEquals("$5 ${name}", replace("x", "x", "$5 ${name}", REGEX));
+        assertEquals("$", replace("x", "x", "$", REGEX));
+        // an optional group that did not take part is empty
+        assertEquals("<>", replace("x", "x(y)?", "<$1>", REGEX));
+        // a literal replacement is used as is
+        assertEquals("a\\nb", replace("x", "x", "a\\nb", MATCH_CASE));
+    }
+
+    @Test
+    void replacementsCoverEveryChunk() {
+        assertEquals(LARGE.replace(" temp ", " t "), replace(LARGE, "temp", "t", WHOLE_WORD));
+        assertEquals(LARGE.replace("alpha\nomega", "|"), replace(LARGE, "alpha\\nomega", "|", REGEX));
+    }
+
+    private static TextDocument.Snapshot snapshot(String text) {
+        return new TextDocument(text).snapshot();
+    }
+
+    private static List<TextSearch.Match> search(String text, String query, TextSearch.Options options) {
+        List<TextSearch.Match> ret = Collections.synchronizedList(new ArrayList<>());
+        TextSearch.Result result = TextSearch.search(snapshot(text), query, options, ret::addAll).join();
+        assertEquals(ret.size(), result.matches());
+        List<TextSearch.Match> sorted = new ArrayList<>(ret);
+        sorted.sort(Comparator.comparingInt(TextSearch.Match::offset));
+        return sorted;
+    }
+
+    private static String replace(String text, String query, String replacement, TextSearch.Options options) {
+        List<TextSearch.Edit> edits = TextSearch.replacements(snapshot(text), query, replacement, options).join();
+        StringBuilder sb = new StringBuilder(text.length());
+        int copied = 0;
+        for (TextSearch.Edit edit : edits) {
+            assertTrue(edit.offset() >= copied, "edits out of order");
+            sb.append(text, copied, edit.offset()).append(edit.text());
+            copied = edit.offset() + edit.length();
+        }
+        return sb.append(text, copied, text.length()).toString();
+    }
+
+    private static String large() {
+        StringBuilder sb = new StringBuilder(LINES * 64);
+        for (int i = 0; i < LINES; i++) {
+            String line = String.format("omega %07d temperature temp tmp_temp", i);
+            sb.append(line).append(" ".repeat(58 - line.length())).append("alpha");
+            if (i < LINES - 1) sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,167 @@
+package org.integratedmodelling.klabeditor;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ValidationEngineTest {
+
+    private static final String URI = "file:///model.kim";
+
+    private record Result(int version, List<Marker> markers) {}
+
+    private final BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+
+    @Test
+    void editsWithinTheDelayAreValidatedOnce() throws Exception {
+        List<Integer> validated = new CopyOnWriteArrayList<>();
+        try (ValidationEngine engine = new ValidationEngine()) {
+            engine.setDelay(Duration.ofMillis(500));
+            engine.register("kim", (uri, snapshot, cancelled) -> {
+                validated.add(snapshot.getVersion());
+                return List.of(marker(snapshot));
+            });
+            ValidationEngine.Session session = engine.openSession(this::validated);
+            TextDocument doc = new TextDocument();
+            for (int i = 0; i < 5; i++) {
+                doc.insert(0, "x");
+                session.schedule(URI, "kim", doc.snapshot());
+            }
+            assertEquals(new Result(5, List.of(marker(doc.snapshot()))), next());
+            assertEquals(List.of(5), validated);
+            // nothing changed since
+            session.schedule(URI, "kim", doc.snapshot());
+            assertNull(results.poll(1, TimeUnit.SECONDS));
+            assertEquals(List.of(5), validated);
+        }
+    }
+
+    @Test
+    void editCancelsTheValidationInProgress() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean sawCancellation = new AtomicBoolean();
+        try (ValidationEngine engine = new ValidationEngine()) {
+            engine.setDelay(Duration.ZERO);
+            engine.register("kim", (uri, snapshot, cancelled) -> {
+                if (snapshot.getVersion() == 1) {
+                    started.countDown();
+                    try {
+                        Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                    } finally {
+                        sawCancellation.set(cancelled.getAsBoolean());
+                    }
+                }
+                return List.of(marker(snapshot));
+            });
+            ValidationEngine.Session session = engine.openSession(this::validated);
+            TextDocument doc = new TextDocument();
+            doc.insert(0, "a");
+            session.schedule(URI, "kim", doc.snapshot());
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            doc.insert(1, "b");
+            session.schedule(URI, "kim", doc.snapshot());
+            assertEquals(2, next().version());
+            assertTrue(sawCancellation.get());
+            assertNull(results.poll(500, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    void resultOfAVersionEditedMeanwhileIsDropped() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Thread> stale = new CompletableFuture<>();
+        try (ValidationEngine engine = new ValidationEngine()) {
+            engine.setDelay(Duration.ZERO);
+            engine.register("kim", (uri, snapshot, cancelled) -> {
+                if (snapshot.getVersion() == 1) {
+                    // a validator that ignores cancellation and interruption
+                    stale.complete(Thread.currentThread());
+                    started.countDown();
+                    while (true) {
+                        try {
+                            release.await();
+                            break;
+                        } catch (InterruptedException e) {
+                            // keep going
+                        }
+                    }
+                }
+                return List.of(marker(snapshot));
+            });
+            ValidationEngine.Session session = engine.openSession(this::validated);
+            TextDocument doc = new TextDocument();
+            doc.insert(0, "a");
+            session.schedule(URI, "kim", doc.snapshot());
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            doc.insert(1, "b");
+            session.schedule(URI, "kim", doc.snapshot());
+            assertEquals(2, next().version());
+
+            release.countDown();
+            stale.get().join(TimeUnit.SECONDS.toMillis(10));
+            assertNull(results.poll());
+        }
+    }
+
+    @Test
+    void blockedListenerDoesNotHoldUpEdits() throws Exception {
+        CountDownLatch delivering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (ValidationEngine engine = new ValidationEngine()) {
+            engine.setDelay(Duration.ZERO);
+            engine.register("kim", (uri, snapshot, cancelled) -> List.of(marker(snapshot)));
+            // e.g. a view waiting for room in its command queue while the FX thread reports an edit
+            ValidationEngine.Session session = engine.openSession((uri, version, markers) -> {
+                if (version == 1) {
+                    delivering.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                validated(uri, version, markers);
+            });
+            TextDocument doc = new TextDocument();
+            doc.insert(0, "a");
+            session.schedule(URI, "kim", doc.snapshot());
+            assertTrue(delivering.await(10, TimeUnit.SECONDS));
+            doc.insert(1, "b");
+            CompletableFuture.runAsync(() -> session.schedule(URI, "kim", doc.snapshot()))
+                    .get(10, TimeUnit.SECONDS);
+            release.countDown();
+            // in version order
+            assertEquals(1, next().version());
+            assertEquals(2, next().version());
+        }
+    }
+
+    private void validated(String uri, int version, List<Marker> markers) {
+        assertEquals(URI, uri);
+        results.add(new Result(version, markers));
+    }
+
+    private Result next() throws InterruptedException {
+        Result ret = results.poll(10, TimeUnit.SECONDS);
+        assertNotNull(ret, "no result");
+        return ret;
+    }
+
+    private static Marker marker(TextDocument.Snapshot snapshot) {
+        return Marker.atLine(1, "version " + snapshot.getVersion(), Marker.Severity.ERROR);
+    }
+}